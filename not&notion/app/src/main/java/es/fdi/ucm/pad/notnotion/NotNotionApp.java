@@ -0,0 +1,69 @@
+package es.fdi.ucm.pad.notnotion;
+
+import android.app.Application;
+import android.util.Log;
+
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.PersistentCacheIndexManager;
+import com.google.firebase.firestore.PersistentCacheSettings;
+
+import es.fdi.ucm.pad.notnotion.data.firebase.BlobStore;
+import es.fdi.ucm.pad.notnotion.data.firebase.FirestoreMeter;
+import es.fdi.ucm.pad.notnotion.data.firebase.LocalStore;
+import es.fdi.ucm.pad.notnotion.data.firebase.TrashPurgeJobService;
+import es.fdi.ucm.pad.notnotion.data.firebase.UserProfileRepository;
+import es.fdi.ucm.pad.notnotion.data.firebase.WriteOutbox;
+import es.fdi.ucm.pad.notnotion.data.search.NoteSearch;
+import es.fdi.ucm.pad.notnotion.ui.debug.FirestoreMeterOverlay;
+
+// Application de la app: configura Firestore antes de que cualquier pantalla lo use
+public class NotNotionApp extends Application {
+
+    private static final String TAG = "NotNotionApp";
+
+    // Tamaño máximo de la caché local de Firestore (carpetas, notas y eventos)
+    private static final long LOCAL_CACHE_SIZE_BYTES = 200L * 1024 * 1024;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        configureFirestore();
+        // Coste de Firestore por pantalla; sólo en builds depurables
+        FirestoreMeter.init(this);
+        if (FirestoreMeter.isEnabled()) {
+            registerActivityLifecycleCallbacks(new FirestoreMeterOverlay());
+        }
+        LocalStore.init(this);
+        BlobStore.init(this);
+        WriteOutbox.init(this);
+        UserProfileRepository.init(this);
+        NoteSearch.init(this);
+        // Borrado definitivo de lo caducado en la papelera, con el móvil inactivo y cargando
+        TrashPurgeJobService.schedule(this);
+    }
+
+    /**
+     * Activa la caché persistente (SQLite) de Firestore. Es la fuente de lectura
+     * local de los managers de data.firebase; Firestore la sincroniza en segundo plano.
+     * Debe llamarse antes de cualquier otra operación sobre FirebaseFirestore.
+     */
+    private void configureFirestore() {
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+
+        FirebaseFirestoreSettings settings = new FirebaseFirestoreSettings.Builder()
+                .setLocalCacheSettings(PersistentCacheSettings.newBuilder()
+                        .setSizeBytes(LOCAL_CACHE_SIZE_BYTES)
+                        .build())
+                .build();
+        db.setFirestoreSettings(settings);
+
+        // Índices locales para que las consultas sobre la caché no recorran toda la colección
+        PersistentCacheIndexManager indexManager = db.getPersistentCacheIndexManager();
+        if (indexManager != null) {
+            indexManager.enableIndexAutoCreation();
+        }
+
+        Log.d(TAG, "Firestore configurado con caché local persistente");
+    }
+}
@@ -19,8 +19,11 @@ import es.fdi.ucm.pad.notnotion.data.model.Folder;
 public class FoldersAdapter extends RecyclerView.Adapter<FoldersAdapter.FolderViewHolder> {
 
     private static final String TAG = "BUSQUEDA_DEBUG";
-    private List<Folder> folders = new ArrayList<>();
-    private List<Folder> fullList = new ArrayList<>();
+    private final List<Folder> folders = new ArrayList<>();
+    private final List<Folder> fullList = new ArrayList<>();
+    // Filtro por nombre en segundo plano (ver ListFilter)
+    private final ListFilter<Folder> filter =
+            new ListFilter<>(this, fullList, folders, Folder::getName, Folder::getId);
 
     // ------------------- CLICK NORMAL --------------------
     public interface OnFolderClickListener {
@@ -85,28 +88,92 @@ public class FoldersAdapter extends RecyclerView.Adapter<FoldersAdapter.FolderVi
     public void setFolders(List<Folder> list) {
         fullList.clear();
         folders.clear();
+        filter.clear();
 
         if (list != null) {
             fullList.addAll(list);
-            folders.addAll(list);
+            for (Folder f : list) {
+                if (filter.matches(f)) folders.add(f);
+            }
         }
 
         notifyDataSetChanged();
+        filter.invalidate();
     }
 
+    /**
+     * Filtra por nombre al dejar de escribir, fuera del hilo principal,
+     * y redibuja sólo las posiciones que cambian.
+     */
     public void filter(String text) {
-        folders.clear();
-        if (text == null || text.trim().isEmpty()) {
-            folders.addAll(fullList);
-        } else {
-            String q = text.toLowerCase();
-            for (Folder f : fullList) {
-                if (f.getName() != null && f.getName().toLowerCase().contains(q)) {
-                    folders.add(f);
-                }
+        filter(text, null);
+    }
+
+    /** Igual que filter(text); onFiltered se llama cuando ya se ve el resultado. */
+    public void filter(String text, Runnable onFiltered) {
+        filter.filter(text, onFiltered);
+    }
+
+    // ------------------- ACTUALIZACIONES INCREMENTALES --------------------
+
+    /**
+     * Inserta o actualiza una carpeta manteniendo el orden por nombre.
+     * Sólo notifica la posición afectada (insert / move / change / remove).
+     */
+    public void upsertFolder(Folder folder) {
+        int fullIdx = indexOf(fullList, folder.getId());
+        if (fullIdx >= 0) filter.forget(fullList.remove(fullIdx));
+        fullList.add(sortedPosition(fullList, folder), folder);
+        filter.invalidate();
+
+        int oldPos = indexOf(folders, folder.getId());
+        boolean visible = filter.matches(folder);
+
+        if (oldPos >= 0) {
+            folders.remove(oldPos);
+            if (!visible) {
+                notifyItemRemoved(oldPos);
+                return;
             }
+            int newPos = sortedPosition(folders, folder);
+            folders.add(newPos, folder);
+            if (newPos != oldPos) notifyItemMoved(oldPos, newPos);
+            notifyItemChanged(newPos);
+        } else if (visible) {
+            int newPos = sortedPosition(folders, folder);
+            folders.add(newPos, folder);
+            notifyItemInserted(newPos);
         }
-        notifyDataSetChanged();
+    }
+
+    public void removeFolder(String folderId) {
+        int fullIdx = indexOf(fullList, folderId);
+        if (fullIdx >= 0) filter.forget(fullList.remove(fullIdx));
+        filter.invalidate();
+
+        int pos = indexOf(folders, folderId);
+        if (pos >= 0) {
+            folders.remove(pos);
+            notifyItemRemoved(pos);
+        }
+    }
+
+    private static int indexOf(List<Folder> list, String folderId) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).getId().equals(folderId)) return i;
+        }
+        return -1;
+    }
+
+    private static int sortedPosition(List<Folder> list, Folder folder) {
+        String name = folder.getName() != null ? folder.getName() : "";
+        int pos = 0;
+        while (pos < list.size()) {
+            String other = list.get(pos).getName() != null ? list.get(pos).getName() : "";
+            if (other.compareToIgnoreCase(name) > 0) break;
+            pos++;
+        }
+        return pos;
     }
 
     static class FolderViewHolder extends RecyclerView.ViewHolder {
@@ -0,0 +1,254 @@
+package es.fdi.ucm.pad.notnotion.data.adapter;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import es.fdi.ucm.pad.notnotion.data.search.TextAnalyzer;
+import es.fdi.ucm.pad.notnotion.data.search.TrigramIndex;
+
+/**
+ * Filtro por texto de la lista de un adapter, fuera del hilo principal.
+ *
+ *  - Cada elemento guarda su texto ya normalizado (TextAnalyzer.normalize) al
+ *    entrar en la lista, así una pulsación no vuelve a pasar nada a minúsculas.
+ *  - filter() espera DEBOUNCE_MS a que se deje de escribir; una consulta nueva
+ *    (o un cambio en la lista) cancela la que esté en marcha.
+ *  - Además de los que contienen el texto tal cual, se muestran los
+ *    FUZZY_LIMIT más parecidos con alguna errata (ver TrigramIndex). El índice
+ *    de trigramas se construye una vez por versión de la lista y se reutiliza
+ *    en cada pulsación.
+ *  - El resultado se aplica con DiffUtil: sólo se redibujan las posiciones que
+ *    cambian, en lugar de notifyDataSetChanged().
+ *
+ * full y visible son las listas del adapter: este filtro sólo escribe en
+ * visible, y siempre desde el hilo principal.
+ */
+class ListFilter<T> {
+
+    private static final long DEBOUNCE_MS = 150;
+    // Cada cuántos elementos se comprueba si la consulta ya no vale
+    private static final int CANCEL_CHECK_EVERY = 256;
+    // Elementos con erratas que se añaden como mucho a los que coinciden exactamente
+    private static final int FUZZY_LIMIT = 20;
+
+    // Compartido por todos los adapters: sólo una consulta vale a la vez
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler main = new Handler(Looper.getMainLooper());
+
+    private final RecyclerView.Adapter<?> adapter;
+    private final List<T> full;
+    private final List<T> visible;
+    private final Function<T, String> textOf;
+    private final Function<T, String> idOf;
+
+    // Texto normalizado de cada elemento de full (por identidad: las notas no definen equals)
+    private final Map<T, String> keys = new IdentityHashMap<>();
+
+    private String query = "";
+    // Sube con cada consulta o cambio en la lista; un resultado con otra generación se descarta
+    private volatile int generation = 0;
+    // Consulta esperando a que pase DEBOUNCE_MS
+    private boolean scheduled = false;
+    // Consulta en el hilo de fondo, sin aplicar todavía
+    private boolean running = false;
+    @Nullable private Runnable onFiltered;
+
+    private final Runnable start = this::start;
+
+    // Sube con cada cambio en full; decide cuándo hay que copiar la lista de nuevo
+    private int listVersion = 0;
+    @Nullable private Snapshot<T> snapshot;
+
+    /** Copia de full para el hilo de fondo, con su índice de trigramas. */
+    private static final class Snapshot<T> {
+        final int version;
+        final List<T> items;
+        final String[] keys;
+        // Sólo se crea y se usa en executor
+        TrigramIndex trigrams;
+
+        Snapshot(int version, @NonNull List<T> items, @NonNull String[] keys) {
+            this.version = version;
+            this.items = items;
+            this.keys = keys;
+        }
+    }
+
+    ListFilter(@NonNull RecyclerView.Adapter<?> adapter,
+               @NonNull List<T> full,
+               @NonNull List<T> visible,
+               @NonNull Function<T, String> textOf,
+               @NonNull Function<T, String> idOf) {
+        this.adapter = adapter;
+        this.full = full;
+        this.visible = visible;
+        this.textOf = textOf;
+        this.idOf = idOf;
+    }
+
+    // ---------------------------------------------------------------
+    // Consulta
+    // ---------------------------------------------------------------
+
+    /**
+     * Filtra por text cuando se deje de escribir. onFiltered (opcional) se
+     * llama al aplicar el resultado.
+     */
+    void filter(@Nullable String text, @Nullable Runnable onFiltered) {
+        String normalized = text == null ? "" : TextAnalyzer.normalize(text.trim());
+        this.onFiltered = onFiltered;
+        main.removeCallbacks(start);
+        if (normalized.equals(query) && !scheduled && !running) {
+            if (onFiltered != null) onFiltered.run();
+            return;
+        }
+
+        query = normalized;
+        generation++;
+        scheduled = true;
+        main.postDelayed(start, DEBOUNCE_MS);
+    }
+
+    /**
+     * Si el elemento se ve con la consulta actual (para las actualizaciones
+     * sueltas). Las erratas se aceptan sin el límite de FUZZY_LIMIT.
+     */
+    boolean matches(@NonNull T item) {
+        if (query.isEmpty()) return true;
+        int maxEdits = TrigramIndex.maxEditsFor(query);
+        return TrigramIndex.substringDistance(query, keyOf(item), maxEdits) <= maxEdits;
+    }
+
+    // ---------------------------------------------------------------
+    // Cambios en la lista (los llama el adapter)
+    // ---------------------------------------------------------------
+
+    /** Texto normalizado del elemento, calculado la primera vez que se pide. */
+    @NonNull
+    String keyOf(@NonNull T item) {
+        String key = keys.get(item);
+        if (key == null) {
+            String text = textOf.apply(item);
+            key = text != null ? TextAnalyzer.normalize(text) : "";
+            keys.put(item, key);
+        }
+        return key;
+    }
+
+    void forget(@NonNull T item) {
+        keys.remove(item);
+        listVersion++;
+    }
+
+    void clear() {
+        keys.clear();
+        listVersion++;
+    }
+
+    /**
+     * La lista ha cambiado en el hilo principal: un resultado en marcha
+     * partía de otra lista, así que se repite. Si la consulta aún está
+     * esperando no hace falta: copiará la lista al empezar.
+     */
+    void invalidate() {
+        listVersion++;
+        if (scheduled || !running) return;
+        generation++;
+        main.post(start);
+    }
+
+    // ---------------------------------------------------------------
+
+    private void start() {
+        int gen = generation;
+        String q = query;
+        scheduled = false;
+        running = true;
+
+        // Copias para el hilo de fondo (referencias, sin calcular nada); full sólo si ha cambiado
+        if (snapshot == null || snapshot.version != listVersion) {
+            List<T> items = new ArrayList<>(full);
+            String[] itemKeys = new String[items.size()];
+            for (int i = 0; i < itemKeys.length; i++) itemKeys[i] = keyOf(items.get(i));
+            snapshot = new Snapshot<>(listVersion, items, itemKeys);
+        }
+        Snapshot<T> snap = snapshot;
+        List<T> before = new ArrayList<>(visible);
+
+        executor.execute(() -> {
+            int size = snap.items.size();
+            boolean[] selected = new boolean[size];
+            int exact = 0;
+            for (int i = 0; i < size; i++) {
+                if (i % CANCEL_CHECK_EVERY == 0 && gen != generation) return;
+                selected[i] = q.isEmpty() || snap.keys[i].contains(q);
+                if (selected[i]) exact++;
+            }
+
+            // Los más parecidos con erratas, a través de los trigramas (sin recorrer todo)
+            int maxEdits = TrigramIndex.maxEditsFor(q);
+            if (maxEdits > 0) {
+                if (snap.trigrams == null) snap.trigrams = new TrigramIndex(snap.keys);
+                if (gen != generation) return;
+                int added = 0;
+                for (TrigramIndex.Match match : snap.trigrams.search(q, maxEdits, exact + FUZZY_LIMIT)) {
+                    if (added == FUZZY_LIMIT) break;
+                    if (selected[match.position]) continue;
+                    selected[match.position] = true;
+                    added++;
+                }
+            }
+            if (gen != generation) return;
+
+            List<T> after = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                if (selected[i]) after.add(snap.items.get(i));
+            }
+
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override public int getOldListSize() { return before.size(); }
+                @Override public int getNewListSize() { return after.size(); }
+
+                @Override
+                public boolean areItemsTheSame(int oldPos, int newPos) {
+                    T a = before.get(oldPos);
+                    T b = after.get(newPos);
+                    String idA = idOf.apply(a);
+                    return idA != null ? Objects.equals(idA, idOf.apply(b)) : a == b;
+                }
+
+                // Las actualizaciones sustituyen el objeto y ya avisan al adapter
+                @Override
+                public boolean areContentsTheSame(int oldPos, int newPos) {
+                    return before.get(oldPos) == after.get(newPos);
+                }
+            }, false);
+
+            main.post(() -> apply(gen, after, diff));
+        });
+    }
+
+    private void apply(int gen, @NonNull List<T> after, @NonNull DiffUtil.DiffResult diff) {
+        if (gen != generation) return;
+        running = false;
+
+        visible.clear();
+        visible.addAll(after);
+        diff.dispatchUpdatesTo(adapter);
+        if (onFiltered != null) onFiltered.run();
+    }
+}
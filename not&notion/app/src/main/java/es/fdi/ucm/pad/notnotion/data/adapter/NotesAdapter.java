@@ -17,13 +17,18 @@ import java.util.ArrayList;
 import java.util.List;
 
 import es.fdi.ucm.pad.notnotion.R;
+import es.fdi.ucm.pad.notnotion.data.firebase.BlobStore;
 import es.fdi.ucm.pad.notnotion.data.model.Note;
+import es.fdi.ucm.pad.notnotion.data.model.NoteHeader;
 import es.fdi.ucm.pad.notnotion.utils.ImageHelper;
 
 public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHolder> {
 
-    private List<Note> notes = new ArrayList<>();
-    private List<Note> fullList = new ArrayList<>(); // Lista completa
+    private final List<Note> notes = new ArrayList<>();
+    private final List<Note> fullList = new ArrayList<>(); // Lista completa
+    // Filtro por título en segundo plano (ver ListFilter)
+    private final ListFilter<Note> filter =
+            new ListFilter<>(this, fullList, notes, Note::getTitle, Note::getId);
 
     // ------------------- CLICK NORMAL --------------------
     public interface OnNoteClickListener {
@@ -65,6 +70,7 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
 
         // Cargar imagen de portada si existe
         String coverUrl = note.getCoverImageUrl();
+        holder.coverImageView.setTag(null); // descarta cargas pendientes de BlobStore
 
         if (coverUrl != null && !coverUrl.isEmpty()) {
             // HAY PORTADA
@@ -73,8 +79,12 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
             holder.coverImageView.setVisibility(View.VISIBLE);
             holder.defaultIconView.setVisibility(View.GONE);
 
-            // Detectar si es Base64 o URL
-            if (ImageHelper.isValidBase64(coverUrl)) {
+            // Detectar si es referencia a BlobStore, Base64 o URL
+            if (BlobStore.isBlobRef(coverUrl)) {
+                BlobStore.getInstance().loadInto(holder.coverImageView, coverUrl,
+                        NoteHeader.THUMBNAIL_SIZE, R.drawable.icon_note);
+
+            } else if (ImageHelper.isValidBase64(coverUrl)) {
                 // Convertir a Bitmap
                 Bitmap bitmap = ImageHelper.convertBase64ToBitmap(coverUrl);
 
@@ -125,28 +135,96 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
     public void setNotes(List<Note> newNotes) {
         fullList.clear();
         notes.clear();
+        filter.clear();
 
         if (newNotes != null) {
             fullList.addAll(newNotes);
-            notes.addAll(newNotes);
+            fullList.sort(NotesAdapter::compareByTitle);
+            for (Note n : fullList) {
+                if (filter.matches(n)) notes.add(n);
+            }
         }
         notifyDataSetChanged();
+        filter.invalidate();
     }
 
     // ------------------- NUEVO filter -------------------
+
+    /**
+     * Filtra por título al dejar de escribir, fuera del hilo principal,
+     * y redibuja sólo las posiciones que cambian.
+     */
     public void filter(String text) {
-        notes.clear();
-        if (text == null || text.trim().isEmpty()) {
-            notes.addAll(fullList);
-        } else {
-            String q = text.toLowerCase();
-            for (Note n : fullList) {
-                if (n.getTitle() != null && n.getTitle().toLowerCase().contains(q)) {
-                    notes.add(n);
-                }
+        filter(text, null);
+    }
+
+    /** Igual que filter(text); onFiltered se llama cuando ya se ve el resultado. */
+    public void filter(String text, Runnable onFiltered) {
+        filter.filter(text, onFiltered);
+    }
+
+    // ------------------- ACTUALIZACIONES INCREMENTALES --------------------
+
+    /**
+     * Inserta o actualiza una nota manteniendo el orden por título.
+     * Sólo se redibuja la posición afectada.
+     */
+    public void upsertNote(Note note) {
+        int fullIdx = indexOf(fullList, note.getId());
+        if (fullIdx >= 0) filter.forget(fullList.remove(fullIdx));
+        fullList.add(sortedPosition(fullList, note), note);
+        filter.invalidate();
+
+        int oldPos = indexOf(notes, note.getId());
+        boolean visible = filter.matches(note);
+
+        if (oldPos >= 0) {
+            notes.remove(oldPos);
+            if (!visible) {
+                notifyItemRemoved(oldPos);
+                return;
             }
+            int newPos = sortedPosition(notes, note);
+            notes.add(newPos, note);
+            if (newPos != oldPos) notifyItemMoved(oldPos, newPos);
+            notifyItemChanged(newPos);
+        } else if (visible) {
+            int newPos = sortedPosition(notes, note);
+            notes.add(newPos, note);
+            notifyItemInserted(newPos);
         }
-        notifyDataSetChanged();
+    }
+
+    public void removeNote(String noteId) {
+        int fullIdx = indexOf(fullList, noteId);
+        if (fullIdx >= 0) filter.forget(fullList.remove(fullIdx));
+        filter.invalidate();
+
+        int pos = indexOf(notes, noteId);
+        if (pos >= 0) {
+            notes.remove(pos);
+            notifyItemRemoved(pos);
+        }
+    }
+
+    private static int indexOf(List<Note> list, String noteId) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).getId() != null && list.get(i).getId().equals(noteId)) return i;
+        }
+        return -1;
+    }
+
+    private static int sortedPosition(List<Note> list, Note note) {
+        int pos = 0;
+        while (pos < list.size() && compareByTitle(list.get(pos), note) <= 0) pos++;
+        return pos;
+    }
+
+    // Mismo orden que orderBy("title") en Firestore, para que las páginas se añadan al final
+    private static int compareByTitle(Note a, Note b) {
+        String ta = a.getTitle() != null ? a.getTitle() : "";
+        String tb = b.getTitle() != null ? b.getTitle() : "";
+        return ta.compareTo(tb);
     }
 
     static class NoteViewHolder extends RecyclerView.ViewHolder {
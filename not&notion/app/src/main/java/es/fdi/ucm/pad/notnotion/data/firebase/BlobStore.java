@@ -0,0 +1,509 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageReference;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import es.fdi.ucm.pad.notnotion.data.model.ContentBlock;
+import es.fdi.ucm.pad.notnotion.data.model.Note;
+
+/**
+ * Almacén de imágenes direccionado por contenido.
+ *
+ * Cada imagen se guarda una sola vez con su SHA-256 como nombre:
+ *  - en disco, en filesDir/blobs/{hash} (caché local, sobrevive a reinicios)
+ *  - en Firebase Storage, en users/{uid}/blobs/{hash}
+ *
+ * Las notas no guardan la imagen sino una referencia "blob:{hash}" (en
+ * ContentBlock.mediaUrl o en Note.coverImageUrl). Dos imágenes iguales
+ * producen el mismo hash y por tanto el mismo fichero.
+ *
+ * Las subidas pendientes se apuntan en SharedPreferences, por usuario, y se
+ * reintentan en el siguiente arranque (resumeUploads()) sólo si sigue
+ * siendo el mismo usuario.
+ */
+public class BlobStore {
+
+    private static final String TAG = "BlobStore";
+
+    public static final String REF_PREFIX = "blob:";
+
+    private static final String PREFS_NAME = "blob_store";
+    // Ambos guardan "{uid}/{hash}"
+    private static final String KEY_PENDING = "pending_uploads";
+    private static final String KEY_UPLOADED = "uploaded";
+
+    // Tamaño máximo de la caché en disco; las imágenes pendientes de subir no se borran
+    private static final long MAX_DISK_BYTES = 100L * 1024 * 1024;
+    // Tamaño máximo de una imagen descargada de Storage
+    private static final long MAX_DOWNLOAD_BYTES = 10L * 1024 * 1024;
+    // Se escribe aquí y se renombra: un fichero con nombre de hash siempre está completo
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static BlobStore instance;
+
+    private final File dir;
+    private final SharedPreferences prefs;
+    private final ExecutorService io = Executors.newSingleThreadExecutor();
+    private final Handler main = new Handler(Looper.getMainLooper());
+
+    // Bitmaps ya decodificados (clave: hash + tamaño pedido)
+    private final LruCache<String, Bitmap> memory;
+
+    private BlobStore(@NonNull Context context) {
+        Context app = context.getApplicationContext();
+        dir = new File(app.getFilesDir(), "blobs");
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "No se pudo crear el directorio de blobs");
+        }
+        prefs = app.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        int maxKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        memory = new LruCache<String, Bitmap>(maxKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount() / 1024;
+            }
+        };
+    }
+
+    // Se llama una vez desde NotNotionApp
+    public static synchronized void init(@NonNull Context context) {
+        if (instance == null) {
+            instance = new BlobStore(context);
+        }
+    }
+
+    public static BlobStore getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("BlobStore.init() no se ha llamado");
+        }
+        return instance;
+    }
+
+    // ---------------------------------------------------------------
+    // Referencias
+    // ---------------------------------------------------------------
+
+    public static boolean isBlobRef(@Nullable String value) {
+        return value != null && value.startsWith(REF_PREFIX);
+    }
+
+    public static String toRef(@NonNull String hash) {
+        return REF_PREFIX + hash;
+    }
+
+    public static String hashOf(@NonNull String ref) {
+        return ref.substring(REF_PREFIX.length());
+    }
+
+    // Imagen antigua guardada en línea (ni referencia ni URL)
+    private static boolean isInlineBase64(@Nullable String value) {
+        return value != null && !value.isEmpty() && !isBlobRef(value)
+                && !value.startsWith("http") && !value.startsWith("content:")
+                && !value.startsWith("file:");
+    }
+
+    // ---------------------------------------------------------------
+    // Escritura
+    // ---------------------------------------------------------------
+
+    /**
+     * Guarda los bytes en disco y programa su subida. Devuelve la referencia "blob:{hash}".
+     * Es síncrono (hash + escritura en disco): llamar fuera del hilo principal si la imagen es grande.
+     */
+    @NonNull
+    public String put(@NonNull byte[] bytes) {
+        String hash = sha256(bytes);
+        File file = fileFor(hash);
+
+        if (!file.exists()) {
+            writeFile(file, bytes);
+        } else {
+            Log.d(TAG, "Blob ya existente, no se duplica: " + hash);
+        }
+
+        upload(hash);
+        return toRef(hash);
+    }
+
+    private void upload(@NonNull String hash) {
+        StorageReference ref = remoteRef(hash);
+        if (ref == null) return;
+        // Se fija el usuario ahora: la subida puede terminar después de cerrar sesión
+        String key = uploadedKey(hash);
+        if (uploaded().contains(key)) return;
+
+        markPending(key, true);
+
+        // Si ya está en Storage (misma imagen en otra nota u otro dispositivo) no se vuelve a subir
+        ref.getMetadata()
+                .addOnSuccessListener(meta -> markUploaded(key))
+                .addOnFailureListener(e -> {
+                    if (!(e instanceof StorageException)
+                            || ((StorageException) e).getErrorCode() != StorageException.ERROR_OBJECT_NOT_FOUND) {
+                        Log.w(TAG, "No se pudo comprobar blob " + hash + ", se reintentará", e);
+                        return;
+                    }
+                    io.execute(() -> {
+                        File file = fileFor(hash);
+                        byte[] bytes = readFile(file);
+                        if (bytes == null) {
+                            Log.e(TAG, "Blob pendiente sin copia local: " + hash);
+                            markPending(key, false);
+                            return;
+                        }
+                        // Nunca se sube con el nombre de un hash un contenido que no le corresponde
+                        if (!sha256(bytes).equals(hash)) {
+                            Log.e(TAG, "Blob local corrupto, no se sube: " + hash);
+                            if (!file.delete()) Log.w(TAG, "No se pudo borrar " + file);
+                            markPending(key, false);
+                            return;
+                        }
+                        ref.putBytes(bytes)
+                                .addOnSuccessListener(task -> markUploaded(key))
+                                .addOnFailureListener(err -> Log.w(TAG, "Subida fallida de " + hash + ", se reintentará", err));
+                    });
+                });
+    }
+
+    /**
+     * Reintenta las subidas que quedaron pendientes en ejecuciones anteriores
+     * del usuario actual. Las de otros usuarios esperan a que vuelvan a entrar.
+     */
+    public void resumeUploads() {
+        String prefix = uploadedKey("");
+        for (String key : pendingKeys()) {
+            if (key.startsWith(prefix)) upload(key.substring(prefix.length()));
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Lectura
+    // ---------------------------------------------------------------
+
+    /**
+     * Devuelve el Bitmap de una referencia, reducido para que su lado mayor
+     * no pase de maxSize (0 = tamaño original). Orden: memoria → disco → Storage.
+     * El callback llega en el hilo principal; null si la imagen no está disponible.
+     */
+    public void load(@NonNull String ref, int maxSize, @NonNull OnSuccessListener<Bitmap> listener) {
+        String hash = hashOf(ref);
+        String key = hash + "@" + maxSize;
+
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            listener.onSuccess(cached);
+            return;
+        }
+
+        io.execute(() -> {
+            File file = fileFor(hash);
+            if (file.exists()) {
+                file.setLastModified(System.currentTimeMillis());
+                Bitmap bitmap = decode(file, maxSize);
+                deliver(key, bitmap, listener);
+                return;
+            }
+
+            StorageReference remote = remoteRef(hash);
+            if (remote == null) {
+                deliver(key, null, listener);
+                return;
+            }
+
+            remote.getBytes(MAX_DOWNLOAD_BYTES)
+                    .addOnSuccessListener(bytes -> io.execute(() -> {
+                        writeFile(file, bytes);
+                        markUploaded(uploadedKey(hash));
+                        trimDisk();
+                        deliver(key, decode(file, maxSize), listener);
+                    }))
+                    .addOnFailureListener(e -> {
+                        Log.e(TAG, "Error descargando blob " + hash, e);
+                        deliver(key, null, listener);
+                    });
+        });
+    }
+
+    /**
+     * Carga la imagen en el ImageView. Si el ImageView se recicla para otra
+     * imagen antes de que termine la carga, el resultado se descarta.
+     */
+    public void loadInto(@NonNull ImageView view, @NonNull String ref, int maxSize, int fallbackRes) {
+        view.setTag(ref);
+        load(ref, maxSize, bitmap -> {
+            if (!ref.equals(view.getTag())) return;
+            if (bitmap != null) {
+                view.setImageBitmap(bitmap);
+            } else {
+                view.setImageResource(fallbackRes);
+            }
+        });
+    }
+
+    /**
+     * Bytes originales de una referencia: de disco si están, si no de Storage.
+     * No pasa por las cachés (lo usa la exportación, que recorre todas las imágenes).
+     * Bloquea el hilo: no llamar desde el hilo principal.
+     */
+    @WorkerThread
+    @Nullable
+    public byte[] readBytes(@NonNull String ref) {
+        String hash = hashOf(ref);
+        byte[] local = readFile(fileFor(hash));
+        if (local != null) return local;
+
+        StorageReference remote = remoteRef(hash);
+        if (remote == null) return null;
+        try {
+            return Tasks.await(remote.getBytes(MAX_DOWNLOAD_BYTES));
+        } catch (ExecutionException | InterruptedException e) {
+            Log.e(TAG, "Error descargando blob " + hash, e);
+            return null;
+        }
+    }
+
+    private void deliver(String key, @Nullable Bitmap bitmap, OnSuccessListener<Bitmap> listener) {
+        if (bitmap != null) memory.put(key, bitmap);
+        main.post(() -> listener.onSuccess(bitmap));
+    }
+
+    // ---------------------------------------------------------------
+    // Migración de notas antiguas (Base64 en el documento)
+    // ---------------------------------------------------------------
+
+    /**
+     * Pasa a blobs las imágenes Base64 de la nota (portada y bloques de imagen),
+     * sustituyéndolas por referencias. El callback (hilo principal) recibe true
+     * si la nota ha cambiado y hay que guardarla.
+     */
+    public void migrateInlineImages(@NonNull Note note, @NonNull OnSuccessListener<Boolean> done) {
+        io.execute(() -> {
+            boolean changed = false;
+
+            String cover = note.getCoverImageUrl();
+            if (isInlineBase64(cover)) {
+                String ref = putBase64(cover);
+                if (ref != null) {
+                    note.setCoverImageUrl(ref);
+                    changed = true;
+                }
+            }
+
+            List<ContentBlock> blocks = note.getContentBlocks();
+            if (blocks != null) {
+                for (ContentBlock block : blocks) {
+                    if (block.getType() != ContentBlock.TYPE_IMAGE || !isInlineBase64(block.getMediaUrl())) {
+                        continue;
+                    }
+                    String ref = putBase64(block.getMediaUrl());
+                    if (ref != null) {
+                        block.setMediaUrl(ref);
+                        changed = true;
+                    }
+                }
+            }
+
+            final boolean result = changed;
+            if (result) Log.d(TAG, "Nota " + note.getId() + " migrada a blobs");
+            main.post(() -> done.onSuccess(result));
+        });
+    }
+
+    @Nullable
+    private String putBase64(@NonNull String base64) {
+        try {
+            return put(Base64.decode(base64, Base64.DEFAULT));
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Imagen Base64 no válida, se deja como está");
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Utilidades
+    // ---------------------------------------------------------------
+
+    private File fileFor(@NonNull String hash) {
+        return new File(dir, hash);
+    }
+
+    @Nullable
+    private StorageReference remoteRef(@NonNull String hash) {
+        String uid = FirebaseAuth.getInstance().getCurrentUser() != null
+                ? FirebaseAuth.getInstance().getCurrentUser().getUid() : null;
+        if (uid == null) {
+            Log.e(TAG, "No hay usuario autenticado");
+            return null;
+        }
+        return FirebaseStorage.getInstance().getReference()
+                .child("users").child(uid).child("blobs").child(hash);
+    }
+
+    private Set<String> uploaded() {
+        return prefs.getStringSet(KEY_UPLOADED, new HashSet<>());
+    }
+
+    // Subidas hechas y pendientes se apuntan por usuario: cada uno tiene su propia carpeta en Storage
+    private static String uploadedKey(@NonNull String hash) {
+        String uid = FirebaseAuth.getInstance().getCurrentUser() != null
+                ? FirebaseAuth.getInstance().getCurrentUser().getUid() : "";
+        return uid + "/" + hash;
+    }
+
+    /**
+     * Claves pendientes ("{uid}/{hash}"). Las de versiones anteriores, sólo
+     * con el hash, no dicen de quién son: se descartan en vez de subirlas
+     * a la carpeta de quien tenga ahora la sesión.
+     */
+    private synchronized Set<String> pendingKeys() {
+        Set<String> set = new HashSet<>(prefs.getStringSet(KEY_PENDING, new HashSet<>()));
+        Set<String> valid = new HashSet<>();
+        for (String key : set) {
+            if (key.indexOf('/') > 0) valid.add(key);
+        }
+        if (valid.size() != set.size()) {
+            Log.w(TAG, "Descartadas " + (set.size() - valid.size()) + " subidas pendientes sin usuario");
+            prefs.edit().putStringSet(KEY_PENDING, valid).apply();
+        }
+        return valid;
+    }
+
+    private synchronized void markUploaded(@NonNull String key) {
+        Set<String> done = new HashSet<>(uploaded());
+        done.add(key);
+        Set<String> pending = new HashSet<>(prefs.getStringSet(KEY_PENDING, new HashSet<>()));
+        pending.remove(key);
+        prefs.edit().putStringSet(KEY_UPLOADED, done).putStringSet(KEY_PENDING, pending).apply();
+    }
+
+    private synchronized void markPending(@NonNull String key, boolean pending) {
+        Set<String> set = new HashSet<>(prefs.getStringSet(KEY_PENDING, new HashSet<>()));
+        if (pending) set.add(key); else set.remove(key);
+        prefs.edit().putStringSet(KEY_PENDING, set).apply();
+    }
+
+    // Borra las imágenes menos usadas si la caché supera el límite (nunca las pendientes, de ningún usuario)
+    private void trimDisk() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        long total = 0;
+        for (File f : files) total += f.length();
+        if (total <= MAX_DISK_BYTES) return;
+
+        Set<String> pending = new HashSet<>();
+        for (String key : prefs.getStringSet(KEY_PENDING, new HashSet<>())) {
+            pending.add(key.substring(key.indexOf('/') + 1));
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : files) {
+            if (total <= MAX_DISK_BYTES) break;
+            if (pending.contains(f.getName())) continue;
+            long size = f.length();
+            if (f.delete()) total -= size;
+        }
+    }
+
+    @Nullable
+    private static Bitmap decode(@NonNull File file, int maxSize) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        if (maxSize > 0) {
+            int sample = 1;
+            while (Math.max(bounds.outWidth, bounds.outHeight) / (sample * 2) >= maxSize) {
+                sample *= 2;
+            }
+            opts.inSampleSize = sample;
+        }
+        return BitmapFactory.decodeFile(file.getPath(), opts);
+    }
+
+    @Nullable
+    private static byte[] readFile(@NonNull File file) {
+        if (!file.exists()) return null;
+        byte[] bytes = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            return bytes;
+        } catch (IOException e) {
+            Log.e(TAG, "Error leyendo blob " + file.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Escribe en un temporal y lo renombra al final: si la escritura se corta
+     * (disco lleno, proceso matado) no queda un fichero a medias con el nombre
+     * del hash, que se daría por bueno y se subiría.
+     */
+    private static void writeFile(@NonNull File file, @NonNull byte[] bytes) {
+        File tmp = new File(file.getPath() + TMP_SUFFIX);
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(bytes);
+                out.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) throw new IOException("No se pudo renombrar " + tmp.getName());
+        } catch (IOException e) {
+            Log.e(TAG, "Error guardando blob " + file.getName(), e);
+            if (tmp.exists() && !tmp.delete()) Log.w(TAG, "No se pudo borrar " + tmp.getName());
+        }
+    }
+
+    @NonNull
+    private static String sha256(@NonNull byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 está garantizado en Android
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,30 +1,71 @@
 package es.fdi.ucm.pad.notnotion.data.firebase;
 
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
 
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import es.fdi.ucm.pad.notnotion.data.model.CalendarEvent;
+import es.fdi.ucm.pad.notnotion.utils.RecurrenceRule;
 
 public class CalendarEventsManager {
 
     private final FirebaseFirestore db;
     private final FirebaseAuth auth;
 
+    // --- Caché de eventos por mes (compartida por todas las instancias) ---
+    // Clave "uid/año-mes". Se invalida al crear, editar o borrar eventos de ese mes.
+    private static final long MONTH_CACHE_TTL_MS = 5 * 60_000;
+
+    private static final Map<String, List<CalendarEvent>> monthCache = new HashMap<>();
+    private static final Map<String, Long> monthLoadedAt = new HashMap<>();
+    private static final Map<String, List<OnSuccessListener<List<CalendarEvent>>>> monthInFlight = new HashMap<>();
+    // Mes en el que está cacheado cada evento (para invalidar al moverlo de fecha)
+    private static final Map<String, String> eventMonth = new HashMap<>();
+
+    // --- Eventos que se repiten (ver RecurrenceRule) ---
+    // La consulta por mes no los ve si empezaron antes, así que se cargan aparte
+    // (clave uid). Sus repeticiones se calculan por evento y por mes y se guardan
+    // ya repartidas por día: pedir un día no vuelve a recorrer ninguna serie.
+    private static final Map<String, List<CalendarEvent>> recurringCache = new HashMap<>();
+    private static final Map<String, Long> recurringLoadedAt = new HashMap<>();
+    private static final Map<String, List<OnSuccessListener<List<CalendarEvent>>>> recurringInFlight = new HashMap<>();
+    private static final Set<String> recurringIds = new HashSet<>();
+    // Clave "id|patrón|inicio|mes" → inicios de las repeticiones en ese mes
+    private static final LruCache<String, long[]> expansionCache = new LruCache<>(512);
+    // Clave del mes → día del mes → eventos de ese día (sueltos y repeticiones)
+    private static final Map<String, Map<Integer, List<CalendarEvent>>> monthDays = new HashMap<>();
+
     public CalendarEventsManager() {
         db = FirebaseFirestore.getInstance();
         auth = FirebaseAuth.getInstance();
     }
 
+    // Clave del evento en WriteOutbox
+    private static String outboxKey(@NonNull String eventId) {
+        return "events/" + eventId;
+    }
+
     private String getUserEventsPath() {
         String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
         if (uid == null) {
@@ -34,6 +75,291 @@ public class CalendarEventsManager {
         return "users/" + uid + "/events";
     }
 
+    // ---------------------------------------------------------------
+    // Consultas por rango de fechas (mes a mes)
+    // ---------------------------------------------------------------
+
+    private String monthKey(int year, int month) {
+        String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : "";
+        return uid + "/" + year + "-" + month;
+    }
+
+    private String monthKeyOf(Timestamp date) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date.toDate());
+        return monthKey(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH));
+    }
+
+    private static Calendar startOfMonth(int year, int month) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, 1, 0, 0, 0);
+        return cal;
+    }
+
+    /**
+     * Eventos cuyo startDate cae en el mes indicado (month empieza en 0, como Calendar).
+     * Consulta por rango sobre startDate; el resultado queda en memoria.
+     */
+    public void getEventsForMonth(int year, int month, OnSuccessListener<List<CalendarEvent>> listener) {
+        String path = getUserEventsPath();
+        if (path == null) return;
+
+        String key = monthKey(year, month);
+
+        Long loadedAt = monthLoadedAt.get(key);
+        List<CalendarEvent> cached = monthCache.get(key);
+        if (cached != null && loadedAt != null
+                && SystemClock.elapsedRealtime() - loadedAt < MONTH_CACHE_TTL_MS) {
+            listener.onSuccess(new ArrayList<>(cached));
+            return;
+        }
+
+        // Si el mes ya se está pidiendo, esperar a esa misma consulta
+        List<OnSuccessListener<List<CalendarEvent>>> waiting = monthInFlight.get(key);
+        if (waiting != null) {
+            waiting.add(listener);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(listener);
+        monthInFlight.put(key, waiting);
+
+        Calendar from = startOfMonth(year, month);
+        Calendar to = startOfMonth(year, month);
+        to.add(Calendar.MONTH, 1);
+
+        Query query = db.collection(path)
+                .whereGreaterThanOrEqualTo("startDate", new Timestamp(from.getTime()))
+                .whereLessThan("startDate", new Timestamp(to.getTime()))
+                .orderBy("startDate");
+
+        LocalStore.get(query, path + "?month=" + key, snapshot -> {
+            List<CalendarEvent> events = new ArrayList<>();
+            for (QueryDocumentSnapshot doc : snapshot) {
+                CalendarEvent ev = SchemaMigrations.readEvent(doc);
+                events.add(ev);
+                eventMonth.put(ev.getId(), key);
+            }
+
+            monthCache.put(key, events);
+            monthLoadedAt.put(key, SystemClock.elapsedRealtime());
+
+            List<OnSuccessListener<List<CalendarEvent>>> listeners = monthInFlight.remove(key);
+            if (listeners == null) return;
+            for (OnSuccessListener<List<CalendarEvent>> l : listeners) {
+                l.onSuccess(new ArrayList<>(events));
+            }
+        }, e -> {
+            Log.e("Firestore", "Error al obtener eventos del mes", e);
+            releaseInFlight(monthInFlight, key, monthCache.get(key));
+        });
+    }
+
+    /**
+     * La lectura ha fallado: se suelta la clave para que la próxima petición lo
+     * vuelva a intentar, y quien esperaba recibe lo último que hubiera en
+     * memoria (o nada) en lugar de quedarse sin respuesta.
+     */
+    private static void releaseInFlight(@NonNull Map<String, List<OnSuccessListener<List<CalendarEvent>>>> inFlight,
+                                        @NonNull String key,
+                                        @Nullable List<CalendarEvent> fallback) {
+        List<OnSuccessListener<List<CalendarEvent>>> listeners = inFlight.remove(key);
+        if (listeners == null) return;
+        for (OnSuccessListener<List<CalendarEvent>> l : listeners) {
+            l.onSuccess(fallback != null ? new ArrayList<>(fallback) : new ArrayList<>());
+        }
+    }
+
+    /**
+     * Eventos con repetición del usuario, empiecen cuando empiecen.
+     * Mismo esquema de caché que los meses.
+     */
+    private void getRecurringEvents(OnSuccessListener<List<CalendarEvent>> listener) {
+        String path = getUserEventsPath();
+        if (path == null) return;
+
+        String key = auth.getCurrentUser().getUid();
+
+        List<CalendarEvent> cached = recurringCache.get(key);
+        if (cached != null && isFresh(recurringLoadedAt.get(key))) {
+            listener.onSuccess(cached);
+            return;
+        }
+
+        List<OnSuccessListener<List<CalendarEvent>>> waiting = recurringInFlight.get(key);
+        if (waiting != null) {
+            waiting.add(listener);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(listener);
+        recurringInFlight.put(key, waiting);
+
+        LocalStore.get(db.collection(path).whereEqualTo("recurring", true), path + "?recurring", snapshot -> {
+            List<CalendarEvent> events = new ArrayList<>();
+            for (QueryDocumentSnapshot doc : snapshot) {
+                CalendarEvent ev = SchemaMigrations.readEvent(doc);
+                if (ruleOf(ev) == null) continue;
+                events.add(ev);
+                recurringIds.add(ev.getId());
+            }
+
+            recurringCache.put(key, events);
+            recurringLoadedAt.put(key, SystemClock.elapsedRealtime());
+
+            List<OnSuccessListener<List<CalendarEvent>>> listeners = recurringInFlight.remove(key);
+            if (listeners == null) return;
+            for (OnSuccessListener<List<CalendarEvent>> l : listeners) {
+                l.onSuccess(events);
+            }
+        }, e -> {
+            Log.e("Firestore", "Error al obtener eventos repetidos", e);
+            releaseInFlight(recurringInFlight, key, recurringCache.get(key));
+        });
+    }
+
+    /**
+     * Eventos de un día concreto, incluidas las repeticiones de los eventos
+     * periódicos. Se sirven desde el mes ya repartido por días en memoria.
+     */
+    public void getEventsForDay(long millis, OnSuccessListener<List<CalendarEvent>> listener) {
+        if (getUserEventsPath() == null) return;
+
+        Calendar day = Calendar.getInstance();
+        day.setTimeInMillis(millis);
+        int year = day.get(Calendar.YEAR);
+        int month = day.get(Calendar.MONTH);
+        int dayOfMonth = day.get(Calendar.DAY_OF_MONTH);
+        String key = monthKey(year, month);
+
+        Map<Integer, List<CalendarEvent>> days = monthDays.get(key);
+        if (days != null && isFresh(monthLoadedAt.get(key))
+                && isFresh(recurringLoadedAt.get(auth.getCurrentUser().getUid()))) {
+            listener.onSuccess(dayOf(days, dayOfMonth));
+            return;
+        }
+
+        getEventsForMonth(year, month, events -> getRecurringEvents(recurring -> {
+            Map<Integer, List<CalendarEvent>> built = splitByDay(year, month, key, events, recurring);
+            monthDays.put(key, built);
+            listener.onSuccess(dayOf(built, dayOfMonth));
+        }));
+    }
+
+    @NonNull
+    private static List<CalendarEvent> dayOf(@NonNull Map<Integer, List<CalendarEvent>> days, int dayOfMonth) {
+        List<CalendarEvent> list = days.get(dayOfMonth);
+        return list != null ? new ArrayList<>(list) : new ArrayList<>();
+    }
+
+    // Reparte por día los eventos sueltos del mes y las repeticiones que caen en él
+    @NonNull
+    private static Map<Integer, List<CalendarEvent>> splitByDay(int year, int month, @NonNull String key,
+                                                                @NonNull List<CalendarEvent> events,
+                                                                @NonNull List<CalendarEvent> recurring) {
+        Map<Integer, List<CalendarEvent>> days = new HashMap<>();
+        Calendar cal = Calendar.getInstance();
+
+        for (CalendarEvent ev : events) {
+            // Los periódicos salen de sus repeticiones (la primera incluida)
+            if (ev.getStartDate() == null || ruleOf(ev) != null) continue;
+            cal.setTime(ev.getStartDate().toDate());
+            addToDay(days, cal.get(Calendar.DAY_OF_MONTH), ev);
+        }
+
+        long from = startOfMonth(year, month).getTimeInMillis();
+        Calendar next = startOfMonth(year, month);
+        next.add(Calendar.MONTH, 1);
+        long to = next.getTimeInMillis();
+
+        for (CalendarEvent ev : recurring) {
+            for (long start : expand(ev, key, from, to)) {
+                cal.setTimeInMillis(start);
+                addToDay(days, cal.get(Calendar.DAY_OF_MONTH), ev.occurrenceAt(start));
+            }
+        }
+
+        for (List<CalendarEvent> list : days.values()) {
+            Collections.sort(list, (a, b) -> a.getStartDate().compareTo(b.getStartDate()));
+        }
+        return days;
+    }
+
+    private static void addToDay(@NonNull Map<Integer, List<CalendarEvent>> days, int day,
+                                 @NonNull CalendarEvent ev) {
+        List<CalendarEvent> list = days.get(day);
+        if (list == null) {
+            list = new ArrayList<>();
+            days.put(day, list);
+        }
+        list.add(ev);
+    }
+
+    // Repeticiones del evento en [from, to), cacheadas por evento y por ventana
+    @NonNull
+    private static long[] expand(@NonNull CalendarEvent ev, @NonNull String window, long from, long to) {
+        long dtstart = ev.getStartDate().toDate().getTime();
+        String key = ev.getId() + "|" + ev.getRecurrencePattern() + "|" + dtstart + "|" + window;
+
+        long[] cached = expansionCache.get(key);
+        if (cached != null) return cached;
+
+        RecurrenceRule rule = ruleOf(ev);
+        List<Long> list = rule != null ? rule.between(dtstart, from, to) : new ArrayList<>();
+        long[] result = new long[list.size()];
+        for (int i = 0; i < result.length; i++) result[i] = list.get(i);
+
+        expansionCache.put(key, result);
+        return result;
+    }
+
+    // Regla del evento, o null si no se repite (o el patrón no se entiende)
+    private static RecurrenceRule ruleOf(CalendarEvent ev) {
+        if (ev == null || !ev.isRecurring() || ev.getStartDate() == null) return null;
+        return RecurrenceRule.parse(ev.getRecurrencePattern());
+    }
+
+    private static boolean isFresh(Long loadedAt) {
+        return loadedAt != null && SystemClock.elapsedRealtime() - loadedAt < MONTH_CACHE_TTL_MS;
+    }
+
+    /**
+     * Carga en segundo plano el mes anterior y el siguiente al indicado.
+     */
+    public void prefetchAdjacentMonths(int year, int month) {
+        Calendar prev = startOfMonth(year, month);
+        prev.add(Calendar.MONTH, -1);
+        Calendar next = startOfMonth(year, month);
+        next.add(Calendar.MONTH, 1);
+
+        getEventsForMonth(prev.get(Calendar.YEAR), prev.get(Calendar.MONTH), events -> { });
+        getEventsForMonth(next.get(Calendar.YEAR), next.get(Calendar.MONTH), events -> { });
+    }
+
+    // Descarta de la caché el mes del evento (y el mes donde estaba antes, si ha cambiado).
+    // Si el evento se repite (o se repetía) caen también todos los meses ya repartidos.
+    private void invalidateMonthOf(@NonNull CalendarEvent event) {
+        if (event.isRecurring() || (event.getId() != null && recurringIds.remove(event.getId()))) {
+            recurringCache.clear();
+            recurringLoadedAt.clear();
+            monthDays.clear();
+        }
+        if (event.getId() != null) {
+            String previous = eventMonth.remove(event.getId());
+            if (previous != null) invalidateMonth(previous);
+        }
+        if (event.getStartDate() != null) {
+            invalidateMonth(monthKeyOf(event.getStartDate()));
+        }
+    }
+
+    private static void invalidateMonth(@NonNull String key) {
+        monthCache.remove(key);
+        monthLoadedAt.remove(key);
+        monthDays.remove(key);
+    }
+
     /**
      * Crea un nuevo evento en el calendario del usuario
      */
@@ -60,12 +386,11 @@ public class CalendarEventsManager {
                 Timestamp.now(),
                 Timestamp.now()
         );
+        invalidateMonthOf(event);
 
-        db.collection(path)
-                .document(eventId)
-                .set(event)
-                .addOnSuccessListener(aVoid -> Log.d("Firestore", "Evento creado correctamente"))
-                .addOnFailureListener(e -> Log.e("Firestore", "Error al crear evento", e));
+        WriteOutbox.getInstance().submit(outboxKey(eventId), "crear evento " + eventId, true,
+                () -> FirestoreMeter.write(1, db.collection(path).document(eventId).set(event)),
+                aVoid -> Log.d("Firestore", "Evento creado correctamente"));
     }
 
     /**
@@ -76,15 +401,14 @@ public class CalendarEventsManager {
         if (path == null) return;
 
         event.setUpdatedAt(Timestamp.now());
+        invalidateMonthOf(event);
 
-        db.collection(path)
-                .document(event.getId())
-                .set(event)
-                .addOnSuccessListener(aVoid -> {
+        WriteOutbox.getInstance().submit(outboxKey(event.getId()), "actualizar evento " + event.getId(), true,
+                () -> FirestoreMeter.write(1, db.collection(path).document(event.getId()).set(event)),
+                aVoid -> {
                     Log.d("Firestore", "Evento actualizado");
                     onComplete.run();
-                })
-                .addOnFailureListener(e -> Log.e("Firestore", "Error al actualizar evento", e));
+                });
     }
 
 
@@ -95,14 +419,14 @@ public class CalendarEventsManager {
         String path = getUserEventsPath();
         if (path == null) return;
 
-        db.collection(path)
-                .document(event.getId())
-                .delete()
-                .addOnSuccessListener(aVoid -> {
+        invalidateMonthOf(event);
+
+        WriteOutbox.getInstance().submit(outboxKey(event.getId()), "eliminar evento " + event.getId(), true,
+                () -> FirestoreMeter.write(1, db.collection(path).document(event.getId()).delete()),
+                aVoid -> {
                     Log.d("Firestore", "Evento eliminado");
                     onComplete.run();
-                })
-                .addOnFailureListener(e -> Log.e("Firestore", "Error al eliminar evento", e));
+                });
     }
 
     /**
@@ -112,10 +436,7 @@ public class CalendarEventsManager {
         String path = getUserEventsPath();
         if (path == null) return;
 
-        db.collection(path)
-                .get()
-                .addOnSuccessListener(listener)
-                .addOnFailureListener(e -> Log.e("Firestore", "Error al obtener eventos", e));
+        LocalStore.get(db.collection(path), path, listener, "Error al obtener eventos");
     }
 
     /**
@@ -125,30 +446,22 @@ public class CalendarEventsManager {
         String path = getUserEventsPath();
         if (path == null) return;
 
-        db.collection(path)
-                .whereEqualTo("noteId", noteId)
-                .get()
-                .addOnSuccessListener(listener)
-                .addOnFailureListener(e -> Log.e("Firestore", "Error al obtener eventos por nota", e));
+        LocalStore.get(db.collection(path).whereEqualTo("noteId", noteId), path + "?noteId=" + noteId,
+                listener, "Error al obtener eventos por nota");
     }
 
     public void getEventById(String eventId, OnSuccessListener<CalendarEvent> listener) {
         String path = getUserEventsPath();
         if (path == null) return;
 
-        db.collection(path)
-                .document(eventId)
-                .get()
-                .addOnSuccessListener(doc -> {
-                    if (doc.exists()) {
-                        CalendarEvent ev = doc.toObject(CalendarEvent.class);
-                        ev.setId(doc.getId());
-                        listener.onSuccess(ev);
-                    } else {
-                        Log.e("Firestore", "Evento no encontrado");
-                    }
-                })
-                .addOnFailureListener(e -> Log.e("Firestore", "Error al obtener evento", e));
+        LocalStore.get(db.collection(path).document(eventId), doc -> {
+            CalendarEvent ev = SchemaMigrations.readEvent(doc);
+            if (ev != null) {
+                listener.onSuccess(ev);
+            } else {
+                Log.e("Firestore", "Evento no encontrado");
+            }
+        }, "Error al obtener evento");
     }
 
 
@@ -159,11 +472,9 @@ public class CalendarEventsManager {
         String path = getUserEventsPath();
         if (path == null) return;
 
-        db.collection(path)
-                .whereGreaterThan("startDate", Timestamp.now())
-                .get()
-                .addOnSuccessListener(listener)
-                .addOnFailureListener(e -> Log.e("Firestore", "Error al obtener eventos futuros", e));
+        // "ahora" sólo avanza: un resultado completo anterior contiene al actual
+        LocalStore.get(db.collection(path).whereGreaterThan("startDate", Timestamp.now()), path + "?upcoming",
+                listener, "Error al obtener eventos futuros");
     }
 
     /**
@@ -177,14 +488,13 @@ public class CalendarEventsManager {
         event.setId(eventId);
         event.setCreatedAt(Timestamp.now());
         event.setUpdatedAt(Timestamp.now());
+        invalidateMonthOf(event);
 
-        db.collection(path)
-                .document(eventId)
-                .set(event)
-                .addOnSuccessListener(aVoid -> {
+        WriteOutbox.getInstance().submit(outboxKey(eventId), "crear evento " + eventId, true,
+                () -> FirestoreMeter.write(1, db.collection(path).document(eventId).set(event)),
+                aVoid -> {
                     Log.d("Firestore", "Evento creado correctamente con ID: " + eventId);
                     listener.onSuccess(eventId);
-                })
-                .addOnFailureListener(e -> Log.e("Firestore", "Error al crear evento", e));
+                });
     }
 }
@@ -11,6 +11,7 @@ import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -50,7 +51,7 @@ public class FirebaseFirestoreManager {
         data.put("lastLogin", Timestamp.now());
 
         // Si es la primera vez, añadimos createdAt
-        userRef.get().addOnSuccessListener(document -> {
+        FirestoreMeter.document(userRef.get()).addOnSuccessListener(document -> {
             if (!document.exists()) {
                 data.put("createdAt", Timestamp.now());
                 Map<String, Object> preferences = new HashMap<>();
@@ -59,7 +60,7 @@ public class FirebaseFirestoreManager {
                 data.put("preferences", preferences);
             }
 
-            userRef.set(data)
+            FirestoreMeter.write(1, userRef.set(data))
                     .addOnSuccessListener(aVoid ->
                             Log.d(TAG, "Usuario " + uid + " guardado/actualizado correctamente"))
                     .addOnFailureListener(e ->
@@ -78,8 +79,7 @@ public class FirebaseFirestoreManager {
             return;
         }
 
-        db.collection("users").document(uid)
-                .get()
+        FirestoreMeter.document(db.collection("users").document(uid).get())
                 .addOnSuccessListener(snapshot -> {
                     if (snapshot.exists()) {
                         User user = snapshot.toObject(User.class);
@@ -109,8 +109,7 @@ public class FirebaseFirestoreManager {
         prefs.put("language", language);
         prefs.put("theme", theme);
 
-        db.collection("users").document(uid)
-                .update("preferences", prefs)
+        FirestoreMeter.write(1, db.collection("users").document(uid).update("preferences", prefs))
                 .addOnSuccessListener(aVoid ->
                         Log.d(TAG, "Preferencias actualizadas correctamente"))
                 .addOnFailureListener(e ->
@@ -132,7 +131,7 @@ public class FirebaseFirestoreManager {
         preferences.put("theme", "light");
         data.put("preferences", preferences);
 
-        userRef.set(data).addOnSuccessListener(aVoid -> {
+        FirestoreMeter.write(1, userRef.set(data)).addOnSuccessListener(aVoid -> {
 
             String folderId = "root";
 
@@ -141,9 +140,9 @@ public class FirebaseFirestoreManager {
                     Timestamp.now(), Timestamp.now(), 0
             );
 
-            userRef.collection("folders")
-                    .document(folderId)
-                    .set(rootFolder)
+            WriteBatch batch = db.batch();
+            FoldersManager.putNewFolder(batch, userRef.collection("folders").document(folderId), rootFolder, 0);
+            FirestoreMeter.write(2, batch.commit())
                     .addOnSuccessListener(aVoid2 -> {
 
                         NotesManager notesManager = new NotesManager();
@@ -0,0 +1,529 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.AggregateQuerySnapshot;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.GeoPoint;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Contador de lecturas y escrituras de Firestore, para ver qué pantallas y qué
+ * métodos de data.firebase cuestan más.
+ *
+ * Cada llamada a Firestore del paquete pasa su Task (o su EventListener) por
+ * aquí. Se apunta, por punto de llamada (Clase.método) y por pantalla (la
+ * Activity visible): documentos leídos del servidor (lo que se factura),
+ * documentos servidos desde la caché local, escrituras, bytes aproximados de
+ * lo leído y latencia. Los datos se guardan por minutos durante una hora, así
+ * que se pueden consultar ventanas de 1, 15 y 60 minutos además del total.
+ *
+ * Sólo está activo en builds depurables: en release los métodos devuelven la
+ * Task sin tocarla. Lo muestra FirestoreMeterOverlay y se puede volcar a JSON
+ * con dumpReport().
+ */
+public final class FirestoreMeter {
+
+    private static final String TAG = "FirestoreMeter";
+
+    public static final int[] WINDOWS_MINUTES = {1, 15, 60};
+    private static final int BUCKETS = 60;
+    private static final long BUCKET_MS = 60_000;
+
+    // Firestore factura una lectura por cada 1000 entradas de índice en count()
+    private static final int COUNT_ENTRIES_PER_READ = 1000;
+
+    private static volatile boolean enabled = false;
+    private static volatile String screen = "(inicio)";
+    private static long startedAt;
+
+    private static final Map<String, Series> bySite = new HashMap<>();
+    private static final Map<String, Series> byScreen = new HashMap<>();
+    private static final Series total = new Series();
+
+    private FirestoreMeter() {}
+
+    // Se llama una vez desde NotNotionApp
+    public static void init(@NonNull Application app) {
+        enabled = (app.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        if (!enabled) return;
+
+        startedAt = SystemClock.elapsedRealtime();
+        app.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityResumed(@NonNull Activity activity) {
+                screen = activity.getClass().getSimpleName();
+            }
+
+            @Override public void onActivityCreated(@NonNull Activity a, @Nullable Bundle b) {}
+            @Override public void onActivityStarted(@NonNull Activity a) {}
+            @Override public void onActivityPaused(@NonNull Activity a) {}
+            @Override public void onActivityStopped(@NonNull Activity a) {}
+            @Override public void onActivitySaveInstanceState(@NonNull Activity a, @NonNull Bundle b) {}
+            @Override public void onActivityDestroyed(@NonNull Activity a) {}
+        });
+        Log.d(TAG, "Medición de Firestore activada");
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    @NonNull
+    public static String getScreen() {
+        return screen;
+    }
+
+    // ---------------------------------------------------------------
+    // Envoltorios (devuelven la misma Task)
+    // ---------------------------------------------------------------
+
+    /** Consulta: se factura un documento por resultado (mínimo uno) si viene del servidor. */
+    @NonNull
+    public static Task<QuerySnapshot> query(@NonNull Task<QuerySnapshot> task) {
+        if (!enabled) return task;
+        Call call = new Call();
+        task.addOnCompleteListener(t -> {
+            QuerySnapshot snapshot = t.isSuccessful() ? t.getResult() : null;
+            if (snapshot == null) {
+                call.fail();
+                return;
+            }
+            long bytes = 0;
+            for (DocumentSnapshot doc : snapshot.getDocuments()) bytes += estimateSize(doc);
+            if (snapshot.getMetadata().isFromCache()) {
+                call.record(0, snapshot.size(), 0, bytes);
+            } else {
+                call.record(Math.max(1, snapshot.size()), 0, 0, bytes);
+            }
+        });
+        return task;
+    }
+
+    /** Lectura de un documento (se factura aunque no exista). */
+    @NonNull
+    public static Task<DocumentSnapshot> document(@NonNull Task<DocumentSnapshot> task) {
+        if (!enabled) return task;
+        Call call = new Call();
+        task.addOnCompleteListener(t -> {
+            DocumentSnapshot doc = t.isSuccessful() ? t.getResult() : null;
+            if (doc == null) {
+                call.fail();
+                return;
+            }
+            boolean cache = doc.getMetadata().isFromCache();
+            call.record(cache ? 0 : 1, cache ? 1 : 0, 0, estimateSize(doc));
+        });
+        return task;
+    }
+
+    /** Agregación count(): una lectura por cada 1000 entradas contadas. */
+    @NonNull
+    public static Task<AggregateQuerySnapshot> count(@NonNull Task<AggregateQuerySnapshot> task) {
+        if (!enabled) return task;
+        Call call = new Call();
+        task.addOnCompleteListener(t -> {
+            if (!t.isSuccessful() || t.getResult() == null) {
+                call.fail();
+                return;
+            }
+            long entries = t.getResult().getCount();
+            call.record(Math.max(1, (entries + COUNT_ENTRIES_PER_READ - 1) / COUNT_ENTRIES_PER_READ), 0, 0, 0);
+        });
+        return task;
+    }
+
+    /**
+     * Escritura (set/update/delete o commit de un WriteBatch con documents operaciones).
+     * La Task termina cuando el servidor confirma; sin conexión la latencia lo incluye.
+     */
+    @NonNull
+    public static <T> Task<T> write(int documents, @NonNull Task<T> task) {
+        if (!enabled) return task;
+        Call call = new Call();
+        task.addOnCompleteListener(t -> {
+            if (t.isSuccessful()) {
+                call.record(0, 0, documents, 0);
+            } else {
+                call.fail();
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Listener de consulta: cada snapshot del servidor factura los documentos
+     * que cambian (el primero, todos los resultados). Se atribuye a la pantalla
+     * visible cuando llega, no a la que lo registró.
+     */
+    @NonNull
+    public static EventListener<QuerySnapshot> queryListener(@NonNull EventListener<QuerySnapshot> listener) {
+        if (!enabled) return listener;
+        String site = callSite();
+        return (snapshot, e) -> {
+            if (e != null) {
+                add(site, screen, 0, 0, 0, 0, 0, true);
+            } else if (snapshot != null) {
+                List<DocumentChange> changes = snapshot.getDocumentChanges();
+                long bytes = 0;
+                for (DocumentChange change : changes) bytes += estimateSize(change.getDocument());
+                if (snapshot.getMetadata().isFromCache()) {
+                    add(site, screen, 0, changes.size(), 0, bytes, 0, false);
+                } else if (!snapshot.getMetadata().hasPendingWrites()) {
+                    add(site, screen, changes.size(), 0, 0, bytes, 0, false);
+                }
+            }
+            listener.onEvent(snapshot, e);
+        };
+    }
+
+    @NonNull
+    public static EventListener<DocumentSnapshot> documentListener(@NonNull EventListener<DocumentSnapshot> listener) {
+        if (!enabled) return listener;
+        String site = callSite();
+        return (snapshot, e) -> {
+            if (e != null) {
+                add(site, screen, 0, 0, 0, 0, 0, true);
+            } else if (snapshot != null && !snapshot.getMetadata().hasPendingWrites()) {
+                boolean cache = snapshot.getMetadata().isFromCache();
+                add(site, screen, cache ? 0 : 1, cache ? 1 : 0, 0, estimateSize(snapshot), 0, false);
+            }
+            listener.onEvent(snapshot, e);
+        };
+    }
+
+    // Una llamada en curso: punto de llamada, pantalla e instante de inicio
+    private static final class Call {
+        final String site = callSite();
+        final String callScreen = screen;
+        final long start = SystemClock.elapsedRealtime();
+
+        void record(long reads, long cacheReads, long writes, long bytes) {
+            add(site, callScreen, reads, cacheReads, writes, bytes, SystemClock.elapsedRealtime() - start, false);
+        }
+
+        void fail() {
+            add(site, callScreen, 0, 0, 0, 0, SystemClock.elapsedRealtime() - start, true);
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Consulta de los datos
+    // ---------------------------------------------------------------
+
+    /** Totales de los últimos minutes minutos (0 = desde que arrancó la app). */
+    @NonNull
+    public static synchronized Stats getTotal(int minutes) {
+        return total.window(minutes);
+    }
+
+    /** Por punto de llamada, de más a menos lecturas. */
+    @NonNull
+    public static synchronized List<Map.Entry<String, Stats>> getBySite(int minutes) {
+        return sorted(bySite, minutes);
+    }
+
+    /** Por pantalla, de más a menos lecturas. */
+    @NonNull
+    public static synchronized List<Map.Entry<String, Stats>> getByScreen(int minutes) {
+        return sorted(byScreen, minutes);
+    }
+
+    /** Informe completo: ventanas de 1, 15 y 60 minutos y total de la sesión. */
+    @NonNull
+    public static synchronized JSONObject report() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("generatedAt", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US).format(new Date()));
+            json.put("sessionSeconds", (SystemClock.elapsedRealtime() - startedAt) / 1000);
+            json.put("currentScreen", screen);
+
+            JSONObject windows = new JSONObject();
+            for (int minutes : WINDOWS_MINUTES) {
+                windows.put(minutes + "m", windowJson(minutes));
+            }
+            windows.put("session", windowJson(0));
+            json.put("windows", windows);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error generando el informe", e);
+        }
+        return json;
+    }
+
+    /**
+     * Escribe report() en getExternalFilesDir("reports") y lo deja también en el log.
+     * @return el fichero escrito, o null si no se pudo
+     */
+    @Nullable
+    public static File dumpReport(@NonNull Context context) {
+        String text;
+        try {
+            text = report().toString(2);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error generando el informe", e);
+            return null;
+        }
+        Log.i(TAG, text);
+
+        File dir = context.getExternalFilesDir("reports");
+        if (dir == null || (!dir.exists() && !dir.mkdirs())) return null;
+        String name = "firestore-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".json";
+        File file = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "No se pudo guardar el informe", e);
+            return null;
+        }
+    }
+
+    /** Totales de una ventana. Los tiempos son en milisegundos. */
+    public static final class Stats {
+        long calls;
+        long failures;
+        long reads;
+        long cacheReads;
+        long writes;
+        long bytes;
+        long latencyTotal;
+        long latencyMax;
+        long timed;
+
+        public long getCalls() { return calls; }
+        public long getFailures() { return failures; }
+        /** Documentos leídos del servidor (facturados). */
+        public long getReads() { return reads; }
+        /** Documentos servidos desde la caché local (gratis). */
+        public long getCacheReads() { return cacheReads; }
+        public long getWrites() { return writes; }
+        /** Tamaño aproximado de lo leído, con la fórmula de tamaño de documento de Firestore. */
+        public long getBytes() { return bytes; }
+        public long getAverageLatency() { return timed == 0 ? 0 : latencyTotal / timed; }
+        public long getMaxLatency() { return latencyMax; }
+
+        void add(@NonNull Stats other) {
+            calls += other.calls;
+            failures += other.failures;
+            reads += other.reads;
+            cacheReads += other.cacheReads;
+            writes += other.writes;
+            bytes += other.bytes;
+            latencyTotal += other.latencyTotal;
+            latencyMax = Math.max(latencyMax, other.latencyMax);
+            timed += other.timed;
+        }
+
+        @NonNull
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("calls", calls);
+            json.put("failures", failures);
+            json.put("reads", reads);
+            json.put("cacheReads", cacheReads);
+            json.put("writes", writes);
+            json.put("bytes", bytes);
+            json.put("avgLatencyMs", getAverageLatency());
+            json.put("maxLatencyMs", latencyMax);
+            return json;
+        }
+    }
+
+    // ---------------------------------------------------------------
+
+    // Una hora de datos por minutos (anillo) más el total acumulado
+    private static final class Series {
+        final Stats[] buckets = new Stats[BUCKETS];
+        final long[] bucketMinute = new long[BUCKETS];
+        final Stats session = new Stats();
+
+        @NonNull
+        Stats bucket(long minute) {
+            int i = (int) (minute % BUCKETS);
+            if (buckets[i] == null || bucketMinute[i] != minute) {
+                buckets[i] = new Stats();
+                bucketMinute[i] = minute;
+            }
+            return buckets[i];
+        }
+
+        @NonNull
+        Stats window(int minutes) {
+            if (minutes <= 0) {
+                Stats copy = new Stats();
+                copy.add(session);
+                return copy;
+            }
+            long now = currentMinute();
+            Stats sum = new Stats();
+            for (int i = 0; i < BUCKETS; i++) {
+                if (buckets[i] != null && now - bucketMinute[i] < minutes) sum.add(buckets[i]);
+            }
+            return sum;
+        }
+    }
+
+    private static synchronized void add(@NonNull String site, @NonNull String callScreen,
+                                         long reads, long cacheReads, long writes, long bytes,
+                                         long latency, boolean failed) {
+        Stats one = new Stats();
+        one.calls = 1;
+        one.failures = failed ? 1 : 0;
+        one.reads = reads;
+        one.cacheReads = cacheReads;
+        one.writes = writes;
+        one.bytes = bytes;
+        if (latency > 0) {
+            one.latencyTotal = latency;
+            one.latencyMax = latency;
+            one.timed = 1;
+        }
+
+        long minute = currentMinute();
+        for (Series series : new Series[]{series(bySite, site), series(byScreen, callScreen), total}) {
+            series.bucket(minute).add(one);
+            series.session.add(one);
+        }
+    }
+
+    @NonNull
+    private static Series series(@NonNull Map<String, Series> map, @NonNull String key) {
+        Series series = map.get(key);
+        if (series == null) {
+            series = new Series();
+            map.put(key, series);
+        }
+        return series;
+    }
+
+    private static long currentMinute() {
+        return SystemClock.elapsedRealtime() / BUCKET_MS;
+    }
+
+    @NonNull
+    private static List<Map.Entry<String, Stats>> sorted(@NonNull Map<String, Series> map, int minutes) {
+        List<Map.Entry<String, Stats>> list = new ArrayList<>();
+        for (Map.Entry<String, Series> e : map.entrySet()) {
+            Stats stats = e.getValue().window(minutes);
+            if (stats.calls > 0) list.add(new AbstractMap.SimpleEntry<>(e.getKey(), stats));
+        }
+        list.sort((a, b) -> {
+            int byReads = Long.compare(b.getValue().reads, a.getValue().reads);
+            return byReads != 0 ? byReads : Long.compare(b.getValue().writes, a.getValue().writes);
+        });
+        return list;
+    }
+
+    @NonNull
+    private static JSONObject windowJson(int minutes) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("total", total.window(minutes).toJson());
+        json.put("bySite", entriesJson(sorted(bySite, minutes)));
+        json.put("byScreen", entriesJson(sorted(byScreen, minutes)));
+        return json;
+    }
+
+    @NonNull
+    private static JSONArray entriesJson(@NonNull List<Map.Entry<String, Stats>> entries) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Map.Entry<String, Stats> e : entries) {
+            JSONObject item = e.getValue().toJson();
+            item.put("name", e.getKey());
+            array.put(item);
+        }
+        return array;
+    }
+
+    /**
+     * Clase.método del primer marco de la pila fuera de las clases de
+     * infraestructura. Las lambdas (p. ej. las escrituras de WriteOutbox)
+     * se atribuyen al método que las creó.
+     */
+    @NonNull
+    private static String callSite() {
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            String cls = frame.getClassName();
+            if (!cls.startsWith("es.fdi.ucm.pad.notnotion")) continue;
+            if (cls.startsWith(FirestoreMeter.class.getName())
+                    || cls.startsWith(LocalStore.class.getName())
+                    || cls.startsWith(WriteOutbox.class.getName())) continue;
+
+            String simple = cls.substring(cls.lastIndexOf('.') + 1);
+            int inner = simple.indexOf('$');
+            if (inner > 0) simple = simple.substring(0, inner);
+
+            String method = frame.getMethodName();
+            if (method.startsWith("lambda$")) {
+                int end = method.indexOf('$', 7);
+                method = end > 7 ? method.substring(7, end) : method.substring(7);
+            }
+            return simple + "." + method;
+        }
+        return "(desconocido)";
+    }
+
+    // ---------------------------------------------------------------
+    // Tamaño de documento según la fórmula de Firestore (aproximado)
+    // ---------------------------------------------------------------
+
+    private static long estimateSize(@NonNull DocumentSnapshot doc) {
+        long size = doc.getReference().getPath().length() + 1 + 16;
+        Map<String, Object> data = doc.getData();
+        if (data != null) size += estimateMap(data);
+        return size;
+    }
+
+    private static long estimateMap(@NonNull Map<?, ?> map) {
+        long size = 0;
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+            size += String.valueOf(e.getKey()).length() + 1 + estimateValue(e.getValue());
+        }
+        return size;
+    }
+
+    private static long estimateValue(@Nullable Object value) {
+        if (value == null || value instanceof Boolean) return 1;
+        if (value instanceof Number || value instanceof Timestamp || value instanceof Date) return 8;
+        if (value instanceof String) return ((String) value).length() + 1;
+        if (value instanceof GeoPoint) return 16;
+        if (value instanceof DocumentReference) return ((DocumentReference) value).getPath().length() + 1;
+        if (value instanceof Map) return estimateMap((Map<?, ?>) value);
+        if (value instanceof List) {
+            long size = 0;
+            for (Object item : (List<?>) value) size += estimateValue(item);
+            return size;
+        }
+        return 8;
+    }
+}
@@ -0,0 +1,255 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import es.fdi.ucm.pad.notnotion.data.model.Folder;
+
+/**
+ * Borrado recursivo de carpetas en lotes.
+ *
+ * 1) Se recoge todo el subárbol de carpetas desde FolderTree (sin consultas),
+ *    o con una sola consulta en deleteDetached() para los trabajos en segundo plano.
+ * 2) Se leen en paralelo las notas de cada carpeta.
+ * 3) Se borra todo con WriteBatch de hasta 500 operaciones, enviados en paralelo.
+ *
+ * Antes de empezar, los ids de las carpetas se guardan en SharedPreferences
+ * con la clave {uid}/{folderId}; si la app muere a mitad, resumePending() vuelve
+ * a lanzar el borrado de lo que quede, sólo con los trabajos del usuario actual.
+ * Borrar es idempotente, así que repetir lotes ya aplicados no es un problema.
+ */
+public class FolderDeleter {
+
+    private static final String TAG = "FolderDeleter";
+    private static final String PREFS_NAME = "pending_folder_deletions";
+
+    // Límite de operaciones por WriteBatch en Firestore
+    private static final int MAX_BATCH_OPS = 500;
+
+    public interface ProgressListener {
+        void onProgress(int deleted, int total);
+    }
+
+    private final FirebaseFirestore db;
+    private final FirebaseAuth auth;
+    private final SharedPreferences prefs;
+
+    public FolderDeleter(@NonNull Context context) {
+        db = FirebaseFirestore.getInstance();
+        auth = FirebaseAuth.getInstance();
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private String getUid() {
+        String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+        if (uid == null) {
+            Log.e(TAG, "No hay usuario autenticado");
+        }
+        return uid;
+    }
+
+    // Clave del trabajo en prefs: el mismo id de carpeta puede existir en otra cuenta
+    private static String jobKey(@NonNull String uid, @NonNull String folderId) {
+        return uid + "/" + folderId;
+    }
+
+    /**
+     * Borra la carpeta, todas sus subcarpetas y todas sus notas.
+     */
+    public void delete(@NonNull String folderId,
+                       @Nullable ProgressListener progress,
+                       @NonNull Runnable onComplete) {
+        String uid = getUid();
+        if (uid == null) return;
+
+        FolderTree tree = FolderTree.getInstance();
+        tree.whenReady(() -> {
+            Set<String> subtree = tree.getSubtreeIds(folderId);
+
+            // Guardar el trabajo pendiente antes de tocar nada
+            String jobKey = jobKey(uid, folderId);
+            prefs.edit().putStringSet(jobKey, subtree).apply();
+
+            run(uid, jobKey, subtree, progress, onComplete, null);
+        }, e -> Log.e(TAG, "Sin árbol de carpetas: no se borra " + folderId, e));
+    }
+
+    /**
+     * Como delete(), pero el subárbol se saca de una lectura puntual de la
+     * colección de carpetas en lugar de FolderTree, que deja abierto su
+     * snapshot listener y sólo se cierra al salir de la interfaz. Es el que usa
+     * la purga de la papelera (TrashPurgeJobService). Como en FolderTree, las
+     * subcarpetas que están en la papelera por su cuenta se dejan para su propia purga.
+     */
+    public void deleteDetached(@NonNull String folderId,
+                               @NonNull Runnable onComplete,
+                               @NonNull OnFailureListener onFailure) {
+        String uid = getUid();
+        if (uid == null) return;
+
+        FirestoreMeter.query(db.collection("users/" + uid + "/folders").get()).addOnSuccessListener(snapshot -> {
+            Map<String, List<String>> childrenOf = new HashMap<>();
+            for (QueryDocumentSnapshot doc : snapshot) {
+                Folder folder = SchemaMigrations.readFolder(doc);
+                if (folder.getDeletedAt() != null) continue;
+                String parent = folder.getParentFolderId() != null ? folder.getParentFolderId() : "None";
+                List<String> siblings = childrenOf.get(parent);
+                if (siblings == null) {
+                    siblings = new ArrayList<>();
+                    childrenOf.put(parent, siblings);
+                }
+                siblings.add(doc.getId());
+            }
+
+            Set<String> subtree = new HashSet<>();
+            List<String> stack = new ArrayList<>();
+            stack.add(folderId);
+            while (!stack.isEmpty()) {
+                String id = stack.remove(stack.size() - 1);
+                if (!subtree.add(id)) continue;
+                List<String> siblings = childrenOf.get(id);
+                if (siblings != null) stack.addAll(siblings);
+            }
+
+            String jobKey = jobKey(uid, folderId);
+            prefs.edit().putStringSet(jobKey, subtree).apply();
+            run(uid, jobKey, subtree, null, onComplete, onFailure);
+
+        }).addOnFailureListener(onFailure);
+    }
+
+    /**
+     * Reanuda los borrados del usuario actual que quedaron a medias en una
+     * ejecución anterior. Los de otras cuentas esperan a que vuelvan a entrar.
+     */
+    public void resumePending() {
+        String uid = getUid();
+        if (uid == null) return;
+        String prefix = jobKey(uid, "");
+
+        Map<String, ?> pending = prefs.getAll();
+        SharedPreferences.Editor stale = prefs.edit();
+        for (Map.Entry<String, ?> entry : pending.entrySet()) {
+            if (!(entry.getValue() instanceof Set)) continue;
+            if (!entry.getKey().contains("/")) {
+                // Guardado por una versión anterior sin usuario: no se sabe de qué cuenta es
+                Log.w(TAG, "Descartado borrado pendiente sin usuario: " + entry.getKey());
+                stale.remove(entry.getKey());
+                continue;
+            }
+            if (!entry.getKey().startsWith(prefix)) continue;
+
+            @SuppressWarnings("unchecked")
+            Set<String> folderIds = new HashSet<>((Set<String>) entry.getValue());
+
+            Log.d(TAG, "Reanudando borrado de " + entry.getKey() + " (" + folderIds.size() + " carpetas)");
+            run(uid, entry.getKey(), folderIds, null,
+                    () -> Log.d(TAG, "Borrado reanudado completado: " + entry.getKey()), null);
+        }
+        stale.apply();
+    }
+
+    private void run(@NonNull String uid,
+                     @NonNull String jobKey,
+                     @NonNull Set<String> folderIds,
+                     @Nullable ProgressListener progress,
+                     @NonNull Runnable onComplete,
+                     @Nullable OnFailureListener onFailure) {
+        CollectionReference folders = db.collection("users/" + uid + "/folders");
+        NoteIndex noteIndex = new NoteIndex();
+
+        // Leer en paralelo las notas de cada carpeta del subárbol
+        List<Task<QuerySnapshot>> noteQueries = new ArrayList<>();
+        for (String id : folderIds) {
+            noteQueries.add(FirestoreMeter.query(folders.document(id).collection("notes").get()));
+        }
+
+        Tasks.whenAllSuccess(noteQueries).addOnSuccessListener(results -> {
+
+            List<DocumentReference> refs = new ArrayList<>();
+            for (Object result : results) {
+                for (DocumentSnapshot doc : ((QuerySnapshot) result).getDocuments()) {
+                    String folderId = doc.getReference().getParent().getParent().getId();
+                    refs.add(doc.getReference());
+                    refs.add(folders.document(folderId).collection("headers").document(doc.getId()));
+                    refs.add(noteIndex.entryRef(doc.getId()));
+                }
+            }
+            // Las carpetas van en los mismos lotes, que se envían en paralelo: puede
+            // borrarse una carpeta antes que sus notas. Si falla algún lote, los ids
+            // guardados en prefs permiten volver a encontrarlas por su ruta aunque
+            // la carpeta ya no exista
+            for (String id : folderIds) {
+                refs.add(folders.document(id));
+            }
+
+            commitInBatches(jobKey, refs, progress, onComplete, onFailure);
+
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Error leyendo notas del subárbol", e);
+            if (onFailure != null) onFailure.onFailure(e);
+        });
+    }
+
+    private void commitInBatches(@NonNull String jobKey,
+                                 @NonNull List<DocumentReference> refs,
+                                 @Nullable ProgressListener progress,
+                                 @NonNull Runnable onComplete,
+                                 @Nullable OnFailureListener onFailure) {
+        final int total = refs.size();
+        final int[] deleted = {0};
+
+        List<Task<Void>> commits = new ArrayList<>();
+
+        for (int start = 0; start < total; start += MAX_BATCH_OPS) {
+            int end = Math.min(start + MAX_BATCH_OPS, total);
+            int size = end - start;
+
+            WriteBatch batch = db.batch();
+            for (DocumentReference ref : refs.subList(start, end)) {
+                batch.delete(ref);
+            }
+
+            // Los lotes son independientes: se envían todos a la vez
+            Task<Void> commit = FirestoreMeter.write(size, batch.commit()).addOnSuccessListener(aVoid -> {
+                deleted[0] += size;
+                if (progress != null) progress.onProgress(deleted[0], total);
+            });
+            commits.add(commit);
+        }
+
+        Tasks.whenAll(commits)
+                .addOnSuccessListener(aVoid -> {
+                    prefs.edit().remove(jobKey).apply();
+                    Log.d(TAG, "Subárbol eliminado: " + total + " documentos en " + commits.size() + " lotes");
+                    onComplete.run();
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Borrado incompleto, se reanudará en el próximo arranque", e);
+                    if (onFailure != null) onFailure.onFailure(e);
+                });
+    }
+}
@@ -0,0 +1,421 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import es.fdi.ucm.pad.notnotion.data.model.Folder;
+
+/**
+ * Índice en memoria del árbol de carpetas del usuario (padre → hijas).
+ * Se carga una sola vez toda la colección users/{uid}/folders y se mantiene
+ * al día con un snapshot listener, así navegar entre carpetas, contar
+ * subcarpetas o construir la ruta no necesita ninguna consulta.
+ *
+ * Las carpetas en la papelera (deletedAt) no forman parte del árbol: para los
+ * listeners es como si se hubieran borrado, y su contenido deja de ser alcanzable.
+ * Sus hijas se conservan en el índice para poder restaurarlas o purgarlas.
+ *
+ * Si el listener falla (sin permisos, cortado justo tras iniciar sesión...)
+ * se avisa por whenReady() a quien esperaba la carga y se vuelve a escuchar
+ * con espera creciente. Al recuperarse, la primera lista se compara con el
+ * índice para entregar sólo lo que ha cambiado mientras tanto.
+ *
+ * Los callbacks de Firestore llegan en el hilo principal, así que el índice
+ * sólo se lee y modifica desde ahí.
+ */
+public class FolderTree {
+
+    private static final String TAG = "FolderTree";
+
+    private static FolderTree instance;
+
+    // Espera antes de volver a escuchar tras un error (se duplica hasta el máximo)
+    private static final long RETRY_MIN_MS = 1000;
+    private static final long RETRY_MAX_MS = 60_000;
+
+    private final String uid;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final Runnable restart = this::start;
+    private ListenerRegistration registration;
+    private boolean loaded = false;
+    private boolean stopped = false;
+    // true tras volver a escuchar: la primera lista se compara con el índice
+    private boolean resync = false;
+    private long retryDelay = RETRY_MIN_MS;
+
+    private final Map<String, Folder> byId = new HashMap<>();
+    private final Map<String, List<Folder>> children = new HashMap<>();
+    private final Map<String, Folder> trashed = new HashMap<>();
+
+    private final List<Waiter> pendingReady = new ArrayList<>();
+    private final List<OnFolderChangedListener> changeListeners = new ArrayList<>();
+
+    /**
+     * Cambio individual en una carpeta, tal y como llega del snapshot listener.
+     * Para MODIFIED, la carpeta ya trae el padre actualizado (puede haberse movido).
+     */
+    public interface OnFolderChangedListener {
+        void onFolderChanged(@NonNull DocumentChange.Type type, @NonNull Folder folder);
+    }
+
+    // Acción pendiente de whenReady()
+    private static final class Waiter {
+        final Runnable onReady;
+        final OnFailureListener onFailure;
+
+        Waiter(@NonNull Runnable onReady, @NonNull OnFailureListener onFailure) {
+            this.onReady = onReady;
+            this.onFailure = onFailure;
+        }
+    }
+
+    private FolderTree(@NonNull String uid) {
+        this.uid = uid;
+    }
+
+    /**
+     * Devuelve el índice del usuario actual, creándolo (y empezando a escuchar)
+     * si no existe o si ha cambiado el usuario.
+     */
+    public static synchronized FolderTree getInstance() {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        String uid = user != null ? user.getUid() : null;
+
+        if (instance != null && (uid == null || !uid.equals(instance.uid))) {
+            instance.stop();
+            instance = null;
+        }
+        if (instance == null) {
+            instance = new FolderTree(uid != null ? uid : "");
+            if (uid != null) {
+                instance.start();
+            } else {
+                Log.e(TAG, "No hay usuario autenticado");
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Deja de escuchar y descarta el índice (p. ej. al cerrar sesión).
+     */
+    public static synchronized void reset() {
+        if (instance != null) {
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    private void start() {
+        registration = FirebaseFirestore.getInstance()
+                .collection("users").document(uid).collection("folders")
+                .addSnapshotListener(FirestoreMeter.queryListener((snapshot, e) -> {
+                    if (e != null) {
+                        onListenFailed(e);
+                        return;
+                    }
+                    if (snapshot == null) return;
+                    retryDelay = RETRY_MIN_MS;
+
+                    List<DocumentChange> changes = snapshot.getDocumentChanges();
+                    List<Folder> changed = new ArrayList<>(changes.size());
+                    List<DocumentChange.Type> types = new ArrayList<>(changes.size());
+
+                    // Tras volver a escuchar todo llega como ADDED: lo que ya estaba es MODIFIED
+                    // y lo que ya no aparece se ha borrado mientras tanto
+                    Set<String> missing = new HashSet<>();
+                    if (resync) {
+                        missing.addAll(byId.keySet());
+                        missing.addAll(trashed.keySet());
+                    }
+
+                    for (DocumentChange change : changes) {
+                        Folder folder = SchemaMigrations.readFolder(change.getDocument());
+                        changed.add(folder);
+
+                        DocumentChange.Type type = change.getType();
+                        if (resync && missing.remove(folder.getId()) && type == DocumentChange.Type.ADDED) {
+                            type = DocumentChange.Type.MODIFIED;
+                        }
+                        if (type == DocumentChange.Type.REMOVED) {
+                            trashed.remove(folder.getId());
+                            remove(folder.getId());
+                        } else if (folder.getDeletedAt() != null) {
+                            // A la papelera: fuera del árbol
+                            trashed.put(folder.getId(), folder);
+                            remove(folder.getId());
+                            type = DocumentChange.Type.REMOVED;
+                        } else {
+                            trashed.remove(folder.getId());
+                            put(folder);
+                        }
+                        types.add(type);
+                    }
+                    for (String id : missing) {
+                        Folder folder = byId.containsKey(id) ? byId.get(id) : trashed.get(id);
+                        trashed.remove(id);
+                        remove(id);
+                        changed.add(folder);
+                        types.add(DocumentChange.Type.REMOVED);
+                    }
+                    resync = false;
+
+                    if (!loaded) {
+                        // La carga inicial se entrega completa a través de whenReady()
+                        loaded = true;
+                        Log.d(TAG, "Árbol cargado: " + byId.size() + " carpetas");
+                        List<Waiter> ready = new ArrayList<>(pendingReady);
+                        pendingReady.clear();
+                        for (Waiter w : ready) w.onReady.run();
+                        return;
+                    }
+
+                    List<OnFolderChangedListener> listeners = new ArrayList<>(changeListeners);
+                    for (int i = 0; i < changed.size(); i++) {
+                        for (OnFolderChangedListener l : listeners) {
+                            l.onFolderChanged(types.get(i), changed.get(i));
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * El listener deja de funcionar tras un error. Quien esperaba la carga
+     * inicial recibe el error (no se quedan colgados) y se vuelve a escuchar.
+     */
+    private void onListenFailed(@NonNull Exception e) {
+        Log.e(TAG, "Error escuchando carpetas, reintento en " + retryDelay + " ms", e);
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+
+        List<Waiter> waiting = new ArrayList<>(pendingReady);
+        pendingReady.clear();
+        for (Waiter w : waiting) w.onFailure.onFailure(e);
+
+        if (stopped) return;
+        // Con el árbol ya cargado se sigue usando; al volver se pone al día
+        resync = loaded;
+        main.postDelayed(restart, retryDelay);
+        retryDelay = Math.min(retryDelay * 2, RETRY_MAX_MS);
+    }
+
+    private void stop() {
+        stopped = true;
+        main.removeCallbacks(restart);
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        byId.clear();
+        children.clear();
+        trashed.clear();
+        pendingReady.clear();
+        changeListeners.clear();
+        loaded = false;
+    }
+
+    // ---------------------------------------------------------------
+    // Mantenimiento del índice
+    // ---------------------------------------------------------------
+
+    private void put(@NonNull Folder folder) {
+        Folder previous = byId.put(folder.getId(), folder);
+        if (previous != null) {
+            detachFromParent(previous);
+        }
+
+        String parent = normalizeParent(folder.getParentFolderId());
+        List<Folder> siblings = children.get(parent);
+        if (siblings == null) {
+            siblings = new ArrayList<>();
+            children.put(parent, siblings);
+        }
+
+        // Mantener las hijas ordenadas por nombre
+        int pos = 0;
+        while (pos < siblings.size() && compareByName(siblings.get(pos), folder) <= 0) pos++;
+        siblings.add(pos, folder);
+    }
+
+    private void remove(@NonNull String folderId) {
+        Folder previous = byId.remove(folderId);
+        if (previous != null) {
+            detachFromParent(previous);
+        }
+    }
+
+    private void detachFromParent(@NonNull Folder folder) {
+        List<Folder> siblings = children.get(normalizeParent(folder.getParentFolderId()));
+        if (siblings == null) return;
+        for (int i = 0; i < siblings.size(); i++) {
+            if (siblings.get(i).getId().equals(folder.getId())) {
+                siblings.remove(i);
+                return;
+            }
+        }
+    }
+
+    private static String normalizeParent(@Nullable String parentFolderId) {
+        return (parentFolderId == null || parentFolderId.isEmpty()) ? "None" : parentFolderId;
+    }
+
+    private static int compareByName(Folder a, Folder b) {
+        String na = a.getName() != null ? a.getName() : "";
+        String nb = b.getName() != null ? b.getName() : "";
+        return na.compareToIgnoreCase(nb);
+    }
+
+    // ---------------------------------------------------------------
+    // Consultas (todas en memoria)
+    // ---------------------------------------------------------------
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Ejecuta la acción en cuanto el árbol esté cargado (inmediatamente si ya lo está).
+     * Si la carga falla sólo se registra el error: para avisar al usuario, la otra versión.
+     */
+    public void whenReady(@NonNull Runnable action) {
+        whenReady(action, e -> Log.w(TAG, "Acción descartada: el árbol no se pudo cargar", e));
+    }
+
+    /**
+     * Como whenReady(action), pero si la carga inicial falla se llama a
+     * onFailure (y no a action). Se sigue intentando cargar en segundo plano.
+     */
+    public void whenReady(@NonNull Runnable action, @NonNull OnFailureListener onFailure) {
+        if (loaded) {
+            action.run();
+        } else {
+            pendingReady.add(new Waiter(action, onFailure));
+        }
+    }
+
+    /**
+     * Se llama una vez por cada carpeta añadida, modificada o borrada tras la carga inicial.
+     */
+    public void addOnChangeListener(@NonNull OnFolderChangedListener listener) {
+        if (!changeListeners.contains(listener)) changeListeners.add(listener);
+    }
+
+    public void removeOnChangeListener(@NonNull OnFolderChangedListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    @Nullable
+    public Folder getFolder(@NonNull String folderId) {
+        return byId.get(folderId);
+    }
+
+    @NonNull
+    public List<Folder> getChildren(@Nullable String parentFolderId) {
+        List<Folder> siblings = children.get(normalizeParent(parentFolderId));
+        return siblings != null ? new ArrayList<>(siblings) : new ArrayList<>();
+    }
+
+    /**
+     * Carpetas alcanzables desde la raíz (sin las que cuelgan de una carpeta en la papelera).
+     */
+    @NonNull
+    public List<String> getAllFolderIds() {
+        List<String> ids = new ArrayList<>();
+        for (String id : byId.keySet()) {
+            if (!isInTrash(id)) ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * true si la carpeta o alguna de sus antecesoras está en la papelera.
+     */
+    public boolean isInTrash(@NonNull String folderId) {
+        return !getTrashedAncestors(folderId).isEmpty();
+    }
+
+    /**
+     * La carpeta y las antecesoras suyas que están en la papelera (de abajo arriba).
+     */
+    @NonNull
+    public List<String> getTrashedAncestors(@NonNull String folderId) {
+        List<String> result = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        String current = folderId;
+        while (current != null && visited.add(current)) {
+            Folder folder = trashed.get(current);
+            if (folder != null) {
+                result.add(current);
+            } else {
+                folder = byId.get(current);
+            }
+            current = folder != null ? folder.getParentFolderId() : null;
+        }
+        return result;
+    }
+
+    public int countChildren(@Nullable String parentFolderId) {
+        List<Folder> siblings = children.get(normalizeParent(parentFolderId));
+        return siblings != null ? siblings.size() : 0;
+    }
+
+    /**
+     * La carpeta indicada y todas sus descendientes (recorrido en memoria).
+     */
+    @NonNull
+    public Set<String> getSubtreeIds(@NonNull String folderId) {
+        Set<String> result = new HashSet<>();
+        List<String> stack = new ArrayList<>();
+        stack.add(folderId);
+
+        while (!stack.isEmpty()) {
+            String id = stack.remove(stack.size() - 1);
+            if (!result.add(id)) continue;
+            List<Folder> siblings = children.get(id);
+            if (siblings == null) continue;
+            for (Folder child : siblings) {
+                stack.add(child.getId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ruta desde la carpeta más alta hasta la indicada (incluida), para la barra de ruta.
+     */
+    @NonNull
+    public List<Folder> getPath(@NonNull String folderId) {
+        List<Folder> path = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+
+        Folder current = byId.get(folderId);
+        while (current != null && visited.add(current.getId())) {
+            path.add(current);
+            current = byId.get(normalizeParent(current.getParentFolderId()));
+        }
+
+        Collections.reverse(path);
+        return path;
+    }
+}
@@ -1,5 +1,6 @@
 package es.fdi.ucm.pad.notnotion.data.firebase;
 
+import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -7,15 +8,25 @@ import androidx.annotation.NonNull;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import es.fdi.ucm.pad.notnotion.data.model.Folder;
+import es.fdi.ucm.pad.notnotion.data.search.NoteSearch;
 
 public class FoldersManager {
 
@@ -38,6 +49,26 @@ public class FoldersManager {
         return "users/" + uid + "/folders";
     }
 
+    // Clave de la carpeta en WriteOutbox
+    static String outboxKey(@NonNull String folderId) {
+        return "folders/" + folderId;
+    }
+
+    // Añade al lote una carpeta nueva con su contador de notas (2 operaciones)
+    static void putNewFolder(@NonNull WriteBatch batch, @NonNull DocumentReference ref,
+                             @NonNull Folder folder, long noteCount) {
+        batch.set(ref, folder);
+        batch.update(ref, Folder.NOTE_COUNT, noteCount, Folder.NOTE_COUNTED, true);
+    }
+
+    /**
+     * Añade al lote el cambio del contador de notas activas de la carpeta
+     * (+1 al crear o restaurar una nota, -1 al mandarla a la papelera).
+     */
+    public static void countNotes(@NonNull WriteBatch batch, @NonNull DocumentReference folder, long delta) {
+        batch.update(folder, Folder.NOTE_COUNT, FieldValue.increment(delta));
+    }
+
     public void createFolder(
             @NonNull String name,
             @NonNull String parentFolderId,
@@ -56,15 +87,14 @@ public class FoldersManager {
                 type
         );
 
-        db.collection(path)
-                .document(folderId)
-                .set(folder)
-                .addOnSuccessListener(aVoid -> {
+        WriteOutbox.getInstance().submit(outboxKey(folderId), "crear carpeta " + name, true, () -> {
+                    WriteBatch batch = db.batch();
+                    putNewFolder(batch, db.collection(path).document(folderId), folder, 0);
+                    return FirestoreMeter.write(2, batch.commit());
+                }, aVoid -> {
                     Log.d(TAG, "Carpeta creada correctamente: " + name);
                     if (onSuccess != null) onSuccess.run();
-                })
-                .addOnFailureListener(e ->
-                        Log.e(TAG, "Error al crear carpeta", e));
+                });
     }
     public void createFolder(
             @NonNull String name,
@@ -82,11 +112,11 @@ public class FoldersManager {
 
         folder.setUpdatedAt(Timestamp.now());
 
-        db.collection(path)
-                .document(folder.getId())
-                .set(folder)
-                .addOnSuccessListener(aVoid -> Log.d(TAG, "Carpeta actualizada"))
-                .addOnFailureListener(e -> Log.e(TAG, "Error al actualizar carpeta", e));
+        // merge: conserva el contador de notas, que no va en el modelo
+        WriteOutbox.getInstance().submit(outboxKey(folder.getId()), "actualizar carpeta " + folder.getId(), true,
+                () -> FirestoreMeter.write(1, db.collection(path).document(folder.getId())
+                        .set(folder, SetOptions.merge())),
+                aVoid -> Log.d(TAG, "Carpeta actualizada"));
     }
 
     // -----------------------------------------------------------
@@ -96,11 +126,9 @@ public class FoldersManager {
         String path = getUserFoldersPath();
         if (path == null) return;
 
-        db.collection(path)
-                .document(folderId)
-                .delete()
-                .addOnSuccessListener(aVoid -> Log.d(TAG, "Carpeta eliminada"))
-                .addOnFailureListener(e -> Log.e(TAG, "Error al eliminar carpeta", e));
+        WriteOutbox.getInstance().submit(outboxKey(folderId), "eliminar carpeta " + folderId, true,
+                () -> FirestoreMeter.write(1, db.collection(path).document(folderId).delete()),
+                aVoid -> Log.d(TAG, "Carpeta eliminada"));
     }
 
     // -----------------------------------------------------------
@@ -110,10 +138,7 @@ public class FoldersManager {
         String path = getUserFoldersPath();
         if (path == null) return;
 
-        db.collection(path)
-                .get()
-                .addOnSuccessListener(listener)
-                .addOnFailureListener(e -> Log.e(TAG, "Error al obtener carpetas", e));
+        LocalStore.get(db.collection(path), path, listener, "Error al obtener carpetas");
     }
 
     // -----------------------------------------------------------
@@ -124,12 +149,20 @@ public class FoldersManager {
         String path = getUserFoldersPath();
         if (path == null) return;
 
-        db.collection(path)
-                .whereEqualTo("parentFolderId",
-                        (parentFolderId == null || parentFolderId.equals("")) ? "None" : parentFolderId)
-                .get()
-                .addOnSuccessListener(listener)
-                .addOnFailureListener(e -> Log.e(TAG, "Error al obtener subcarpetas", e));
+        String parent = (parentFolderId == null || parentFolderId.equals("")) ? "None" : parentFolderId;
+        LocalStore.get(
+                db.collection(path).whereEqualTo("parentFolderId", parent),
+                path + "?parentFolderId=" + parent,
+                listener,
+                "Error al obtener subcarpetas");
+    }
+
+    // -----------------------------------------------------------
+    // ✔ Subcarpetas desde el árbol en memoria (sin consultas)
+    // -----------------------------------------------------------
+    public void getSubfolderList(String parentFolderId, @NonNull OnSuccessListener<List<Folder>> listener) {
+        FolderTree tree = FolderTree.getInstance();
+        tree.whenReady(() -> listener.onSuccess(tree.getChildren(parentFolderId)));
     }
 
     // -----------------------------------------------------------
@@ -139,82 +172,94 @@ public class FoldersManager {
         String path = getUserFoldersPath();
         if (path == null) return;
 
-        db.collection(path)
-                .whereEqualTo("parentFolderId", "None")
-                .get()
-                .addOnSuccessListener(listener)
-                .addOnFailureListener(e -> Log.e(TAG, "Error al obtener carpetas raíz", e));
+        LocalStore.get(db.collection(path).whereEqualTo("parentFolderId", "None"), path + "?parentFolderId=None",
+                listener, "Error al obtener carpetas raíz");
     }
 
     public void countSubfolders(@NonNull String parentFolderId,
                                 @NonNull OnSuccessListener<Integer> listener) {
+        FolderTree tree = FolderTree.getInstance();
+        tree.whenReady(() -> listener.onSuccess(tree.countChildren(parentFolderId)));
+    }
+
+    public interface OnSubtreeCountedListener {
+        // notes es -1 si no se han podido contar (y folders también si no hay árbol)
+        void onCounted(int folders, long notes);
+    }
+
+    /**
+     * Carpetas y notas a cualquier nivel por debajo de folderId, sumando desde
+     * el árbol en memoria el contador de notas de cada carpeta. Sólo las
+     * carpetas antiguas, sin contador, se cuentan con count() (y se les guarda,
+     * así que es una vez por carpeta). Si falla el recuento de notas se avisa
+     * igualmente, con notes = -1.
+     */
+    public void countSubtree(@NonNull String folderId, @NonNull OnSubtreeCountedListener listener) {
         String path = getUserFoldersPath();
         if (path == null) return;
 
-        db.collection(path)
-                .whereEqualTo("parentFolderId", parentFolderId)
-                .get()
-                .addOnSuccessListener(q -> listener.onSuccess(q.size()))
-                .addOnFailureListener(e -> Log.e(TAG, "Error contando subcarpetas", e));
+        FolderTree tree = FolderTree.getInstance();
+        tree.whenReady(() -> {
+            Set<String> subtree = tree.getSubtreeIds(folderId);
+            int folders = subtree.size() - 1; // sin contar la propia carpeta
+
+            long counted = 0;
+            List<Task<Long>> counts = new ArrayList<>();
+            for (String id : subtree) {
+                Folder folder = tree.getFolder(id);
+                if (folder != null && folder.getNoteCount() != null) {
+                    counted += folder.getNoteCount();
+                } else {
+                    // Sin documento de carpeta (p. ej. una raíz antigua) no hay dónde guardarlo
+                    counts.add(countAndStore(db.collection(path).document(id), folder != null));
+                }
+            }
+
+            long known = counted;
+            Tasks.whenAllSuccess(counts).addOnSuccessListener(results -> {
+                long notes = known;
+                for (Object n : results) notes += (Long) n;
+                listener.onCounted(folders, notes);
+            }).addOnFailureListener(e -> {
+                Log.e(TAG, "Error contando subárbol", e);
+                listener.onCounted(folders, -1);
+            });
+        }, e -> listener.onCounted(-1, -1));
     }
 
-    public void deleteFolderRecursively(@NonNull String folderId, @NonNull Runnable onComplete) {
-
-        String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
-        if (uid == null) {
-            Log.e(TAG, "No hay usuario autenticado");
-            return;
-        }
+    // Carpeta sin contador: count() en servidor (una lectura por cada 1000 entradas
+    // de índice) y se guarda como contador; sin conexión se cuentan las de la
+    // caché local, que no se guardan porque pueden estar incompletas
+    private Task<Long> countAndStore(@NonNull DocumentReference folder, boolean store) {
+        CollectionReference notes = folder.collection("notes");
+        return NotesManager.countLive(notes).continueWithTask(task -> {
+            if (task.isSuccessful()) {
+                long count = task.getResult();
+                if (store) {
+                    WriteOutbox.getInstance().submit(outboxKey(folder.getId()), "contar notas de " + folder.getId(), false,
+                            () -> FirestoreMeter.write(1, folder.update(Folder.NOTE_COUNT, count, Folder.NOTE_COUNTED, true)),
+                            null);
+                }
+                return Tasks.forResult(count);
+            }
+            return FirestoreMeter.query(notes.get(Source.CACHE)).continueWith(cached -> {
+                if (!cached.isSuccessful()) return 0L;
+                long live = 0;
+                for (QueryDocumentSnapshot doc : cached.getResult()) {
+                    if (doc.get("deletedAt") == null) live++;
+                }
+                return live;
+            });
+        });
+    }
 
-        String foldersPath = "users/" + uid + "/folders";
-        String notesPath   = "users/" + uid + "/folders/" + folderId + "/notes";
-
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-
-        // 1) Borrar TODAS las notas dentro de esta carpeta
-        db.collection(notesPath)
-                .get()
-                .addOnSuccessListener(notesSnapshot -> {
-
-                    // Borrar notas individualmente
-                    for (var doc : notesSnapshot.getDocuments()) {
-                        doc.getReference().delete();
-                    }
-
-                    // 2) Buscar subcarpetas
-                    db.collection(foldersPath)
-                            .whereEqualTo("parentFolderId", folderId)
-                            .get()
-                            .addOnSuccessListener(subfoldersSnapshot -> {
-
-                                if (subfoldersSnapshot.isEmpty()) {
-                                    // 3) No hay subcarpetas → borrar directamente la carpeta
-                                    db.collection(foldersPath)
-                                            .document(folderId)
-                                            .delete()
-                                            .addOnSuccessListener(a -> onComplete.run());
-                                    return;
-                                }
-
-                                // 4) Procesar subcarpetas recursivamente
-                                final int total = subfoldersSnapshot.size();
-                                final int[] completed = {0};
-
-                                for (var doc : subfoldersSnapshot) {
-                                    String childFolderId = doc.getId();
-
-                                    deleteFolderRecursively(childFolderId, () -> {
-                                        completed[0]++;
-                                        if (completed[0] == total) {
-                                            // Cuando todas las subcarpetas estén eliminadas → borrar carpeta actual
-                                            db.collection(foldersPath)
-                                                    .document(folderId)
-                                                    .delete()
-                                                    .addOnSuccessListener(a -> onComplete.run());
-                                        }
-                                    });
-                                }
-                            });
-                });
+    // Borra la carpeta con todo su contenido en lotes (ver FolderDeleter)
+    public void deleteFolderRecursively(@NonNull Context context,
+                                        @NonNull String folderId,
+                                        FolderDeleter.ProgressListener progress,
+                                        @NonNull Runnable onComplete) {
+        // Las notas dejan de aparecer en la búsqueda desde ya, no al terminar el borrado
+        NoteSearch.getInstance().removeFolders(FolderTree.getInstance().getSubtreeIds(folderId));
+        new FolderDeleter(context).delete(folderId, progress, onComplete);
     }
 }
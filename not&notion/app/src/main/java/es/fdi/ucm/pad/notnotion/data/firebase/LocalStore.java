@@ -0,0 +1,236 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lecturas "offline-first" sobre la caché persistente de Firestore (ver NotNotionApp).
+ *
+ * Un documento se responde primero desde disco y se sincroniza con el servidor en
+ * segundo plano sin bloquear la interfaz. Con las consultas no basta con que la
+ * caché tenga algo: otra consulta más estrecha puede haber dejado en disco sólo
+ * una parte de los documentos. Por eso sólo se responde desde la caché a las
+ * consultas cuyo resultado completo ya se ha leído alguna vez del servidor;
+ * Firestore aplica después a la caché las escrituras locales y los refrescos en
+ * segundo plano. El resto va al servidor (que, sin conexión, devuelve lo que
+ * haya en la caché).
+ *
+ * Qué consultas están completas se guarda en SharedPreferences con una clave
+ * que da quien llama (ruta + filtros: un Query no se puede guardar), así que
+ * también vale en un arranque en frío. Las entradas caducan a los
+ * COMPLETE_MAX_AGE_MS (la caché de Firestore puede haber expulsado documentos)
+ * y se guardan como mucho MAX_COMPLETE; reset() las borra al cerrar sesión.
+ *
+ * Los errores se entregan al OnFailureListener; las variantes con un mensaje
+ * sólo lo registran, para las lecturas de las que no espera nada la interfaz.
+ */
+public final class LocalStore {
+
+    private static final String TAG = "LocalStore";
+    private static final String PREFS_NAME = "local_store";
+
+    // Tiempo mínimo entre dos sincronizaciones en segundo plano de la misma consulta
+    private static final long SYNC_INTERVAL_MS = 30_000;
+    // Límite de consultas y documentos recordados (se olvidan los usados hace más tiempo)
+    private static final int MAX_COMPLETE = 256;
+    private static final int MAX_SYNCED = 512;
+    private static final long COMPLETE_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private static SharedPreferences prefs;
+
+    // Última sincronización de cada clave (consulta o ruta de documento), en elapsedRealtime
+    private static final Map<String, Long> lastSync = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_SYNCED;
+        }
+    };
+    // Consultas leídas enteras del servidor (la caché tiene todos sus documentos) → cuándo, en currentTimeMillis
+    private static final Map<String, Long> complete = new LinkedHashMap<>(16, 0.75f, true);
+
+    private LocalStore() {}
+
+    // Se llama una vez desde NotNotionApp; sin esto sólo se recuerda en memoria
+    public static synchronized void init(@NonNull Context context) {
+        if (prefs != null) return;
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Long>> saved = new ArrayList<>();
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, ?> e : prefs.getAll().entrySet()) {
+            Object value = e.getValue();
+            if (value instanceof Long && now - (Long) value < COMPLETE_MAX_AGE_MS) {
+                saved.add(new AbstractMap.SimpleEntry<>(e.getKey(), (Long) value));
+            } else {
+                editor.remove(e.getKey());
+            }
+        }
+        // Del más antiguo al más reciente, para que el orden LRU sea el de uso
+        Collections.sort(saved, (a, b) -> Long.compare(a.getValue(), b.getValue()));
+        for (Map.Entry<String, Long> e : saved) complete.put(e.getKey(), e.getValue());
+        trimComplete(editor);
+        editor.apply();
+    }
+
+    /**
+     * Olvida qué consultas estaban completas y cuándo se sincronizó cada cosa.
+     * Al cerrar sesión: lo recordado es del usuario anterior.
+     */
+    public static synchronized void reset() {
+        lastSync.clear();
+        complete.clear();
+        if (prefs != null) prefs.edit().clear().apply();
+    }
+
+    public static void get(@NonNull Query query,
+                           @NonNull String key,
+                           @NonNull OnSuccessListener<QuerySnapshot> listener,
+                           @NonNull String errorMessage) {
+        get(query, key, listener, e -> Log.e(TAG, errorMessage, e));
+    }
+
+    /**
+     * Ejecuta la consulta contra la caché local si su resultado está completo
+     * en ella, y si no contra el servidor.
+     *
+     * @param key identifica la consulta entre ejecuciones: la ruta y los filtros
+     *            (por ejemplo "users/u/folders?parentFolderId=None"). Dos
+     *            consultas distintas no pueden compartir clave.
+     */
+    public static void get(@NonNull Query query,
+                           @NonNull String key,
+                           @NonNull OnSuccessListener<QuerySnapshot> listener,
+                           @NonNull OnFailureListener onFailure) {
+        if (!isComplete(key)) {
+            getFromServer(query, key, listener, onFailure);
+            return;
+        }
+
+        FirestoreMeter.query(query.get(Source.CACHE)).addOnCompleteListener(task -> {
+            if (task.isSuccessful() && task.getResult() != null) {
+                listener.onSuccess(task.getResult());
+                syncInBackground(query, key);
+                return;
+            }
+            getFromServer(query, key, listener, onFailure);
+        });
+    }
+
+    public static void get(@NonNull DocumentReference ref,
+                           @NonNull OnSuccessListener<DocumentSnapshot> listener,
+                           @NonNull String errorMessage) {
+        get(ref, listener, e -> Log.e(TAG, errorMessage, e));
+    }
+
+    /**
+     * Igual que get(Query...) pero para un único documento: si está en la caché
+     * se responde desde ahí, porque un documento siempre está completo.
+     */
+    public static void get(@NonNull DocumentReference ref,
+                           @NonNull OnSuccessListener<DocumentSnapshot> listener,
+                           @NonNull OnFailureListener onFailure) {
+        FirestoreMeter.document(ref.get(Source.CACHE)).addOnCompleteListener(task -> {
+            if (task.isSuccessful() && task.getResult() != null && task.getResult().exists()) {
+                listener.onSuccess(task.getResult());
+                syncInBackground(ref);
+                return;
+            }
+
+            FirestoreMeter.document(ref.get())
+                    .addOnSuccessListener(snapshot -> {
+                        synced(ref.getPath());
+                        listener.onSuccess(snapshot);
+                    })
+                    .addOnFailureListener(onFailure);
+        });
+    }
+
+    // Lectura normal (servidor con fallback a caché)
+    private static void getFromServer(@NonNull Query query,
+                                      @NonNull String key,
+                                      @NonNull OnSuccessListener<QuerySnapshot> listener,
+                                      @NonNull OnFailureListener onFailure) {
+        FirestoreMeter.query(query.get())
+                .addOnSuccessListener(snapshot -> {
+                    if (!snapshot.getMetadata().isFromCache()) markComplete(key);
+                    listener.onSuccess(snapshot);
+                })
+                .addOnFailureListener(onFailure);
+    }
+
+    private static synchronized boolean isComplete(@NonNull String key) {
+        Long at = complete.get(key);
+        return at != null && System.currentTimeMillis() - at < COMPLETE_MAX_AGE_MS;
+    }
+
+    private static synchronized void markComplete(@NonNull String key) {
+        synced(key);
+        long now = System.currentTimeMillis();
+        complete.put(key, now);
+        if (prefs == null) {
+            trimComplete(null);
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit().putLong(key, now);
+        trimComplete(editor);
+        editor.apply();
+    }
+
+    private static void trimComplete(@Nullable SharedPreferences.Editor editor) {
+        Iterator<String> it = complete.keySet().iterator();
+        while (complete.size() > MAX_COMPLETE && it.hasNext()) {
+            String eldest = it.next();
+            it.remove();
+            if (editor != null) editor.remove(eldest);
+        }
+    }
+
+    // Pide al servidor la versión actual; Firestore la guarda en la caché local
+    private static void syncInBackground(@NonNull Query query, @NonNull String key) {
+        if (!shouldSync(key)) return;
+        FirestoreMeter.query(query.get(Source.SERVER))
+                .addOnSuccessListener(snapshot -> markComplete(key))
+                .addOnFailureListener(e -> Log.w(TAG, "Sincronización en segundo plano fallida: " + e.getMessage()));
+    }
+    private static void syncInBackground(@NonNull DocumentReference ref) {
+        if (!shouldSync(ref.getPath())) return;
+        FirestoreMeter.document(ref.get(Source.SERVER))
+                .addOnFailureListener(e -> Log.w(TAG, "Sincronización en segundo plano fallida: " + e.getMessage()));
+    }
+
+    private static synchronized void synced(@NonNull String key) {
+        lastSync.put(key, SystemClock.elapsedRealtime());
+    }
+
+    private static synchronized boolean shouldSync(@NonNull String key) {
+        long now = SystemClock.elapsedRealtime();
+        Long previous = lastSync.get(key);
+        if (previous != null && now - previous < SYNC_INTERVAL_MS) {
+            return false;
+        }
+        lastSync.put(key, now);
+        return true;
+    }
+}
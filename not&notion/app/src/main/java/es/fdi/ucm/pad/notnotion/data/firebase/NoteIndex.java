@@ -0,0 +1,166 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Índice noteId → carpeta, guardado en users/{uid}/noteIndex/{noteId}.
+ * Permite abrir una nota conociendo sólo su id (p. ej. desde el calendario)
+ * leyendo exactamente dos documentos, sin importar cuántas notas haya.
+ *
+ * Las entradas se escriben en el mismo WriteBatch que crea o borra la nota.
+ * Las notas antiguas sin entrada se localizan una vez recorriendo las carpetas
+ * del árbol en memoria y se añaden al índice en ese momento.
+ */
+public class NoteIndex {
+
+    private static final String TAG = "NoteIndex";
+
+    private final FirebaseFirestore db;
+    private final FirebaseAuth auth;
+
+    public NoteIndex() {
+        db = FirebaseFirestore.getInstance();
+        auth = FirebaseAuth.getInstance();
+    }
+
+    private String getUid() {
+        String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+        if (uid == null) {
+            Log.e(TAG, "No hay usuario autenticado");
+        }
+        return uid;
+    }
+
+    // Referencia a la entrada del índice de una nota (null si no hay usuario)
+    public DocumentReference entryRef(@NonNull String noteId) {
+        String uid = getUid();
+        if (uid == null) return null;
+        return db.collection("users").document(uid)
+                .collection("noteIndex").document(noteId);
+    }
+
+    private DocumentReference noteRef(@NonNull String uid, @NonNull String folderId, @NonNull String noteId) {
+        return db.collection("users").document(uid)
+                .collection("folders").document(folderId)
+                .collection("notes").document(noteId);
+    }
+
+    // Añade al lote la entrada del índice para una nota nueva o movida
+    public void register(@NonNull WriteBatch batch, @NonNull String noteId, @NonNull String folderId) {
+        DocumentReference ref = entryRef(noteId);
+        if (ref == null) return;
+        batch.set(ref, entry(folderId));
+    }
+
+    // Añade al lote el borrado de la entrada del índice
+    public void unregister(@NonNull WriteBatch batch, @NonNull String noteId) {
+        DocumentReference ref = entryRef(noteId);
+        if (ref == null) return;
+        batch.delete(ref);
+    }
+
+    private static Map<String, Object> entry(@NonNull String folderId) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("folderId", folderId);
+        data.put("updatedAt", Timestamp.now());
+        return data;
+    }
+
+    /**
+     * Busca el documento de una nota por su id.
+     * onFound recibe el snapshot de la nota; onNotFound se llama si no existe
+     * y onFailure si no se ha podido leer (sin caché y sin conexión).
+     */
+    public void findNote(@NonNull String noteId,
+                         @NonNull OnSuccessListener<DocumentSnapshot> onFound,
+                         @NonNull Runnable onNotFound,
+                         @NonNull OnFailureListener onFailure) {
+        String uid = getUid();
+        if (uid == null) {
+            onNotFound.run();
+            return;
+        }
+
+        LocalStore.get(entryRef(noteId), entry -> {
+            String folderId = entry.exists() ? entry.getString("folderId") : null;
+
+            if (folderId == null) {
+                locateAndBackfill(uid, noteId, onFound, onNotFound, onFailure);
+                return;
+            }
+
+            LocalStore.get(noteRef(uid, folderId, noteId), note -> {
+                if (note.exists()) {
+                    onFound.onSuccess(note);
+                } else {
+                    // Entrada obsoleta (la nota se movió o se borró fuera de la app)
+                    locateAndBackfill(uid, noteId, onFound, onNotFound, onFailure);
+                }
+            }, e -> {
+                Log.e(TAG, "Error al obtener nota indexada", e);
+                onFailure.onFailure(e);
+            });
+        }, e -> {
+            Log.e(TAG, "Error al leer índice de notas", e);
+            onFailure.onFailure(e);
+        });
+    }
+
+    // Nota sin entrada: se prueba el id en cada carpeta (una lectura por carpeta, en paralelo)
+    private void locateAndBackfill(@NonNull String uid,
+                                   @NonNull String noteId,
+                                   @NonNull OnSuccessListener<DocumentSnapshot> onFound,
+                                   @NonNull Runnable onNotFound,
+                                   @NonNull OnFailureListener onFailure) {
+        FolderTree tree = FolderTree.getInstance();
+        tree.whenReady(() -> {
+            List<Task<DocumentSnapshot>> reads = new ArrayList<>();
+            for (String folderId : tree.getAllFolderIds()) {
+                reads.add(FirestoreMeter.document(noteRef(uid, folderId, noteId).get()));
+            }
+
+            Tasks.whenAllComplete(reads).addOnSuccessListener(done -> {
+                for (Task<DocumentSnapshot> read : reads) {
+                    if (!read.isSuccessful() || read.getResult() == null || !read.getResult().exists()) {
+                        continue;
+                    }
+                    DocumentSnapshot note = read.getResult();
+                    String folderId = note.getReference().getParent().getParent().getId();
+
+                    FirestoreMeter.write(1, entryRef(noteId).set(entry(folderId)))
+                            .addOnFailureListener(e -> Log.e(TAG, "Error al indexar nota", e));
+                    Log.d(TAG, "Nota " + noteId + " añadida al índice (carpeta " + folderId + ")");
+
+                    onFound.onSuccess(note);
+                    return;
+                }
+                // No encontrada: si alguna lectura falló, no se sabe si existe
+                for (Task<DocumentSnapshot> read : reads) {
+                    if (!read.isSuccessful() && read.getException() != null) {
+                        onFailure.onFailure(read.getException());
+                        return;
+                    }
+                }
+                onNotFound.run();
+            });
+        }, onFailure);
+    }
+}
@@ -3,29 +3,61 @@ package es.fdi.ucm.pad.notnotion.data.firebase;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.AggregateQuerySnapshot;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.UUID;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import es.fdi.ucm.pad.notnotion.data.model.Note;
+import es.fdi.ucm.pad.notnotion.data.model.NoteHeader;
+import es.fdi.ucm.pad.notnotion.data.search.NoteSearch;
 import es.fdi.ucm.pad.notnotion.data.model.ContentBlock;
+import es.fdi.ucm.pad.notnotion.utils.BlockMerger;
 
 public class NotesManager {
 
     private static final String TAG = "NotesManager";
+
+    // Límite de operaciones por WriteBatch en Firestore
+    private static final int MAX_BATCH_OPS = 500;
+    // Contador de guardados de cada nota (ver saveEdit)
+    static final String REVISION = "revision";
+
+    // Carpetas cuyas cabeceras ya se han comprobado en esta sesión
+    private static final Set<String> headersChecked = new HashSet<>();
     private final FirebaseFirestore db;
     private final FirebaseAuth auth;
+    private final NoteIndex noteIndex;
 
     public NotesManager() {
         db = FirebaseFirestore.getInstance();
         auth = FirebaseAuth.getInstance();
+        noteIndex = new NoteIndex();
     }
 
     // Devuelve la ruta base de las notas de una carpeta específica
@@ -38,11 +70,46 @@ public class NotesManager {
         return "users/" + uid + "/folders/" + folderId + "/notes";
     }
 
+    // Documento de la carpeta: lleva el contador de notas activas (ver Folder.NOTE_COUNT)
+    private DocumentReference getFolderRef(@NonNull String folderId) {
+        String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+        if (uid == null) {
+            Log.e(TAG, "No hay usuario autenticado");
+            return null;
+        }
+        return db.collection("users/" + uid + "/folders").document(folderId);
+    }
+
+    // Ruta de las cabeceras ligeras de las notas de una carpeta (ver NoteHeader)
+    private String getHeadersPath(@NonNull String folderId) {
+        String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+        if (uid == null) {
+            Log.e(TAG, "No hay usuario autenticado");
+            return null;
+        }
+        return "users/" + uid + "/folders/" + folderId + "/headers";
+    }
+
+    // Clave de la nota en WriteOutbox (cuerpo, cabecera e índice van siempre juntos)
+    public static String outboxKey(@NonNull String noteId) {
+        return "notes/" + noteId;
+    }
+
+    // Añade al lote la cabecera de la nota (se escribe siempre junto al cuerpo).
+    // Sin deletedAt: note puede ser una copia anterior a mandarla a la papelera
+    private void putHeader(@NonNull WriteBatch batch, @NonNull String folderId, @NonNull Note note) {
+        String headersPath = getHeadersPath(folderId);
+        if (headersPath == null) return;
+        batch.set(db.collection(headersPath).document(note.getId()),
+                NoteHeader.fromNote(note).toContentFields(), SetOptions.merge());
+    }
+
     // Inserta una nueva nota en una carpeta específica
     public void addNote(@NonNull String title, @NonNull String content,
                         @NonNull String folderId, boolean isFavorite) {
         String path = getNotesPath(folderId);
-        if (path == null) return;
+        DocumentReference folder = getFolderRef(folderId);
+        if (path == null || folder == null) return;
 
         String noteId = UUID.randomUUID().toString();
 
@@ -72,11 +139,16 @@ public class NotesManager {
 
         );
 
-        db.collection(path)
-                .document(noteId)
-                .set(note)
-                .addOnSuccessListener(aVoid -> Log.d(TAG, "Nota creada correctamente"))
-                .addOnFailureListener(e -> Log.e(TAG, "Error al crear nota", e));
+        // Nota + cabecera + entrada del índice noteId → carpeta + contador en una sola escritura
+        WriteOutbox.getInstance().submit(outboxKey(noteId), "crear nota " + noteId, true, () -> {
+            WriteBatch batch = db.batch();
+            batch.set(db.collection(path).document(noteId), note);
+            putHeader(batch, folderId, note);
+            noteIndex.register(batch, noteId, folderId);
+            FoldersManager.countNotes(batch, folder, 1);
+            return FirestoreMeter.write(4, batch.commit());
+        }, aVoid -> Log.d(TAG, "Nota creada correctamente"));
+        NoteSearch.getInstance().update(note);
     }
 
     // Inserta una nueva nota en una carpeta específica con bloques de contenido
@@ -86,7 +158,8 @@ public class NotesManager {
                                   @NonNull String folderId,
                                   boolean isFavorite) {
         String path = getNotesPath(folderId);
-        if (path == null) return;
+        DocumentReference folder = getFolderRef(folderId);
+        if (path == null || folder == null) return;
 
         String noteId = UUID.randomUUID().toString();
 
@@ -101,25 +174,192 @@ public class NotesManager {
                 contentBlocks
         );
 
-        db.collection(path)
-                .document(noteId)
-                .set(note)
-                .addOnSuccessListener(aVoid -> Log.d(TAG, "Nota con bloques creada correctamente"))
-                .addOnFailureListener(e -> Log.e(TAG, "Error al crear nota", e));
+        WriteOutbox.getInstance().submit(outboxKey(noteId), "crear nota " + noteId, true, () -> {
+            WriteBatch batch = db.batch();
+            batch.set(db.collection(path).document(noteId), note);
+            putHeader(batch, folderId, note);
+            noteIndex.register(batch, noteId, folderId);
+            FoldersManager.countNotes(batch, folder, 1);
+            return FirestoreMeter.write(4, batch.commit());
+        }, aVoid -> Log.d(TAG, "Nota con bloques creada correctamente"));
+        NoteSearch.getInstance().update(note);
     }
 
-    // Actualiza una nota existente
+    /**
+     * Actualiza una nota existente. La revisión no se toma de note, que puede
+     * venir de una copia atrasada: se sube en uno la que tenga el documento.
+     * Si se escribiera la de note, la revisión podría bajar y un editor que
+     * abrió una versión intermedia guardaría encima sin detectar el cambio.
+     */
     public void updateNote(@NonNull Note note) {
         String path = getNotesPath(note.getFolderId());
         if (path == null) return;
 
         note.setUpdatedAt(Timestamp.now());
 
-        db.collection(path)
-                .document(note.getId())
-                .set(note)
-                .addOnSuccessListener(aVoid -> Log.d(TAG, "Nota actualizada"))
-                .addOnFailureListener(e -> Log.e(TAG, "Error al actualizar nota", e));
+        WriteOutbox.getInstance().submit(outboxKey(note.getId()), "actualizar nota " + note.getId(), true, () -> {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("title", note.getTitle());
+            fields.put("folderId", note.getFolderId());
+            fields.put("updatedAt", note.getUpdatedAt());
+            fields.put("favorite", note.isFavorite());
+            fields.put("coverImageUrl", note.getCoverImageUrl());
+            fields.put("contentBlocks", note.getContentBlocks());
+            fields.put("schemaVersion", note.getSchemaVersion());
+            // Escritura sin comparar: al menos sube la revisión para que los editores abiertos lo detecten
+            fields.put(REVISION, FieldValue.increment(1));
+
+            WriteBatch batch = db.batch();
+            batch.update(db.collection(path).document(note.getId()), fields);
+            putHeader(batch, note.getFolderId(), note);
+            return FirestoreMeter.write(2, batch.commit());
+        }, aVoid -> Log.d(TAG, "Nota actualizada"));
+        NoteSearch.getInstance().update(note);
+    }
+
+    /**
+     * Guarda lo editado en una nota sin pisar lo que otro dispositivo haya
+     * guardado mientras tanto.
+     *
+     * Dentro de una transacción se compara la revisión del documento con la
+     * de base (la nota tal y como se abrió). Si coincide se escriben sólo los
+     * campos de changes; si no, se fusionan a tres bandas base, edited y la
+     * versión actual (BlockMerger) y se escribe el resultado. En los dos casos
+     * la revisión sube en uno. Si el documento cambia durante la transacción,
+     * Firestore la repite sola con la versión nueva. Si entretanto se ha
+     * mandado a la papelera (que también sube la revisión), lo editado se
+     * guarda pero la nota sigue allí: la cabecera nunca pierde su deletedAt.
+     *
+     * Sin conexión no hay transacción posible: se encola la escritura parcial
+     * con la revisión incrementada, como antes (gana el último en sincronizar).
+     *
+     * @param changes campos cambiados respecto a base (sin revision)
+     * @param onSaved recibe la fusión hecha (merged = false si no hizo falta)
+     */
+    public void saveEdit(@NonNull Note base,
+                         @NonNull Note edited,
+                         @NonNull Map<String, Object> changes,
+                         @Nullable OnSuccessListener<BlockMerger.Result> onSaved) {
+        String path = getNotesPath(base.getFolderId());
+        String headersPath = getHeadersPath(base.getFolderId());
+        if (path == null || headersPath == null) return;
+
+        DocumentReference noteRef = db.collection(path).document(base.getId());
+        DocumentReference headerRef = db.collection(headersPath).document(base.getId());
+        BlockMerger.Result[] saved = new BlockMerger.Result[1];
+        boolean[] trashed = new boolean[1];
+
+        WriteOutbox.getInstance().submit(outboxKey(base.getId()), "guardar nota " + base.getId(), false, () ->
+                FirestoreMeter.write(2, db.runTransaction(tx -> {
+                    DocumentSnapshot current = tx.get(noteRef);
+                    if (!current.exists()) {
+                        throw new FirebaseFirestoreException("La nota ya no existe",
+                                FirebaseFirestoreException.Code.NOT_FOUND);
+                    }
+                    Long stored = current.getLong(REVISION);
+                    long revision = stored != null ? stored : 0;
+
+                    // Mandada a la papelera en otro dispositivo: lo editado se guarda,
+                    // pero la nota sigue en la papelera (cuerpo y cabecera)
+                    trashed[0] = current.get("deletedAt") != null;
+
+                    Map<String, Object> updates = new HashMap<>();
+                    Note result;
+                    BlockMerger.Result merge;
+                    if (revision == base.getRevision()) {
+                        updates.putAll(changes);
+                        result = edited;
+                        merge = new BlockMerger.Result();
+                    } else {
+                        Note remote = SchemaMigrations.readNote(current);
+                        merge = BlockMerger.merge(base, edited, remote);
+                        Log.d(TAG, "Nota " + base.getId() + " cambiada en otro dispositivo (revisión "
+                                + base.getRevision() + " → " + revision + "), "
+                                + merge.conflicts + " conflictos");
+
+                        remote.setTitle(merge.title);
+                        remote.setCoverImageUrl(merge.coverImageUrl);
+                        remote.setContentBlocks(merge.blocks);
+                        remote.setUpdatedAt(edited.getUpdatedAt());
+                        remote.setFolderId(base.getFolderId());
+                        updates.put("title", merge.title);
+                        updates.put("coverImageUrl", merge.coverImageUrl);
+                        updates.put("contentBlocks", merge.blocks);
+                        updates.put("updatedAt", edited.getUpdatedAt());
+                        result = remote;
+                    }
+                    updates.put(REVISION, revision + 1);
+                    result.setRevision(revision + 1);
+
+                    tx.update(noteRef, updates);
+                    tx.set(headerRef, NoteHeader.fromNote(result).toContentFields(), SetOptions.merge());
+                    return merge;
+                })).continueWithTask(task -> {
+                    if (task.isSuccessful()) {
+                        saved[0] = task.getResult();
+                        return Tasks.forResult((Void) null);
+                    }
+                    if (!isOffline(task.getException())) {
+                        return Tasks.forException(task.getException());
+                    }
+                    // Sin conexión: escritura parcial encolada por Firestore
+                    Log.w(TAG, "Sin conexión: la nota " + base.getId() + " se guarda sin comprobar la revisión");
+                    Map<String, Object> updates = new HashMap<>(changes);
+                    updates.put(REVISION, FieldValue.increment(1));
+                    WriteBatch batch = db.batch();
+                    batch.update(noteRef, updates);
+                    batch.set(headerRef, NoteHeader.fromNote(edited).toContentFields(), SetOptions.merge());
+                    saved[0] = new BlockMerger.Result();
+                    return FirestoreMeter.write(2, batch.commit());
+                }),
+                aVoid -> {
+                    Log.d(TAG, "Nota guardada");
+                    if (trashed[0]) {
+                        NoteSearch.getInstance().remove(base.getId());
+                    } else if (saved[0] != null && saved[0].merged) {
+                        // Lo que ha quedado en Firestore es la fusión, no lo editado aquí
+                        NoteSearch.getInstance().update(new Note(base.getId(), saved[0].title,
+                                base.getFolderId(), edited.getCreatedAt(), edited.getUpdatedAt(),
+                                edited.isFavorite(), saved[0].coverImageUrl, saved[0].blocks));
+                    }
+                    if (onSaved != null && saved[0] != null) onSaved.onSuccess(saved[0]);
+                });
+        NoteSearch.getInstance().update(edited);
+    }
+
+    private static boolean isOffline(@Nullable Exception e) {
+        return e instanceof FirebaseFirestoreException
+                && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.UNAVAILABLE;
+    }
+
+    // Cambia sólo el título (cuerpo y cabecera), sin reescribir el contenido
+    public void renameNote(@NonNull String folderId, @NonNull String noteId, @NonNull String title) {
+        String path = getNotesPath(folderId);
+        String headersPath = getHeadersPath(folderId);
+        if (path == null || headersPath == null) return;
+
+        Timestamp now = Timestamp.now();
+
+        WriteOutbox.getInstance().submit(outboxKey(noteId), "renombrar nota " + noteId, false, () -> {
+            WriteBatch batch = db.batch();
+            batch.update(db.collection(path).document(noteId), "title", title, "updatedAt", now,
+                    REVISION, FieldValue.increment(1));
+            Map<String, Object> header = NoteHeader.changeFields();
+            header.put("title", title);
+            header.put("updatedAt", now);
+            batch.update(db.collection(headersPath).document(noteId), header);
+            return FirestoreMeter.write(2, batch.commit());
+        }, aVoid -> Log.d(TAG, "Nota renombrada"));
+
+        // Para el índice de búsqueda hace falta también el texto: se lee el cuerpo (de la caché)
+        LocalStore.get(db.collection(path).document(noteId), doc -> {
+            Note note = SchemaMigrations.readNote(doc);
+            if (note == null) return;
+            note.setFolderId(folderId);
+            note.setTitle(title);
+            note.setUpdatedAt(now);
+            NoteSearch.getInstance().update(note);
+        }, "Error al leer la nota renombrada");
     }
 
     // Elimina una nota
@@ -127,11 +367,148 @@ public class NotesManager {
         String path = getNotesPath(folderId);
         if (path == null) return;
 
-        db.collection(path)
-                .document(noteId)
-                .delete()
-                .addOnSuccessListener(aVoid -> Log.d(TAG, "Nota eliminada"))
-                .addOnFailureListener(e -> Log.e(TAG, "Error al eliminar nota", e));
+        String headersPath = getHeadersPath(folderId);
+
+        WriteOutbox.getInstance().submit(outboxKey(noteId), "eliminar nota " + noteId, true, () -> {
+            WriteBatch batch = db.batch();
+            batch.delete(db.collection(path).document(noteId));
+            if (headersPath != null) {
+                batch.delete(db.collection(headersPath).document(noteId));
+            }
+            noteIndex.unregister(batch, noteId);
+            return FirestoreMeter.write(3, batch.commit());
+        }, aVoid -> Log.d(TAG, "Nota eliminada"));
+        NoteSearch.getInstance().remove(noteId);
+    }
+
+    // Obtiene una nota sólo con su id a través del índice noteId → carpeta
+    public void getNoteById(@NonNull String noteId,
+                            @NonNull OnSuccessListener<Note> listener,
+                            @NonNull Runnable onNotFound,
+                            @NonNull OnFailureListener onFailure) {
+        noteIndex.findNote(noteId, doc -> {
+            Note note = SchemaMigrations.readNote(doc);
+            if (note == null || note.getDeletedAt() != null) {
+                onNotFound.run();
+                return;
+            }
+            // La carpeta real es la del path del documento
+            note.setFolderId(doc.getReference().getParent().getParent().getId());
+            migrateImagesAndDeliver(note, listener);
+        }, onNotFound, onFailure);
+    }
+
+    /**
+     * Las notas antiguas llevan las imágenes en Base64 dentro del documento.
+     * Al leerlas se pasan a BlobStore y se guarda la nota con las referencias.
+     */
+    private void migrateImagesAndDeliver(@NonNull Note note, @NonNull OnSuccessListener<Note> listener) {
+        BlobStore.getInstance().migrateInlineImages(note, changed -> {
+            if (changed) {
+                saveMigratedImages(note);
+            }
+            listener.onSuccess(note);
+        });
+    }
+
+    private void saveMigratedImages(@NonNull Note note) {
+        String path = getNotesPath(note.getFolderId());
+        if (path == null) return;
+
+        WriteOutbox.getInstance().submit(outboxKey(note.getId()), "migrar imágenes de " + note.getId(), false, () -> {
+            WriteBatch batch = db.batch();
+            batch.update(db.collection(path).document(note.getId()),
+                    "contentBlocks", note.getContentBlocks(),
+                    "coverImageUrl", note.getCoverImageUrl(),
+                    REVISION, FieldValue.increment(1));
+            putHeader(batch, note.getFolderId(), note);
+            return FirestoreMeter.write(2, batch.commit());
+        }, aVoid -> Log.d(TAG, "Imágenes de la nota migradas a BlobStore"));
+    }
+
+    // Obtiene el cuerpo completo de una nota (lo usa el editor al abrirla)
+    public void getNoteBody(@NonNull String folderId,
+                            @NonNull String noteId,
+                            @NonNull OnSuccessListener<Note> listener,
+                            @NonNull Runnable onNotFound,
+                            @NonNull OnFailureListener onFailure) {
+        String path = getNotesPath(folderId);
+        if (path == null) return;
+
+        LocalStore.get(db.collection(path).document(noteId), doc -> {
+            Note note = SchemaMigrations.readNote(doc);
+            if (note == null) {
+                onNotFound.run();
+                return;
+            }
+            note.setFolderId(folderId);
+            migrateImagesAndDeliver(note, listener);
+        }, e -> {
+            Log.e(TAG, "Error al obtener nota", e);
+            onFailure.onFailure(e);
+        });
+    }
+
+    /**
+     * Documentos de la colección que no están en la papelera: count() en
+     * servidor de todos menos los que tienen deletedAt.
+     */
+    @NonNull
+    public static Task<Long> countLive(@NonNull Query collection) {
+        Task<AggregateQuerySnapshot> all =
+                FirestoreMeter.count(collection.count().get(AggregateSource.SERVER));
+        Task<AggregateQuerySnapshot> trashed = FirestoreMeter.count(
+                collection.whereNotEqualTo("deletedAt", null).count().get(AggregateSource.SERVER));
+        return Tasks.whenAll(all, trashed).continueWith(task -> {
+            if (!task.isSuccessful()) throw task.getException();
+            return all.getResult().getCount() - trashed.getResult().getCount();
+        });
+    }
+
+    /**
+     * Crea las cabeceras que falten en una carpeta (notas anteriores a NoteHeader).
+     * Compara los count() de notas y cabeceras; sólo si no coinciden se leen las notas.
+     * Se comprueba una vez por carpeta y sesión.
+     */
+    public void ensureHeaders(@NonNull String folderId) {
+        String path = getNotesPath(folderId);
+        String headersPath = getHeadersPath(folderId);
+        if (path == null || headersPath == null) return;
+        if (!headersChecked.add(path)) return;
+
+        // Sólo lo que no está en la papelera, a los dos lados
+        Task<Long> notesCount = countLive(db.collection(path));
+        Task<Long> headersCount = countLive(db.collection(headersPath));
+
+        Tasks.whenAllSuccess(notesCount, headersCount).addOnSuccessListener(results -> {
+            long notes = notesCount.getResult();
+            long headers = headersCount.getResult();
+            if (notes == headers) return;
+
+            Log.d(TAG, "Generando cabeceras para " + folderId + " (" + notes + " notas, " + headers + " cabeceras)");
+
+            FirestoreMeter.query(db.collection(path).get()).addOnSuccessListener(snapshot -> {
+                List<DocumentSnapshot> docs = snapshot.getDocuments();
+                for (int start = 0; start < docs.size(); start += MAX_BATCH_OPS) {
+                    WriteBatch batch = db.batch();
+                    int ops = 0;
+                    for (DocumentSnapshot doc : docs.subList(start, Math.min(start + MAX_BATCH_OPS, docs.size()))) {
+                        Note note = SchemaMigrations.readNote(doc);
+                        if (note == null) continue;
+                        // Recién leída del cuerpo: la cabecera completa, con su deletedAt
+                        batch.set(db.collection(headersPath).document(note.getId()), NoteHeader.fromNote(note));
+                        ops++;
+                    }
+                    FirestoreMeter.write(ops, batch.commit())
+                            .addOnFailureListener(e -> Log.e(TAG, "Error al generar cabeceras", e));
+                }
+            }).addOnFailureListener(e -> Log.e(TAG, "Error leyendo notas para cabeceras", e));
+
+        }).addOnFailureListener(e -> {
+            // Sin conexión: se volverá a intentar en la próxima sesión
+            headersChecked.remove(path);
+            Log.w(TAG, "No se pudieron comprobar las cabeceras de " + folderId, e);
+        });
     }
 
     // Obtiene todas las notas de una carpeta
@@ -139,10 +516,52 @@ public class NotesManager {
         String path = getNotesPath(folderId);
         if (path == null) return;
 
-        db.collection(path)
-                .get()
-                .addOnSuccessListener(listener)
-                .addOnFailureListener(e -> Log.e(TAG, "Error al obtener notas por carpeta", e));
+        LocalStore.get(db.collection(path), path, listener, "Error al obtener notas por carpeta");
+    }
+
+    /**
+     * Consulta de una página de cabeceras de nota ordenadas por título.
+     * after es el último documento de la página anterior (null para la primera).
+     */
+    public Query notesPageQuery(@NonNull String folderId,
+                                @Nullable DocumentSnapshot after,
+                                int pageSize) {
+        String path = getHeadersPath(folderId);
+        if (path == null) return null;
+
+        Query query = db.collection(path).orderBy("title");
+        if (after != null) {
+            query = query.startAfter(after);
+        }
+        return query.limit(pageSize);
+    }
+
+    // Obtiene una página de cabeceras de una carpeta (limit + startAfter)
+    public void getNotesPage(@NonNull String folderId,
+                             @Nullable DocumentSnapshot after,
+                             int pageSize,
+                             OnSuccessListener<QuerySnapshot> listener) {
+        Query query = notesPageQuery(folderId, after, pageSize);
+        if (query == null) return;
+
+        String key = getHeadersPath(folderId) + "?orderBy=title&limit=" + pageSize
+                + (after != null ? "&after=" + after.getId() : "");
+        LocalStore.get(query, key, listener, "Error al obtener página de notas");
+    }
+
+    /**
+     * Escucha en tiempo real una página de cabeceras. El primer snapshot trae la
+     * página completa; los siguientes sólo los cambios (getDocumentChanges()).
+     * Hay que llamar a remove() sobre el registro al cambiar de carpeta o cerrar la pantalla.
+     */
+    public ListenerRegistration listenNotesPage(@NonNull String folderId,
+                                                @Nullable DocumentSnapshot after,
+                                                int pageSize,
+                                                @NonNull EventListener<QuerySnapshot> listener) {
+        Query query = notesPageQuery(folderId, after, pageSize);
+        if (query == null) return null;
+
+        return query.addSnapshotListener(FirestoreMeter.queryListener(listener));
     }
 
     // Obtiene todas las notas favoritas de una carpeta
@@ -150,11 +569,9 @@ public class NotesManager {
         String path = getNotesPath(folderId);
         if (path == null) return;
 
-        db.collection(path)
-                .whereEqualTo("isFavorite", true)
-                .get()
-                .addOnSuccessListener(listener)
-                .addOnFailureListener(e -> Log.e(TAG, "Error al obtener notas favoritas", e));
+        // isFavorite() se guarda como "favorite" (ver SchemaMigrations)
+        LocalStore.get(db.collection(path).whereEqualTo("favorite", true), path + "?favorite",
+                listener, "Error al obtener notas favoritas");
     }
 
     // Obtiene todas las notas de todos los usuarios
@@ -165,9 +582,9 @@ public class NotesManager {
             return;
         }
 
-        db.collectionGroup("notes") // 🔹 busca en todas las subcolecciones llamadas "notes"
-                .whereEqualTo("userId", uid)
-                .get()
+        FirestoreMeter.query(db.collectionGroup("notes") // 🔹 busca en todas las subcolecciones llamadas "notes"
+                        .whereEqualTo("userId", uid)
+                        .get())
                 .addOnSuccessListener(listener)
                 .addOnFailureListener(e -> Log.e(TAG, "Error al obtener todas las notas", e));
     }
@@ -177,9 +594,18 @@ public class NotesManager {
         String path = getNotesPath(folderId);
         if (path == null) return;
 
-        db.collection(path)
-                .get()
-                .addOnSuccessListener(q -> listener.onSuccess(q.size()))
-                .addOnFailureListener(e -> Log.e(TAG, "Error contando notas", e));
+        // Agregación en servidor: no descarga los documentos. Sin contar la papelera
+        countLive(db.collection(path))
+                .addOnSuccessListener(count -> listener.onSuccess(count.intValue()))
+                .addOnFailureListener(e -> {
+                    Log.w(TAG, "count() no disponible, contando desde la caché local", e);
+                    LocalStore.get(db.collection(path), path, q -> {
+                        int live = 0;
+                        for (DocumentSnapshot doc : q) {
+                            if (doc.get("deletedAt") == null) live++;
+                        }
+                        listener.onSuccess(live);
+                    }, "Error contando notas");
+                });
     }
 }
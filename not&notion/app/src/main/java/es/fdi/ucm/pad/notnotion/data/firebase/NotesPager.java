@@ -0,0 +1,186 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Source;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.fdi.ucm.pad.notnotion.data.model.Note;
+import es.fdi.ucm.pad.notnotion.data.model.NoteHeader;
+
+/**
+ * Paginación de las notas de una carpeta con actualizaciones en tiempo real.
+ *
+ * Se pagina sobre las cabeceras (NoteHeader), no sobre los cuerpos de las notas.
+ * Cada página es un snapshot listener sobre orderBy("title").startAfter(cursor).limit(n),
+ * donde el cursor es el último documento de la página anterior. Sólo se piden
+ * páginas nuevas cuando la vista se acerca al final (loadNextPage()).
+ *
+ * Una nota puede salir de una página sin haberse borrado (renombrada o desplazada
+ * por una nota nueva antes del límite). En ese caso se comprueba en la caché local
+ * si sigue existiendo antes de quitarla de la lista.
+ *
+ * Las cabeceras de notas en la papelera (deletedAt) siguen en la consulta y
+ * cuentan para el cursor, pero a la lista le llegan como borradas.
+ */
+public class NotesPager {
+
+    private static final String TAG = "NotesPager";
+
+    public interface Listener {
+        // Nota nueva o modificada en cualquiera de las páginas cargadas
+        void onNoteChanged(@NonNull Note note);
+
+        void onNoteRemoved(@NonNull String noteId);
+
+        // La última página ha recibido un snapshot (hay más si hasMore)
+        void onPageSettled(boolean hasMore);
+    }
+
+    private final NotesManager notesManager;
+    private final String folderId;
+    private final int pageSize;
+    private final Listener listener;
+
+    private final List<ListenerRegistration> registrations = new ArrayList<>();
+    // Página a la que pertenece cada nota visible
+    private final Map<String, Integer> owner = new HashMap<>();
+
+    private DocumentSnapshot cursor;
+    private boolean loading = false;
+    private boolean hasMore = true;
+    private boolean closed = false;
+
+    public NotesPager(@NonNull NotesManager notesManager,
+                      @NonNull String folderId,
+                      int pageSize,
+                      @NonNull Listener listener) {
+        this.notesManager = notesManager;
+        this.folderId = folderId;
+        this.pageSize = pageSize;
+        this.listener = listener;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * Engancha el listener de la siguiente página (no hace nada si ya se está
+     * cargando una o si no quedan más).
+     */
+    public void loadNextPage() {
+        if (closed || loading || !hasMore) return;
+        loading = true;
+
+        final int page = registrations.size();
+        ListenerRegistration registration = notesManager.listenNotesPage(
+                folderId, cursor, pageSize, (snapshot, e) -> {
+                    if (closed) return;
+                    if (e != null) {
+                        Log.e(TAG, "Error escuchando página " + page + " de " + folderId, e);
+                        if (isTail(page)) loading = false;
+                        return;
+                    }
+                    if (snapshot == null) return;
+
+                    for (DocumentChange change : snapshot.getDocumentChanges()) {
+                        applyChange(page, change);
+                    }
+
+                    // Mientras sea la última página, su último documento es el cursor
+                    if (isTail(page)) {
+                        List<DocumentSnapshot> docs = snapshot.getDocuments();
+                        cursor = docs.isEmpty() ? cursor : docs.get(docs.size() - 1);
+                        hasMore = docs.size() >= pageSize;
+                        loading = false;
+                        listener.onPageSettled(hasMore);
+                    }
+                });
+
+        if (registration == null) {
+            loading = false;
+            return;
+        }
+        registrations.add(registration);
+    }
+
+    /**
+     * Suelta todos los listeners. El pager no se puede reutilizar después.
+     */
+    public void close() {
+        closed = true;
+        for (ListenerRegistration r : registrations) r.remove();
+        registrations.clear();
+        owner.clear();
+    }
+
+    private boolean isTail(int page) {
+        return page == registrations.size() - 1;
+    }
+
+    private void applyChange(int page, @NonNull DocumentChange change) {
+        DocumentSnapshot doc = change.getDocument();
+
+        if (change.getType() != DocumentChange.Type.REMOVED && isTrashed(doc)) {
+            if (owner.remove(doc.getId()) != null) listener.onNoteRemoved(doc.getId());
+            return;
+        }
+
+        if (change.getType() != DocumentChange.Type.REMOVED) {
+            owner.put(doc.getId(), page);
+            listener.onNoteChanged(toNote(doc));
+            return;
+        }
+
+        Integer current = owner.get(doc.getId());
+        if (current == null || current != page) {
+            // Ya la ha reclamado otra página
+            return;
+        }
+
+        if (isTail(page)) {
+            // Fuera del límite de la última página: volverá con la siguiente
+            owner.remove(doc.getId());
+            listener.onNoteRemoved(doc.getId());
+            return;
+        }
+
+        // Página intermedia: puede haberse desplazado en lugar de borrado
+        FirestoreMeter.document(doc.getReference().get(Source.CACHE)).addOnCompleteListener(task -> {
+            if (closed) return;
+            DocumentSnapshot latest = task.isSuccessful() ? task.getResult() : null;
+            if (latest != null && latest.exists() && !isTrashed(latest)) {
+                listener.onNoteChanged(toNote(latest));
+            } else {
+                owner.remove(doc.getId());
+                listener.onNoteRemoved(doc.getId());
+            }
+        });
+    }
+
+    private static boolean isTrashed(@NonNull DocumentSnapshot doc) {
+        return doc.get("deletedAt") != null;
+    }
+
+    // Las páginas son de cabeceras: la nota que reciben las listas no lleva contenido
+    private Note toNote(@NonNull DocumentSnapshot doc) {
+        NoteHeader header = doc.toObject(NoteHeader.class);
+        if (header == null) header = new NoteHeader();
+        header.setId(doc.getId());
+        return header.toListNote(folderId);
+    }
+}
@@ -0,0 +1,267 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.fdi.ucm.pad.notnotion.data.model.CalendarEvent;
+import es.fdi.ucm.pad.notnotion.data.model.ContentBlock;
+import es.fdi.ucm.pad.notnotion.data.model.Folder;
+import es.fdi.ucm.pad.notnotion.data.model.Note;
+
+/**
+ * Migraciones de formato de los documentos, aplicadas al leerlos.
+ *
+ * Cada documento lleva un campo schemaVersion (ausente = 0). Al leer una nota,
+ * carpeta o evento con una versión antigua se aplican en memoria los pasos
+ * pendientes (el que lee recibe ya el modelo actual) y los campos cambiados se
+ * apuntan para escribirse más tarde, agrupados en WriteBatch. Así un cambio de
+ * formato no obliga nunca a reescribir una colección entera de golpe: cada
+ * documento se actualiza la primera vez que alguien lo lee.
+ *
+ * Para cambiar un formato: añadir un paso al final de la lista del modelo y
+ * subir su SCHEMA_VERSION. El paso i lleva un documento de la versión i a la i+1.
+ *
+ * Las imágenes en Base64 no se migran aquí porque necesitan subir ficheros;
+ * lo hace BlobStore.migrateInlineImages() al abrir la nota.
+ */
+public final class SchemaMigrations {
+
+    private static final String TAG = "SchemaMigrations";
+    public static final String FIELD = "schemaVersion";
+
+    // Límite de operaciones por WriteBatch en Firestore
+    private static final int MAX_BATCH_OPS = 500;
+    // Espera antes de escribir lo acumulado (las lecturas suelen llegar en ráfagas)
+    private static final long FLUSH_DELAY_MS = 3_000;
+
+    /**
+     * Un paso de migración. Modifica el modelo y apunta en updates los campos
+     * que hay que reescribir en el documento (FieldValue.delete() para quitarlos).
+     */
+    interface Migration<T> {
+        void apply(@NonNull DocumentSnapshot raw, @NonNull T model, @NonNull Map<String, Object> updates);
+    }
+
+    // --- Registro: posición i = paso de la versión i a la i+1 ---
+
+    private static final List<Migration<Note>> NOTE_MIGRATIONS = Arrays.asList(
+            // 0 → 1: el texto plano "content" pasa a un bloque; "isFavorite" → "favorite"
+            (raw, note, updates) -> {
+                String content = raw.getString("content");
+                if (content != null) {
+                    if (note.getContentBlocks() == null || note.getContentBlocks().isEmpty()) {
+                        List<ContentBlock> blocks = new ArrayList<>();
+                        if (!content.trim().isEmpty()) {
+                            blocks.add(ContentBlock.createTextBlock(content, ContentBlock.STYLE_NORMAL, 16));
+                        }
+                        note.setContentBlocks(blocks);
+                        updates.put("contentBlocks", blocks);
+                    }
+                    updates.put("content", FieldValue.delete());
+                }
+                Boolean legacyFavorite = raw.getBoolean("isFavorite");
+                if (legacyFavorite != null) {
+                    if (!raw.contains("favorite")) {
+                        note.setFavorite(legacyFavorite);
+                        updates.put("favorite", legacyFavorite);
+                    }
+                    updates.put("isFavorite", FieldValue.delete());
+                }
+            }
+    );
+
+    private static final List<Migration<Folder>> FOLDER_MIGRATIONS = Arrays.asList(
+            // 0 → 1: "parentId" → "parentFolderId"
+            (raw, folder, updates) -> {
+                String legacyParent = raw.getString("parentId");
+                if (legacyParent != null) {
+                    if (folder.getParentFolderId() == null) {
+                        folder.setParentFolderId(legacyParent);
+                        updates.put("parentFolderId", legacyParent);
+                    }
+                    updates.put("parentId", FieldValue.delete());
+                }
+            }
+    );
+
+    private static final List<Migration<CalendarEvent>> EVENT_MIGRATIONS = Arrays.asList(
+            // 0 → 1: valores por defecto que los eventos antiguos no guardaban; "isRecurring" → "recurring"
+            (raw, event, updates) -> {
+                if (!raw.contains("maxSnoozeAllowed")) {
+                    event.setMaxSnoozeAllowed(3);
+                    updates.put("maxSnoozeAllowed", 3);
+                }
+                Boolean legacyRecurring = raw.getBoolean("isRecurring");
+                if (legacyRecurring != null) {
+                    if (!raw.contains("recurring")) {
+                        event.setRecurring(legacyRecurring);
+                        updates.put("recurring", legacyRecurring);
+                    }
+                    updates.put("isRecurring", FieldValue.delete());
+                }
+            }
+    );
+
+    static {
+        check(NOTE_MIGRATIONS, Note.SCHEMA_VERSION, "Note");
+        check(FOLDER_MIGRATIONS, Folder.SCHEMA_VERSION, "Folder");
+        check(EVENT_MIGRATIONS, CalendarEvent.SCHEMA_VERSION, "CalendarEvent");
+    }
+
+    private SchemaMigrations() {}
+
+    // ---------------------------------------------------------------
+    // Lectura
+    // ---------------------------------------------------------------
+
+    /** La nota del documento en el formato actual (null si no existe). */
+    @Nullable
+    public static Note readNote(@NonNull DocumentSnapshot doc) {
+        Note note = read(doc, Note.class, NOTE_MIGRATIONS);
+        if (note != null) {
+            note.setId(doc.getId());
+            note.setSchemaVersion(Note.SCHEMA_VERSION);
+        }
+        return note;
+    }
+
+    @Nullable
+    public static Folder readFolder(@NonNull DocumentSnapshot doc) {
+        Folder folder = read(doc, Folder.class, FOLDER_MIGRATIONS);
+        if (folder != null) {
+            folder.setId(doc.getId());
+            folder.setSchemaVersion(Folder.SCHEMA_VERSION);
+            if (Boolean.TRUE.equals(doc.getBoolean(Folder.NOTE_COUNTED))) {
+                Long count = doc.getLong(Folder.NOTE_COUNT);
+                folder.setNoteCount(count != null ? Math.max(0, count) : 0L);
+            }
+        }
+        return folder;
+    }
+
+    @Nullable
+    public static CalendarEvent readEvent(@NonNull DocumentSnapshot doc) {
+        CalendarEvent event = read(doc, CalendarEvent.class, EVENT_MIGRATIONS);
+        if (event != null) {
+            event.setId(doc.getId());
+            event.setSchemaVersion(CalendarEvent.SCHEMA_VERSION);
+        }
+        return event;
+    }
+
+    @Nullable
+    private static <T> T read(@NonNull DocumentSnapshot doc,
+                              @NonNull Class<T> type,
+                              @NonNull List<Migration<T>> migrations) {
+        if (!doc.exists()) return null;
+        T model = doc.toObject(type);
+        if (model == null) return null;
+
+        Long stored = doc.getLong(FIELD);
+        int version = stored != null ? stored.intValue() : 0;
+        if (version >= migrations.size()) return model;
+
+        Map<String, Object> updates = new HashMap<>();
+        for (int v = version; v < migrations.size(); v++) {
+            migrations.get(v).apply(doc, model, updates);
+        }
+        updates.put(FIELD, migrations.size());
+
+        // Lo que venga de la caché sin escribir todavía se reintentará en la próxima lectura
+        Writer.INSTANCE.enqueue(doc.getReference(), updates);
+        return model;
+    }
+
+    private static void check(@NonNull List<?> migrations, int version, @NonNull String model) {
+        if (migrations.size() != version) {
+            throw new IllegalStateException(model + ".SCHEMA_VERSION no coincide con sus migraciones");
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Escritura diferida por lotes
+    // ---------------------------------------------------------------
+
+    private static final class Writer {
+        static final Writer INSTANCE = new Writer();
+
+        private final Handler main = new Handler(Looper.getMainLooper());
+        // Ruta del documento → campos pendientes (se puede leer desde otros hilos, p. ej. al exportar)
+        private final Map<String, DocumentReference> refs = new LinkedHashMap<>();
+        private final Map<String, Map<String, Object>> pending = new HashMap<>();
+        private boolean scheduled = false;
+
+        private final Runnable flush = this::flush;
+
+        synchronized void enqueue(@NonNull DocumentReference ref, @NonNull Map<String, Object> updates) {
+            String path = ref.getPath();
+            refs.put(path, ref);
+            Map<String, Object> existing = pending.get(path);
+            if (existing == null) {
+                pending.put(path, updates);
+            } else {
+                existing.putAll(updates);
+            }
+
+            if (pending.size() >= MAX_BATCH_OPS) {
+                main.removeCallbacks(flush);
+                main.post(flush);
+                scheduled = true;
+            } else if (!scheduled) {
+                main.postDelayed(flush, FLUSH_DELAY_MS);
+                scheduled = true;
+            }
+        }
+
+        private void flush() {
+            Map<String, DocumentReference> batchRefs;
+            Map<String, Map<String, Object>> batchUpdates;
+            synchronized (this) {
+                scheduled = false;
+                if (pending.isEmpty()) return;
+                batchRefs = new LinkedHashMap<>(refs);
+                batchUpdates = new HashMap<>(pending);
+                refs.clear();
+                pending.clear();
+            }
+
+            List<String> paths = new ArrayList<>(batchRefs.keySet());
+            for (int start = 0; start < paths.size(); start += MAX_BATCH_OPS) {
+                List<String> chunk = paths.subList(start, Math.min(start + MAX_BATCH_OPS, paths.size()));
+
+                WriteBatch batch = FirebaseFirestore.getInstance().batch();
+                for (String path : chunk) {
+                    batch.update(batchRefs.get(path), batchUpdates.get(path));
+                }
+                FirestoreMeter.write(chunk.size(), batch.commit())
+                        .addOnSuccessListener(aVoid -> Log.d(TAG, chunk.size() + " documentos migrados"))
+                        .addOnFailureListener(e -> {
+                            // Un documento borrado entretanto hace fallar el lote entero: uno a uno
+                            Log.w(TAG, "Lote de migración fallido, se reintenta documento a documento", e);
+                            for (String path : chunk) {
+                                FirestoreMeter.write(1, batchRefs.get(path).update(batchUpdates.get(path)))
+                                        .addOnFailureListener(err ->
+                                                Log.w(TAG, "No se pudo migrar " + path, err));
+                            }
+                        });
+            }
+        }
+    }
+}
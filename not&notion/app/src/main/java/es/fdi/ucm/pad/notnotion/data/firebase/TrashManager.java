@@ -0,0 +1,381 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import es.fdi.ucm.pad.notnotion.data.model.CalendarEvent;
+import es.fdi.ucm.pad.notnotion.data.model.Folder;
+import es.fdi.ucm.pad.notnotion.data.model.Note;
+import es.fdi.ucm.pad.notnotion.data.model.NoteHeader;
+import es.fdi.ucm.pad.notnotion.data.model.TrashItem;
+import es.fdi.ucm.pad.notnotion.data.search.NoteSearch;
+import es.fdi.ucm.pad.notnotion.ui.notifications.NotificationScheduler;
+
+/**
+ * Papelera de notas y carpetas.
+ *
+ * Mandar algo a la papelera es un único WriteBatch: se marca deletedAt en el
+ * documento (y en la cabecera si es una nota) y se crea su entrada en
+ * users/{uid}/trash. Las listas lo dejan de mostrar al instante (NotesPager,
+ * FolderTree) y se puede restaurar durante RETENTION_DAYS días.
+ *
+ * El borrado real lo hace purgeExpired(), que lanza TrashPurgeJobService con
+ * el móvil inactivo y cargando: las notas caducadas se borran en lotes de
+ * hasta 500 operaciones y las carpetas con FolderDeleter. Los eventos
+ * vinculados a una nota se borran también entonces, no al mandarla a la papelera.
+ */
+public class TrashManager {
+
+    private static final String TAG = "TrashManager";
+
+    public static final int RETENTION_DAYS = 30;
+
+    // Límite de operaciones por WriteBatch en Firestore
+    private static final int MAX_BATCH_OPS = 500;
+    // Cuerpo, cabecera, entrada del índice y entrada de la papelera: siempre en el mismo lote
+    private static final int OPS_PER_NOTE = 4;
+    // Entradas de la papelera que se leen en cada vuelta de la purga
+    private static final int PURGE_PAGE_SIZE = 250;
+
+    private final FirebaseFirestore db;
+    private final FirebaseAuth auth;
+    private final NoteIndex noteIndex;
+
+    public TrashManager() {
+        db = FirebaseFirestore.getInstance();
+        auth = FirebaseAuth.getInstance();
+        noteIndex = new NoteIndex();
+    }
+
+    private String getUserPath() {
+        String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+        if (uid == null) {
+            Log.e(TAG, "No hay usuario autenticado");
+            return null;
+        }
+        return "users/" + uid;
+    }
+
+    private DocumentReference trashRef(@NonNull String userPath, @NonNull String itemId) {
+        return db.collection(userPath + "/trash").document(itemId);
+    }
+
+    private DocumentReference folderRef(@NonNull String userPath, @NonNull String folderId) {
+        return db.collection(userPath + "/folders").document(folderId);
+    }
+
+    private DocumentReference noteRef(@NonNull String userPath, @NonNull String folderId, @NonNull String noteId) {
+        return folderRef(userPath, folderId).collection("notes").document(noteId);
+    }
+
+    private DocumentReference headerRef(@NonNull String userPath, @NonNull String folderId, @NonNull String noteId) {
+        return folderRef(userPath, folderId).collection("headers").document(noteId);
+    }
+
+    private static Timestamp expiryOf(@NonNull Timestamp deletedAt) {
+        return new Timestamp(new Date(deletedAt.toDate().getTime() + TimeUnit.DAYS.toMillis(RETENTION_DAYS)));
+    }
+
+    // ---------------------------------------------------------------
+    // Mandar a la papelera
+    // ---------------------------------------------------------------
+
+    public void trashNote(@NonNull Note note) {
+        String userPath = getUserPath();
+        if (userPath == null) return;
+
+        Timestamp now = Timestamp.now();
+        TrashItem item = new TrashItem(note.getId(), TrashItem.TYPE_NOTE, note.getTitle(),
+                note.getFolderId(), now, expiryOf(now));
+
+        WriteOutbox.getInstance().submit(NotesManager.outboxKey(note.getId()),
+                "papelera nota " + note.getId(), false, () -> {
+                    WriteBatch batch = db.batch();
+                    // La revisión sube: un editor abierto en otro dispositivo fusiona con esto
+                    batch.update(noteRef(userPath, note.getFolderId(), note.getId()), "deletedAt", now,
+                            NotesManager.REVISION, FieldValue.increment(1));
+                    // merge: las notas antiguas pueden no tener cabecera todavía
+                    Map<String, Object> header = NoteHeader.changeFields();
+                    header.put("deletedAt", now);
+                    batch.set(headerRef(userPath, note.getFolderId(), note.getId()), header, SetOptions.merge());
+                    batch.set(trashRef(userPath, note.getId()), item);
+                    FoldersManager.countNotes(batch, folderRef(userPath, note.getFolderId()), -1);
+                    return FirestoreMeter.write(4, batch.commit());
+                }, aVoid -> Log.d(TAG, "Nota a la papelera: " + note.getId()));
+        NoteSearch.getInstance().remove(note.getId());
+    }
+
+    /**
+     * La carpeta se marca sola: su contenido deja de ser alcanzable con ella
+     * (ver FolderTree) y vuelve entero al restaurarla.
+     */
+    public void trashFolder(@NonNull Folder folder) {
+        String userPath = getUserPath();
+        if (userPath == null) return;
+
+        Timestamp now = Timestamp.now();
+        TrashItem item = new TrashItem(folder.getId(), TrashItem.TYPE_FOLDER, folder.getName(),
+                folder.getParentFolderId(), now, expiryOf(now));
+
+        WriteOutbox.getInstance().submit(FoldersManager.outboxKey(folder.getId()),
+                "papelera carpeta " + folder.getId(), false, () -> {
+                    WriteBatch batch = db.batch();
+                    batch.update(folderRef(userPath, folder.getId()), "deletedAt", now);
+                    batch.set(trashRef(userPath, folder.getId()), item);
+                    return FirestoreMeter.write(2, batch.commit());
+                }, aVoid -> Log.d(TAG, "Carpeta a la papelera: " + folder.getId()));
+        NoteSearch.getInstance().removeFolders(FolderTree.getInstance().getSubtreeIds(folder.getId()));
+    }
+
+    // ---------------------------------------------------------------
+    // Consultar y restaurar
+    // ---------------------------------------------------------------
+
+    /**
+     * Contenido de la papelera, lo más reciente primero.
+     */
+    public void getItems(@NonNull OnSuccessListener<List<TrashItem>> listener) {
+        String userPath = getUserPath();
+        if (userPath == null) return;
+
+        LocalStore.get(db.collection(userPath + "/trash").orderBy("deletedAt", Query.Direction.DESCENDING),
+                userPath + "/trash?orderBy=deletedAt",
+                snapshot -> {
+                    List<TrashItem> items = new ArrayList<>();
+                    for (QueryDocumentSnapshot doc : snapshot) {
+                        TrashItem item = doc.toObject(TrashItem.class);
+                        item.setItemId(doc.getId());
+                        items.add(item);
+                    }
+                    listener.onSuccess(items);
+                }, "Error al obtener la papelera");
+    }
+
+    /**
+     * Devuelve el elemento a su sitio. Si está dentro de una carpeta que
+     * también está en la papelera, se restauran con él esas carpetas: si no,
+     * seguiría sin ser alcanzable desde la raíz. onFailure se llama si no se
+     * ha podido preparar la restauración (nota ilegible o sin árbol de carpetas).
+     */
+    public void restore(@NonNull TrashItem item, @NonNull Runnable onComplete,
+                        @NonNull OnFailureListener onFailure) {
+        String userPath = getUserPath();
+        if (userPath == null) return;
+
+        if (TrashItem.TYPE_FOLDER.equals(item.getType())) {
+            FolderTree tree = FolderTree.getInstance();
+            tree.whenReady(() -> {
+                // La propia carpeta primero, aunque el árbol aún no la tenga como borrada
+                List<String> trashedFolders = new ArrayList<>();
+                trashedFolders.add(item.getItemId());
+                for (String folderId : tree.getTrashedAncestors(item.getItemId())) {
+                    if (!trashedFolders.contains(folderId)) trashedFolders.add(folderId);
+                }
+
+                WriteOutbox.getInstance().submit(FoldersManager.outboxKey(item.getItemId()),
+                        "restaurar carpeta " + item.getItemId(), false, () -> {
+                            WriteBatch batch = db.batch();
+                            for (String folderId : trashedFolders) {
+                                batch.update(folderRef(userPath, folderId), "deletedAt", FieldValue.delete());
+                                batch.delete(trashRef(userPath, folderId));
+                            }
+                            return FirestoreMeter.write(2 * trashedFolders.size(), batch.commit());
+                        }, aVoid -> onComplete.run());
+
+                Set<String> restoredFolders = new HashSet<>();
+                for (String folderId : trashedFolders) restoredFolders.addAll(tree.getSubtreeIds(folderId));
+                NoteSearch.getInstance().reindexFolders(restoredFolders);
+            }, onFailure);
+            return;
+        }
+
+        // La cabecera se rehace desde el cuerpo (puede no existir o estar incompleta)
+        DocumentReference noteRef = noteRef(userPath, item.getFolderId(), item.getItemId());
+        LocalStore.get(noteRef, doc -> {
+            Note note = SchemaMigrations.readNote(doc);
+            if (note == null) {
+                onFailure.onFailure(new IllegalStateException("Nota ilegible: " + item.getItemId()));
+                return;
+            }
+            note.setDeletedAt(null);
+
+            FolderTree tree = FolderTree.getInstance();
+            tree.whenReady(() -> {
+                List<String> trashedFolders = tree.getTrashedAncestors(item.getFolderId());
+
+                WriteOutbox.getInstance().submit(NotesManager.outboxKey(item.getItemId()),
+                        "restaurar nota " + item.getItemId(), false, () -> {
+                            WriteBatch batch = db.batch();
+                            batch.update(noteRef, "deletedAt", FieldValue.delete(),
+                                    NotesManager.REVISION, FieldValue.increment(1));
+                            batch.set(headerRef(userPath, item.getFolderId(), item.getItemId()),
+                                    NoteHeader.fromNote(note));
+                            batch.delete(trashRef(userPath, item.getItemId()));
+                            FoldersManager.countNotes(batch, folderRef(userPath, item.getFolderId()), 1);
+                            for (String folderId : trashedFolders) {
+                                batch.update(folderRef(userPath, folderId), "deletedAt", FieldValue.delete());
+                                batch.delete(trashRef(userPath, folderId));
+                            }
+                            return FirestoreMeter.write(4 + 2 * trashedFolders.size(), batch.commit());
+                        }, aVoid -> onComplete.run());
+
+                note.setFolderId(item.getFolderId());
+                NoteSearch.getInstance().update(note);
+                // Las carpetas restauradas con ella vuelven con todas sus notas
+                Set<String> restoredFolders = new HashSet<>();
+                for (String folderId : trashedFolders) restoredFolders.addAll(tree.getSubtreeIds(folderId));
+                if (!restoredFolders.isEmpty()) NoteSearch.getInstance().reindexFolders(restoredFolders);
+            }, onFailure);
+        }, e -> {
+            Log.e(TAG, "Error al leer la nota a restaurar", e);
+            onFailure.onFailure(e);
+        });
+    }
+
+    // ---------------------------------------------------------------
+    // Purga
+    // ---------------------------------------------------------------
+
+    /**
+     * Borra definitivamente lo que lleva más de RETENTION_DAYS días en la papelera.
+     * onComplete se llama al terminar (también si falla: se reintentará en la próxima ejecución).
+     */
+    public void purgeExpired(@NonNull Context context, @NonNull Runnable onComplete) {
+        purge(context.getApplicationContext(), Timestamp.now(), onComplete);
+    }
+
+    /**
+     * Vacía la papelera entera sin esperar a que caduque nada.
+     */
+    public void emptyTrash(@NonNull Context context, @NonNull Runnable onComplete) {
+        purge(context.getApplicationContext(), null, onComplete);
+    }
+
+    // Una página de entradas por vuelta hasta que no quede ninguna
+    private void purge(@NonNull Context context, @Nullable Timestamp expiredBefore, @NonNull Runnable onComplete) {
+        String userPath = getUserPath();
+        if (userPath == null) {
+            onComplete.run();
+            return;
+        }
+
+        Query query = db.collection(userPath + "/trash");
+        if (expiredBefore != null) {
+            query = query.whereLessThanOrEqualTo("expiresAt", expiredBefore);
+        }
+
+        FirestoreMeter.query(query.limit(PURGE_PAGE_SIZE).get()).addOnSuccessListener(snapshot -> {
+            List<TrashItem> notes = new ArrayList<>();
+            List<TrashItem> folders = new ArrayList<>();
+            for (QueryDocumentSnapshot doc : snapshot) {
+                TrashItem item = doc.toObject(TrashItem.class);
+                item.setItemId(doc.getId());
+                (TrashItem.TYPE_FOLDER.equals(item.getType()) ? folders : notes).add(item);
+            }
+
+            if (notes.isEmpty() && folders.isEmpty()) {
+                onComplete.run();
+                return;
+            }
+
+            List<Task<Void>> work = new ArrayList<>(purgeNotes(context, userPath, notes));
+            for (TrashItem folder : folders) {
+                work.add(purgeFolder(context, userPath, folder));
+            }
+
+            Tasks.whenAll(work)
+                    .addOnSuccessListener(aVoid -> {
+                        Log.d(TAG, "Purgados " + notes.size() + " notas y " + folders.size() + " carpetas");
+                        if (snapshot.size() < PURGE_PAGE_SIZE) {
+                            onComplete.run();
+                        } else {
+                            purge(context, expiredBefore, onComplete);
+                        }
+                    })
+                    .addOnFailureListener(e -> {
+                        Log.e(TAG, "Purga incompleta, se reintentará", e);
+                        onComplete.run();
+                    });
+
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Error al leer la papelera", e);
+            onComplete.run();
+        });
+    }
+
+    // Las operaciones de cada nota van en el mismo lote, con la entrada de la papelera al final
+    @NonNull
+    private List<Task<Void>> purgeNotes(@NonNull Context context, @NonNull String userPath,
+                                        @NonNull List<TrashItem> notes) {
+        List<Task<Void>> commits = new ArrayList<>();
+        int perBatch = MAX_BATCH_OPS / OPS_PER_NOTE;
+
+        for (int start = 0; start < notes.size(); start += perBatch) {
+            List<TrashItem> chunk = notes.subList(start, Math.min(start + perBatch, notes.size()));
+
+            WriteBatch batch = db.batch();
+            for (TrashItem item : chunk) {
+                batch.delete(noteRef(userPath, item.getFolderId(), item.getItemId()));
+                batch.delete(headerRef(userPath, item.getFolderId(), item.getItemId()));
+                noteIndex.unregister(batch, item.getItemId());
+                batch.delete(trashRef(userPath, item.getItemId()));
+            }
+            commits.add(FirestoreMeter.write(chunk.size() * OPS_PER_NOTE, batch.commit()));
+
+            for (TrashItem item : chunk) {
+                deleteLinkedEvents(context, item.getItemId());
+            }
+        }
+        return commits;
+    }
+
+    private void deleteLinkedEvents(@NonNull Context context, @NonNull String noteId) {
+        CalendarEventsManager events = new CalendarEventsManager();
+        events.getEventsByNote(noteId, snapshot -> {
+            for (QueryDocumentSnapshot doc : snapshot) {
+                CalendarEvent ev = SchemaMigrations.readEvent(doc);
+                NotificationScheduler.cancelNotifications(context, ev);
+                events.deleteEvent(ev, () -> Log.d(TAG, "Evento de nota purgada eliminado: " + ev.getId()));
+            }
+        });
+    }
+
+    // Subárbol completo con FolderDeleter; la entrada de la papelera se quita al terminar.
+    // Sin FolderTree: la purga corre en segundo plano, sin interfaz que cierre su listener
+    @NonNull
+    private Task<Void> purgeFolder(@NonNull Context context, @NonNull String userPath, @NonNull TrashItem folder) {
+        TaskCompletionSource<Void> done = new TaskCompletionSource<>();
+        new FolderDeleter(context).deleteDetached(folder.getItemId(), () ->
+                FirestoreMeter.write(1, trashRef(userPath, folder.getItemId()).delete())
+                        .addOnSuccessListener(aVoid -> done.setResult(null))
+                        .addOnFailureListener(done::setException),
+                done::trySetException);
+        return done.getTask();
+    }
+}
@@ -0,0 +1,61 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.auth.FirebaseAuth;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tarea periódica que vacía de la papelera lo caducado (TrashManager.purgeExpired).
+ * Sólo corre con el móvil inactivo, cargando y con red, para que los lotes
+ * grandes de borrado no compitan con el uso normal de la app.
+ */
+public class TrashPurgeJobService extends JobService {
+
+    private static final String TAG = "TrashPurgeJob";
+
+    private static final int JOB_ID = 2001;
+    private static final long INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Programa la tarea si no lo está ya. Se puede llamar en cada arranque.
+     */
+    public static void schedule(@NonNull Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null || scheduler.getPendingJob(JOB_ID) != null) return;
+
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, TrashPurgeJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setPeriodic(INTERVAL_MS)
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+        Log.d(TAG, "Purga de la papelera programada");
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        if (FirebaseAuth.getInstance().getCurrentUser() == null) return false;
+
+        Log.d(TAG, "Purgando la papelera");
+        new TrashManager().purgeExpired(this, () -> jobFinished(params, false));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Interrumpida (el móvil ha dejado de estar inactivo): lo que quede, en la próxima
+        return true;
+    }
+}
@@ -0,0 +1,509 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.squareup.picasso.Picasso;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import es.fdi.ucm.pad.notnotion.R;
+import es.fdi.ucm.pad.notnotion.data.model.User;
+
+/**
+ * Perfil del usuario actual (documento users/{uid}) compartido por toda la app.
+ *
+ * El documento se escucha una sola vez por sesión con un snapshot listener y
+ * los cambios (p. ej. al editar el perfil) se envían a los observadores.
+ * La foto en Base64 se decodifica una sola vez por tamaño: el resultado queda
+ * en una LruCache en memoria y en disco (cacheDir/avatars), de modo que en el
+ * siguiente arranque se pinta sin decodificar nada, incluso antes de que
+ * llegue el documento.
+ *
+ * Igual que FolderTree, la instancia va ligada al usuario autenticado y se
+ * descarta con reset() al cerrar sesión. Sólo se usa desde el hilo principal.
+ */
+public class UserProfileRepository {
+
+    private static final String TAG = "UserProfileRepository";
+    private static final String PREFS_NAME = "user_profile";
+    private static final String AVATAR_DIR = "avatars";
+
+    // Los tamaños se redondean a múltiplos de esto para no guardar una versión por cada vista
+    private static final int SIZE_STEP_PX = 64;
+    private static final int DEFAULT_SIZE_PX = 256;
+    private static final int MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+
+    public interface OnProfileChangedListener {
+        void onProfileChanged(@NonNull Profile profile);
+    }
+
+    /** Lo que necesitan las pantallas del perfil. */
+    public static class Profile {
+        private final User user;
+        private final String username;
+        private final String photoKey;
+        private final Uri authPhotoUrl;
+
+        Profile(@Nullable User user, @NonNull String username,
+                @Nullable String photoKey, @Nullable Uri authPhotoUrl) {
+            this.user = user;
+            this.username = username;
+            this.photoKey = photoKey;
+            this.authPhotoUrl = authPhotoUrl;
+        }
+
+        /** Documento de Firestore (null si no existe o no se pudo leer). */
+        @Nullable
+        public User getUser() { return user; }
+
+        /** Nombre a mostrar, con el de FirebaseAuth como fallback. */
+        @NonNull
+        public String getUsername() { return username; }
+
+        public boolean hasPhoto() { return photoKey != null; }
+
+        @Nullable
+        public Uri getAuthPhotoUrl() { return authPhotoUrl; }
+    }
+
+    private static Context appContext;
+    private static UserProfileRepository instance;
+
+    // Compartidas entre usuarios: las claves son el hash de la foto
+    private static final LruCache<String, Bitmap> memory = new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+    private static final ExecutorService io = Executors.newSingleThreadExecutor();
+
+    private final String uid;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private ListenerRegistration registration;
+    private boolean loaded = false;
+
+    private Profile profile;
+    // Foto actual en Base64 (sólo hace falta para decodificar tamaños que no están en caché)
+    private String photoBase64;
+
+    private final List<OnProfileChangedListener> listeners = new ArrayList<>();
+    private final List<OnSuccessListener<Profile>> pendingReady = new ArrayList<>();
+    // Decodificaciones en curso: clave de caché → quién espera el resultado
+    private final Map<String, List<OnSuccessListener<Bitmap>>> decoding = new HashMap<>();
+
+    private UserProfileRepository(@NonNull String uid) {
+        this.uid = uid;
+        this.profile = new Profile(null, "Sin nombre", null, null);
+    }
+
+    // Se llama una vez desde NotNotionApp
+    public static synchronized void init(@NonNull Context context) {
+        if (appContext == null) {
+            appContext = context.getApplicationContext();
+        }
+    }
+
+    /**
+     * Devuelve el perfil del usuario actual, creándolo (y empezando a escuchar)
+     * si no existe o si ha cambiado el usuario.
+     */
+    public static synchronized UserProfileRepository getInstance() {
+        if (appContext == null) {
+            throw new IllegalStateException("UserProfileRepository.init() no se ha llamado");
+        }
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        String uid = user != null ? user.getUid() : null;
+
+        if (instance != null && (uid == null || !uid.equals(instance.uid))) {
+            instance.stop();
+            instance = null;
+        }
+        if (instance == null) {
+            instance = new UserProfileRepository(uid != null ? uid : "");
+            if (uid != null) {
+                instance.start();
+            } else {
+                Log.e(TAG, "No hay usuario autenticado");
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Deja de escuchar y descarta el perfil (p. ej. al cerrar sesión).
+     * Las cachés de avatares se conservan: van por hash de la foto.
+     */
+    public static synchronized void reset() {
+        if (instance != null) {
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Lectura y observadores
+    // ---------------------------------------------------------------
+
+    /** Perfil actual (el guardado de la sesión anterior mientras no llega el documento). */
+    @NonNull
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /** Entrega el perfil una vez, cuando el documento ya se ha leído. */
+    public void get(@NonNull OnSuccessListener<Profile> listener) {
+        if (loaded) {
+            listener.onSuccess(profile);
+        } else {
+            pendingReady.add(listener);
+        }
+    }
+
+    /**
+     * Entrega el perfil ahora y cada vez que cambie, mientras owner no se destruya.
+     */
+    public void observe(@NonNull LifecycleOwner owner, @NonNull OnProfileChangedListener listener) {
+        if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) return;
+
+        listeners.add(listener);
+        owner.getLifecycle().addObserver((LifecycleEventObserver) (source, event) -> {
+            if (event == Lifecycle.Event.ON_DESTROY) {
+                listeners.remove(listener);
+            }
+        });
+        listener.onProfileChanged(profile);
+    }
+
+    /**
+     * Actualiza nombre y, si photoBase64 no es null, la foto. Los observadores
+     * reciben el cambio por el snapshot listener (también sin conexión).
+     */
+    @NonNull
+    public Task<Void> updateProfile(@NonNull String username, @Nullable String newPhotoBase64) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("username", username);
+        if (newPhotoBase64 != null) updates.put("photoBase64", newPhotoBase64);
+
+        return FirestoreMeter.write(1, FirebaseFirestore.getInstance()
+                .collection("users").document(uid)
+                .update(updates));
+    }
+
+    // ---------------------------------------------------------------
+    // Avatar
+    // ---------------------------------------------------------------
+
+    /**
+     * Pinta el avatar en la vista al tamaño de su layout. Sin foto propia usa la
+     * de FirebaseAuth (Google) con Picasso, y si tampoco hay, ic_user.
+     */
+    public void bindAvatar(@NonNull ImageView view) {
+        Profile current = profile;
+        if (!current.hasPhoto()) {
+            view.setTag(null);
+            if (current.getAuthPhotoUrl() != null) {
+                Picasso.get()
+                        .load(current.getAuthPhotoUrl())
+                        .placeholder(R.drawable.ic_user)
+                        .error(R.drawable.ic_user)
+                        .into(view);
+            } else {
+                view.setImageResource(R.drawable.ic_user);
+            }
+            return;
+        }
+
+        int size = sizeOf(view);
+        String key = cacheKey(current.photoKey, size);
+        view.setTag(key);
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        loadAvatar(size, bitmap -> {
+            // La vista puede haberse reutilizado para otra foto mientras tanto
+            if (!key.equals(view.getTag())) return;
+            if (bitmap != null) {
+                view.setImageBitmap(bitmap);
+            } else {
+                view.setImageResource(R.drawable.ic_user);
+            }
+        });
+    }
+
+    /**
+     * Avatar escalado para que su lado mayor mida sizePx (null si no hay foto).
+     * Busca en memoria, luego en disco y sólo en último caso decodifica el Base64.
+     */
+    public void loadAvatar(int sizePx, @NonNull OnSuccessListener<Bitmap> listener) {
+        String photoKey = profile.photoKey;
+        if (photoKey == null) {
+            listener.onSuccess(null);
+            return;
+        }
+
+        int size = bucket(sizePx);
+        String key = cacheKey(photoKey, size);
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            listener.onSuccess(cached);
+            return;
+        }
+
+        List<OnSuccessListener<Bitmap>> waiting = decoding.get(key);
+        if (waiting != null) {
+            waiting.add(listener);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(listener);
+        decoding.put(key, waiting);
+
+        // Antes de que llegue el documento sólo vale lo que haya en disco
+        String base64 = photoBase64;
+        io.execute(() -> {
+            Bitmap bitmap = readFromDisk(key);
+            if (bitmap == null && base64 != null) {
+                bitmap = decode(base64, size);
+                if (bitmap != null) writeToDisk(key, bitmap);
+            }
+            Bitmap result = bitmap;
+            main.post(() -> {
+                if (result != null) memory.put(key, result);
+                List<OnSuccessListener<Bitmap>> done = decoding.remove(key);
+                if (done == null) return;
+                for (OnSuccessListener<Bitmap> l : done) l.onSuccess(result);
+            });
+        });
+    }
+
+    // ---------------------------------------------------------------
+
+    private void start() {
+        // Lo último conocido, para pintar algo antes de que llegue el documento
+        SharedPreferences prefs = prefs();
+        profile = new Profile(null,
+                fallbackName(prefs.getString(uid + ".username", null)),
+                prefs.getString(uid + ".photo", null),
+                authPhotoUrl());
+
+        registration = FirebaseFirestore.getInstance()
+                .collection("users").document(uid)
+                .addSnapshotListener(FirestoreMeter.documentListener((snapshot, e) -> {
+                    if (e != null) {
+                        Log.e(TAG, "Error escuchando el perfil", e);
+                        markLoaded();
+                        return;
+                    }
+                    if (snapshot == null) return;
+                    apply(snapshot);
+                }));
+    }
+
+    private void stop() {
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        listeners.clear();
+        pendingReady.clear();
+        decoding.clear();
+        photoBase64 = null;
+        loaded = false;
+    }
+
+    private void apply(@NonNull DocumentSnapshot snapshot) {
+        User user = snapshot.exists() ? snapshot.toObject(User.class) : null;
+        String base64 = snapshot.getString("photoBase64");
+        if (base64 != null && base64.isEmpty()) base64 = null;
+
+        String previousKey = profile.photoKey;
+        String photoKey = hash(base64);
+        photoBase64 = base64;
+        profile = new Profile(user,
+                fallbackName(snapshot.getString("username")),
+                photoKey,
+                authPhotoUrl());
+
+        prefs().edit()
+                .putString(uid + ".username", snapshot.getString("username"))
+                .putString(uid + ".photo", photoKey)
+                .apply();
+
+        if (previousKey != null && !previousKey.equals(photoKey)) {
+            io.execute(() -> deleteFromDisk(previousKey));
+        }
+
+        markLoaded();
+        for (OnProfileChangedListener l : new ArrayList<>(listeners)) {
+            l.onProfileChanged(profile);
+        }
+    }
+
+    private void markLoaded() {
+        if (loaded) return;
+        loaded = true;
+        List<OnSuccessListener<Profile>> ready = new ArrayList<>(pendingReady);
+        pendingReady.clear();
+        for (OnSuccessListener<Profile> l : ready) l.onSuccess(profile);
+    }
+
+    @NonNull
+    private String fallbackName(@Nullable String username) {
+        if (username != null && !username.trim().isEmpty()) return username;
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user != null && user.getDisplayName() != null) return user.getDisplayName();
+        return "Sin nombre";
+    }
+
+    @Nullable
+    private static Uri authPhotoUrl() {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        return user != null ? user.getPhotoUrl() : null;
+    }
+
+    private static SharedPreferences prefs() {
+        return appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // ---------------------------------------------------------------
+    // Decodificación y caché en disco (hilo io)
+    // ---------------------------------------------------------------
+
+    private static int sizeOf(@NonNull ImageView view) {
+        ViewGroup.LayoutParams lp = view.getLayoutParams();
+        int size = 0;
+        if (lp != null) size = Math.max(lp.width, lp.height);
+        if (size <= 0) size = Math.max(view.getWidth(), view.getHeight());
+        return bucket(size > 0 ? size : DEFAULT_SIZE_PX);
+    }
+
+    private static int bucket(int sizePx) {
+        int size = Math.max(sizePx, SIZE_STEP_PX);
+        return ((size + SIZE_STEP_PX - 1) / SIZE_STEP_PX) * SIZE_STEP_PX;
+    }
+
+    @NonNull
+    private static String cacheKey(@NonNull String photoKey, int size) {
+        return photoKey + "_" + size;
+    }
+
+    @Nullable
+    private static Bitmap decode(@NonNull String base64, int size) {
+        try {
+            byte[] bytes = Base64.decode(base64, Base64.DEFAULT);
+
+            // Primero sólo las dimensiones, para decodificar ya reducida
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(bytes, 0, bytes.length, bounds);
+            int longest = Math.max(bounds.outWidth, bounds.outHeight);
+            if (longest <= 0) return null;
+
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inSampleSize = 1;
+            while (longest / (opts.inSampleSize * 2) >= size) opts.inSampleSize *= 2;
+            Bitmap sampled = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, opts);
+            if (sampled == null) return null;
+
+            float scale = (float) size / Math.max(sampled.getWidth(), sampled.getHeight());
+            if (scale >= 1f) return sampled;
+            Bitmap scaled = Bitmap.createScaledBitmap(sampled,
+                    Math.max(1, Math.round(sampled.getWidth() * scale)),
+                    Math.max(1, Math.round(sampled.getHeight() * scale)),
+                    true);
+            if (scaled != sampled) sampled.recycle();
+            return scaled;
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Foto de perfil con Base64 inválido", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Bitmap readFromDisk(@NonNull String key) {
+        File file = new File(avatarDir(), key + ".png");
+        if (!file.exists()) return null;
+        return BitmapFactory.decodeFile(file.getAbsolutePath());
+    }
+
+    private static void writeToDisk(@NonNull String key, @NonNull Bitmap bitmap) {
+        File dir = avatarDir();
+        if (!dir.exists() && !dir.mkdirs()) return;
+
+        File tmp = new File(dir, key + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.w(TAG, "No se pudo guardar el avatar en disco", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(new File(dir, key + ".png"))) tmp.delete();
+    }
+
+    // Quita los tamaños guardados de una foto que ya no se usa
+    private static void deleteFromDisk(@NonNull String photoKey) {
+        File[] files = avatarDir().listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            if (f.getName().startsWith(photoKey + "_")) f.delete();
+        }
+    }
+
+    @NonNull
+    private static File avatarDir() {
+        return new File(appContext.getCacheDir(), AVATAR_DIR);
+    }
+
+    @Nullable
+    private static String hash(@Nullable String base64) {
+        if (base64 == null) return null;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(base64.getBytes(StandardCharsets.US_ASCII));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 12; i++) sb.append(String.format("%02x", digest[i]));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import es.fdi.ucm.pad.notnotion.data.model.ContentBlock;
+import es.fdi.ucm.pad.notnotion.data.model.Folder;
+import es.fdi.ucm.pad.notnotion.data.model.Note;
+
+/**
+ * Exporta todas las notas del usuario a un ZIP: una carpeta por carpeta,
+ * un .md por nota y las imágenes en media/.
+ *
+ * Se escribe en streaming: las notas se leen por páginas (orderBy(documentId)
+ * + startAfter + limit) y cada una se pasa a Markdown y se escribe en el ZIP
+ * antes de leer la siguiente, así que en memoria sólo hay una página de notas
+ * y la imagen que se está copiando. Lo único que crece con el workspace es el
+ * conjunto de hashes de imágenes ya copiadas (para no repetirlas).
+ *
+ * Todo el trabajo va en un hilo propio; progreso y resultado llegan al hilo principal.
+ */
+public class WorkspaceExporter {
+
+    private static final String TAG = "WorkspaceExporter";
+
+    // Notas leídas por consulta
+    private static final int PAGE_SIZE = 50;
+    private static final String MEDIA_DIR = "media/";
+
+    public interface ProgressListener {
+        void onProgress(int exported, int total);
+    }
+
+    private final FirebaseFirestore db;
+    private final FirebaseAuth auth;
+    private final File outputDir;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final Handler main = new Handler(Looper.getMainLooper());
+
+    private volatile boolean cancelled = false;
+
+    public WorkspaceExporter(@NonNull Context context) {
+        db = FirebaseFirestore.getInstance();
+        auth = FirebaseAuth.getInstance();
+        File external = context.getExternalFilesDir("exports");
+        outputDir = external != null ? external : new File(context.getFilesDir(), "exports");
+    }
+
+    private String getUserFoldersPath() {
+        String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+        if (uid == null) {
+            Log.e(TAG, "No hay usuario autenticado");
+            return null;
+        }
+        return "users/" + uid + "/folders";
+    }
+
+    /**
+     * Genera el ZIP. onComplete recibe el fichero, o null si ha fallado o se ha cancelado.
+     */
+    public void export(@Nullable ProgressListener progress, @NonNull OnSuccessListener<File> onComplete) {
+        String foldersPath = getUserFoldersPath();
+        if (foldersPath == null) {
+            onComplete.onSuccess(null);
+            return;
+        }
+
+        // Rutas de las carpetas desde el árbol en memoria (sólo metadatos, sin notas)
+        FolderTree tree = FolderTree.getInstance();
+        tree.whenReady(() -> {
+            Map<String, String> dirs = new LinkedHashMap<>();
+            dirs.put("root", "");
+            Map<String, Set<String>> usedDirs = new HashMap<>();
+            // Una carpeta "media" en la raíz se mezclaría con las imágenes
+            usedDirs.put("", new HashSet<>(Collections.singleton(MEDIA_DIR.substring(0, MEDIA_DIR.length() - 1))));
+            for (String id : tree.getAllFolderIds()) {
+                if (!"root".equals(id)) dirFor(tree, id, dirs, usedDirs);
+            }
+
+            worker.execute(() -> {
+                File result = run(db.collection(foldersPath), dirs, progress);
+                main.post(() -> onComplete.onSuccess(result));
+                worker.shutdown();
+            });
+        }, e -> {
+            Log.e(TAG, "Sin árbol de carpetas, no se puede exportar", e);
+            worker.shutdown();
+            onComplete.onSuccess(null);
+        });
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @WorkerThread
+    @Nullable
+    private File run(@NonNull CollectionReference folders,
+                     @NonNull Map<String, String> dirs,
+                     @Nullable ProgressListener progress) {
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            Log.e(TAG, "No se pudo crear " + outputDir);
+            return null;
+        }
+
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File target = new File(outputDir, "notnotion-" + stamp + ".zip");
+        File partial = new File(outputDir, target.getName() + ".part");
+
+        int total = countNotes(folders, dirs.keySet());
+        int[] exported = {0};
+        post(progress, 0, total);
+
+        Set<String> writtenMedia = new HashSet<>();
+
+        try (ZipOutputStream zip = new ZipOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partial)))) {
+
+            for (Map.Entry<String, String> dir : dirs.entrySet()) {
+                if (cancelled) break;
+                exportFolder(zip, folders.document(dir.getKey()).collection("notes"),
+                        dir.getValue(), writtenMedia, () -> post(progress, ++exported[0], total));
+            }
+
+        } catch (IOException | ExecutionException | InterruptedException e) {
+            Log.e(TAG, "Error exportando notas", e);
+            partial.delete();
+            return null;
+        }
+
+        if (cancelled || !partial.renameTo(target)) {
+            partial.delete();
+            return null;
+        }
+        Log.d(TAG, "Exportadas " + exported[0] + " notas en " + target);
+        return target;
+    }
+
+    // Recorre las notas de una carpeta página a página
+    @WorkerThread
+    private void exportFolder(@NonNull ZipOutputStream zip,
+                              @NonNull CollectionReference notes,
+                              @NonNull String dir,
+                              @NonNull Set<String> writtenMedia,
+                              @NonNull Runnable onNote)
+            throws IOException, ExecutionException, InterruptedException {
+        // Títulos ya usados en esta carpeta (dos notas pueden llamarse igual)
+        Set<String> usedNames = new HashSet<>();
+        DocumentSnapshot last = null;
+
+        while (!cancelled) {
+            Query page = notes.orderBy(FieldPath.documentId()).limit(PAGE_SIZE);
+            if (last != null) page = page.startAfter(last);
+
+            QuerySnapshot snapshot = Tasks.await(FirestoreMeter.query(page.get()));
+            List<DocumentSnapshot> docs = snapshot.getDocuments();
+
+            for (DocumentSnapshot doc : docs) {
+                if (cancelled) return;
+                Note note = SchemaMigrations.readNote(doc);
+                // Las notas de la papelera no se exportan
+                if (note == null || note.getDeletedAt() != null) continue;
+
+                String name = uniqueName(usedNames, safeName(note.getTitle(), "Sin título"));
+                String markdown = toMarkdown(zip, note, dir, writtenMedia);
+
+                zip.putNextEntry(new ZipEntry(dir + name + ".md"));
+                zip.write(markdown.getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+                onNote.run();
+            }
+
+            if (docs.size() < PAGE_SIZE) return;
+            last = docs.get(docs.size() - 1);
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Markdown
+    // ---------------------------------------------------------------
+
+    @WorkerThread
+    private String toMarkdown(@NonNull ZipOutputStream zip,
+                              @NonNull Note note,
+                              @NonNull String dir,
+                              @NonNull Set<String> writtenMedia) throws IOException {
+        // Las imágenes se enlazan de forma relativa desde la carpeta de la nota
+        String toRoot = repeat("../", dir.isEmpty() ? 0 : dir.split("/").length);
+
+        StringBuilder md = new StringBuilder();
+        md.append("---\n");
+        md.append("title: \"").append(escapeYaml(note.getTitle())).append("\"\n");
+        md.append("id: ").append(note.getId()).append('\n');
+        appendDate(md, "created", note.getCreatedAt());
+        appendDate(md, "updated", note.getUpdatedAt());
+        if (note.isFavorite()) md.append("favorite: true\n");
+        md.append("---\n\n");
+
+        md.append("# ").append(note.getTitle() != null ? note.getTitle() : "").append("\n\n");
+
+        String cover = copyImage(zip, note.getCoverImageUrl(), note.getId() + "-cover", writtenMedia);
+        if (cover != null) {
+            md.append("![](").append(toRoot).append(cover).append(")\n\n");
+        }
+
+        List<ContentBlock> blocks = note.getContentBlocks();
+        if (blocks == null) return md.toString();
+
+        for (int i = 0; i < blocks.size(); i++) {
+            ContentBlock block = blocks.get(i);
+            if (block.getType() == ContentBlock.TYPE_TEXT) {
+                appendText(md, block);
+            } else if (block.getType() == ContentBlock.TYPE_IMAGE) {
+                String image = copyImage(zip, block.getMediaUrl(), note.getId() + "-" + i, writtenMedia);
+                if (image != null) {
+                    md.append("![](").append(toRoot).append(image).append(")\n\n");
+                }
+            } else if (block.getMediaUrl() != null) {
+                md.append("[PDF](").append(block.getMediaUrl()).append(")\n\n");
+            }
+        }
+        return md.toString();
+    }
+
+    private static void appendText(@NonNull StringBuilder md, @NonNull ContentBlock block) {
+        String text = block.getTextContent();
+        if (text == null || text.trim().isEmpty()) return;
+
+        // Los tamaños grandes del editor pasan a encabezados
+        String heading = block.getTextSize() >= 28 ? "# "
+                : block.getTextSize() >= 24 ? "## "
+                : block.getTextSize() >= 20 ? "### " : "";
+
+        String open;
+        String close;
+        switch (block.getTextStyle()) {
+            case ContentBlock.STYLE_BOLD: open = "**"; close = "**"; break;
+            case ContentBlock.STYLE_ITALIC: open = "*"; close = "*"; break;
+            case ContentBlock.STYLE_BOLD_ITALIC: open = "***"; close = "***"; break;
+            case ContentBlock.STYLE_UNDERLINE: open = "<u>"; close = "</u>"; break;
+            case ContentBlock.STYLE_BOLD_UNDERLINE: open = "<u>**"; close = "**</u>"; break;
+            case ContentBlock.STYLE_ITALIC_UNDERLINE: open = "<u>*"; close = "*</u>"; break;
+            case ContentBlock.STYLE_BOLD_ITALIC_UNDERLINE: open = "<u>***"; close = "***</u>"; break;
+            default: open = ""; close = ""; break;
+        }
+
+        // Markdown no admite énfasis entre líneas: se aplica línea a línea
+        for (String line : text.split("\n", -1)) {
+            if (line.trim().isEmpty()) {
+                md.append('\n');
+                continue;
+            }
+            md.append(heading).append(open).append(line.trim()).append(close).append('\n');
+        }
+        md.append('\n');
+    }
+
+    /**
+     * Copia la imagen al ZIP y devuelve su ruta dentro de él (o la URL si es externa).
+     * Las de BlobStore se guardan por hash, una sola vez aunque las usen varias notas.
+     */
+    @WorkerThread
+    @Nullable
+    private String copyImage(@NonNull ZipOutputStream zip,
+                             @Nullable String value,
+                             @NonNull String fallbackName,
+                             @NonNull Set<String> writtenMedia) throws IOException {
+        if (value == null || value.isEmpty()) return null;
+        if (value.startsWith("http://") || value.startsWith("https://")) return value;
+
+        String path;
+        byte[] bytes = null;
+        if (BlobStore.isBlobRef(value)) {
+            path = MEDIA_DIR + BlobStore.hashOf(value) + ".jpg";
+            if (writtenMedia.contains(path)) return path;
+            bytes = BlobStore.getInstance().readBytes(value);
+        } else {
+            // Base64 antiguo, todavía no migrado
+            path = MEDIA_DIR + fallbackName + ".jpg";
+            try {
+                bytes = Base64.decode(value, Base64.DEFAULT);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Imagen no válida en " + fallbackName);
+            }
+        }
+        if (bytes == null) return null;
+
+        zip.putNextEntry(new ZipEntry(path));
+        zip.write(bytes);
+        zip.closeEntry();
+        writtenMedia.add(path);
+        return path;
+    }
+
+    // ---------------------------------------------------------------
+    // Utilidades
+    // ---------------------------------------------------------------
+
+    // Total para la barra de progreso: un count() por carpeta (0 si no hay conexión)
+    @WorkerThread
+    private int countNotes(@NonNull CollectionReference folders, @NonNull Set<String> folderIds) {
+        long total = 0;
+        for (String id : folderIds) {
+            try {
+                total += Tasks.await(FirestoreMeter.count(folders.document(id).collection("notes")
+                        .count().get(AggregateSource.SERVER))).getCount();
+            } catch (ExecutionException | InterruptedException e) {
+                Log.w(TAG, "No se pudo contar las notas de " + id, e);
+            }
+        }
+        return (int) total;
+    }
+
+    private void post(@Nullable ProgressListener progress, int exported, int total) {
+        if (progress == null) return;
+        main.post(() -> progress.onProgress(exported, Math.max(total, exported)));
+    }
+
+    /**
+     * "Carpeta/Subcarpeta/" a partir del árbol (la raíz no aparece), guardada
+     * en dirs junto con la de sus antecesoras. Los nombres de carpeta no son
+     * únicos (ni tras recortarlos en safeName): dos hermanas con el mismo
+     * nombre darían las mismas entradas en el ZIP, así que dentro de cada
+     * directorio padre se numeran como las notas ("Clase", "Clase (2)").
+     */
+    @NonNull
+    private static String dirFor(@NonNull FolderTree tree, @NonNull String folderId,
+                                 @NonNull Map<String, String> dirs,
+                                 @NonNull Map<String, Set<String>> usedDirs) {
+        String dir = "";
+        for (Folder f : tree.getPath(folderId)) {
+            if ("root".equals(f.getId())) continue;
+            String known = dirs.get(f.getId());
+            if (known == null) {
+                Set<String> used = usedDirs.get(dir);
+                if (used == null) {
+                    used = new HashSet<>();
+                    usedDirs.put(dir, used);
+                }
+                known = dir + uniqueName(used, safeName(f.getName(), f.getId())) + "/";
+                dirs.put(f.getId(), known);
+            }
+            dir = known;
+        }
+        return dir;
+    }
+
+    @NonNull
+    private static String safeName(@Nullable String name, @NonNull String fallback) {
+        String clean = name != null ? name.replaceAll("[\\\\/:*?\"<>|\\n\\r\\t]", "_").trim() : "";
+        if (clean.isEmpty() || clean.equals(".") || clean.equals("..")) clean = fallback;
+        return clean.length() > 80 ? clean.substring(0, 80) : clean;
+    }
+
+    @NonNull
+    private static String uniqueName(@NonNull Set<String> used, @NonNull String name) {
+        String candidate = name;
+        for (int n = 2; !used.add(candidate.toLowerCase(Locale.ROOT)); n++) {
+            candidate = name + " (" + n + ")";
+        }
+        return candidate;
+    }
+
+    private static void appendDate(@NonNull StringBuilder md, @NonNull String key, @Nullable Timestamp date) {
+        if (date == null) return;
+        String iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US).format(date.toDate());
+        md.append(key).append(": ").append(iso).append('\n');
+    }
+
+    @NonNull
+    private static String escapeYaml(@Nullable String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    @NonNull
+    private static String repeat(@NonNull String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) sb.append(s);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,550 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import es.fdi.ucm.pad.notnotion.data.model.ContentBlock;
+import es.fdi.ucm.pad.notnotion.data.model.Folder;
+import es.fdi.ucm.pad.notnotion.data.model.Note;
+import es.fdi.ucm.pad.notnotion.data.model.NoteHeader;
+import es.fdi.ucm.pad.notnotion.data.search.NoteSearch;
+import es.fdi.ucm.pad.notnotion.utils.MarkdownNoteParser;
+
+/**
+ * Importa un ZIP o una carpeta de ficheros Markdown (p. ej. una exportación
+ * de Notion o de WorkspaceExporter) como carpetas y notas.
+ *
+ * 1) Lectura: se recorre el origen una sola vez. Cada .md se pasa a un pool de
+ *    hilos que lo convierte en bloques (MarkdownNoteParser) mientras se sigue
+ *    leyendo; cada imagen se guarda en BlobStore.
+ * 2) Escritura: carpetas y notas (cuerpo + cabecera + entrada de NoteIndex) se
+ *    agrupan en WriteBatch de hasta 500 operaciones, con varios lotes en vuelo a la vez.
+ *
+ * Los ids son deterministas (hash del origen y de la ruta dentro de él), así que
+ * repetir un lote no duplica nada. Tras cada tanda de lotes confirmados se guarda
+ * en SharedPreferences hasta dónde se ha llegado; si la importación se corta,
+ * volver a importar el mismo origen continúa desde ese punto.
+ *
+ * Las escrituras esperan la confirmación del servidor: hace falta conexión.
+ */
+public class WorkspaceImporter {
+
+    private static final String TAG = "WorkspaceImporter";
+    private static final String PREFS_NAME = "pending_imports";
+
+    // Límite de operaciones por WriteBatch en Firestore
+    private static final int MAX_BATCH_OPS = 500;
+    // Cuerpo + cabecera + entrada del índice
+    private static final int OPS_PER_NOTE = 3;
+    // Lotes enviados a la vez antes de guardar el punto de control
+    private static final int COMMITS_IN_FLIGHT = 4;
+    // Imágenes más grandes se ignoran
+    private static final int MAX_IMAGE_BYTES = 10 * 1024 * 1024;
+
+    public interface ProgressListener {
+        void onProgress(int written, int total);
+    }
+
+    /** Resumen de una importación (también se escribe en el log). */
+    public static class Report {
+        public int folders;
+        public int notes;
+        public int images;
+        public int missingImages;
+        public int batches;
+        public int resumedFromBatch;
+        public long bytesRead;
+        public long readMillis;
+        public long writeMillis;
+
+        public double notesPerSecond() {
+            long total = readMillis + writeMillis;
+            return total > 0 ? notes * 1000.0 / total : notes;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d notas, %d carpetas, %d imágenes (%d no encontradas), %.1f MB leídos | "
+                            + "lectura %d ms, escritura %d ms en %d lotes (desde el lote %d) | %.1f notas/s",
+                    notes, folders, images, missingImages, bytesRead / (1024.0 * 1024.0),
+                    readMillis, writeMillis, batches, resumedFromBatch, notesPerSecond());
+        }
+    }
+
+    // Un .md leído y (en paralelo) convertido
+    private static class PendingNote {
+        final String path;
+        final Future<MarkdownNoteParser.ParsedNote> parsed;
+
+        PendingNote(String path, Future<MarkdownNoteParser.ParsedNote> parsed) {
+            this.path = path;
+            this.parsed = parsed;
+        }
+    }
+
+    private interface EntryHandler {
+        void onEntry(@NonNull String path, @NonNull InputStream in) throws IOException;
+    }
+
+    // Una escritura de un lote, con las operaciones que ocupa
+    private interface BatchWrite {
+        void apply(@NonNull WriteBatch batch);
+    }
+
+    private final FirebaseFirestore db;
+    private final FirebaseAuth auth;
+    private final ContentResolver resolver;
+    private final SharedPreferences prefs;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final Handler main = new Handler(Looper.getMainLooper());
+
+    public WorkspaceImporter(@NonNull Context context) {
+        db = FirebaseFirestore.getInstance();
+        auth = FirebaseAuth.getInstance();
+        resolver = context.getApplicationContext().getContentResolver();
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private String getUserFoldersPath() {
+        String uid = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+        if (uid == null) {
+            Log.e(TAG, "No hay usuario autenticado");
+            return null;
+        }
+        return "users/" + uid + "/folders";
+    }
+
+    /**
+     * Importa un ZIP elegido con el selector de documentos. Todo queda dentro de una
+     * carpeta nueva de la raíz llamada name. onComplete recibe null si algo falla.
+     */
+    public void importZip(@NonNull Uri zipUri,
+                          @NonNull String name,
+                          @Nullable ProgressListener progress,
+                          @NonNull OnSuccessListener<Report> onComplete) {
+        start(zipUri, name, progress, onComplete, handler -> {
+            try (ZipInputStream zip = new ZipInputStream(resolver.openInputStream(zipUri))) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (!entry.isDirectory()) handler.onEntry(entry.getName(), zip);
+                    zip.closeEntry();
+                }
+            }
+        });
+    }
+
+    /**
+     * Importa una carpeta elegida con ACTION_OPEN_DOCUMENT_TREE, recorriendo sus subcarpetas.
+     */
+    public void importTree(@NonNull Uri treeUri,
+                           @NonNull String name,
+                           @Nullable ProgressListener progress,
+                           @NonNull OnSuccessListener<Report> onComplete) {
+        start(treeUri, name, progress, onComplete,
+                handler -> walkTree(treeUri, DocumentsContract.getTreeDocumentId(treeUri), "", handler));
+    }
+
+    private interface SourceReader {
+        void read(@NonNull EntryHandler handler) throws IOException;
+    }
+
+    private void start(@NonNull Uri source,
+                       @NonNull String name,
+                       @Nullable ProgressListener progress,
+                       @NonNull OnSuccessListener<Report> onComplete,
+                       @NonNull SourceReader reader) {
+        String foldersPath = getUserFoldersPath();
+        if (foldersPath == null) {
+            onComplete.onSuccess(null);
+            return;
+        }
+        String importId = sha1(foldersPath + "|" + source).substring(0, 16);
+
+        worker.execute(() -> {
+            Report report = null;
+            try {
+                report = run(db.collection(foldersPath), importId,
+                        MarkdownNoteParser.cleanName(stripExtension(name)), reader, progress);
+                Log.i(TAG, "Importación terminada: " + report);
+            } catch (IOException | ExecutionException | InterruptedException e) {
+                Log.e(TAG, "Importación interrumpida, se puede reanudar importando el mismo origen", e);
+            }
+            Report result = report;
+            main.post(() -> onComplete.onSuccess(result));
+            worker.shutdown();
+        });
+    }
+
+    // ---------------------------------------------------------------
+    // Importación
+    // ---------------------------------------------------------------
+
+    @WorkerThread
+    @NonNull
+    private Report run(@NonNull CollectionReference folders,
+                       @NonNull String importId,
+                       @NonNull String rootName,
+                       @NonNull SourceReader reader,
+                       @Nullable ProgressListener progress)
+            throws IOException, ExecutionException, InterruptedException {
+        Report report = new Report();
+        long started = SystemClock.elapsedRealtime();
+
+        // --- 1) Lectura y conversión en paralelo ---
+        ExecutorService parsers = Executors.newFixedThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        List<PendingNote> pending = new ArrayList<>();
+        Map<String, String> images = new HashMap<>();
+
+        try {
+            reader.read((rawPath, in) -> {
+                String path = normalize(rawPath);
+                if (path == null) return;
+                String lower = path.toLowerCase(Locale.ROOT);
+
+                if (lower.endsWith(".md") || lower.endsWith(".markdown")) {
+                    byte[] bytes = readAll(in, Integer.MAX_VALUE);
+                    report.bytesRead += bytes.length;
+                    String fileName = path.substring(path.lastIndexOf('/') + 1);
+                    pending.add(new PendingNote(path, parsers.submit(() ->
+                            MarkdownNoteParser.parse(fileName, new String(bytes, StandardCharsets.UTF_8)))));
+
+                } else if (isImage(lower)) {
+                    byte[] bytes = readAll(in, MAX_IMAGE_BYTES);
+                    if (bytes == null) {
+                        Log.w(TAG, "Imagen demasiado grande, se omite: " + path);
+                        return;
+                    }
+                    report.bytesRead += bytes.length;
+                    images.put(path, BlobStore.getInstance().put(bytes));
+                    report.images++;
+                }
+            });
+
+            // Mismo orden en cada intento: los lotes deben salir iguales al reanudar
+            pending.sort((a, b) -> a.path.compareTo(b.path));
+
+            // --- 2) Carpetas y notas ---
+            Map<String, Folder> folderByPath = new TreeMap<>();
+            Timestamp now = Timestamp.now();
+            folderByPath.put("", new Folder(idFor(importId, "dir:"), rootName, "root", now, now, 0));
+
+            List<BatchWrite> writes = new ArrayList<>();
+            List<Integer> opsPerWrite = new ArrayList<>();
+            List<Note> notes = new ArrayList<>(pending.size());
+
+            for (PendingNote p : pending) {
+                MarkdownNoteParser.ParsedNote parsed = p.parsed.get();
+                String dir = p.path.contains("/") ? p.path.substring(0, p.path.lastIndexOf('/')) : "";
+                Folder folder = ensureFolder(folderByPath, importId, dir, now);
+
+                List<ContentBlock> blocks = new ArrayList<>();
+                for (ContentBlock block : parsed.blocks) {
+                    if (block.getType() == ContentBlock.TYPE_IMAGE) {
+                        String ref = resolveImage(images, dir, block.getMediaUrl());
+                        if (ref == null) {
+                            report.missingImages++;
+                            continue;
+                        }
+                        block.setMediaUrl(ref);
+                    }
+                    blocks.add(block);
+                }
+                String cover = parsed.coverPath != null ? resolveImage(images, dir, parsed.coverPath) : null;
+                if (parsed.coverPath != null && cover == null) report.missingImages++;
+
+                notes.add(new Note(
+                        idFor(importId, "note:" + p.path),
+                        parsed.title,
+                        folder.getId(),
+                        parsed.createdAt != null ? parsed.createdAt : now,
+                        parsed.updatedAt != null ? parsed.updatedAt : now,
+                        parsed.favorite,
+                        cover,
+                        blocks));
+            }
+            parsers.shutdown();
+
+            Map<String, Long> notesIn = new HashMap<>();
+            for (Note note : notes) {
+                Long n = notesIn.get(note.getFolderId());
+                notesIn.put(note.getFolderId(), n == null ? 1 : n + 1);
+            }
+            for (Folder folder : folderByPath.values()) {
+                // El contador se escribe ya completo: los lotes de notas pueden llegar antes que la carpeta
+                long noteCount = notesIn.containsKey(folder.getId()) ? notesIn.get(folder.getId()) : 0;
+                writes.add(batch -> FoldersManager.putNewFolder(batch, folders.document(folder.getId()), folder, noteCount));
+                opsPerWrite.add(2);
+            }
+            NoteIndex noteIndex = new NoteIndex();
+            for (Note note : notes) {
+                CollectionReference folder = folders.document(note.getFolderId()).collection("notes");
+                CollectionReference headers = folders.document(note.getFolderId()).collection("headers");
+                writes.add(batch -> {
+                    batch.set(folder.document(note.getId()), note);
+                    batch.set(headers.document(note.getId()), NoteHeader.fromNote(note));
+                    noteIndex.register(batch, note.getId(), note.getFolderId());
+                });
+                opsPerWrite.add(OPS_PER_NOTE);
+            }
+
+            report.folders = folderByPath.size();
+            report.notes = notes.size();
+            report.readMillis = SystemClock.elapsedRealtime() - started;
+
+            // --- 3) Escritura por lotes con punto de control ---
+            long writeStarted = SystemClock.elapsedRealtime();
+            commit(importId, writes, opsPerWrite, report, progress);
+            NoteSearch.getInstance().updateAll(notes);
+            report.writeMillis = SystemClock.elapsedRealtime() - writeStarted;
+
+            prefs.edit().remove(importId).apply();
+            return report;
+
+        } finally {
+            parsers.shutdownNow();
+        }
+    }
+
+    @WorkerThread
+    private void commit(@NonNull String importId,
+                        @NonNull List<BatchWrite> writes,
+                        @NonNull List<Integer> opsPerWrite,
+                        @NonNull Report report,
+                        @Nullable ProgressListener progress)
+            throws ExecutionException, InterruptedException {
+        // Cortes de lote: [start, end) de writes con como mucho MAX_BATCH_OPS operaciones
+        List<int[]> ranges = new ArrayList<>();
+        int start = 0;
+        int ops = 0;
+        for (int i = 0; i < writes.size(); i++) {
+            if (ops + opsPerWrite.get(i) > MAX_BATCH_OPS) {
+                ranges.add(new int[]{start, i});
+                start = i;
+                ops = 0;
+            }
+            ops += opsPerWrite.get(i);
+        }
+        if (start < writes.size()) ranges.add(new int[]{start, writes.size()});
+
+        int checkpoint = Math.min(prefs.getInt(importId, 0), ranges.size());
+        report.batches = ranges.size();
+        report.resumedFromBatch = checkpoint;
+        if (checkpoint > 0) {
+            Log.d(TAG, "Reanudando importación " + importId + " desde el lote " + checkpoint);
+        }
+
+        int total = writes.size();
+        post(progress, checkpoint > 0 ? ranges.get(checkpoint - 1)[1] : 0, total);
+
+        for (int first = checkpoint; first < ranges.size(); first += COMMITS_IN_FLIGHT) {
+            int last = Math.min(first + COMMITS_IN_FLIGHT, ranges.size());
+
+            List<Task<Void>> commits = new ArrayList<>();
+            for (int b = first; b < last; b++) {
+                WriteBatch batch = db.batch();
+                int batchOps = 0;
+                for (int i = ranges.get(b)[0]; i < ranges.get(b)[1]; i++) {
+                    writes.get(i).apply(batch);
+                    batchOps += opsPerWrite.get(i);
+                }
+                commits.add(FirestoreMeter.write(batchOps, batch.commit()));
+            }
+            Tasks.await(Tasks.whenAll(commits));
+
+            prefs.edit().putInt(importId, last).apply();
+            post(progress, ranges.get(last - 1)[1], total);
+        }
+    }
+
+    // Crea (en memoria) la carpeta de la ruta y todas las que faltan por encima
+    @NonNull
+    private static Folder ensureFolder(@NonNull Map<String, Folder> byPath,
+                                       @NonNull String importId,
+                                       @NonNull String dir,
+                                       @NonNull Timestamp now) {
+        Folder existing = byPath.get(dir);
+        if (existing != null) return existing;
+
+        String parentDir = dir.contains("/") ? dir.substring(0, dir.lastIndexOf('/')) : "";
+        Folder parent = ensureFolder(byPath, importId, parentDir, now);
+        String name = MarkdownNoteParser.cleanName(dir.substring(dir.lastIndexOf('/') + 1));
+
+        Folder folder = new Folder(idFor(importId, "dir:" + dir), name, parent.getId(), now, now, 0);
+        byPath.put(dir, folder);
+        return folder;
+    }
+
+    // Ruta de imagen del Markdown (relativa a la nota) → referencia de BlobStore
+    @Nullable
+    private static String resolveImage(@NonNull Map<String, String> images,
+                                       @NonNull String dir,
+                                       @Nullable String link) {
+        if (link == null || link.isEmpty()) return null;
+        if (link.startsWith("http://") || link.startsWith("https://")) return link;
+
+        String decoded;
+        try {
+            decoded = URLDecoder.decode(link.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            decoded = link;
+        }
+
+        Deque<String> parts = new ArrayDeque<>();
+        if (!dir.isEmpty()) {
+            for (String s : dir.split("/")) parts.addLast(s);
+        }
+        for (String s : decoded.split("/")) {
+            if (s.isEmpty() || s.equals(".")) continue;
+            if (s.equals("..")) {
+                if (!parts.isEmpty()) parts.removeLast();
+            } else {
+                parts.addLast(s);
+            }
+        }
+        return images.get(String.join("/", parts));
+    }
+
+    // ---------------------------------------------------------------
+    // Lectura del origen
+    // ---------------------------------------------------------------
+
+    @WorkerThread
+    private void walkTree(@NonNull Uri treeUri,
+                          @NonNull String documentId,
+                          @NonNull String prefix,
+                          @NonNull EntryHandler handler) throws IOException {
+        Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, documentId);
+        String[] columns = {
+                DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+                DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+                DocumentsContract.Document.COLUMN_MIME_TYPE
+        };
+
+        try (Cursor cursor = resolver.query(children, columns, null, null, null)) {
+            if (cursor == null) return;
+            while (cursor.moveToNext()) {
+                String childId = cursor.getString(0);
+                String name = cursor.getString(1);
+                String mime = cursor.getString(2);
+
+                if (DocumentsContract.Document.MIME_TYPE_DIR.equals(mime)) {
+                    walkTree(treeUri, childId, prefix + name + "/", handler);
+                    continue;
+                }
+                Uri file = DocumentsContract.buildDocumentUriUsingTree(treeUri, childId);
+                try (InputStream in = resolver.openInputStream(file)) {
+                    if (in != null) handler.onEntry(prefix + name, in);
+                }
+            }
+        }
+    }
+
+    // Quita separadores de Windows, barras iniciales y basura de macOS
+    @Nullable
+    private static String normalize(@NonNull String path) {
+        String p = path.replace('\\', '/');
+        while (p.startsWith("/")) p = p.substring(1);
+        if (p.isEmpty() || p.startsWith("__MACOSX/") || p.contains("/.") || p.startsWith(".")) return null;
+        return p;
+    }
+
+    private static boolean isImage(@NonNull String lowerPath) {
+        return lowerPath.endsWith(".jpg") || lowerPath.endsWith(".jpeg") || lowerPath.endsWith(".png")
+                || lowerPath.endsWith(".gif") || lowerPath.endsWith(".webp");
+    }
+
+    // Lee todo el stream (sin cerrarlo); null si pasa de max bytes
+    @Nullable
+    private static byte[] readAll(@NonNull InputStream in, int max) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if (out.size() + n > max) return null;
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    // ---------------------------------------------------------------
+    // Utilidades
+    // ---------------------------------------------------------------
+
+    private void post(@Nullable ProgressListener progress, int written, int total) {
+        if (progress == null) return;
+        main.post(() -> progress.onProgress(written, total));
+    }
+
+    // Id estable para un elemento del origen: el mismo en cada intento
+    @NonNull
+    private static String idFor(@NonNull String importId, @NonNull String key) {
+        return "imp-" + importId + "-" + sha1(key).substring(0, 20);
+    }
+
+    @NonNull
+    private static String stripExtension(@NonNull String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    @NonNull
+    private static String sha1(@NonNull String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 no disponible", e);
+        }
+    }
+}
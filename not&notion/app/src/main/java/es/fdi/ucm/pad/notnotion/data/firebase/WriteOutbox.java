@@ -0,0 +1,321 @@
+package es.fdi.ucm.pad.notnotion.data.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Cola de escrituras pendientes de los managers, agrupadas por documento.
+ *
+ * Firestore ya guarda en disco las escrituras hechas sin conexión (caché
+ * persistente, ver NotNotionApp) y las envía en orden al recuperar la red,
+ * así que cada escritura se lanza en cuanto llega. Esta clase añade lo que
+ * falta encima de esa cola:
+ *  - cuenta de documentos con cambios sin confirmar por el servidor, visible en la UI;
+ *  - reintento con backoff exponencial de los errores transitorios que sí
+ *    llegan a la app (UNAVAILABLE, ABORTED, ...);
+ *  - orden por documento: si una escritura se reintenta, las posteriores del
+ *    mismo documento se vuelven a aplicar detrás de ella;
+ *  - fusión: una escritura completa (set/delete) descarta las anteriores del
+ *    mismo documento que estaban esperando reintento.
+ *
+ * Los documentos pendientes se apuntan en SharedPreferences; tras reiniciar la
+ * app se siguen contando hasta que Firestore confirma su cola (waitForPendingWrites).
+ *
+ * Las escrituras que esperan reintento o que se han descartado (error
+ * permanente o MAX_ATTEMPTS agotados) no están en la cola de Firestore: sólo
+ * existen aquí. Sus documentos se apuntan aparte como no enviados y no se
+ * dan por sincronizados al confirmar la cola. Si la escritura se pierde
+ * (descartada, o el proceso muere mientras espera) el documento queda como
+ * fallido y se avisa en la UI hasta que una escritura completa posterior
+ * del mismo documento llega al servidor, o hasta que el usuario lo descarta.
+ * Sólo se usa desde el hilo principal.
+ */
+public class WriteOutbox {
+
+    private static final String TAG = "WriteOutbox";
+    private static final String PREFS_NAME = "write_outbox";
+    private static final String KEY_PENDING = "pending_documents";
+    private static final String KEY_UNSENT = "unsent_documents";
+
+    private static final long BASE_DELAY_MS = 1_000;
+    private static final long MAX_DELAY_MS = 60_000;
+    private static final int MAX_ATTEMPTS = 8;
+
+    /** Una escritura que se puede volver a lanzar (debe crear su propio WriteBatch cada vez). */
+    public interface Write {
+        Task<Void> start();
+    }
+
+    public interface OnPendingChangedListener {
+        // failedDocuments está incluido en pendingDocuments
+        void onPendingChanged(int pendingDocuments, int failedDocuments);
+    }
+
+    private static WriteOutbox instance;
+
+    private final SharedPreferences prefs;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+
+    private final Map<String, Deque<Entry>> queues = new HashMap<>();
+    // Documentos pendientes de una ejecución anterior (los reenvía Firestore)
+    private final Set<String> restored = new HashSet<>();
+    // Documentos con escrituras fuera de la cola de Firestore (esperando reintento o perdidas)
+    private final Set<String> unsent = new HashSet<>();
+    // Los de unsent cuya escritura ya no se va a reintentar
+    private final Set<String> failed = new HashSet<>();
+    private final List<OnPendingChangedListener> listeners = new ArrayList<>();
+
+    private static class Entry {
+        final String description;
+        final Write write;
+        final boolean replaces;
+        final OnSuccessListener<Void> onSuccess;
+        int attempt = 0;
+        boolean inFlight = false;
+        boolean done = false;
+
+        Entry(String description, Write write, boolean replaces, OnSuccessListener<Void> onSuccess) {
+            this.description = description;
+            this.write = write;
+            this.replaces = replaces;
+            this.onSuccess = onSuccess;
+        }
+    }
+
+    private WriteOutbox(@NonNull Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        restored.addAll(prefs.getStringSet(KEY_PENDING, new HashSet<>()));
+        // Lo que esperaba reintento en la ejecución anterior murió con el proceso
+        unsent.addAll(prefs.getStringSet(KEY_UNSENT, new HashSet<>()));
+        failed.addAll(unsent);
+    }
+
+    // Se llama una vez desde NotNotionApp
+    public static synchronized void init(@NonNull Context context) {
+        if (instance == null) {
+            instance = new WriteOutbox(context);
+        }
+    }
+
+    public static WriteOutbox getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("WriteOutbox.init() no se ha llamado");
+        }
+        return instance;
+    }
+
+    /**
+     * Espera a que Firestore confirme las escrituras que quedaron de la sesión
+     * anterior. Llamar con el usuario ya autenticado. Los documentos cuyas
+     * escrituras no llegaron a la cola de Firestore siguen contando como fallidos.
+     */
+    public void resumePending() {
+        if (restored.isEmpty()) return;
+        if (FirebaseAuth.getInstance().getCurrentUser() == null) return;
+
+        Log.d(TAG, "Esperando " + restored.size() + " documentos pendientes de la sesión anterior");
+        FirebaseFirestore.getInstance().waitForPendingWrites()
+                .addOnSuccessListener(aVoid -> {
+                    restored.clear();
+                    persistAndNotify();
+                })
+                .addOnFailureListener(e -> Log.w(TAG, "No se pudo esperar a las escrituras pendientes", e));
+    }
+
+    /**
+     * Lanza una escritura sobre el documento identificado por key.
+     *
+     * @param replaces true si la escritura deja el documento completo (set/delete),
+     *                 de forma que las anteriores que esperan reintento sobran
+     */
+    public void submit(@NonNull String key,
+                       @NonNull String description,
+                       boolean replaces,
+                       @NonNull Write write,
+                       @Nullable OnSuccessListener<Void> onSuccess) {
+        Deque<Entry> queue = queues.get(key);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(key, queue);
+        }
+
+        if (replaces) {
+            // Las que esperan reintento ya no aportan nada
+            Iterator<Entry> it = queue.iterator();
+            while (it.hasNext()) {
+                Entry old = it.next();
+                if (!old.inFlight && !old.done) {
+                    Log.d(TAG, "Descartada (sustituida): " + old.description);
+                    it.remove();
+                }
+            }
+        }
+
+        Entry entry = new Entry(description, write, replaces, onSuccess);
+        queue.addLast(entry);
+        persistAndNotify();
+        send(key, entry);
+    }
+
+    public int getPendingCount() {
+        return pendingKeys().size();
+    }
+
+    public int getFailedCount() {
+        return failed.size();
+    }
+
+    /**
+     * El usuario da por perdidos los cambios fallidos: dejan de contarse.
+     */
+    public void dismissFailed() {
+        for (String key : failed) {
+            if (!queues.containsKey(key)) unsent.remove(key);
+        }
+        failed.clear();
+        persistAndNotify();
+    }
+
+    public void addOnPendingChangedListener(@NonNull OnPendingChangedListener listener) {
+        if (!listeners.contains(listener)) listeners.add(listener);
+        listener.onPendingChanged(getPendingCount(), getFailedCount());
+    }
+
+    public void removeOnPendingChangedListener(@NonNull OnPendingChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    // ---------------------------------------------------------------
+
+    private void send(@NonNull String key, @NonNull Entry entry) {
+        entry.inFlight = true;
+        entry.write.start().addOnCompleteListener(task -> {
+            entry.inFlight = false;
+            Deque<Entry> queue = queues.get(key);
+            if (queue == null || !queue.contains(entry)) return; // sustituida mientras tanto
+
+            if (task.isSuccessful()) {
+                entry.done = true;
+                // El documento vuelve a estar completo en el servidor
+                if (entry.replaces) failed.remove(key);
+                if (entry.attempt > 0) replayAfter(key, entry);
+                if (entry.onSuccess != null) entry.onSuccess.onSuccess(null);
+                prune(key);
+                return;
+            }
+
+            Exception e = task.getException();
+            if (isRetryable(e) && entry.attempt < MAX_ATTEMPTS) {
+                entry.attempt++;
+                long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (entry.attempt - 1));
+                delay += random.nextInt(1000);
+                Log.w(TAG, "Reintento " + entry.attempt + " de '" + entry.description + "' en " + delay + " ms", e);
+                if (unsent.add(key)) persistAndNotify();
+                main.postDelayed(() -> {
+                    Deque<Entry> q = queues.get(key);
+                    if (q != null && q.contains(entry)) send(key, entry);
+                }, delay);
+                return;
+            }
+
+            Log.e(TAG, "Escritura descartada: " + entry.description, e);
+            unsent.add(key);
+            failed.add(key);
+            queue.remove(entry);
+            prune(key);
+        });
+    }
+
+    // La escritura reintentada ha llegado después que otras más nuevas: se reaplican en orden
+    private void replayAfter(@NonNull String key, @NonNull Entry retried) {
+        Deque<Entry> queue = queues.get(key);
+        if (queue == null) return;
+
+        boolean after = false;
+        for (Entry e : queue) {
+            if (e == retried) {
+                after = true;
+                continue;
+            }
+            if (after && e.done) {
+                e.done = false;
+                send(key, e);
+            }
+        }
+    }
+
+    // Quita las completadas del principio de la cola (las siguientes pueden depender del orden)
+    private void prune(@NonNull String key) {
+        Deque<Entry> queue = queues.get(key);
+        if (queue == null) return;
+
+        while (!queue.isEmpty() && queue.peekFirst().done) {
+            queue.removeFirst();
+        }
+        if (queue.isEmpty()) {
+            queues.remove(key);
+            if (!failed.contains(key)) unsent.remove(key);
+        }
+        persistAndNotify();
+    }
+
+    private Set<String> pendingKeys() {
+        Set<String> keys = new HashSet<>(restored);
+        keys.addAll(queues.keySet());
+        keys.addAll(unsent);
+        return keys;
+    }
+
+    private void persistAndNotify() {
+        Set<String> keys = pendingKeys();
+        prefs.edit()
+                .putStringSet(KEY_PENDING, keys)
+                .putStringSet(KEY_UNSENT, new HashSet<>(unsent))
+                .apply();
+
+        int count = keys.size();
+        int failedCount = failed.size();
+        for (OnPendingChangedListener l : new ArrayList<>(listeners)) {
+            l.onPendingChanged(count, failedCount);
+        }
+    }
+
+    private static boolean isRetryable(@Nullable Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) return false;
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case ABORTED:
+            case RESOURCE_EXHAUSTED:
+            case INTERNAL:
+            case UNKNOWN:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
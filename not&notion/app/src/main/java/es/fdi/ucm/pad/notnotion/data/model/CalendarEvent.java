@@ -3,12 +3,16 @@ package es.fdi.ucm.pad.notnotion.data.model;
 import com.google.firebase.Timestamp;
 
 import java.io.Serializable;
+import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
 
 
 public class CalendarEvent implements Serializable {
 
+    // Versión del formato del documento (ver SchemaMigrations)
+    public static final int SCHEMA_VERSION = 1;
+
     private String id;
     private String title;
     private String description;
@@ -32,6 +36,8 @@ public class CalendarEvent implements Serializable {
     private Timestamp lastSnoozeTime;     // Última vez que se pospuso
     private int maxSnoozeAllowed;
 
+    private int schemaVersion = SCHEMA_VERSION;
+
     public CalendarEvent() {}
 
     public CalendarEvent(String id, String title, String description,
@@ -154,6 +160,9 @@ public class CalendarEvent implements Serializable {
     public void setMaxSnoozeAllowed(int maxSnoozeAllowed) {
         this.maxSnoozeAllowed = maxSnoozeAllowed;
     }
+
+    public int getSchemaVersion() { return schemaVersion; }
+    public void setSchemaVersion(int schemaVersion) { this.schemaVersion = schemaVersion; }
     // 🔹 Métodos adicionales
     public void addNotificationTime(long millisBeforeEvent) {
         if (notificationTimes == null) {
@@ -170,6 +179,30 @@ public class CalendarEvent implements Serializable {
         }
     }
 
+    /**
+     * Copia del evento desplazada a otra repetición de la serie (misma duración).
+     * Conserva el id, así que al abrirla se edita la serie completa.
+     */
+    public CalendarEvent occurrenceAt(long startMillis) {
+        CalendarEvent copy = new CalendarEvent(id, title, description,
+                new Timestamp(new Date(startMillis)), null, noteId,
+                reminderMinutes, isRecurring, recurrencePattern, createdAt, updatedAt);
+        if (startDate != null && endDate != null) {
+            long duration = endDate.toDate().getTime() - startDate.toDate().getTime();
+            copy.endDate = new Timestamp(new Date(startMillis + duration));
+        }
+        copy.notificationsEnabled = notificationsEnabled;
+        copy.notificationTimes = notificationTimes != null ? new ArrayList<>(notificationTimes) : null;
+        copy.notificationSound = notificationSound;
+        copy.notifyAtEventTime = notifyAtEventTime;
+        copy.eventTimeNotificationSound = eventTimeNotificationSound;
+        copy.snoozeCount = snoozeCount;
+        copy.lastSnoozeTime = lastSnoozeTime;
+        copy.maxSnoozeAllowed = maxSnoozeAllowed;
+        copy.schemaVersion = schemaVersion;
+        return copy;
+    }
+
     // MÉTODOS AUXILIARES PARA SNOOZE
 
     /**
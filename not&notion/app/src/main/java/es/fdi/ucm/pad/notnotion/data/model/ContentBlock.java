@@ -1,6 +1,7 @@
 package es.fdi.ucm.pad.notnotion.data.model;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 // Crea bloques de contenido para las notas. Texto, imagen y PDF. (Estas ultimas no funcionan)
 public class ContentBlock implements Serializable {
@@ -76,4 +77,22 @@ public class ContentBlock implements Serializable {
 
     public int getTextSize() { return textSize; }
     public void setTextSize(int textSize) { this.textSize = textSize; }
+
+    // Dos bloques son iguales si tienen el mismo contenido y formato (se usa para detectar cambios)
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ContentBlock)) return false;
+        ContentBlock other = (ContentBlock) o;
+        return type == other.type
+                && textStyle == other.textStyle
+                && textSize == other.textSize
+                && Objects.equals(textContent, other.textContent)
+                && Objects.equals(mediaUrl, other.mediaUrl);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, textContent, mediaUrl, textStyle, textSize);
+    }
 }
\ No newline at end of file
@@ -1,14 +1,29 @@
 package es.fdi.ucm.pad.notnotion.data.model;
 
 import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.Exclude;
 
 public class Folder {
+    // Versión del formato del documento (ver SchemaMigrations)
+    public static final int SCHEMA_VERSION = 1;
+
+    // Notas activas (fuera de la papelera) directamente en la carpeta. Se
+    // mantiene con FieldValue.increment en los lotes que crean, mandan a la
+    // papelera o restauran notas; NOTE_COUNTED dice que el valor es fiable
+    // (las carpetas antiguas no lo tienen hasta que se cuentan una vez).
+    public static final String NOTE_COUNT = "noteCount";
+    public static final String NOTE_COUNTED = "noteCounted";
+
     private String id;
     private String name;
     private String parentFolderId; // puede ser null
     private Timestamp createdAt;
     private Timestamp updatedAt;
     private int type; // 0 = carpeta normal, podrías extenderlo en el futuro
+    private int schemaVersion = SCHEMA_VERSION;
+    private Timestamp deletedAt; // en la papelera (null = carpeta activa)
+    // Fuera del mapeo automático: set(folder) no debe pisar el contador
+    private Long noteCount; // null = sin contar todavía
 
     public Folder() {}
 
@@ -39,4 +54,15 @@ public class Folder {
 
     public int getType() { return type; }
     public void setType(int type) { this.type = type; }
+
+    public int getSchemaVersion() { return schemaVersion; }
+    public void setSchemaVersion(int schemaVersion) { this.schemaVersion = schemaVersion; }
+
+    public Timestamp getDeletedAt() { return deletedAt; }
+    public void setDeletedAt(Timestamp deletedAt) { this.deletedAt = deletedAt; }
+
+    @Exclude
+    public Long getNoteCount() { return noteCount; }
+    @Exclude
+    public void setNoteCount(Long noteCount) { this.noteCount = noteCount; }
 }
@@ -7,6 +7,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Note implements Serializable{
+    // Versión del formato del documento (ver SchemaMigrations)
+    public static final int SCHEMA_VERSION = 1;
+
     private String id;
     private String title;
     //private String content;
@@ -16,6 +19,11 @@ public class Note implements Serializable{
     private boolean isFavorite;
     private String coverImageUrl;
     private List<ContentBlock> contentBlocks;
+    private int schemaVersion = SCHEMA_VERSION;
+    // Se incrementa en cada guardado; el editor la compara para detectar ediciones simultáneas
+    private long revision;
+    // Momento en que se mandó a la papelera (null = nota activa, ver TrashManager)
+    private Timestamp deletedAt;
 
     // Constructor vacío requerido por Firestore
     public Note() {}
@@ -59,6 +67,15 @@ public class Note implements Serializable{
     public List<ContentBlock> getContentBlocks() { return contentBlocks;}
     public void setContentBlocks(List<ContentBlock> contentBlocks) { this.contentBlocks = contentBlocks;}
 
+    public int getSchemaVersion() { return schemaVersion; }
+    public void setSchemaVersion(int schemaVersion) { this.schemaVersion = schemaVersion; }
+
+    public Timestamp getDeletedAt() { return deletedAt; }
+    public void setDeletedAt(Timestamp deletedAt) { this.deletedAt = deletedAt; }
+
+    public long getRevision() { return revision; }
+    public void setRevision(long revision) { this.revision = revision; }
+
     public String getContentAsPlainText() {
         StringBuilder sb = new StringBuilder();
         if (contentBlocks != null) {
@@ -0,0 +1,134 @@
+package es.fdi.ucm.pad.notnotion.data.model;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import es.fdi.ucm.pad.notnotion.data.firebase.BlobStore;
+import es.fdi.ucm.pad.notnotion.utils.ImageHelper;
+
+/**
+ * Cabecera ligera de una nota, guardada en users/{uid}/folders/{fid}/headers/{noteId}.
+ * Es lo único que leen las listas; el cuerpo (contentBlocks y portada completa)
+ * sigue en notes/{noteId} y sólo se descarga al abrir el editor.
+ */
+public class NoteHeader {
+
+    // Longitud máxima del texto de vista previa
+    public static final int PREVIEW_LENGTH = 140;
+    // Lado máximo de la miniatura de portada (px)
+    public static final int THUMBNAIL_SIZE = 200;
+
+    // Para encontrar con una sola consulta (collection group sobre "headers")
+    // las cabeceras de un usuario que han cambiado: toda escritura de una
+    // cabecera, también mandarla a la papelera o restaurarla, pone changedAt
+    public static final String OWNER_ID = "ownerId";
+    public static final String CHANGED_AT = "changedAt";
+
+    private String id;
+    private String title;
+    private String coverThumbnail; // Base64 reducido o URL
+    private String preview;
+    private Timestamp updatedAt;
+    private boolean isFavorite;
+    private Timestamp deletedAt; // en la papelera; las listas no la muestran
+    private String ownerId;
+    private Timestamp changedAt;
+
+    // Constructor vacío requerido por Firestore
+    public NoteHeader() {}
+
+    // Construye la cabecera a partir de la nota completa
+    public static NoteHeader fromNote(Note note) {
+        NoteHeader header = new NoteHeader();
+        header.id = note.getId();
+        header.title = note.getTitle();
+        header.updatedAt = note.getUpdatedAt() != null ? note.getUpdatedAt() : Timestamp.now();
+        header.isFavorite = note.isFavorite();
+        header.deletedAt = note.getDeletedAt();
+        header.ownerId = currentUid();
+        header.changedAt = Timestamp.now();
+
+        // Las referencias a BlobStore y las URL se guardan tal cual; el Base64 antiguo se reduce
+        String cover = note.getCoverImageUrl();
+        if (cover != null && !cover.isEmpty() && !cover.startsWith("http") && !BlobStore.isBlobRef(cover)) {
+            cover = ImageHelper.createThumbnailBase64(cover, THUMBNAIL_SIZE);
+        }
+        header.coverThumbnail = cover;
+
+        String text = note.getContentAsPlainText().trim().replaceAll("\\s+", " ");
+        header.preview = text.length() > PREVIEW_LENGTH ? text.substring(0, PREVIEW_LENGTH) : text;
+        return header;
+    }
+
+    /**
+     * Campos de la cabecera menos deletedAt, para escribirla con SetOptions.merge():
+     * así guardar una nota no la saca de la papelera si otro dispositivo la ha
+     * mandado allí (eso sólo lo hacen TrashManager y la restauración).
+     */
+    public Map<String, Object> toContentFields() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", id);
+        fields.put("title", title);
+        fields.put("coverThumbnail", coverThumbnail);
+        fields.put("preview", preview);
+        fields.put("updatedAt", updatedAt);
+        fields.put("favorite", isFavorite);
+        fields.put(OWNER_ID, ownerId);
+        fields.put(CHANGED_AT, changedAt);
+        return fields;
+    }
+
+    /**
+     * ownerId y changedAt para las escrituras parciales de una cabecera
+     * (set con merge o update), a las que se añaden los campos que cambian.
+     */
+    public static Map<String, Object> changeFields() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(OWNER_ID, currentUid());
+        fields.put(CHANGED_AT, Timestamp.now());
+        return fields;
+    }
+
+    private static String currentUid() {
+        return FirebaseAuth.getInstance().getCurrentUser() != null
+                ? FirebaseAuth.getInstance().getCurrentUser().getUid() : null;
+    }
+
+    /**
+     * Nota "ligera" para los adapters: sin contentBlocks y con la miniatura como portada.
+     */
+    public Note toListNote(String folderId) {
+        return new Note(id, title, folderId, null, updatedAt, isFavorite, coverThumbnail, null);
+    }
+
+    // Getters y Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getTitle() { return title; }
+    public void setTitle(String title) { this.title = title; }
+
+    public String getCoverThumbnail() { return coverThumbnail; }
+    public void setCoverThumbnail(String coverThumbnail) { this.coverThumbnail = coverThumbnail; }
+
+    public String getPreview() { return preview; }
+    public void setPreview(String preview) { this.preview = preview; }
+
+    public Timestamp getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Timestamp updatedAt) { this.updatedAt = updatedAt; }
+
+    public boolean isFavorite() { return isFavorite; }
+    public void setFavorite(boolean favorite) { isFavorite = favorite; }
+
+    public Timestamp getDeletedAt() { return deletedAt; }
+    public void setDeletedAt(Timestamp deletedAt) { this.deletedAt = deletedAt; }
+
+    public String getOwnerId() { return ownerId; }
+    public void setOwnerId(String ownerId) { this.ownerId = ownerId; }
+
+    public Timestamp getChangedAt() { return changedAt; }
+    public void setChangedAt(Timestamp changedAt) { this.changedAt = changedAt; }
+}
@@ -0,0 +1,55 @@
+package es.fdi.ucm.pad.notnotion.data.model;
+
+import com.google.firebase.Timestamp;
+
+/**
+ * Entrada de la papelera, guardada en users/{uid}/trash/{itemId}.
+ * La nota o carpeta sigue en su sitio marcada con deletedAt; esta entrada
+ * sirve para listar la papelera y para que la purga encuentre lo caducado
+ * sin recorrer todas las carpetas (ver TrashManager).
+ */
+public class TrashItem {
+
+    public static final String TYPE_NOTE = "note";
+    public static final String TYPE_FOLDER = "folder";
+
+    private String itemId;
+    private String type;
+    private String title;
+    // Carpeta de la nota, o carpeta padre si es una carpeta
+    private String folderId;
+    private Timestamp deletedAt;
+    private Timestamp expiresAt;
+
+    // Constructor vacío requerido por Firestore
+    public TrashItem() {}
+
+    public TrashItem(String itemId, String type, String title, String folderId,
+                     Timestamp deletedAt, Timestamp expiresAt) {
+        this.itemId = itemId;
+        this.type = type;
+        this.title = title;
+        this.folderId = folderId;
+        this.deletedAt = deletedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    // Getters y Setters
+    public String getItemId() { return itemId; }
+    public void setItemId(String itemId) { this.itemId = itemId; }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public String getTitle() { return title; }
+    public void setTitle(String title) { this.title = title; }
+
+    public String getFolderId() { return folderId; }
+    public void setFolderId(String folderId) { this.folderId = folderId; }
+
+    public Timestamp getDeletedAt() { return deletedAt; }
+    public void setDeletedAt(Timestamp deletedAt) { this.deletedAt = deletedAt; }
+
+    public Timestamp getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(Timestamp expiresAt) { this.expiresAt = expiresAt; }
+}
@@ -0,0 +1,740 @@
+package es.fdi.ucm.pad.notnotion.data.search;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import es.fdi.ucm.pad.notnotion.data.firebase.FirestoreMeter;
+import es.fdi.ucm.pad.notnotion.data.firebase.FolderTree;
+import es.fdi.ucm.pad.notnotion.data.firebase.SchemaMigrations;
+import es.fdi.ucm.pad.notnotion.data.model.Folder;
+import es.fdi.ucm.pad.notnotion.data.model.Note;
+import es.fdi.ucm.pad.notnotion.data.model.NoteHeader;
+import es.fdi.ucm.pad.notnotion.data.model.TrashItem;
+
+/**
+ * Búsqueda de texto completo sobre todas las notas del usuario (ver SearchIndex).
+ *
+ * El índice tiene dos segmentos:
+ *  - base: el guardado en filesDir/search/{uid}.idx, que se lee al arrancar.
+ *    Sólo se construye desde Firestore si no existe (primer uso o cambio de formato);
+ *    si existe, al empezar la sesión se reconcilia con las cabeceras (ver reconcile).
+ *  - delta: las notas creadas o editadas desde entonces, pequeño y en memoria.
+ *    Los managers avisan en cada escritura (update/remove/removeFolders) y
+ *    sólo se analiza la nota que ha cambiado; su versión en base queda oculta.
+ *
+ * Poco después del último cambio (o si delta crece demasiado) los dos se
+ * fusionan en segundo plano en un base nuevo, que se guarda en disco.
+ *
+ * Igual que FolderTree, la instancia va ligada al usuario autenticado y se
+ * descarta con reset() al cerrar sesión. El estado sólo se toca desde el hilo
+ * worker; construir y fusionar van en builder para no bloquear las consultas.
+ * Los resultados se entregan en el hilo principal.
+ */
+public class NoteSearch {
+
+    private static final String TAG = "NoteSearch";
+    private static final String INDEX_DIR = "search";
+
+    // Notas leídas por consulta al reconstruir
+    private static final int PAGE_SIZE = 100;
+    // Espera tras el último cambio antes de fusionar delta con base
+    private static final long MERGE_DELAY_MS = 5000;
+    // Con tantas notas pendientes se fusiona sin esperar
+    private static final int MAX_DELTA_NOTES = 200;
+    // updatedAt es la hora del dispositivo que escribió: margen para relojes desajustados
+    private static final long CLOCK_SKEW_MS = 10 * 60 * 1000;
+
+    // Marca de nota borrada en changes
+    private static final SearchIndex.Doc REMOVED = new SearchIndex.Doc("", "", null, null, 0);
+
+    private static Context appContext;
+    private static NoteSearch instance;
+
+    private final String uid;
+    private final FirebaseFirestore db;
+    private final File file;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final ExecutorService builder = Executors.newSingleThreadExecutor();
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final Runnable mergeTask = () -> execute(this::startMerge);
+
+    // --- Sólo desde worker ---
+    private SearchIndex base = SearchIndex.empty();
+    private SearchIndex delta = SearchIndex.empty();
+    // Notas cambiadas desde base: noteId → versión nueva (o REMOVED)
+    private final Map<String, SearchIndex.Doc> changes = new LinkedHashMap<>();
+    // Carpetas borradas desde base: sus notas dejan de aparecer
+    private final Set<String> removedFolders = new HashSet<>();
+    private boolean needsRebuild = false;
+    private boolean merging = false;
+
+    // --- Sólo desde el hilo principal ---
+    private boolean refreshed = false;
+
+    private volatile boolean stopped = false;
+
+    private NoteSearch(@NonNull String uid) {
+        this.uid = uid;
+        this.db = FirebaseFirestore.getInstance();
+        this.file = new File(new File(appContext.getFilesDir(), INDEX_DIR), uid + ".idx");
+    }
+
+    // Se llama una vez desde NotNotionApp
+    public static synchronized void init(@NonNull Context context) {
+        if (appContext == null) {
+            appContext = context.getApplicationContext();
+        }
+    }
+
+    /**
+     * Devuelve la búsqueda del usuario actual, creándola (y leyendo su índice
+     * de disco) si no existe o si ha cambiado el usuario.
+     */
+    public static synchronized NoteSearch getInstance() {
+        if (appContext == null) {
+            throw new IllegalStateException("NoteSearch.init() no se ha llamado");
+        }
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        String uid = user != null ? user.getUid() : null;
+
+        if (instance != null && (uid == null || !uid.equals(instance.uid))) {
+            instance.stop();
+            instance = null;
+        }
+        if (instance == null) {
+            instance = new NoteSearch(uid != null ? uid : "");
+            if (uid != null) {
+                instance.load();
+            } else {
+                Log.e(TAG, "No hay usuario autenticado");
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Descarta el índice en memoria (p. ej. al cerrar sesión). Lo pendiente de
+     * fusionar se guarda antes en disco.
+     */
+    public static synchronized void reset() {
+        if (instance != null) {
+            instance.stop();
+            instance = null;
+        }
+    }
+
+    private void stop() {
+        stopped = true;
+        main.removeCallbacks(mergeTask);
+        // Última tarea de worker: nada de lo encolado después llega a ejecutarse
+        worker.execute(() -> {
+            saveChanges();
+            builder.shutdown();
+        });
+        worker.shutdown();
+    }
+
+    // Tareas de estado; se descartan una vez parada la instancia
+    private void execute(@NonNull Runnable task) {
+        if (stopped) return;
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "Búsqueda ya cerrada");
+        }
+    }
+
+    // Tareas largas (leer notas, construir, fusionar, escribir)
+    private void background(@NonNull Runnable task) {
+        if (stopped) return;
+        try {
+            builder.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "Búsqueda ya cerrada");
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Consulta
+    // ---------------------------------------------------------------
+
+    /**
+     * Busca en títulos y contenido de todas las notas. Cada palabra de la
+     * consulta vale también como prefijo ("reu" encuentra "reunión").
+     */
+    public void search(@NonNull String query, int limit,
+                       @NonNull OnSuccessListener<List<SearchIndex.Hit>> listener) {
+        execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+
+            // Cada parte puntúa con las estadísticas de las dos, así sus puntuaciones se pueden comparar
+            List<SearchIndex.Hit> hits = base.search(query, limit, changes.keySet(), removedFolders, delta);
+            if (delta.size() > 0) {
+                hits.addAll(delta.search(query, limit, null, null, base));
+                hits.sort((a, b) -> Float.compare(b.score, a.score));
+                if (hits.size() > limit) hits = new ArrayList<>(hits.subList(0, limit));
+            }
+
+            List<SearchIndex.Hit> result = hits;
+            Log.d(TAG, "\"" + query + "\": " + result.size() + " resultados en "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            main.post(() -> {
+                if (!stopped) listener.onSuccess(result);
+            });
+        });
+    }
+
+    // ---------------------------------------------------------------
+    // Cambios (los llaman los managers al escribir)
+    // ---------------------------------------------------------------
+
+    /** Nota creada o guardada. Las de la papelera se quitan del índice. */
+    public void update(@NonNull Note note) {
+        if (note.getId() == null || note.getFolderId() == null) return;
+        if (note.getDeletedAt() != null) {
+            remove(note.getId());
+            return;
+        }
+        // El texto se saca ya: la nota puede seguir cambiando en el editor
+        SearchIndex.Doc doc = docOf(note, note.getFolderId(), note.getUpdatedAt());
+        execute(() -> {
+            changes.put(doc.noteId, doc);
+            onChanged();
+        });
+    }
+
+    /** Varias notas de golpe (p. ej. al importar): delta se rehace una sola vez. */
+    public void updateAll(@NonNull Collection<Note> notes) {
+        List<SearchIndex.Doc> docs = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            if (note.getId() == null || note.getFolderId() == null || note.getDeletedAt() != null) continue;
+            docs.add(docOf(note, note.getFolderId(), note.getUpdatedAt()));
+        }
+        if (docs.isEmpty()) return;
+        execute(() -> {
+            for (SearchIndex.Doc doc : docs) changes.put(doc.noteId, doc);
+            onChanged();
+        });
+    }
+
+    /** Nota borrada o enviada a la papelera. */
+    public void remove(@NonNull String noteId) {
+        execute(() -> {
+            changes.put(noteId, REMOVED);
+            onChanged();
+        });
+    }
+
+    /** Carpetas borradas o enviadas a la papelera, con todas sus notas. */
+    public void removeFolders(@NonNull Collection<String> folderIds) {
+        Set<String> ids = new HashSet<>(folderIds);
+        execute(() -> {
+            removedFolders.addAll(ids);
+            // Lo pendiente de esas carpetas tampoco debe aparecer
+            for (Map.Entry<String, SearchIndex.Doc> e : changes.entrySet()) {
+                if (ids.contains(e.getValue().folderId)) e.setValue(REMOVED);
+            }
+            onChanged();
+        });
+    }
+
+    /**
+     * Vuelve a leer las notas de unas carpetas (p. ej. al sacarlas de la
+     * papelera) y las añade como cambios.
+     */
+    public void reindexFolders(@NonNull Collection<String> folderIds) {
+        if (uid.isEmpty()) return;
+        List<String> ids = new ArrayList<>(folderIds);
+        CollectionReference folders = db.collection("users/" + uid + "/folders");
+
+        background(() -> {
+            List<SearchIndex.Doc> docs = new ArrayList<>();
+            try {
+                for (String folderId : ids) {
+                    if (stopped) return;
+                    readFolder(folders.document(folderId).collection("notes"), folderId, docs);
+                }
+            } catch (ExecutionException | InterruptedException e) {
+                Log.w(TAG, "No se pudieron releer las carpetas " + ids, e);
+                return;
+            }
+            execute(() -> {
+                removedFolders.removeAll(ids);
+                for (SearchIndex.Doc doc : docs) changes.put(doc.noteId, doc);
+                onChanged();
+            });
+        });
+    }
+
+    @WorkerThread
+    private void onChanged() {
+        delta = SearchIndex.build(liveChanges(changes));
+
+        main.removeCallbacks(mergeTask);
+        if (changes.size() >= MAX_DELTA_NOTES) {
+            main.post(mergeTask);
+        } else {
+            main.postDelayed(mergeTask, MERGE_DELAY_MS);
+        }
+    }
+
+    @NonNull
+    private static SearchIndex.Doc docOf(@NonNull Note note, @NonNull String folderId,
+                                         @Nullable Timestamp updatedAt) {
+        return new SearchIndex.Doc(note.getId(), folderId, note.getTitle(),
+                note.getContentAsPlainText(), updatedAt != null ? updatedAt.toDate().getTime() : 0);
+    }
+
+    @NonNull
+    private static List<SearchIndex.Doc> liveChanges(@NonNull Map<String, SearchIndex.Doc> changes) {
+        List<SearchIndex.Doc> docs = new ArrayList<>(changes.size());
+        for (SearchIndex.Doc doc : changes.values()) {
+            if (doc != REMOVED) docs.add(doc);
+        }
+        return docs;
+    }
+
+    // ---------------------------------------------------------------
+    // Fusión de delta con base
+    // ---------------------------------------------------------------
+
+    @WorkerThread
+    private void startMerge() {
+        if (merging || (changes.isEmpty() && removedFolders.isEmpty())) return;
+        merging = true;
+
+        SearchIndex fromBase = base;
+        SearchIndex fromDelta = delta;
+        Map<String, SearchIndex.Doc> mergedChanges = new HashMap<>(changes);
+        Set<String> mergedFolders = new HashSet<>(removedFolders);
+
+        background(() -> {
+            long start = SystemClock.elapsedRealtime();
+            SearchIndex merged = SearchIndex.merge(fromBase, mergedChanges.keySet(), mergedFolders, fromDelta);
+            Log.d(TAG, "Fusionadas " + mergedChanges.size() + " notas cambiadas en "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            execute(() -> finishMerge(fromBase, merged, mergedChanges, mergedFolders));
+        });
+    }
+
+    @WorkerThread
+    private void finishMerge(@NonNull SearchIndex fromBase, @NonNull SearchIndex merged,
+                             @NonNull Map<String, SearchIndex.Doc> mergedChanges,
+                             @NonNull Set<String> mergedFolders) {
+        merging = false;
+        if (base != fromBase) {
+            // base se ha reconstruido mientras tanto: se repite sobre el nuevo
+            if (!changes.isEmpty()) onChanged();
+            return;
+        }
+
+        base = merged;
+        persist(merged);
+
+        // Lo que ha vuelto a cambiar durante la fusión sigue pendiente
+        for (Map.Entry<String, SearchIndex.Doc> e : mergedChanges.entrySet()) {
+            if (changes.get(e.getKey()) == e.getValue()) changes.remove(e.getKey());
+        }
+        removedFolders.removeAll(mergedFolders);
+        delta = SearchIndex.build(liveChanges(changes));
+        if (!changes.isEmpty()) onChanged();
+    }
+
+    // Al parar: fusiona y guarda lo pendiente sin esperar a MERGE_DELAY_MS
+    @WorkerThread
+    private void saveChanges() {
+        if (changes.isEmpty() && removedFolders.isEmpty()) return;
+
+        SearchIndex fromBase = base;
+        SearchIndex fromDelta = delta;
+        Set<String> hiddenNotes = new HashSet<>(changes.keySet());
+        Set<String> hiddenFolders = new HashSet<>(removedFolders);
+        builder.execute(() -> write(SearchIndex.merge(fromBase, hiddenNotes, hiddenFolders, fromDelta)));
+    }
+
+    // Escribe en builder, en el mismo orden en que worker acepta cada base
+    @WorkerThread
+    private void persist(@NonNull SearchIndex index) {
+        background(() -> write(index));
+    }
+
+    private void write(@NonNull SearchIndex index) {
+        try {
+            index.writeTo(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Error guardando el índice de búsqueda", e);
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Construcción completa (si no hay índice en disco) o reconciliación
+    // ---------------------------------------------------------------
+
+    private void load() {
+        execute(() -> {
+            try {
+                SearchIndex saved = SearchIndex.readFrom(file);
+                if (saved != null) {
+                    base = saved;
+                    Log.d(TAG, "Índice leído de disco: " + saved.size() + " notas");
+                    return;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Índice de búsqueda ilegible, se reconstruirá", e);
+            }
+            needsRebuild = true;
+        });
+    }
+
+    /**
+     * Construye el índice desde Firestore si no se pudo leer de disco, o lo
+     * reconcilia con las cabeceras si se leyó. Se hace una vez por sesión.
+     */
+    public void refresh() {
+        if (refreshed || stopped || uid.isEmpty()) return;
+        refreshed = true;
+
+        execute(() -> main.post(needsRebuild ? this::rebuild : this::reconcile));
+    }
+
+    private void rebuild() {
+        FolderTree tree = FolderTree.getInstance();
+        tree.whenReady(() -> {
+            List<String> folderIds = new ArrayList<>();
+            folderIds.add("root");
+            for (String id : tree.getAllFolderIds()) {
+                if (!"root".equals(id)) folderIds.add(id);
+            }
+
+            CollectionReference folders = db.collection("users/" + uid + "/folders");
+            background(() -> rebuild(folders, folderIds));
+        }, this::onTreeFailed);
+    }
+
+    @WorkerThread
+    private void rebuild(@NonNull CollectionReference folders, @NonNull List<String> folderIds) {
+        long start = SystemClock.elapsedRealtime();
+        List<SearchIndex.Doc> docs = new ArrayList<>();
+        try {
+            for (String folderId : folderIds) {
+                if (stopped) return;
+                readFolder(folders.document(folderId).collection("notes"), folderId, docs);
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            // Se reintentará en la próxima sesión
+            Log.w(TAG, "No se pudieron leer las notas para el índice", e);
+            return;
+        }
+
+        SearchIndex built = SearchIndex.build(docs);
+        Log.d(TAG, "Índice construido: " + built.size() + " notas en "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        // Los cambios pendientes se conservan: son iguales o más recientes que lo leído
+        execute(() -> {
+            base = built;
+            needsRebuild = false;
+            persist(built);
+        });
+    }
+
+    // Recorre las notas de una carpeta página a página
+    @WorkerThread
+    private void readFolder(@NonNull CollectionReference notes, @NonNull String folderId,
+                            @NonNull List<SearchIndex.Doc> out)
+            throws ExecutionException, InterruptedException {
+        DocumentSnapshot last = null;
+
+        while (!stopped) {
+            Query page = notes.orderBy(FieldPath.documentId()).limit(PAGE_SIZE);
+            if (last != null) page = page.startAfter(last);
+
+            QuerySnapshot snapshot = Tasks.await(FirestoreMeter.query(page.get()));
+            List<DocumentSnapshot> docs = snapshot.getDocuments();
+
+            for (DocumentSnapshot doc : docs) {
+                Note note = SchemaMigrations.readNote(doc);
+                // Las notas de la papelera no aparecen en la búsqueda
+                if (note == null || note.getDeletedAt() != null) continue;
+                out.add(docOf(note, folderId, doc.getTimestamp("updatedAt")));
+            }
+
+            if (docs.size() < PAGE_SIZE) return;
+            last = docs.get(docs.size() - 1);
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Reconciliación (si el índice se leyó de disco)
+    // ---------------------------------------------------------------
+
+    /**
+     * Pone al día con Firestore un índice leído de disco. Los managers sólo
+     * avisan de lo que se escribe en este dispositivo, y antes de que llegue a
+     * Firestore: pueden faltar cambios de otros dispositivos y sobrar escrituras
+     * que nunca se llegaron a guardar. Sin recorrer las carpetas:
+     *  1. Una consulta (collection group) a las cabeceras del usuario con
+     *     changedAt posterior a la nota más reciente del índice (menos
+     *     CLOCK_SKEW_MS): notas creadas, editadas, a la papelera o restauradas
+     *     en otro sitio.
+     *  2. Una consulta a la papelera desde esa misma fecha, para las notas que
+     *     mandaron allí versiones que todavía no ponían changedAt.
+     *  3. Notas del índice posteriores a eso que no han salido en 1: se releen
+     *     (escrituras locales que no llegaron a guardarse).
+     *  4. Sólo se relee una carpeta entera si su contador de notas (ver
+     *     Folder.NOTE_COUNT, ya en el árbol) no coincide con el índice: carpetas
+     *     restauradas en otro sitio o notas borradas sin pasar por la papelera.
+     * Las carpetas que ya no están en el árbol se quitan enteras.
+     *
+     * La consulta 1 necesita en Firestore un índice de collection group sobre
+     * headers (ownerId, changedAt) y una regla que deje leer las cabeceras
+     * cuyo ownerId es el del usuario.
+     */
+    private void reconcile() {
+        FolderTree tree = FolderTree.getInstance();
+        tree.whenReady(() -> {
+            Set<String> liveFolders = new HashSet<>(tree.getAllFolderIds());
+            liveFolders.add("root");
+            // Las carpetas antiguas, sin contador, no se comprueban en el paso 4
+            Map<String, Long> noteCounts = new HashMap<>();
+            for (String id : liveFolders) {
+                Folder folder = tree.getFolder(id);
+                if (folder != null && folder.getNoteCount() != null) noteCounts.put(id, folder.getNoteCount());
+            }
+            CollectionReference folders = db.collection("users/" + uid + "/folders");
+
+            execute(() -> {
+                // Lo que el índice da por bueno ahora: base con los cambios pendientes encima
+                Map<String, SearchIndex.Doc> seen = new HashMap<>(changes);
+                Map<String, Map<String, Long>> known = base.versionsByFolder();
+                known.keySet().removeAll(removedFolders);
+                for (Map<String, Long> notes : known.values()) notes.keySet().removeAll(seen.keySet());
+                for (SearchIndex.Doc doc : liveChanges(seen)) {
+                    Map<String, Long> notes = known.get(doc.folderId);
+                    if (notes == null) {
+                        notes = new HashMap<>();
+                        known.put(doc.folderId, notes);
+                    }
+                    notes.put(doc.noteId, doc.updatedAt);
+                }
+                background(() -> reconcile(folders, liveFolders, noteCounts, known, seen));
+            });
+        }, this::onTreeFailed);
+    }
+
+    // Sin árbol de carpetas no se puede recorrer nada: el próximo refresh() lo reintenta
+    private void onTreeFailed(@NonNull Exception e) {
+        Log.w(TAG, "Sin árbol de carpetas, búsqueda sin actualizar", e);
+        refreshed = false;
+    }
+
+    @WorkerThread
+    private void reconcile(@NonNull CollectionReference folders, @NonNull Set<String> liveFolders,
+                           @NonNull Map<String, Long> noteCounts,
+                           @NonNull Map<String, Map<String, Long>> known,
+                           @NonNull Map<String, SearchIndex.Doc> seen) {
+        long start = SystemClock.elapsedRealtime();
+        // Notas del índice: versión y carpeta
+        Map<String, Long> indexed = new HashMap<>();
+        Map<String, String> folderOf = new HashMap<>();
+        long newest = 0;
+        for (Map.Entry<String, Map<String, Long>> folder : known.entrySet()) {
+            for (Map.Entry<String, Long> note : folder.getValue().entrySet()) {
+                indexed.put(note.getKey(), note.getValue());
+                folderOf.put(note.getKey(), folder.getKey());
+                newest = Math.max(newest, note.getValue());
+            }
+        }
+        long since = Math.max(0, newest - CLOCK_SKEW_MS);
+        Timestamp sinceTs = new Timestamp(new Date(since));
+
+        Map<String, SearchIndex.Doc> updated = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+        Set<String> goneFolders = new HashSet<>(known.keySet());
+        goneFolders.removeAll(liveFolders);
+        int rereadFolders = 0;
+
+        try {
+            Set<String> checked = new HashSet<>();
+            // noteId → carpeta de las notas que hay que volver a leer
+            Map<String, String> reread = new HashMap<>();
+
+            // 1. Cabeceras cambiadas desde la última nota indexada, en cualquier carpeta
+            Query changed = db.collectionGroup("headers")
+                    .whereEqualTo(NoteHeader.OWNER_ID, uid)
+                    .whereGreaterThan(NoteHeader.CHANGED_AT, sinceTs);
+            for (DocumentSnapshot header : Tasks.await(FirestoreMeter.query(changed.get())).getDocuments()) {
+                String id = header.getId();
+                String folderId = folderIdOf(header);
+                checked.add(id);
+                if (folderId == null || !liveFolders.contains(folderId) || header.get("deletedAt") != null) {
+                    if (indexed.containsKey(id)) removed.add(id);
+                    continue;
+                }
+                Long mine = indexed.get(id);
+                Timestamp updatedAt = header.getTimestamp("updatedAt");
+                if (mine == null || updatedAt == null || mine != updatedAt.toDate().getTime()
+                        || !folderId.equals(folderOf.get(id))) {
+                    reread.put(id, folderId);
+                }
+            }
+
+            // 2. Mandadas a la papelera desde entonces (la entrada se borra al restaurar)
+            Query trashed = db.collection("users/" + uid + "/trash").whereGreaterThan("deletedAt", sinceTs);
+            for (DocumentSnapshot item : Tasks.await(FirestoreMeter.query(trashed.get())).getDocuments()) {
+                if (!TrashItem.TYPE_NOTE.equals(item.getString("type"))) continue;
+                String id = item.getId();
+                checked.add(id);
+                reread.remove(id);
+                if (indexed.containsKey(id)) removed.add(id);
+            }
+
+            // 3. Escritas aquí después de eso y que no están en Firestore
+            for (Map.Entry<String, Long> e : indexed.entrySet()) {
+                String folderId = folderOf.get(e.getKey());
+                if (e.getValue() > since && !checked.contains(e.getKey()) && liveFolders.contains(folderId)) {
+                    reread.put(e.getKey(), folderId);
+                }
+            }
+
+            for (Map.Entry<String, String> e : reread.entrySet()) {
+                if (stopped) return;
+                String id = e.getKey();
+                DocumentSnapshot doc = Tasks.await(FirestoreMeter.document(
+                        folders.document(e.getValue()).collection("notes").document(id).get()));
+                Note note = doc.exists() ? SchemaMigrations.readNote(doc) : null;
+                if (note == null || note.getDeletedAt() != null) {
+                    if (indexed.containsKey(id)) removed.add(id);
+                } else {
+                    updated.put(id, docOf(note, e.getValue(), doc.getTimestamp("updatedAt")));
+                }
+            }
+
+            // 4. Carpetas cuyo contador no coincide con lo que queda en el índice
+            Map<String, Integer> expected = new HashMap<>();
+            for (Map.Entry<String, String> e : folderOf.entrySet()) {
+                if (!removed.contains(e.getKey()) && !updated.containsKey(e.getKey())) {
+                    addOne(expected, e.getValue());
+                }
+            }
+            for (SearchIndex.Doc doc : updated.values()) addOne(expected, doc.folderId);
+
+            for (Map.Entry<String, Long> e : noteCounts.entrySet()) {
+                if (stopped) return;
+                String folderId = e.getKey();
+                int mine = expected.containsKey(folderId) ? expected.get(folderId) : 0;
+                if (e.getValue() == mine) continue;
+
+                Log.d(TAG, "Carpeta " + folderId + ": " + e.getValue() + " notas, " + mine
+                        + " en el índice; se relee");
+                rereadFolders++;
+                rereadFolder(folders.document(folderId).collection("notes"), folderId,
+                        indexed, folderOf, updated, removed);
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            // Se reintentará en la próxima sesión
+            Log.w(TAG, "No se pudo reconciliar el índice de búsqueda", e);
+            return;
+        }
+        Log.d(TAG, "Índice reconciliado: " + updated.size() + " notas cambiadas, " + removed.size()
+                + " quitadas, " + goneFolders.size() + " carpetas quitadas, " + rereadFolders
+                + " releídas en " + (SystemClock.elapsedRealtime() - start) + " ms");
+        if (updated.isEmpty() && removed.isEmpty() && goneFolders.isEmpty()) return;
+
+        execute(() -> {
+            removedFolders.addAll(goneFolders);
+            for (Map.Entry<String, SearchIndex.Doc> e : changes.entrySet()) {
+                if (goneFolders.contains(e.getValue().folderId)) e.setValue(REMOVED);
+            }
+            // Lo que se ha vuelto a escribir aquí mientras tanto es más reciente que lo leído
+            for (String noteId : removed) {
+                if (changes.get(noteId) == seen.get(noteId)) changes.put(noteId, REMOVED);
+            }
+            for (SearchIndex.Doc doc : updated.values()) {
+                if (changes.get(doc.noteId) == seen.get(doc.noteId)) changes.put(doc.noteId, doc);
+            }
+            onChanged();
+        });
+    }
+
+    // Relee una carpeta entera y corrige con ella lo que el índice tiene de esa carpeta
+    @WorkerThread
+    private void rereadFolder(@NonNull CollectionReference notes, @NonNull String folderId,
+                              @NonNull Map<String, Long> indexed, @NonNull Map<String, String> folderOf,
+                              @NonNull Map<String, SearchIndex.Doc> updated, @NonNull Set<String> removed)
+            throws ExecutionException, InterruptedException {
+        List<SearchIndex.Doc> docs = new ArrayList<>();
+        readFolder(notes, folderId, docs);
+
+        Set<String> found = new HashSet<>();
+        for (SearchIndex.Doc doc : docs) {
+            found.add(doc.noteId);
+            removed.remove(doc.noteId);
+            Long mine = indexed.get(doc.noteId);
+            if (mine == null || mine != doc.updatedAt || !folderId.equals(folderOf.get(doc.noteId))) {
+                updated.put(doc.noteId, doc);
+            }
+        }
+
+        Set<String> inFolder = new HashSet<>();
+        for (Map.Entry<String, String> e : folderOf.entrySet()) {
+            if (folderId.equals(e.getValue())) inFolder.add(e.getKey());
+        }
+        for (SearchIndex.Doc doc : updated.values()) {
+            if (folderId.equals(doc.folderId)) inFolder.add(doc.noteId);
+        }
+        for (String id : inFolder) {
+            if (found.contains(id)) continue;
+            updated.remove(id);
+            if (indexed.containsKey(id)) removed.add(id);
+        }
+    }
+
+    private static void addOne(@NonNull Map<String, Integer> counts, @NonNull String key) {
+        Integer n = counts.get(key);
+        counts.put(key, n == null ? 1 : n + 1);
+    }
+
+    // users/{uid}/folders/{folderId}/headers/{noteId}
+    @Nullable
+    private static String folderIdOf(@NonNull DocumentSnapshot header) {
+        DocumentReference folder = header.getReference().getParent().getParent();
+        return folder != null ? folder.getId() : null;
+    }
+}
@@ -0,0 +1,606 @@
+package es.fdi.ucm.pad.notnotion.data.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Índice invertido de las notas (título + texto), inmutable y guardado en un fichero.
+ *
+ *  - Diccionario: términos ordenados, así un prefijo es una búsqueda binaria
+ *    más un recorrido de los términos que empiezan por él.
+ *  - Listas de apariciones comprimidas: por cada término, pares
+ *    (salto de documento, frecuencia) en varint, con los documentos en orden
+ *    creciente para que los saltos sean pequeños.
+ *  - Puntuación BM25; los términos del título cuentan TITLE_BOOST veces.
+ *  - Fecha de modificación de cada nota, para reconciliar con Firestore.
+ *
+ * Todo el índice vive en memoria tras leerlo (unos pocos MB para 20.000 notas)
+ * y una consulta sólo descomprime las listas de sus términos. Es inmutable:
+ * se puede consultar desde cualquier hilo.
+ * Los cambios no lo modifican: se construye un índice pequeño con ellos y
+ * merge() produce uno nuevo con los dos (ver NoteSearch).
+ */
+public final class SearchIndex {
+
+    private static final int MAGIC = 0x4E4E4958; // "NNIX"
+    // 2: términos sin acentos y reducidos (TextAnalyzer); un fichero anterior se reconstruye
+    // 3: updatedAt de cada nota
+    // 4: palabras vacías comparadas antes de reducir (TextAnalyzer)
+    private static final int VERSION = 4;
+
+    // Parámetros habituales de BM25
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    static final int TITLE_BOOST = 3;
+    // Un término que sólo casa por prefijo puntúa algo menos que el término exacto
+    private static final float PREFIX_WEIGHT = 0.8f;
+    // Términos que se prueban como mucho para un mismo prefijo
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+
+    /** Nota a indexar. */
+    public static class Doc {
+        public final String noteId;
+        public final String folderId;
+        public final String title;
+        public final String text;
+        public final long updatedAt; // ms
+
+        public Doc(@NonNull String noteId, @NonNull String folderId,
+                   @Nullable String title, @Nullable String text, long updatedAt) {
+            this.noteId = noteId;
+            this.folderId = folderId;
+            this.title = title != null ? title : "";
+            this.text = text != null ? text : "";
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    /** Resultado de una consulta. */
+    public static class Hit {
+        public final String noteId;
+        public final String folderId;
+        public final String title;
+        public final float score;
+
+        Hit(String noteId, String folderId, String title, float score) {
+            this.noteId = noteId;
+            this.folderId = folderId;
+            this.title = title;
+            this.score = score;
+        }
+    }
+
+    private final String[] noteIds;
+    private final String[] folderIds;
+    private final String[] titles;
+    private final long[] updatedAts;
+    private final int[] docLengths;
+    private final long totalLength;
+
+    private final String[] terms;
+    private final int[] docFreqs;
+    private final int[] offsets; // offsets[terms.length] == postings.length
+    private final byte[] postings;
+
+    private SearchIndex(String[] noteIds, String[] folderIds, String[] titles, long[] updatedAts,
+                        int[] docLengths, String[] terms, int[] docFreqs, int[] offsets, byte[] postings) {
+        this.noteIds = noteIds;
+        this.folderIds = folderIds;
+        this.titles = titles;
+        this.updatedAts = updatedAts;
+        this.docLengths = docLengths;
+        this.terms = terms;
+        this.docFreqs = docFreqs;
+        this.offsets = offsets;
+        this.postings = postings;
+
+        long total = 0;
+        for (int length : docLengths) total += length;
+        this.totalLength = total;
+    }
+
+    @NonNull
+    public static SearchIndex empty() {
+        return new SearchIndex(new String[0], new String[0], new String[0], new long[0], new int[0],
+                new String[0], new int[0], new int[]{0}, new byte[0]);
+    }
+
+    public int size() {
+        return noteIds.length;
+    }
+
+    /**
+     * updatedAt de cada nota indexada, agrupadas por carpeta (ver NoteSearch.reconcile).
+     */
+    @NonNull
+    Map<String, Map<String, Long>> versionsByFolder() {
+        Map<String, Map<String, Long>> result = new HashMap<>();
+        for (int doc = 0; doc < noteIds.length; doc++) {
+            Map<String, Long> notes = result.get(folderIds[doc]);
+            if (notes == null) {
+                notes = new HashMap<>();
+                result.put(folderIds[doc], notes);
+            }
+            notes.put(noteIds[doc], updatedAts[doc]);
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------
+    // Construcción
+    // ---------------------------------------------------------------
+
+    @NonNull
+    public static SearchIndex build(@NonNull List<Doc> docs) {
+        int n = docs.size();
+        String[] noteIds = new String[n];
+        String[] folderIds = new String[n];
+        String[] titles = new String[n];
+        long[] updatedAts = new long[n];
+        int[] docLengths = new int[n];
+
+        // término → apariciones (doc, frecuencia) en orden de documento
+        TreeMap<String, IntPairs> inverted = new TreeMap<>();
+
+        for (int doc = 0; doc < n; doc++) {
+            Doc d = docs.get(doc);
+            noteIds[doc] = d.noteId;
+            folderIds[doc] = d.folderId;
+            titles[doc] = d.title;
+            updatedAts[doc] = d.updatedAt;
+
+            Map<String, int[]> freqs = new HashMap<>();
+            for (String term : TextAnalyzer.terms(d.title)) count(freqs, term, TITLE_BOOST);
+            for (String term : TextAnalyzer.terms(d.text)) count(freqs, term, 1);
+
+            int length = 0;
+            for (Map.Entry<String, int[]> e : freqs.entrySet()) {
+                IntPairs list = inverted.get(e.getKey());
+                if (list == null) {
+                    list = new IntPairs();
+                    inverted.put(e.getKey(), list);
+                }
+                list.add(doc, e.getValue()[0]);
+                length += e.getValue()[0];
+            }
+            docLengths[doc] = length;
+        }
+
+        String[] terms = new String[inverted.size()];
+        int[] docFreqs = new int[terms.length];
+        int[] offsets = new int[terms.length + 1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int t = 0;
+        for (Map.Entry<String, IntPairs> e : inverted.entrySet()) {
+            terms[t] = e.getKey();
+            offsets[t] = out.size();
+            IntPairs list = e.getValue();
+            docFreqs[t] = list.size;
+
+            int previous = 0;
+            for (int i = 0; i < list.size; i++) {
+                writeVarInt(out, list.first[i] - previous);
+                writeVarInt(out, list.second[i]);
+                previous = list.first[i];
+            }
+            t++;
+        }
+        offsets[terms.length] = out.size();
+
+        return new SearchIndex(noteIds, folderIds, titles, updatedAts, docLengths,
+                terms, docFreqs, offsets, out.toByteArray());
+    }
+
+    private static void count(@NonNull Map<String, int[]> freqs, @NonNull String term, int weight) {
+        int[] f = freqs.get(term);
+        if (f == null) {
+            freqs.put(term, new int[]{weight});
+        } else {
+            f[0] += weight;
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Consulta
+    // ---------------------------------------------------------------
+
+    /**
+     * Notas que contienen todos los términos de la consulta (cada uno como
+     * palabra completa o como prefijo), ordenadas por relevancia.
+     */
+    @NonNull
+    public List<Hit> search(@Nullable String query, int limit) {
+        return search(query, limit, null, null);
+    }
+
+    /**
+     * Igual que search(query, limit), saltándose las notas de hiddenNotes y las
+     * de las carpetas de hiddenFolders (versiones sustituidas o borradas desde
+     * que se construyó el índice, ver NoteSearch).
+     */
+    @NonNull
+    public List<Hit> search(@Nullable String query, int limit,
+                            @Nullable Set<String> hiddenNotes, @Nullable Set<String> hiddenFolders) {
+        return search(query, limit, hiddenNotes, hiddenFolders, null);
+    }
+
+    /**
+     * Igual que la anterior, pero con IDF y longitud media calculados sobre
+     * este índice y corpus juntos. Así base y delta puntúan con las mismas
+     * estadísticas y sus resultados se pueden mezclar (ver NoteSearch): con
+     * las suyas, un delta de pocas notas da IDF y longitudes medias que no
+     * tienen nada que ver con las de base.
+     */
+    @NonNull
+    public List<Hit> search(@Nullable String query, int limit,
+                            @Nullable Set<String> hiddenNotes, @Nullable Set<String> hiddenFolders,
+                            @Nullable SearchIndex corpus) {
+        List<String> queryTerms = TextAnalyzer.terms(query);
+        int n = noteIds.length;
+        if (queryTerms.isEmpty() || n == 0 || limit <= 0) return new ArrayList<>();
+
+        int docCount = n;
+        long length = totalLength;
+        if (corpus != null) {
+            docCount += corpus.noteIds.length;
+            length += corpus.totalLength;
+        }
+        float avgDocLength = Math.max(1f, (float) length / docCount);
+
+        float[] total = new float[n];
+        float[] current = new float[n];
+        int[] matched = new int[n];  // términos de la consulta que ya casan con el doc
+        int[] stamp = new int[n];    // último término que ha tocado el doc
+        int[] touched = new int[n];
+
+        for (int q = 0; q < queryTerms.size(); q++) {
+            String term = queryTerms.get(q);
+            int touchedCount = 0;
+
+            int first = lowerBound(term);
+            int expansions = 0;
+            for (int t = first; t < terms.length && terms[t].startsWith(term)
+                    && expansions < MAX_PREFIX_EXPANSIONS; t++, expansions++) {
+
+                float weight = terms[t].length() == term.length() ? 1f : PREFIX_WEIGHT;
+                int df = docFreqs[t] + (corpus != null ? corpus.docFreq(terms[t]) : 0);
+                float idf = idf(df, docCount);
+
+                int pos = offsets[t];
+                int end = offsets[t + 1];
+                int doc = 0;
+                while (pos < end) {
+                    int delta = 0, shift = 0, b;
+                    do {
+                        b = postings[pos++];
+                        delta |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+                    int tf = 0;
+                    shift = 0;
+                    do {
+                        b = postings[pos++];
+                        tf |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+                    doc += delta;
+
+                    // Sólo siguen en juego los docs que casaban con todos los términos anteriores
+                    if (matched[doc] != q) continue;
+
+                    float score = weight * idf * bm25(tf, docLengths[doc], avgDocLength);
+                    if (stamp[doc] != q + 1) {
+                        stamp[doc] = q + 1;
+                        current[doc] = score;
+                        touched[touchedCount++] = doc;
+                    } else if (score > current[doc]) {
+                        current[doc] = score;
+                    }
+                }
+            }
+
+            if (touchedCount == 0) return new ArrayList<>();
+            for (int i = 0; i < touchedCount; i++) {
+                int doc = touched[i];
+                matched[doc] = q + 1;
+                total[doc] += current[doc];
+            }
+        }
+
+        // Los limit mejores con un montículo de mínimos
+        int needed = queryTerms.size();
+        PriorityQueue<Integer> top = new PriorityQueue<>(limit + 1,
+                (a, b) -> Float.compare(total[a], total[b]));
+        for (int doc = 0; doc < n; doc++) {
+            if (matched[doc] != needed) continue;
+            if (hiddenNotes != null && hiddenNotes.contains(noteIds[doc])) continue;
+            if (hiddenFolders != null && hiddenFolders.contains(folderIds[doc])) continue;
+            top.add(doc);
+            if (top.size() > limit) top.poll();
+        }
+
+        List<Hit> hits = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            int doc = top.poll();
+            hits.add(new Hit(noteIds[doc], folderIds[doc], titles[doc], total[doc]));
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    private static float bm25(int tf, int docLength, float avgDocLength) {
+        return tf * (K1 + 1) / (tf + K1 * (1 - B + B * docLength / avgDocLength));
+    }
+
+    private static float idf(int docFreq, int docCount) {
+        return (float) Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    // Documentos que contienen exactamente term (0 si no está)
+    private int docFreq(@NonNull String term) {
+        int t = lowerBound(term);
+        return t < terms.length && terms[t].equals(term) ? docFreqs[t] : 0;
+    }
+
+    // Primer término >= key
+    private int lowerBound(@NonNull String key) {
+        int lo = 0, hi = terms.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (terms[mid].compareTo(key) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // ---------------------------------------------------------------
+    // Fusión
+    // ---------------------------------------------------------------
+
+    /**
+     * Índice con los documentos de base que no estén ocultos (por nota o por
+     * carpeta) seguidos de todos los de delta. Recorre los dos diccionarios a
+     * la vez y copia las listas de apariciones renumerando los documentos, sin
+     * volver a analizar ningún texto.
+     */
+    @NonNull
+    public static SearchIndex merge(@NonNull SearchIndex base,
+                                    @NonNull Set<String> hiddenNotes,
+                                    @NonNull Set<String> hiddenFolders,
+                                    @NonNull SearchIndex delta) {
+        // Nuevo número de cada documento de base (-1 si desaparece)
+        int[] remap = new int[base.noteIds.length];
+        int kept = 0;
+        for (int doc = 0; doc < remap.length; doc++) {
+            boolean hidden = hiddenNotes.contains(base.noteIds[doc])
+                    || hiddenFolders.contains(base.folderIds[doc]);
+            remap[doc] = hidden ? -1 : kept++;
+        }
+
+        int n = kept + delta.noteIds.length;
+        String[] noteIds = new String[n];
+        String[] folderIds = new String[n];
+        String[] titles = new String[n];
+        long[] updatedAts = new long[n];
+        int[] docLengths = new int[n];
+        for (int doc = 0; doc < remap.length; doc++) {
+            int to = remap[doc];
+            if (to < 0) continue;
+            noteIds[to] = base.noteIds[doc];
+            folderIds[to] = base.folderIds[doc];
+            titles[to] = base.titles[doc];
+            updatedAts[to] = base.updatedAts[doc];
+            docLengths[to] = base.docLengths[doc];
+        }
+        System.arraycopy(delta.noteIds, 0, noteIds, kept, delta.noteIds.length);
+        System.arraycopy(delta.folderIds, 0, folderIds, kept, delta.folderIds.length);
+        System.arraycopy(delta.titles, 0, titles, kept, delta.titles.length);
+        System.arraycopy(delta.updatedAts, 0, updatedAts, kept, delta.updatedAts.length);
+        System.arraycopy(delta.docLengths, 0, docLengths, kept, delta.docLengths.length);
+
+        List<String> terms = new ArrayList<>(base.terms.length + delta.terms.length);
+        IntPairs docFreqs = new IntPairs(); // (docFreq, offset) de cada término
+        ByteArrayOutputStream out = new ByteArrayOutputStream(base.postings.length + delta.postings.length);
+        int[] pos = new int[1];
+
+        int i = 0, j = 0;
+        while (i < base.terms.length || j < delta.terms.length) {
+            int cmp = i >= base.terms.length ? 1
+                    : j >= delta.terms.length ? -1
+                    : base.terms[i].compareTo(delta.terms[j]);
+            String term = cmp <= 0 ? base.terms[i] : delta.terms[j];
+            int offset = out.size();
+            int df = 0;
+            int previous = 0;
+
+            if (cmp <= 0) {
+                pos[0] = base.offsets[i];
+                int end = base.offsets[i + 1];
+                int doc = 0;
+                while (pos[0] < end) {
+                    doc += readVarInt(base.postings, pos);
+                    int tf = readVarInt(base.postings, pos);
+                    int to = remap[doc];
+                    if (to < 0) continue;
+                    writeVarInt(out, to - previous);
+                    writeVarInt(out, tf);
+                    previous = to;
+                    df++;
+                }
+                i++;
+            }
+            if (cmp >= 0) {
+                pos[0] = delta.offsets[j];
+                int end = delta.offsets[j + 1];
+                int doc = 0;
+                while (pos[0] < end) {
+                    doc += readVarInt(delta.postings, pos);
+                    int tf = readVarInt(delta.postings, pos);
+                    int to = kept + doc;
+                    writeVarInt(out, to - previous);
+                    writeVarInt(out, tf);
+                    previous = to;
+                    df++;
+                }
+                j++;
+            }
+
+            // Término que sólo aparecía en documentos eliminados
+            if (df == 0) continue;
+            terms.add(term);
+            docFreqs.add(df, offset);
+        }
+
+        int count = terms.size();
+        int[] offsets = Arrays.copyOf(docFreqs.second, count + 1);
+        offsets[count] = out.size();
+        return new SearchIndex(noteIds, folderIds, titles, updatedAts, docLengths,
+                terms.toArray(new String[0]), Arrays.copyOf(docFreqs.first, count),
+                offsets, out.toByteArray());
+    }
+
+    // ---------------------------------------------------------------
+    // Fichero
+    // ---------------------------------------------------------------
+
+    /**
+     * Escribe el índice en un temporal y lo renombra, para no dejar nunca un fichero a medias.
+     */
+    public void writeTo(@NonNull File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("No se pudo crear " + dir);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(noteIds.length);
+            for (int i = 0; i < noteIds.length; i++) {
+                out.writeUTF(noteIds[i]);
+                out.writeUTF(folderIds[i]);
+                out.writeUTF(titles[i]);
+                out.writeLong(updatedAts[i]);
+                out.writeInt(docLengths[i]);
+            }
+
+            out.writeInt(terms.length);
+            for (int i = 0; i < terms.length; i++) {
+                out.writeUTF(terms[i]);
+                out.writeInt(docFreqs[i]);
+                out.writeInt(offsets[i]);
+            }
+
+            out.writeInt(postings.length);
+            out.write(postings);
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException("No se pudo reemplazar " + file);
+        }
+    }
+
+    /**
+     * Lee un índice guardado con writeTo(), o null si no existe o es de otra versión.
+     */
+    @Nullable
+    public static SearchIndex readFrom(@NonNull File file) throws IOException {
+        if (!file.exists()) return null;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+
+            int docs = in.readInt();
+            String[] noteIds = new String[docs];
+            String[] folderIds = new String[docs];
+            String[] titles = new String[docs];
+            long[] updatedAts = new long[docs];
+            int[] docLengths = new int[docs];
+            for (int i = 0; i < docs; i++) {
+                noteIds[i] = in.readUTF();
+                folderIds[i] = in.readUTF();
+                titles[i] = in.readUTF();
+                updatedAts[i] = in.readLong();
+                docLengths[i] = in.readInt();
+            }
+
+            int count = in.readInt();
+            String[] terms = new String[count];
+            int[] docFreqs = new int[count];
+            int[] offsets = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                terms[i] = in.readUTF();
+                docFreqs[i] = in.readInt();
+                offsets[i] = in.readInt();
+            }
+
+            byte[] postings = new byte[in.readInt()];
+            in.readFully(postings);
+            offsets[count] = postings.length;
+
+            return new SearchIndex(noteIds, folderIds, titles, updatedAts, docLengths,
+                    terms, docFreqs, offsets, postings);
+        }
+    }
+
+    // ---------------------------------------------------------------
+
+    private static int readVarInt(@NonNull byte[] bytes, @NonNull int[] pos) {
+        int value = 0, shift = 0, b;
+        do {
+            b = bytes[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void writeVarInt(@NonNull ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // Lista de pares de enteros que crece sin objetos por elemento
+    private static final class IntPairs {
+        int[] first = new int[4];
+        int[] second = new int[4];
+        int size;
+
+        void add(int a, int b) {
+            if (size == first.length) {
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+            }
+            first[size] = a;
+            second[size] = b;
+            size++;
+        }
+    }
+}
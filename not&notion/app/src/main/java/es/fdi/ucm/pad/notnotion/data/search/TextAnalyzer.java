@@ -0,0 +1,192 @@
+package es.fdi.ucm.pad.notnotion.data.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Análisis de texto común a toda la búsqueda: lo usan tanto la indexación
+ * (SearchIndex, TrigramIndex) como las consultas (NoteSearch, ListFilter),
+ * así que los dos lados siempre producen las mismas claves.
+ *
+ * Cadena, en una sola pasada por carácter:
+ *  1. Quitar acentos: la letra base de su descomposición NFD ("canción" → "cancion").
+ *  2. Minúsculas.
+ *  3. Partir en palabras (letras y dígitos).
+ *  4. Reducir cada palabra con un stemmer ligero de plurales y género que
+ *     vale para español e inglés ("canciones" → "cancion", "stories" → "story").
+ *  5. Sólo en terms(): quitar las palabras vacías ("de", "the"...). Se
+ *     comparan antes del paso 4: reducida, "nota" sería "not" y se perdería.
+ *
+ * La descomposición NFD se calcula una vez por carácter al cargar la clase
+ * (FOLD): analizar un texto no crea nada por carácter, sólo un buffer por
+ * llamada y un String por palabra (dos si es corta y puede ser vacía).
+ */
+public final class TextAnalyzer {
+
+    // Términos más cortos no aportan nada al índice (y como prefijo casan con todo)
+    public static final int MIN_TERM_LENGTH = 2;
+    // Más largo suele ser una URL o un identificador pegado: se corta
+    public static final int MAX_TERM_LENGTH = 40;
+    // El stemmer nunca deja una raíz más corta que esto
+    private static final int MIN_STEM_LENGTH = 3;
+
+    // Latin-1 Supplement y Latin Extended-A/B: ahí están las letras con tilde de es/en
+    private static final char FOLD_FIRST = 'À';
+    private static final char FOLD_LAST = 'ɏ';
+    private static final char[] FOLD = new char[FOLD_LAST - FOLD_FIRST + 1];
+
+    static {
+        for (char c = FOLD_FIRST; c <= FOLD_LAST; c++) {
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            FOLD[c - FOLD_FIRST] = decomposed.charAt(0);
+        }
+    }
+
+    // Sin acentos, que es como llegan las palabras al compararlas
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            // español
+            "de", "la", "que", "el", "en", "los", "del", "se", "las", "por", "un", "para",
+            "con", "no", "una", "su", "al", "lo", "como", "mas", "pero", "sus", "le", "ya",
+            "este", "si", "porque", "esta", "entre", "cuando", "muy", "sin", "sobre",
+            "tambien", "me", "hasta", "hay", "donde", "desde", "nos", "les", "ni", "ese",
+            "eso", "esto", "unos", "otro", "es", "son", "fue",
+            // inglés
+            "the", "an", "and", "or", "of", "to", "in", "on", "for", "with", "is", "are",
+            "was", "be", "by", "at", "as", "it", "this", "that", "from", "not", "but"));
+
+    // Las palabras más largas no hace falta buscarlas en STOP_WORDS
+    private static final int MAX_STOP_WORD_LENGTH;
+
+    static {
+        int max = 0;
+        for (String word : STOP_WORDS) max = Math.max(max, word.length());
+        MAX_STOP_WORD_LENGTH = max;
+    }
+
+    private TextAnalyzer() {}
+
+    // ---------------------------------------------------------------
+    // Claves
+    // ---------------------------------------------------------------
+
+    /**
+     * Términos del índice de texto completo: palabras normalizadas y reducidas,
+     * sin las vacías.
+     */
+    @NonNull
+    public static List<String> terms(@Nullable String text) {
+        List<String> result = new ArrayList<>();
+        if (text == null || text.isEmpty()) return result;
+
+        int length = text.length();
+        char[] buffer = new char[length];
+        int end = 0; // palabra actual: buffer[0, end)
+
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (isMark(c)) continue; // acento suelto (texto ya descompuesto)
+
+            if (Character.isLetterOrDigit(c)) {
+                buffer[end++] = fold(c);
+            } else if (end > 0) {
+                if (end > MAX_STOP_WORD_LENGTH || !STOP_WORDS.contains(new String(buffer, 0, end))) {
+                    int wordLength = Math.min(stem(buffer, 0, end), MAX_TERM_LENGTH);
+                    if (wordLength >= MIN_TERM_LENGTH) result.add(new String(buffer, 0, wordLength));
+                }
+                end = 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Texto en la forma en que se compara al filtrar por nombre: cada palabra
+     * normalizada y reducida, separadas por un espacio. Conserva las palabras
+     * vacías para que "apuntes de fis" siga siendo un trozo de la clave.
+     * Los adapters la guardan ya calculada para no repetirla en cada pulsación.
+     */
+    @NonNull
+    public static String normalize(@NonNull String text) {
+        int length = text.length();
+        char[] buffer = new char[length];
+        int start = 0; // inicio de la palabra actual en buffer
+        int end = 0;   // siguiente posición libre
+
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (isMark(c)) continue;
+
+            if (Character.isLetterOrDigit(c)) {
+                buffer[end++] = fold(c);
+            } else if (end > start) {
+                end = start + stem(buffer, start, end - start);
+                // Un solo espacio entre palabras
+                if (i < length) buffer[end++] = ' ';
+                start = end;
+            }
+        }
+        if (end > 0 && buffer[end - 1] == ' ') end--;
+        return new String(buffer, 0, end);
+    }
+
+    // ---------------------------------------------------------------
+    // Pasos de la cadena
+    // ---------------------------------------------------------------
+
+    // Sin acento y en minúsculas, sin crear nada
+    private static char fold(char c) {
+        if (c >= FOLD_FIRST && c <= FOLD_LAST) c = FOLD[c - FOLD_FIRST];
+        return Character.toLowerCase(c);
+    }
+
+    private static boolean isMark(char c) {
+        return Character.getType(c) == Character.NON_SPACING_MARK;
+    }
+
+    private static boolean isVowel(char c) {
+        return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+    }
+
+    /**
+     * Reduce en el sitio la palabra buffer[start, start + length) y devuelve
+     * su nueva longitud. Plurales y género de es/en, de forma conservadora:
+     *  - "-ies" → "-y" (stories → story)
+     *  - fuera "-es" tras consonante o "-s" (canciones → cancion, notas → nota; no "-ss" ni "-us")
+     *  - y luego una "a", "e" u "o" final (nota → not, niño → nin, house → hous)
+     * No busca palabras reales: basta con que singular y plural acaben igual.
+     */
+    private static int stem(@NonNull char[] buffer, int start, int length) {
+        if (length <= MIN_STEM_LENGTH) return length;
+        int last = start + length - 1;
+
+        if (length > 4 && buffer[last] == 's' && buffer[last - 1] == 'e' && buffer[last - 2] == 'i') {
+            buffer[last - 2] = 'y';
+            return length - 2;
+        }
+
+        if (buffer[last] == 's') {
+            char before = buffer[last - 1];
+            if (before == 'e' && length - 2 >= MIN_STEM_LENGTH && !isVowel(buffer[last - 2])) {
+                length -= 2;
+            } else if (before != 's' && before != 'u') {
+                length -= 1;
+            } else {
+                return length;
+            }
+            last = start + length - 1;
+        }
+
+        char end = buffer[last];
+        if ((end == 'a' || end == 'e' || end == 'o') && length - 1 >= MIN_STEM_LENGTH) {
+            length -= 1;
+        }
+        return length;
+    }
+}
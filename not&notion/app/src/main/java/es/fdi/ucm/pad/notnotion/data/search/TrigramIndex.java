@@ -0,0 +1,192 @@
+package es.fdi.ucm.pad.notnotion.data.search;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Búsqueda tolerante a erratas sobre textos cortos (nombres de carpetas y
+ * títulos de notas), ya normalizados.
+ *
+ * Cada texto se indexa por sus trigramas (trozos de 3 caracteres). Un cambio,
+ * inserción o borrado rompe como mucho 3 trigramas, y un intercambio de dos
+ * letras seguidas, 4. Una consulta con k errores conserva por tanto al menos
+ * (trigramas de la consulta - 4k) de ellos en cualquier texto que la
+ * contenga, así que basta contar trigramas compartidos con las listas del
+ * índice para descartar casi todo sin mirarlo.
+ * Sólo a los candidatos que quedan se les calcula la distancia de edición,
+ * acotada a k.
+ *
+ * Inmutable una vez construido: se construye con la lista y se reutiliza en
+ * todas las consultas mientras la lista no cambie.
+ */
+public final class TrigramIndex {
+
+    private static final int GRAM = 3;
+
+    /** Coincidencia: posición del texto en el array de construcción y errores. */
+    public static class Match {
+        public final int position;
+        public final int distance;
+
+        Match(int position, int distance) {
+            this.position = position;
+            this.distance = distance;
+        }
+    }
+
+    private final String[] texts;
+    // trigrama → posiciones (crecientes) de los textos que lo contienen
+    private final Map<Long, int[]> postings;
+
+    public TrigramIndex(@NonNull String[] texts) {
+        this.texts = texts;
+
+        Map<Long, int[]> lists = new HashMap<>();
+        Map<Long, Integer> sizes = new HashMap<>();
+        Set<Long> seen = new HashSet<>();
+        for (int pos = 0; pos < texts.length; pos++) {
+            String text = texts[pos];
+            seen.clear();
+            for (int i = 0; i + GRAM <= text.length(); i++) {
+                long gram = gram(text, i);
+                if (!seen.add(gram)) continue;
+
+                int[] list = lists.get(gram);
+                int size = list == null ? 0 : sizes.get(gram);
+                if (list == null) {
+                    list = new int[4];
+                } else if (size == list.length) {
+                    list = Arrays.copyOf(list, size * 2);
+                }
+                list[size] = pos;
+                lists.put(gram, list);
+                sizes.put(gram, size + 1);
+            }
+        }
+
+        postings = new HashMap<>(lists.size());
+        for (Map.Entry<Long, int[]> e : lists.entrySet()) {
+            postings.put(e.getKey(), Arrays.copyOf(e.getValue(), sizes.get(e.getKey())));
+        }
+    }
+
+    /**
+     * Errores que se toleran en una consulta: ninguno si es muy corta
+     * (casi cualquier nombre estaría a un error), uno hasta 8 caracteres y dos a partir de ahí.
+     */
+    public static int maxEditsFor(@NonNull String query) {
+        int length = query.length();
+        if (length < 4) return 0;
+        return length < 9 ? 1 : 2;
+    }
+
+    /**
+     * Los textos que contienen query con como mucho maxEdits errores
+     * (cambios, inserciones o borrados), los de menos errores primero.
+     */
+    @NonNull
+    public List<Match> search(@NonNull String query, int maxEdits, int limit) {
+        List<Match> result = new ArrayList<>();
+        if (query.length() < GRAM || limit <= 0) return result;
+
+        Set<Long> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= query.length(); i++) grams.add(gram(query, i));
+        // Con consultas cortas el lema no descarta nada: se pide al menos un trigrama
+        int required = Math.max(1, grams.size() - (GRAM + 1) * maxEdits);
+
+        int[] shared = new int[texts.length];
+        int[] touched = new int[texts.length];
+        int touchedCount = 0;
+        for (long gram : grams) {
+            int[] list = postings.get(gram);
+            if (list == null) continue;
+            for (int pos : list) {
+                if (shared[pos]++ == 0) touched[touchedCount++] = pos;
+            }
+        }
+
+        // Candidatos agrupados por trigramas compartidos: primero los que más comparten
+        List<List<Integer>> byShared = new ArrayList<>();
+        for (int i = 0; i <= grams.size(); i++) byShared.add(null);
+        for (int t = 0; t < touchedCount; t++) {
+            int pos = touched[t];
+            if (shared[pos] < required) continue;
+            List<Integer> bucket = byShared.get(shared[pos]);
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                byShared.set(shared[pos], bucket);
+            }
+            bucket.add(pos);
+        }
+
+        // Con limit coincidencias se para al acabar el grupo: los siguientes se parecen menos
+        for (int count = grams.size(); count >= required && result.size() < limit; count--) {
+            List<Integer> bucket = byShared.get(count);
+            if (bucket == null) continue;
+            for (int pos : bucket) {
+                int distance = substringDistance(query, texts[pos], maxEdits);
+                if (distance <= maxEdits) result.add(new Match(pos, distance));
+            }
+        }
+
+        Collections.sort(result, (a, b) -> a.distance != b.distance
+                ? Integer.compare(a.distance, b.distance)
+                : Integer.compare(shared[b.position], shared[a.position]));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * Menor distancia de edición entre pattern y cualquier trozo de text, o
+     * maxEdits + 1 si todas superan maxEdits. Cambiar, insertar, borrar o
+     * intercambiar dos letras seguidas ("reunoin") cuenta como un error.
+     */
+    public static int substringDistance(@NonNull String pattern, @NonNull String text, int maxEdits) {
+        int m = pattern.length();
+        if (m == 0) return 0;
+        if (text.contains(pattern)) return 0;
+        if (maxEdits == 0) return 1;
+
+        // Columna por carácter de text; la fila 0 vale 0 porque el trozo puede empezar en cualquier parte
+        int[] beforePrevious = new int[m + 1];
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int i = 0; i <= m; i++) previous[i] = i;
+
+        int best = previous[m];
+        for (int j = 1; j <= text.length(); j++) {
+            char c = text.charAt(j - 1);
+            current[0] = 0;
+            for (int i = 1; i <= m; i++) {
+                char p = pattern.charAt(i - 1);
+                int value = Math.min(Math.min(current[i - 1] + 1, previous[i] + 1),
+                        previous[i - 1] + (p == c ? 0 : 1));
+                if (i > 1 && j > 1 && p == text.charAt(j - 2) && pattern.charAt(i - 2) == c) {
+                    value = Math.min(value, beforePrevious[i - 2] + 1);
+                }
+                current[i] = value;
+            }
+            best = Math.min(best, current[m]);
+            if (best == 0) return 0;
+
+            int[] swap = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(best, maxEdits + 1);
+    }
+
+    private static long gram(@NonNull String text, int start) {
+        return ((long) text.charAt(start) << 32)
+                | ((long) text.charAt(start + 1) << 16)
+                | text.charAt(start + 2);
+    }
+}
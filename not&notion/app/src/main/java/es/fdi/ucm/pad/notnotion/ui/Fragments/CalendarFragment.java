@@ -13,15 +13,10 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.List;
 
 import es.fdi.ucm.pad.notnotion.R;
 import es.fdi.ucm.pad.notnotion.data.firebase.CalendarEventsManager;
-import es.fdi.ucm.pad.notnotion.data.model.CalendarEvent;
 import es.fdi.ucm.pad.notnotion.ui.events.EventAdapter;
 import es.fdi.ucm.pad.notnotion.ui.events.EventEditActivity;
 
@@ -120,44 +115,21 @@ public class CalendarFragment extends Fragment {
 
     private void loadEventsForThisDay(long millis) {
 
-        // Inicio del día
-        Calendar start = Calendar.getInstance();
-        start.setTimeInMillis(millis);
-        start.set(Calendar.HOUR_OF_DAY, 0);
-        start.set(Calendar.MINUTE, 0);
-        start.set(Calendar.SECOND, 0);
-
-        long dayStart = start.getTimeInMillis();
-
-        // Fin del día
-        Calendar end = Calendar.getInstance();
-        end.setTimeInMillis(millis);
-        end.set(Calendar.HOUR_OF_DAY, 23);
-        end.set(Calendar.MINUTE, 59);
-        end.set(Calendar.SECOND, 59);
-
-        long dayEnd = end.getTimeInMillis();
-
-        Log.d("CalendarFragment", "Cargando eventos entre: " + dayStart + " y " + dayEnd);
+        Calendar day = Calendar.getInstance();
+        day.setTimeInMillis(millis);
 
-        eventsManager.getAllEvents(query -> {
+        Log.d("CalendarFragment", "Cargando eventos del día: " + millis);
 
-            List<CalendarEvent> matchingEvents = new ArrayList<>();
-
-            for (QueryDocumentSnapshot doc : query) {
-                CalendarEvent ev = doc.toObject(CalendarEvent.class);
-                ev.setId(doc.getId());
-
-                long time = ev.getStartDate().toDate().getTime();
-
-                if (time >= dayStart && time <= dayEnd) {
-                    matchingEvents.add(ev);
-                }
-            }
+        // Día servido desde el mes ya repartido en memoria (eventos sueltos y repeticiones)
+        eventsManager.getEventsForDay(millis, matchingEvents -> {
+            if (!isAdded()) return;
 
             Log.d("CalendarFragment", "EVENTOS ENCONTRADOS PARA ESTE DÍA: " + matchingEvents.size());
 
             eventAdapter.setEvents(matchingEvents);
         });
+
+        // Meses vecinos en segundo plano para que moverse por el calendario no espere a la red
+        eventsManager.prefetchAdjacentMonths(day.get(Calendar.YEAR), day.get(Calendar.MONTH));
     }
 }
@@ -29,17 +29,29 @@ import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 
 import es.fdi.ucm.pad.notnotion.R;
+import es.fdi.ucm.pad.notnotion.data.firebase.BlobStore;
+import es.fdi.ucm.pad.notnotion.data.firebase.FirestoreMeter;
+import es.fdi.ucm.pad.notnotion.data.firebase.FoldersManager;
+import es.fdi.ucm.pad.notnotion.data.firebase.NoteIndex;
 import es.fdi.ucm.pad.notnotion.data.firebase.NotesManager;
+import es.fdi.ucm.pad.notnotion.data.firebase.WriteOutbox;
 import es.fdi.ucm.pad.notnotion.data.model.ContentBlock;
 import es.fdi.ucm.pad.notnotion.data.model.Note;
+import es.fdi.ucm.pad.notnotion.data.model.NoteHeader;
+import es.fdi.ucm.pad.notnotion.data.search.NoteSearch;
 import es.fdi.ucm.pad.notnotion.ui.views.TextEditorView;
 import es.fdi.ucm.pad.notnotion.utils.ImageHelper;
 import es.fdi.ucm.pad.notnotion.utils.LocaleHelper;
@@ -53,6 +65,7 @@ public class EditNoteActivity extends AppCompatActivity {
     // Constantes para los extras del Intent
     public static final String EXTRA_NOTE = "extra_note";
     public static final String EXTRA_FOLDER_ID = "extra_folder_id";
+    public static final String EXTRA_NOTE_ID = "extra_note_id";
 
     // Componentes de la interfaz
     private EditText etTitle;
@@ -75,6 +88,12 @@ public class EditNoteActivity extends AppCompatActivity {
     private Note note;
     private String folderId;
 
+    // Estado al cargar la nota, para guardar sólo lo que ha cambiado
+    private String loadedTitle;
+    private String loadedCover;
+    private List<ContentBlock> loadedBlocks = new ArrayList<>();
+    private long loadedRevision;
+
     // Estado de los botones de formato
     private boolean isBoldActive = false;
     private boolean isItalicActive = false;
@@ -122,6 +141,23 @@ public class EditNoteActivity extends AppCompatActivity {
             return;
         }
 
+        // ---- CASO 1b: viene de la lista (sólo cabecera) → descargar el cuerpo ----
+        String listNoteId = intent.getStringExtra(EXTRA_NOTE_ID);
+        if (listNoteId != null && folderId != null) {
+            Log.d(TAG, "Cargando cuerpo de la nota: " + listNoteId);
+            notesManager.getNoteBody(folderId, listNoteId, loaded -> {
+                note = loaded;
+                loadNoteData();
+            }, () -> {
+                Toast.makeText(this, "Nota no encontrada", Toast.LENGTH_SHORT).show();
+                finish();
+            }, e -> {
+                Toast.makeText(this, "Error al cargar nota", Toast.LENGTH_SHORT).show();
+                finish();
+            });
+            return;
+        }
+
         // ---- CASO 2: viene desde el calendario ----
         String noteId = intent.getStringExtra("noteId");
         if (noteId != null) {
@@ -198,23 +234,19 @@ public class EditNoteActivity extends AppCompatActivity {
                         Log.d(TAG, "PORTADA: Imagen seleccionada");
                         Log.d(TAG, "URI: " + selectedUri);
 
-                        // Convertir a Base64
-                        String base64Image = ImageHelper.convertImageToBase64(this, selectedUri);
+                        // Comprimir y guardar en BlobStore (la nota sólo guarda la referencia)
+                        byte[] imageBytes = ImageHelper.compressImage(this, selectedUri);
 
-                        if (base64Image != null) {
-                            // Guardar el Base64 en la nota
-                            note.setCoverImageUrl(base64Image);
+                        if (imageBytes != null) {
+                            String ref = BlobStore.getInstance().put(imageBytes);
+                            note.setCoverImageUrl(ref);
 
                             // Mostrar la imagen inmediatamente en la interfaz
                             coverImage.setVisibility(View.VISIBLE);
                             btnAddCover.setVisibility(View.GONE);
 
-                            // Convertir Base64 a Bitmap para mostrar
-                            Bitmap bitmap = ImageHelper.convertBase64ToBitmap(base64Image);
-                            if (bitmap != null) {
-                                coverImage.setImageBitmap(bitmap);
-                                Log.d(TAG, "Portada cargada exitosamente");
-                            }
+                            BlobStore.getInstance().loadInto(coverImage, ref, 0, R.drawable.icon_note);
+                            Log.d(TAG, "Portada guardada como " + ref);
                         } else {
                             Toast.makeText(this, "Error al procesar la imagen",
                                     Toast.LENGTH_SHORT).show();
@@ -237,12 +269,12 @@ public class EditNoteActivity extends AppCompatActivity {
                         // Mostrar diálogo de progreso
                         Toast.makeText(this, "Procesando imagen...", Toast.LENGTH_SHORT).show();
 
-                        // Convertir a Base64
-                        String base64Image = ImageHelper.convertImageToBase64(this, selectedUri);
+                        // Comprimir y guardar en BlobStore
+                        byte[] imageBytes = ImageHelper.compressImage(this, selectedUri);
 
-                        if (base64Image != null) {
-                            // Añadir al editor
-                            textEditor.addImageBlock(base64Image);
+                        if (imageBytes != null) {
+                            // Añadir al editor (por referencia)
+                            textEditor.addImageBlock(BlobStore.getInstance().put(imageBytes));
                             Toast.makeText(this, "Imagen añadida", Toast.LENGTH_SHORT).show();
                             Log.d(TAG, "Imagen añadida al contenido");
                         } else {
@@ -269,6 +301,12 @@ public class EditNoteActivity extends AppCompatActivity {
 
     // Carga los datos de la nota en la interfaz
     private void loadNoteData() {
+        loadedTitle = note.getTitle();
+        loadedCover = note.getCoverImageUrl();
+        loadedBlocks = note.getContentBlocks() != null
+                ? new ArrayList<>(note.getContentBlocks()) : new ArrayList<>();
+        loadedRevision = note.getRevision();
+
         // Cargar título
         if (note.getTitle() != null) {
             etTitle.setText(note.getTitle());
@@ -279,13 +317,17 @@ public class EditNoteActivity extends AppCompatActivity {
             coverImage.setVisibility(View.VISIBLE);
             btnAddCover.setVisibility(View.GONE);
 
-            // Convertir Base64 a Bitmap
-            Bitmap bitmap = ImageHelper.convertBase64ToBitmap(note.getCoverImageUrl());
-            if (bitmap != null) {
-                coverImage.setImageBitmap(bitmap);
-                Log.d(TAG, "✓ Portada cargada desde Base64");
+            if (BlobStore.isBlobRef(note.getCoverImageUrl())) {
+                BlobStore.getInstance().loadInto(coverImage, note.getCoverImageUrl(), 0, R.drawable.icon_note);
             } else {
-                Log.e(TAG, "✗ Error al decodificar portada");
+                // Convertir Base64 a Bitmap
+                Bitmap bitmap = ImageHelper.convertBase64ToBitmap(note.getCoverImageUrl());
+                if (bitmap != null) {
+                    coverImage.setImageBitmap(bitmap);
+                    Log.d(TAG, "✓ Portada cargada desde Base64");
+                } else {
+                    Log.e(TAG, "✗ Error al decodificar portada");
+                }
             }
         }
 
@@ -515,36 +557,22 @@ public class EditNoteActivity extends AppCompatActivity {
 
     private void loadNoteFromFirestore(String noteId) {
 
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-
-        db.collectionGroup("notes")
-                .get()
-                .addOnSuccessListener(query -> {
-
-                    for (QueryDocumentSnapshot doc : query) {
-
-                        if (!doc.getId().equals(noteId)) continue;
+        // Lectura directa a través del índice noteId → carpeta (sin recorrer todas las notas)
+        notesManager.getNoteById(noteId, loaded -> {
+            note = loaded;
+            folderId = loaded.getFolderId();
 
-                        note = doc.toObject(Note.class);
-                        note.setId(noteId);
+            Log.d(TAG, "Nota cargada: " + note.getTitle());
+            Log.d(TAG, "FolderId: " + folderId);
 
-                        String[] parts = doc.getReference().getPath().split("/");
-                        folderId = parts[3];
-
-                        Log.d(TAG, "Nota cargada: " + note.getTitle());
-                        Log.d(TAG, "FolderId: " + folderId);
-
-                        loadNoteData();  // <-- ahora sí, UI lista
-                        return;
-                    }
-
-                    Toast.makeText(this, "Nota no encontrada", Toast.LENGTH_SHORT).show();
-                    finish();
-                })
-                .addOnFailureListener(e -> {
-                    Toast.makeText(this, "Error al cargar nota", Toast.LENGTH_SHORT).show();
-                    finish();
-                });
+            loadNoteData();  // <-- ahora sí, UI lista
+        }, () -> {
+            Toast.makeText(this, "Nota no encontrada", Toast.LENGTH_SHORT).show();
+            finish();
+        }, e -> {
+            Toast.makeText(this, "Error al cargar nota", Toast.LENGTH_SHORT).show();
+            finish();
+        });
     }
 
     // Guarda la nota en Firestore.
@@ -558,44 +586,106 @@ public class EditNoteActivity extends AppCompatActivity {
             note.setId(newNoteId);
             note.setCreatedAt(Timestamp.now());
 
-            db.collection("users")
-                    .document(userId)
-                    .collection("folders")
-                    .document(folderId)
-                    .collection("notes")
-                    .document(newNoteId)
-                    .set(note)
-                    .addOnSuccessListener(aVoid -> {
-                        Log.d(TAG, "Nota creada exitosamente: " + note.getId());
-                        Toast.makeText(this, "Nota creada", Toast.LENGTH_SHORT).show();
-                        finish();
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e(TAG, "Error al crear nota", e);
-                        Toast.makeText(this, "Error al crear nota: " + e.getMessage(),
-                                Toast.LENGTH_SHORT).show();
-                    });
+            Note created = note;
+            DocumentReference noteRef = notesRef(userId).document(newNoteId);
+            DocumentReference header = headerRef(userId, newNoteId);
+            String targetFolder = folderId;
+
+            // La escritura queda en la caché local y WriteOutbox la confirma con el servidor,
+            // así que se puede cerrar el editor sin esperar a la red
+            WriteOutbox.getInstance().submit(NotesManager.outboxKey(newNoteId), "crear nota " + newNoteId, true, () -> {
+                WriteBatch batch = db.batch();
+                batch.set(noteRef, created);
+                batch.set(header, NoteHeader.fromNote(created));
+                new NoteIndex().register(batch, newNoteId, targetFolder);
+                FoldersManager.countNotes(batch, folderRef(userId), 1);
+                return FirestoreMeter.write(4, batch.commit());
+            }, aVoid -> Log.d(TAG, "Nota creada exitosamente: " + newNoteId));
+            NoteSearch.getInstance().update(created);
+
+            Toast.makeText(this, "Nota creada", Toast.LENGTH_SHORT).show();
+            finish();
 
         } else {
             Log.d(TAG, "Actualizando nota existente: " + noteId);
 
-            db.collection("users")
-                    .document(userId)
-                    .collection("folders")
-                    .document(folderId)
-                    .collection("notes")
-                    .document(noteId)
-                    .set(note, SetOptions.merge())
-                    .addOnSuccessListener(aVoid -> {
-                        Log.d(TAG, "Nota actualizada exitosamente");
-                        Toast.makeText(this, "Nota guardada", Toast.LENGTH_SHORT).show();
-                        finish();
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e(TAG, "Error al guardar nota", e);
-                        Toast.makeText(this, "Error al guardar: " + e.getMessage(),
-                                Toast.LENGTH_SHORT).show();
-                    });
+            // Sólo los campos que han cambiado desde que se abrió la nota
+            Map<String, Object> changes = new HashMap<>();
+            if (!Objects.equals(note.getTitle(), loadedTitle)) {
+                changes.put("title", note.getTitle());
+            }
+            if (!Objects.equals(note.getCoverImageUrl(), loadedCover)) {
+                changes.put("coverImageUrl", note.getCoverImageUrl());
+            }
+            int dirty = countDirtyBlocks(loadedBlocks, note.getContentBlocks());
+            if (dirty > 0) {
+                changes.put("contentBlocks", note.getContentBlocks());
+            }
+
+            if (changes.isEmpty()) {
+                Log.d(TAG, "Sin cambios, no se escribe nada");
+                finish();
+                return;
+            }
+            changes.put("updatedAt", note.getUpdatedAt());
+            Log.d(TAG, "Guardando campos " + changes.keySet() + " (" + dirty + " bloques modificados)");
+
+            // La nota tal y como se abrió: si otro dispositivo la ha guardado entretanto
+            // se fusionan los cambios de los dos en lugar de pisarlos
+            Note base = new Note(noteId, loadedTitle, folderId, note.getCreatedAt(), note.getUpdatedAt(),
+                    note.isFavorite(), loadedCover, loadedBlocks);
+            base.setRevision(loadedRevision);
+
+            Context appContext = getApplicationContext();
+            notesManager.saveEdit(base, note, changes, result -> {
+                Log.d(TAG, "Nota actualizada exitosamente");
+                if (result.merged) {
+                    Toast.makeText(appContext, result.conflicts > 0
+                            ? appContext.getString(R.string.nota_fusionada_conflictos)
+                            : appContext.getString(R.string.nota_fusionada), Toast.LENGTH_LONG).show();
+                }
+            });
+
+            Toast.makeText(this, "Nota guardada", Toast.LENGTH_SHORT).show();
+            finish();
         }
     }
+
+    /**
+     * Bloques distintos entre la versión cargada y la actual (añadidos, borrados o editados).
+     * Firestore no permite actualizar un elemento suelto de un array, así que si hay
+     * alguno se reescribe la lista; las imágenes son referencias a BlobStore y ocupan
+     * unos pocos bytes, de modo que el tamaño de la escritura depende del texto.
+     */
+    private static int countDirtyBlocks(List<ContentBlock> before, List<ContentBlock> after) {
+        if (after == null) after = new ArrayList<>();
+        int common = Math.min(before.size(), after.size());
+        int dirty = Math.abs(before.size() - after.size());
+        for (int i = 0; i < common; i++) {
+            if (!before.get(i).equals(after.get(i))) dirty++;
+        }
+        return dirty;
+    }
+
+    // Carpeta de la nota (lleva el contador de notas activas)
+    private DocumentReference folderRef(String userId) {
+        return db.collection("users")
+                .document(userId)
+                .collection("folders")
+                .document(folderId);
+    }
+
+    private CollectionReference notesRef(String userId) {
+        return folderRef(userId).collection("notes");
+    }
+
+    // Cabecera ligera de la nota (la que leen las listas)
+    private DocumentReference headerRef(String userId, String noteId) {
+        return db.collection("users")
+                .document(userId)
+                .collection("folders")
+                .document(folderId)
+                .collection("headers")
+                .document(noteId);
+    }
 }
\ No newline at end of file
@@ -153,9 +153,8 @@ public class NotesMainFragment extends Fragment {
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
                 String query = s == null ? "" : s.toString();
-                foldersAdapter.filter(query);
+                foldersAdapter.filter(query, this::updateEmptyMessage);
                 //notesAdapter.filter(query);
-                updateEmptyMessage();
             }
 
             @Override
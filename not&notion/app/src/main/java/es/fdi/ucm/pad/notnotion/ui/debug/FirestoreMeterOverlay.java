@@ -0,0 +1,137 @@
+package es.fdi.ucm.pad.notnotion.ui.debug;
+
+import android.app.Activity;
+import android.app.Application;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import es.fdi.ucm.pad.notnotion.data.firebase.FirestoreMeter;
+
+/**
+ * Recuadro de depuración con el coste de Firestore (ver FirestoreMeter),
+ * superpuesto en la esquina inferior de la pantalla visible.
+ *
+ *  - Muestra lecturas, lecturas de caché, escrituras y KB de la pantalla actual
+ *    y del total, y los puntos de llamada que más leen.
+ *  - Al pulsarlo cambia de ventana (1, 15, 60 minutos y sesión).
+ *  - Pulsación larga: vuelca el informe JSON a fichero.
+ *
+ * Sólo se registra en builds depurables (NotNotionApp).
+ */
+public class FirestoreMeterOverlay implements Application.ActivityLifecycleCallbacks {
+
+    private static final long REFRESH_MS = 1_000;
+    private static final int TOP_SITES = 3;
+
+    private final Handler main = new Handler(Looper.getMainLooper());
+    // Índice en WINDOWS_MINUTES; igual a su longitud = sesión completa
+    private int window = 0;
+
+    private TextView view;
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            if (view == null) return;
+            view.setText(summary());
+            main.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {
+        ViewGroup content = activity.findViewById(android.R.id.content);
+        if (content == null) return;
+
+        view = new TextView(activity);
+        view.setTypeface(Typeface.MONOSPACE);
+        view.setTextSize(TypedValue.COMPLEX_UNIT_SP, 10);
+        view.setTextColor(Color.WHITE);
+        view.setBackgroundColor(0xAA000000);
+        int pad = Math.round(4 * activity.getResources().getDisplayMetrics().density);
+        view.setPadding(pad, pad, pad, pad);
+
+        view.setOnClickListener(v -> {
+            window = (window + 1) % (FirestoreMeter.WINDOWS_MINUTES.length + 1);
+            view.setText(summary());
+        });
+        view.setOnLongClickListener(v -> {
+            File file = FirestoreMeter.dumpReport(activity);
+            Toast.makeText(activity,
+                    file != null ? "Informe guardado en " + file.getAbsolutePath() : "No se pudo guardar el informe",
+                    Toast.LENGTH_LONG).show();
+            return true;
+        });
+
+        FrameLayout.LayoutParams lp = new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT,
+                Gravity.BOTTOM | Gravity.START);
+        content.addView(view, lp);
+
+        main.removeCallbacks(refresh);
+        main.post(refresh);
+    }
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {
+        main.removeCallbacks(refresh);
+        if (view != null && view.getParent() instanceof ViewGroup) {
+            ((ViewGroup) view.getParent()).removeView(view);
+        }
+        view = null;
+    }
+
+    @NonNull
+    private String summary() {
+        int minutes = window < FirestoreMeter.WINDOWS_MINUTES.length ? FirestoreMeter.WINDOWS_MINUTES[window] : 0;
+        String label = minutes > 0 ? minutes + " min" : "sesión";
+        String screen = FirestoreMeter.getScreen();
+
+        FirestoreMeter.Stats screenStats = null;
+        for (Map.Entry<String, FirestoreMeter.Stats> e : FirestoreMeter.getByScreen(minutes)) {
+            if (e.getKey().equals(screen)) screenStats = e.getValue();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Firestore · ").append(label).append('\n');
+        sb.append(line(screen, screenStats)).append('\n');
+        sb.append(line("Total", FirestoreMeter.getTotal(minutes)));
+
+        List<Map.Entry<String, FirestoreMeter.Stats>> sites = FirestoreMeter.getBySite(minutes);
+        for (int i = 0; i < Math.min(TOP_SITES, sites.size()); i++) {
+            sb.append('\n').append(line(sites.get(i).getKey(), sites.get(i).getValue()));
+        }
+        return sb.toString();
+    }
+
+    @NonNull
+    private static String line(@NonNull String name, @Nullable FirestoreMeter.Stats s) {
+        if (s == null) return name + ": -";
+        return String.format(Locale.US, "%s: R %d (caché %d) · W %d · %.1f KB · %d ms",
+                name, s.getReads(), s.getCacheReads(), s.getWrites(),
+                s.getBytes() / 1024f, s.getAverageLatency());
+    }
+
+    @Override public void onActivityCreated(@NonNull Activity a, @Nullable Bundle b) {}
+    @Override public void onActivityStarted(@NonNull Activity a) {}
+    @Override public void onActivityStopped(@NonNull Activity a) {}
+    @Override public void onActivitySaveInstanceState(@NonNull Activity a, @NonNull Bundle b) {}
+    @Override public void onActivityDestroyed(@NonNull Activity a) {}
+}
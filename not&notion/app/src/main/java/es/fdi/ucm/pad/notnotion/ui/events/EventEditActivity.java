@@ -12,9 +12,11 @@ import android.os.Build;
 import android.os.Bundle;
 import android.provider.Settings;
 import android.view.View;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.Spinner;
 import android.widget.Toast;
 import android.widget.TextView;
 
@@ -37,6 +39,7 @@ import es.fdi.ucm.pad.notnotion.ui.notifications.NotificationConfigDialog;
 import es.fdi.ucm.pad.notnotion.ui.notifications.NotificationScheduler;
 import es.fdi.ucm.pad.notnotion.utils.LocaleHelper;
 import es.fdi.ucm.pad.notnotion.utils.NotificationHelper;
+import es.fdi.ucm.pad.notnotion.utils.RecurrenceRule;
 
 public class EventEditActivity extends AppCompatActivity {
 
@@ -45,6 +48,7 @@ public class EventEditActivity extends AppCompatActivity {
 
     private ImageButton btnConfigureNotifications;
     private TextView tvNotificationStatus;
+    private Spinner spinnerRecurrence;
     private CalendarEventsManager eventsManager;
     private long selectedDateMillis;
     private CalendarEvent currentEvent;
@@ -61,6 +65,13 @@ public class EventEditActivity extends AppCompatActivity {
     private boolean tempNotifyAtEventTime = false;
     private String tempEventTimeSoundType = "alarm";
 
+    // Opciones del desplegable de repetición (null = no se repite)
+    private static final String[] RECURRENCE_FREQS = {
+            null, RecurrenceRule.DAILY, RecurrenceRule.WEEKLY, RecurrenceRule.MONTHLY, RecurrenceRule.YEARLY
+    };
+    // Posición con la que se abrió el evento: si no cambia se conserva su RRULE tal cual
+    private int loadedRecurrence = 0;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -81,6 +92,8 @@ public class EventEditActivity extends AppCompatActivity {
 
         btnConfigureNotifications = findViewById(R.id.btnConfigureNotifications);
         tvNotificationStatus = findViewById(R.id.tvNotificationStatus);
+        spinnerRecurrence = findViewById(R.id.spinnerRecurrence);
+        setupRecurrenceSpinner();
 
         // Formatos
         dateFormat = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
@@ -120,6 +133,10 @@ public class EventEditActivity extends AppCompatActivity {
                 tempNotifyAtEventTime = event.isNotifyAtEventTime();
                 tempEventTimeSoundType = event.getEventTimeNotificationSound();
 
+                // Repetición
+                loadedRecurrence = recurrencePosition(event);
+                spinnerRecurrence.setSelection(loadedRecurrence);
+
                 btnDelete.setOnClickListener(v -> deleteEvent());
             });
 
@@ -325,6 +342,50 @@ public class EventEditActivity extends AppCompatActivity {
         dialog.show();
     }
 
+    // =====================================================================
+    //                          REPETICIÓN
+    // =====================================================================
+
+    private void setupRecurrenceSpinner() {
+        String[] options = new String[]{
+                getString(R.string.repetir_nunca),
+                getString(R.string.repetir_diario),
+                getString(R.string.repetir_semanal),
+                getString(R.string.repetir_mensual),
+                getString(R.string.repetir_anual)
+        };
+
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(
+                this,
+                android.R.layout.simple_spinner_item,
+                options
+        );
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        spinnerRecurrence.setAdapter(adapter);
+        spinnerRecurrence.setSelection(0);
+    }
+
+    // Posición del desplegable según la frecuencia de la regla guardada
+    private int recurrencePosition(CalendarEvent event) {
+        if (!event.isRecurring()) return 0;
+        RecurrenceRule rule = RecurrenceRule.parse(event.getRecurrencePattern());
+        if (rule == null) return 0;
+        for (int i = 1; i < RECURRENCE_FREQS.length; i++) {
+            if (RECURRENCE_FREQS[i].equals(rule.getFreq())) return i;
+        }
+        return 0;
+    }
+
+    private void applyRecurrence(CalendarEvent event) {
+        int position = spinnerRecurrence.getSelectedItemPosition();
+        // Reglas más finas (BYDAY, COUNT...) creadas en otro sitio no se pisan si no se toca
+        if (currentEvent != null && position == loadedRecurrence) return;
+
+        String freq = RECURRENCE_FREQS[position];
+        event.setRecurring(freq != null);
+        event.setRecurrencePattern(freq != null ? RecurrenceRule.of(freq) : null);
+    }
+
     // =====================================================================
     //                          GUARDAR EVENTO CON NOTIFICACIONES
     // =====================================================================
@@ -355,6 +416,7 @@ public class EventEditActivity extends AppCompatActivity {
             // Configurar alarma del momento
             newEvent.setNotifyAtEventTime(tempNotifyAtEventTime);
             newEvent.setEventTimeNotificationSound(tempEventTimeSoundType);
+            applyRecurrence(newEvent);
 
             eventsManager.addEventWithNotifications(newEvent, eventId -> {
                 newEvent.setId(eventId);
@@ -379,6 +441,7 @@ public class EventEditActivity extends AppCompatActivity {
             // Actualizar alarma del momento
             currentEvent.setNotifyAtEventTime(tempNotifyAtEventTime);
             currentEvent.setEventTimeNotificationSound(tempEventTimeSoundType);
+            applyRecurrence(currentEvent);
 
             eventsManager.updateEvent(currentEvent, () -> {
                 NotificationScheduler.rescheduleNotifications(this, currentEvent);
@@ -8,6 +8,8 @@ import com.google.firebase.firestore.FirebaseFirestore;
 import java.util.ArrayList;
 import java.util.List;
 
+import es.fdi.ucm.pad.notnotion.data.firebase.FirestoreMeter;
+import es.fdi.ucm.pad.notnotion.data.firebase.SchemaMigrations;
 import es.fdi.ucm.pad.notnotion.data.model.Folder;
 import es.fdi.ucm.pad.notnotion.data.model.Note;
 
@@ -32,15 +34,14 @@ public class FirebaseDataLoader {
             return;
         }
 
-        db.collection("users")
-                .document(uid)
-                .collection("folders")
-                .get()
+        FirestoreMeter.query(db.collection("users")
+                        .document(uid)
+                        .collection("folders")
+                        .get())
                 .addOnSuccessListener(query -> {
                     List<Folder> result = new ArrayList<>();
                     for (DocumentSnapshot doc : query) {
-                        Folder f = doc.toObject(Folder.class);
-                        result.add(f);
+                        result.add(SchemaMigrations.readFolder(doc));
                     }
                     listener.onSuccess(result);
                 });
@@ -55,15 +56,15 @@ public class FirebaseDataLoader {
             return;
         }
 
-        db.collection("users")
-                .document(uid)
-                .collection("folders")
-                .whereEqualTo("parentId", parentFolderId)
-                .get()
+        FirestoreMeter.query(db.collection("users")
+                        .document(uid)
+                        .collection("folders")
+                        .whereEqualTo("parentFolderId", parentFolderId)
+                        .get())
                 .addOnSuccessListener(query -> {
                     List<Folder> result = new ArrayList<>();
                     for (DocumentSnapshot doc : query) {
-                        result.add(doc.toObject(Folder.class));
+                        result.add(SchemaMigrations.readFolder(doc));
                     }
                     listener.onSuccess(result);
                 });
@@ -78,15 +79,19 @@ public class FirebaseDataLoader {
             return;
         }
 
-        db.collection("users")
-                .document(uid)
-                .collection("notes")
-                .whereEqualTo("folderId", folderId)
-                .get()
+        // Las notas viven dentro de su carpeta: users/{uid}/folders/{folderId}/notes
+        FirestoreMeter.query(db.collection("users")
+                        .document(uid)
+                        .collection("folders")
+                        .document(folderId)
+                        .collection("notes")
+                        .get())
                 .addOnSuccessListener(query -> {
                     List<Note> result = new ArrayList<>();
                     for (DocumentSnapshot doc : query) {
-                        result.add(doc.toObject(Note.class));
+                        Note note = SchemaMigrations.readNote(doc);
+                        note.setFolderId(folderId);
+                        result.add(note);
                     }
                     listener.onSuccess(result);
                 });
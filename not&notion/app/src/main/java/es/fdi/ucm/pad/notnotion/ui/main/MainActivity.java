@@ -25,8 +25,8 @@ import android.widget.Toast;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.SetOptions;
 import com.squareup.picasso.Picasso;
 import androidx.activity.EdgeToEdge;
@@ -35,6 +35,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
+import androidx.core.widget.NestedScrollView;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -47,16 +48,25 @@ import java.util.ArrayList;
 import java.util.List;
 
 import es.fdi.ucm.pad.notnotion.R;
+import es.fdi.ucm.pad.notnotion.data.firebase.BlobStore;
 import es.fdi.ucm.pad.notnotion.data.firebase.CalendarEventsManager;
 import es.fdi.ucm.pad.notnotion.data.firebase.FirebaseFirestoreManager;
+import es.fdi.ucm.pad.notnotion.data.firebase.FolderDeleter;
+import es.fdi.ucm.pad.notnotion.data.firebase.FolderTree;
 import es.fdi.ucm.pad.notnotion.data.adapter.FoldersAdapter;
 import es.fdi.ucm.pad.notnotion.data.adapter.NotesAdapter;
 import es.fdi.ucm.pad.notnotion.data.firebase.FoldersManager;
+import es.fdi.ucm.pad.notnotion.data.firebase.LocalStore;
 import es.fdi.ucm.pad.notnotion.data.firebase.NotesManager;
-import es.fdi.ucm.pad.notnotion.data.model.CalendarEvent;
+import es.fdi.ucm.pad.notnotion.data.firebase.NotesPager;
+import es.fdi.ucm.pad.notnotion.data.firebase.TrashManager;
+import es.fdi.ucm.pad.notnotion.data.firebase.UserProfileRepository;
+import es.fdi.ucm.pad.notnotion.data.firebase.WriteOutbox;
 import es.fdi.ucm.pad.notnotion.data.model.Folder;
 import es.fdi.ucm.pad.notnotion.data.model.Note;
 import es.fdi.ucm.pad.notnotion.data.model.User;
+import es.fdi.ucm.pad.notnotion.data.search.NoteSearch;
+import es.fdi.ucm.pad.notnotion.data.search.SearchIndex;
 import es.fdi.ucm.pad.notnotion.ui.Fragments.CalendarFragment;
 import es.fdi.ucm.pad.notnotion.ui.Fragments.EditNoteActivity;
 import es.fdi.ucm.pad.notnotion.ui.profile.ProfileActivity;
@@ -71,6 +81,7 @@ public class MainActivity extends AppCompatActivity {
     private FirebaseFirestoreManager firestoreManager;
     private FoldersManager foldersManager;
     private NotesManager notesManager;
+    private TrashManager trashManager;
     private User currentUser;
     private Folder currentFolder;
     private FoldersAdapter foldersAdapter;
@@ -78,12 +89,51 @@ public class MainActivity extends AppCompatActivity {
     private RecyclerView recyclerFolders;
     private RecyclerView recyclerNotes;
     private TextView emptyMessage;
-    private final List<String> routePath = new ArrayList<>();
     private final List<Folder> navigationStack = new ArrayList<>();
     private TextView routeTextShow;
 
     private EditText busquedaBarra;
 
+    // Notas por página de la carpeta actual (se cambia al navegar)
+    private static final int NOTES_PAGE_SIZE = 30;
+    // Resultados de la búsqueda en el contenido de todas las notas
+    private static final int SEARCH_RESULTS = 50;
+    private NotesPager notesPager;
+    private NestedScrollView scrollItems;
+
+    // Aplica cada cambio del árbol de carpetas sólo sobre la posición afectada
+    private final FolderTree.OnFolderChangedListener onFolderChanged = (type, folder) -> {
+        if (currentFolder == null || foldersAdapter == null) return;
+
+        if (type == DocumentChange.Type.REMOVED
+                || !currentFolder.getId().equals(folder.getParentFolderId())) {
+            foldersAdapter.removeFolder(folder.getId());
+        } else {
+            foldersAdapter.upsertFolder(folder);
+        }
+        updateRouteText();
+    };
+
+    // Muestra cuántos documentos tienen cambios sin confirmar por el servidor,
+    // y cuántos se han perdido (pulsando se dan por vistos)
+    private final WriteOutbox.OnPendingChangedListener onPendingChanged = (pending, failed) -> {
+        TextView syncStatus = findViewById(R.id.syncStatus);
+        if (syncStatus == null) return;
+
+        if (failed > 0) {
+            syncStatus.setText(getString(R.string.sync_failed, pending, failed));
+            syncStatus.setOnClickListener(v -> WriteOutbox.getInstance().dismissFailed());
+            syncStatus.setVisibility(View.VISIBLE);
+        } else if (pending > 0) {
+            syncStatus.setText(getString(R.string.sync_pending, pending));
+            syncStatus.setOnClickListener(null);
+            syncStatus.setVisibility(View.VISIBLE);
+        } else {
+            syncStatus.setOnClickListener(null);
+            syncStatus.setVisibility(View.GONE);
+        }
+    };
+
     @Override
     protected void attachBaseContext(Context newBase) {
         super.attachBaseContext(es.fdi.ucm.pad.notnotion.utils.LocaleHelper.applyLocale(newBase));
@@ -133,10 +183,12 @@ public class MainActivity extends AppCompatActivity {
         firestoreManager = new FirebaseFirestoreManager();
         foldersManager   = new FoldersManager();
         notesManager = new NotesManager();
+        trashManager = new TrashManager();
 
         if (contentContainer != null) {
             getLayoutInflater().inflate(R.layout.notes_main, contentContainer, true);
             busquedaBarra = contentContainer.findViewById(R.id.busquedaBarra);
+            setupSearchBar();
 
             ViewCompat.setOnApplyWindowInsetsListener(contentContainer, (v, insets) -> {
                 Insets systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars());
@@ -157,6 +209,7 @@ public class MainActivity extends AppCompatActivity {
 
             recyclerFolders.setAdapter(foldersAdapter);
             recyclerNotes.setAdapter(notesAdapter);
+            bindScrollPrefetch(contentContainer);
 
             ImageButton btnGoBack = contentContainer.findViewById(R.id.btnGoBack);
             if (btnGoBack != null) {
@@ -192,8 +245,9 @@ public class MainActivity extends AppCompatActivity {
             if (user != null) {
 
                 // Cargar datos del usuario desde Firestore
-                firestoreManager.getCurrentUserData(userData -> {
-                    currentUser = userData;
+                UserProfileRepository.getInstance().observe(this, profile -> {
+                    currentUser = profile.getUser();
+                    if (currentUser == null) return;
 
                     Log.d("MainActivity", "Usuario Firestore cargado:");
                     Log.d("MainActivity", "Email: " + currentUser.getEmail());
@@ -201,9 +255,16 @@ public class MainActivity extends AppCompatActivity {
                     Log.d("MainActivity", "Preferencias: " + currentUser.getPreferences());
                 });
 
+                // Terminar borrados de carpetas y subidas de imágenes que quedaron a medias
+                new FolderDeleter(this).resumePending();
+                BlobStore.getInstance().resumeUploads();
+                WriteOutbox.getInstance().resumePending();
+                // Índice de búsqueda: se lee de disco y se reconstruye en segundo plano
+                NoteSearch.getInstance().refresh();
+
                 // PERFIL → cargar foto desde helper
                 UserProfileHelper profileHelper = new UserProfileHelper();
-                profileHelper.loadUserPhotoInto(btnPerfil);
+                profileHelper.loadUserPhotoInto(this, btnPerfil);
 
                 // Ir al perfil al pulsar
                 btnPerfil.setOnClickListener(v -> {
@@ -220,6 +281,8 @@ public class MainActivity extends AppCompatActivity {
             }
 
             currentFolder = new Folder("root", "Root", "None", null, null, 0);
+            FolderTree.getInstance().addOnChangeListener(onFolderChanged);
+            WriteOutbox.getInstance().addOnPendingChangedListener(onPendingChanged);
             loadFolderContent(currentFolder);
             foldersAdapter.setOnFolderClickListener(folder -> {
                 navigationStack.add(currentFolder);
@@ -384,7 +447,6 @@ public class MainActivity extends AppCompatActivity {
                             false                 // no favorita por defecto
                     );
 
-                    loadFolderContent(currentFolder);
 
                     Toast.makeText(this, getText(R.string.note_created_check), Toast.LENGTH_SHORT).show();
                 })
@@ -396,11 +458,9 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
 
-        Log.d("MainActivity", "onResume() llamado - recargando contenido");
-
-        // Recargar el contenido de la carpeta actual si existe
-        if (currentFolder != null) {
-            Log.d("MainActivity", "Recargando carpeta: " + currentFolder.getName());
+        // Los snapshot listeners mantienen las listas al día mientras la
+        // actividad existe: al volver del editor no hace falta recargar nada.
+        if (currentFolder != null && notesPager == null) {
             loadFolderContent(currentFolder);
         }
     }
@@ -410,8 +470,13 @@ public class MainActivity extends AppCompatActivity {
         // Crear el Intent para lanzar EditNoteActivity
         Intent intent = new Intent(MainActivity.this, EditNoteActivity.class);
 
-        // Empaquetar los datos que necesita EditNoteActivity
-        intent.putExtra(EditNoteActivity.EXTRA_NOTE, note);
+        // Empaquetar los datos que necesita EditNoteActivity.
+        // La lista sólo tiene la cabecera: el editor descarga el cuerpo por id.
+        if (note.getId() != null) {
+            intent.putExtra(EditNoteActivity.EXTRA_NOTE_ID, note.getId());
+        } else {
+            intent.putExtra(EditNoteActivity.EXTRA_NOTE, note);
+        }
         intent.putExtra(EditNoteActivity.EXTRA_FOLDER_ID, currentFolder.getId());
 
         // Lanzar la Activity
@@ -425,6 +490,7 @@ public class MainActivity extends AppCompatActivity {
         getLayoutInflater().inflate(R.layout.notes_main, contentContainer, true);
         busquedaBarra = contentContainer.findViewById(R.id.busquedaBarra);
         busquedaBarra.setText("");
+        setupSearchBar();
         String query = busquedaBarra.getText().toString().trim();
 
         // --- RecyclerViews ---
@@ -437,6 +503,9 @@ public class MainActivity extends AppCompatActivity {
 
         recyclerFolders.setAdapter(foldersAdapter);
         recyclerNotes.setAdapter(notesAdapter);
+        bindScrollPrefetch(contentContainer);
+        onPendingChanged.onPendingChanged(WriteOutbox.getInstance().getPendingCount(),
+                WriteOutbox.getInstance().getFailedCount());
 
         // --- Listeners ---
         foldersAdapter.setOnFolderClickListener(folder -> {
@@ -477,14 +546,53 @@ public class MainActivity extends AppCompatActivity {
             });
         }
 
-        // --- Cargar contenido de la carpeta actual ---
+        // --- Contenido de la carpeta actual ---
+        // Los adapters conservan los datos y los listeners siguen activos
         if (currentFolder != null) {
-            loadFolderContent(currentFolder);
+            if (notesPager == null) {
+                loadFolderContent(currentFolder);
+            } else {
+                updateRouteText();
+            }
         }
         foldersAdapter.filter(query);
         notesAdapter.filter(query);
     }
 
+    private void showSearchResults(@NonNull String query, @NonNull List<SearchIndex.Hit> hits) {
+        if (isFinishing() || isDestroyed()) return;
+        if (hits.isEmpty()) {
+            Toast.makeText(this, getText(R.string.busqueda_sin_resultados), Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Título y ruta de la carpeta de cada nota
+        FolderTree tree = FolderTree.getInstance();
+        String[] labels = new String[hits.size()];
+        for (int i = 0; i < hits.size(); i++) {
+            SearchIndex.Hit hit = hits.get(i);
+            StringBuilder path = new StringBuilder();
+            for (Folder f : tree.getPath(hit.folderId)) {
+                if (path.length() > 0) path.append(" / ");
+                path.append(f.getName());
+            }
+            String title = hit.title.isEmpty() ? getString(R.string.sin_titulo) : hit.title;
+            labels[i] = path.length() > 0 ? title + "\n" + path : title;
+        }
+
+        new androidx.appcompat.app.AlertDialog.Builder(this)
+                .setTitle(getString(R.string.busqueda_resultados, query))
+                .setItems(labels, (dialog, which) -> {
+                    SearchIndex.Hit hit = hits.get(which);
+                    Intent intent = new Intent(MainActivity.this, EditNoteActivity.class);
+                    intent.putExtra(EditNoteActivity.EXTRA_NOTE_ID, hit.noteId);
+                    intent.putExtra(EditNoteActivity.EXTRA_FOLDER_ID, hit.folderId);
+                    startActivity(intent);
+                })
+                .setNegativeButton(getText(R.string.cancelar), null)
+                .show();
+    }
+
 
 
 
@@ -493,9 +601,6 @@ public class MainActivity extends AppCompatActivity {
 
         Folder prev = navigationStack.remove(navigationStack.size() - 1);
 
-        if (!routePath.isEmpty())
-            routePath.remove(routePath.size() - 1);
-
         loadFolderContent(prev);
     }
     private void createNewFolderDialog() {
@@ -525,8 +630,7 @@ public class MainActivity extends AppCompatActivity {
                 folderName,
                 currentFolder.getId(),
                 () -> {
-
-                    loadFolderContent(currentFolder);
+                    // La nueva carpeta llega sola a través de FolderTree
                 }
         );
     }
@@ -537,112 +641,139 @@ public class MainActivity extends AppCompatActivity {
 
         updateRouteText();
 
-        foldersManager.getSubfolders(folder.getId(), folderSnapshot -> {
-
-            List<Folder> subfolders = new ArrayList<>();
-            for (QueryDocumentSnapshot doc : folderSnapshot) {
-                subfolders.add(doc.toObject(Folder.class));
-            }
+        // Subcarpetas servidas desde el árbol en memoria (sin red);
+        // los cambios posteriores llegan por onFolderChanged
+        foldersManager.getSubfolderList(folder.getId(), subfolders -> {
 
             foldersAdapter.setFolders(subfolders);
-
-            loadNotesForFolder(folder, subfolders);
+            updateRouteText();
         });
+
+        loadNotesForFolder(folder);
     }
 
     private void updateRouteText() {
         routeTextShow = findViewById(R.id.routeTextShow);
         if (routeTextShow == null) return;
 
-        if (currentFolder.getId().equals("root")) {
-            routePath.clear();
-            routeTextShow.setText("C:/root");
-            return;
-        }
-        if (routePath.isEmpty() ||
-                !routePath.get(routePath.size() - 1).equals(currentFolder.getName())) {
-            routePath.add(currentFolder.getName());
-        }
-
         StringBuilder sb = new StringBuilder("C:/root");
 
-        for (String name : routePath) {
-            sb.append("/").append(name);
+        // La ruta sale del árbol de carpetas: funciona igual al entrar, volver o saltar
+        for (Folder f : FolderTree.getInstance().getPath(currentFolder.getId())) {
+            if ("root".equals(f.getId())) continue;
+            sb.append("/").append(f.getName());
         }
 
         routeTextShow.setText(sb.toString());
     }
-    private void loadNotesForFolder(Folder folder, List<Folder> subfolders) {
+    private void loadNotesForFolder(Folder folder) {
+
+        // Un único pager activo: el de la carpeta que se está viendo
+        closeNotesPager();
+        notesManager.ensureHeaders(folder.getId());
+        notesAdapter.setNotes(new ArrayList<>());
+
+        notesPager = new NotesPager(notesManager, folder.getId(), NOTES_PAGE_SIZE,
+                new NotesPager.Listener() {
+                    @Override
+                    public void onNoteChanged(@NonNull Note note) {
+                        notesAdapter.upsertNote(note);
+                    }
 
-        notesManager.getNotesByFolder(folder.getId(), noteSnapshot -> {
+                    @Override
+                    public void onNoteRemoved(@NonNull String noteId) {
+                        notesAdapter.removeNote(noteId);
+                    }
 
-            List<Note> notes = new ArrayList<>();
-            for (QueryDocumentSnapshot doc : noteSnapshot) {
-                Note note = doc.toObject(Note.class);
-                note.setId(doc.getId()); // <- Esto es clave
-                notes.add(note);
-            }
+                    @Override
+                    public void onPageSettled(boolean hasMore) {
+                        // Si la página no llena la pantalla, pedir la siguiente
+                        if (hasMore && scrollItems != null) scrollItems.post(() -> maybeLoadMoreNotes());
+                    }
+                });
+        notesPager.loadNextPage();
+    }
 
-            notesAdapter.setNotes(notes);
+    private void closeNotesPager() {
+        if (notesPager != null) {
+            notesPager.close();
+            notesPager = null;
+        }
+    }
 
+    // Pide la siguiente página cuando falta menos de una pantalla para llegar al final
+    private void maybeLoadMoreNotes() {
+        if (notesPager == null || scrollItems == null || scrollItems.getChildCount() == 0) return;
 
-        });
+        int contentBottom = scrollItems.getChildAt(0).getBottom();
+        int visibleBottom = scrollItems.getScrollY() + scrollItems.getHeight();
+        if (contentBottom - visibleBottom <= scrollItems.getHeight()) {
+            notesPager.loadNextPage();
+        }
     }
 
-    private void confirmDeleteFolder(@NonNull Folder folder) {
+    // El RecyclerView de notas está dentro de un NestedScrollView: el scroll se escucha ahí
+    private void bindScrollPrefetch(View root) {
+        scrollItems = root.findViewById(R.id.scrollItems);
+        if (scrollItems == null) return;
+        scrollItems.setOnScrollChangeListener((NestedScrollView.OnScrollChangeListener)
+                (v, scrollX, scrollY, oldScrollX, oldScrollY) -> maybeLoadMoreNotes());
+    }
 
-        foldersManager.countSubfolders(folder.getId(), subCount -> {
-
-            notesManager.countNotesInFolder(folder.getId(), noteCount -> {
-
-                int total = subCount + noteCount;
-
-                // Obtener idioma actual ("es" o "en")
-                String lang = LocaleHelper.getLanguage(this);
-
-                String title;
-                String msg;
-                String positiveText;
-                String negativeText;
-                String successText;
-
-                if (lang.equals("es")) {
-                    title = "Eliminar carpeta \"" + folder.getName() + "\"";
-                    msg = "Esta carpeta contiene " + total + " elementos"
-                            + " (" + subCount + " carpetas, " + noteCount + " notas)."
-                            + "\n\nSe eliminarán TODOS los elementos dentro de ella."
-                            + "\n\n¿Seguro que quieres eliminarla?";
-                    positiveText = "Eliminar";
-                    negativeText = "Cancelar";
-                    successText = "Carpeta eliminada correctamente";
-                } else { // inglés
-                    title = "Delete folder \"" + folder.getName() + "\"";
-                    msg = "This folder contains " + total + " items"
-                            + " (" + subCount + " folders, " + noteCount + " notes)."
-                            + "\n\nALL items inside will be deleted."
-                            + "\n\nAre you sure you want to delete it?";
-                    positiveText = "Delete";
-                    negativeText = "Cancel";
-                    successText = "Folder deleted successfully";
-                }
+    private void confirmDeleteFolder(@NonNull Folder folder) {
 
-                new androidx.appcompat.app.AlertDialog.Builder(this)
-                        .setTitle(title)
-                        .setMessage(msg)
-                        .setPositiveButton(positiveText, (d, w) -> {
-
-                            foldersManager.deleteFolderRecursively(folder.getId(), () -> {
-                                runOnUiThread(() -> {
-                                    loadFolderContent(currentFolder);
-                                    Toast.makeText(this, successText, Toast.LENGTH_SHORT).show();
-                                });
-                            });
-
-                        })
-                        .setNegativeButton(negativeText, null)
-                        .show();
-            });
+        // Conteo recursivo: carpetas desde el árbol en memoria, notas con count()
+        foldersManager.countSubtree(folder.getId(), (subCount, noteCount) -> {
+
+            long total = subCount + noteCount;
+            // Sin recuento de notas se confirma igual, sin dar cifras
+            boolean counted = noteCount >= 0;
+
+            // Obtener idioma actual ("es" o "en")
+            String lang = LocaleHelper.getLanguage(this);
+
+            String title;
+            String msg;
+            String positiveText;
+            String negativeText;
+            String successText;
+
+            if (lang.equals("es")) {
+                title = "Eliminar carpeta \"" + folder.getName() + "\"";
+                msg = (counted
+                        ? "Esta carpeta contiene " + total + " elementos"
+                                + " (" + subCount + " carpetas, " + noteCount + " notas)."
+                        : "No se ha podido contar el contenido de esta carpeta.")
+                        + "\n\nIrá a la papelera con todo su contenido y se eliminará"
+                        + " definitivamente dentro de " + TrashManager.RETENTION_DAYS + " días."
+                        + "\n\n¿Seguro que quieres eliminarla?";
+                positiveText = "Eliminar";
+                negativeText = "Cancelar";
+                successText = "Carpeta movida a la papelera";
+            } else { // inglés
+                title = "Delete folder \"" + folder.getName() + "\"";
+                msg = (counted
+                        ? "This folder contains " + total + " items"
+                                + " (" + subCount + " folders, " + noteCount + " notes)."
+                        : "The contents of this folder could not be counted.")
+                        + "\n\nIt will be moved to the trash with everything inside and deleted"
+                        + " permanently in " + TrashManager.RETENTION_DAYS + " days."
+                        + "\n\nAre you sure you want to delete it?";
+                positiveText = "Delete";
+                negativeText = "Cancel";
+                successText = "Folder moved to the trash";
+            }
 
+            new androidx.appcompat.app.AlertDialog.Builder(this)
+                    .setTitle(title)
+                    .setMessage(msg)
+                    .setPositiveButton(positiveText, (d, w) -> {
+                        // Una sola escritura; el borrado real lo hace la purga de la papelera
+                        trashManager.trashFolder(folder);
+                        Toast.makeText(this, successText, Toast.LENGTH_SHORT).show();
+                    })
+                    .setNegativeButton(negativeText, null)
+                    .show();
         });
     }
 
@@ -652,7 +783,11 @@ public class MainActivity extends AppCompatActivity {
         new androidx.appcompat.app.AlertDialog.Builder(this)
                 .setTitle(title)
                 .setMessage(message)
-                .setPositiveButton(getText(R.string.eliminar), (dialog, which) -> deleteNoteWithEvents(note))
+                .setPositiveButton(getText(R.string.eliminar), (dialog, which) -> {
+                    // Los eventos vinculados se borran con la nota al purgar la papelera
+                    trashManager.trashNote(note);
+                    Toast.makeText(this, getText(R.string.nota_a_papelera), Toast.LENGTH_SHORT).show();
+                })
                 .setNegativeButton(getText(R.string.cancelar), null)
                 .show();
     }
@@ -673,6 +808,11 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void logout() {
+        closeNotesPager();
+        FolderTree.reset();
+        LocalStore.reset();
+        UserProfileRepository.reset();
+        NoteSearch.reset();
         FirebaseAuth.getInstance().signOut();
         AuthUI.getInstance().signOut(this); // Por si usó Google Sign-In
         Intent intent = new Intent(MainActivity.this, LoginActivity.class);
@@ -683,12 +823,39 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        FolderTree.getInstance().removeOnChangeListener(onFolderChanged);
+        WriteOutbox.getInstance().removeOnPendingChangedListener(onPendingChanged);
+        closeNotesPager();
         // Ya no hacemos signOut automático
     }
+    // Botón de búsqueda: el filtro de la carpeta ya va al escribir (ver setupSearchBar)
     public void SearchNotes(View v) {
         String query = busquedaBarra.getText().toString().trim();
         foldersAdapter.filter(query);
         notesAdapter.filter(query);
+
+        // Además del filtro de la carpeta actual, busca en el contenido de todas las notas
+        if (!query.isEmpty()) {
+            NoteSearch.getInstance().search(query, SEARCH_RESULTS, hits -> showSearchResults(query, hits));
+        }
+    }
+
+    // Filtra la carpeta actual mientras se escribe (los adapters esperan a que se pare)
+    private void setupSearchBar() {
+        busquedaBarra.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                String query = s == null ? "" : s.toString();
+                foldersAdapter.filter(query);
+                notesAdapter.filter(query);
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) { }
+        });
     }
 
     private void confirmRenameNote(@NonNull Note note) {
@@ -707,12 +874,9 @@ public class MainActivity extends AppCompatActivity {
                         return;
                     }
 
-                    note.setTitle(newName);
-                    note.setUpdatedAt(com.google.firebase.Timestamp.now());
-
-                    notesManager.updateNote(note);
+                    // Sólo cambia el título: update() sobre cuerpo y cabecera
+                    notesManager.renameNote(note.getFolderId(), note.getId(), newName);
 
-                    loadFolderContent(currentFolder);
                     Toast.makeText(this, getText(R.string.note_created_check), Toast.LENGTH_SHORT).show();
                 })
                 .setNegativeButton(getText(R.string.cancelar), null)
@@ -740,40 +904,10 @@ public class MainActivity extends AppCompatActivity {
 
                     foldersManager.updateFolder(folder);
 
-                    loadFolderContent(currentFolder);
                     Toast.makeText(this, "Carpeta renombrada", Toast.LENGTH_SHORT).show();
                 })
                 .setNegativeButton("Cancelar", null)
                 .show();
     }
 
-    private void deleteNoteWithEvents(@NonNull Note note) {
-
-        CalendarEventsManager evManager = new CalendarEventsManager();
-
-        // Primero buscar eventos asociados a esta nota
-        evManager.getEventsByNote(note.getId(), querySnapshot -> {
-
-            if (!querySnapshot.isEmpty()) {
-                // Hay eventos asociados → borrarlos
-                for (QueryDocumentSnapshot doc : querySnapshot) {
-                    CalendarEvent ev = doc.toObject(CalendarEvent.class);
-                    ev.setId(doc.getId());
-
-                    evManager.deleteEvent(ev, () ->
-                            Log.d("DELETE_NOTE", getText(R.string.event_deleted) + ev.getId())
-                    );
-                }
-            }
-
-            // Después de eliminar los eventos → eliminar la nota
-            notesManager.deleteNote(note.getFolderId(), note.getId());
-
-            Toast.makeText(this, "Nota eliminada", Toast.LENGTH_SHORT).show();
-
-            // Recargar carpeta después de borrar todo
-            loadFolderContent(currentFolder);
-        });
-    }
-
 }
@@ -2,19 +2,40 @@ package es.fdi.ucm.pad.notnotion.ui.profile;
 
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.Log;
 import android.widget.Button;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.firebase.ui.auth.AuthUI;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 
+import java.util.concurrent.TimeUnit;
+
 import es.fdi.ucm.pad.notnotion.R;
+import es.fdi.ucm.pad.notnotion.data.firebase.FolderTree;
+import es.fdi.ucm.pad.notnotion.data.firebase.LocalStore;
+import es.fdi.ucm.pad.notnotion.data.firebase.TrashManager;
+import es.fdi.ucm.pad.notnotion.data.firebase.UserProfileRepository;
+import es.fdi.ucm.pad.notnotion.data.search.NoteSearch;
+import es.fdi.ucm.pad.notnotion.data.firebase.WorkspaceExporter;
+import es.fdi.ucm.pad.notnotion.data.firebase.WorkspaceImporter;
+import es.fdi.ucm.pad.notnotion.data.model.TrashItem;
 import es.fdi.ucm.pad.notnotion.ui.user_logging.LoginActivity;
 import es.fdi.ucm.pad.notnotion.utils.LocaleHelper;
 import es.fdi.ucm.pad.notnotion.utils.UserProfileHelper;
@@ -23,7 +44,17 @@ public class ProfileActivity extends AppCompatActivity {
 
     private ImageView imgProfilePhoto;
     private TextView tvEmail, tvName, tvUid;
-    private Button btnLogout, btnEditProfile;
+    private Button btnLogout, btnEditProfile, btnExport, btnImport, btnTrash;
+
+    // Selectores de origen para importar (ZIP o carpeta)
+    private final ActivityResultLauncher<String[]> pickZip =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), uri -> {
+                if (uri != null) importNotes(uri, false);
+            });
+    private final ActivityResultLauncher<Uri> pickTree =
+            registerForActivityResult(new ActivityResultContracts.OpenDocumentTree(), uri -> {
+                if (uri != null) importNotes(uri, true);
+            });
 
     private UserProfileHelper profileHelper;
 
@@ -57,13 +88,41 @@ public class ProfileActivity extends AppCompatActivity {
         tvEmail.setText(getString(R.string.email, user.getEmail()));
 
         // --- Cargar nombre + foto desde Firestore (fallback a Auth) ---
-        profileHelper.applyToViews(tvName, imgProfilePhoto);
+        profileHelper.applyToViews(this, tvName, imgProfilePhoto);
 
         // Editar perfil
         btnEditProfile.setOnClickListener(v ->
                 startActivity(new Intent(this, ProfileEditActivity.class))
         );
 
+        // Exportar todas las notas a un ZIP
+        btnExport = findViewById(R.id.btnExport);
+        if (btnExport != null) {
+            btnExport.setOnClickListener(v -> exportNotes());
+        }
+
+        // Importar un ZIP o una carpeta de Markdown
+        btnImport = findViewById(R.id.btnImport);
+        if (btnImport != null) {
+            btnImport.setOnClickListener(v -> new AlertDialog.Builder(this)
+                    .setTitle(getString(R.string.importar_notas))
+                    .setItems(new String[]{getString(R.string.importar_zip), getString(R.string.importar_carpeta)},
+                            (d, which) -> {
+                                if (which == 0) {
+                                    pickZip.launch(new String[]{"application/zip", "application/x-zip-compressed"});
+                                } else {
+                                    pickTree.launch(null);
+                                }
+                            })
+                    .show());
+        }
+
+        // Papelera: restaurar o vaciar
+        btnTrash = findViewById(R.id.btnTrash);
+        if (btnTrash != null) {
+            btnTrash.setOnClickListener(v -> showTrashDialog());
+        }
+
         // Logout
         btnLogout.setOnClickListener(v -> logout());
 
@@ -75,7 +134,144 @@ public class ProfileActivity extends AppCompatActivity {
         super.attachBaseContext(es.fdi.ucm.pad.notnotion.utils.LocaleHelper.applyLocale(newBase));
     }
 
+    private void exportNotes() {
+        ProgressBar progressBar = new ProgressBar(this, null,
+                android.R.attr.progressBarStyleHorizontal);
+        progressBar.setPadding(48, 32, 48, 0);
+        progressBar.setIndeterminate(true);
+
+        WorkspaceExporter exporter = new WorkspaceExporter(this);
+
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.exportando_notas))
+                .setView(progressBar)
+                .setCancelable(false)
+                .setNegativeButton(getString(R.string.cancelar), (d, w) -> exporter.cancel())
+                .show();
+
+        exporter.export((exported, total) -> {
+            progressBar.setIndeterminate(total == 0);
+            progressBar.setMax(total);
+            progressBar.setProgress(exported);
+        }, file -> {
+            if (isFinishing()) return;
+            progressDialog.dismiss();
+            if (file != null) {
+                Toast.makeText(this, getString(R.string.exportacion_completada, file.getPath()),
+                        Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(this, getString(R.string.exportacion_fallida), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void importNotes(@NonNull Uri source, boolean isTree) {
+        ProgressBar progressBar = new ProgressBar(this, null,
+                android.R.attr.progressBarStyleHorizontal);
+        progressBar.setPadding(48, 32, 48, 0);
+        progressBar.setIndeterminate(true);
+
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.importando_notas))
+                .setView(progressBar)
+                .setCancelable(false)
+                .show();
+
+        WorkspaceImporter.ProgressListener progress = (written, total) -> {
+            progressBar.setIndeterminate(total == 0);
+            progressBar.setMax(total);
+            progressBar.setProgress(written);
+        };
+        OnSuccessListener<WorkspaceImporter.Report> done = report -> {
+            if (isFinishing()) return;
+            progressDialog.dismiss();
+            new AlertDialog.Builder(this)
+                    .setTitle(getString(R.string.importar_notas))
+                    .setMessage(report != null
+                            ? getString(R.string.importacion_completada,
+                                    report.notes, report.folders, report.notesPerSecond())
+                            : getString(R.string.importacion_fallida))
+                    .setPositiveButton(getString(R.string.aceptar), null)
+                    .show();
+        };
+
+        WorkspaceImporter importer = new WorkspaceImporter(this);
+        String name = displayName(source, isTree);
+        if (isTree) {
+            importer.importTree(source, name, progress, done);
+        } else {
+            importer.importZip(source, name, progress, done);
+        }
+    }
+
+    // Nombre del ZIP o de la carpeta elegida (será el nombre de la carpeta importada)
+    @NonNull
+    private String displayName(@NonNull Uri uri, boolean isTree) {
+        if (isTree) {
+            String id = DocumentsContract.getTreeDocumentId(uri);
+            return id.substring(id.lastIndexOf(':') + 1).replaceAll(".*/", "");
+        }
+        try (Cursor cursor = getContentResolver().query(uri,
+                new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        }
+        return getString(R.string.importar_notas);
+    }
+
+    // Papelera: pulsar un elemento lo restaura; "Vaciar" lo borra todo ya
+    private void showTrashDialog() {
+        TrashManager trashManager = new TrashManager();
+        trashManager.getItems(items -> {
+            if (isFinishing()) return;
+            if (items.isEmpty()) {
+                Toast.makeText(this, getText(R.string.papelera_vacia), Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            String[] labels = new String[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                TrashItem item = items.get(i);
+                long left = item.getExpiresAt() != null ? item.getExpiresAt().toDate().getTime() - now : 0;
+                int days = (int) Math.max(0, TimeUnit.MILLISECONDS.toDays(left));
+                labels[i] = getString(TrashItem.TYPE_FOLDER.equals(item.getType())
+                        ? R.string.papelera_carpeta : R.string.papelera_nota, item.getTitle(), days);
+            }
+
+            new AlertDialog.Builder(this)
+                    .setTitle(getString(R.string.papelera_restaurar))
+                    .setItems(labels, (dialog, which) -> {
+                        TrashItem item = items.get(which);
+                        trashManager.restore(item,
+                                () -> Log.d("ProfileActivity", "Restaurado " + item.getItemId()),
+                                e -> Toast.makeText(this, getString(R.string.papelera_error_restaurar, item.getTitle()),
+                                        Toast.LENGTH_SHORT).show());
+                        Toast.makeText(this, getString(R.string.papelera_restaurado, item.getTitle()),
+                                Toast.LENGTH_SHORT).show();
+                    })
+                    .setNeutralButton(getString(R.string.vaciar_papelera), (dialog, which) -> confirmEmptyTrash(trashManager))
+                    .setNegativeButton(getString(R.string.cancelar), null)
+                    .show();
+        });
+    }
+
+    private void confirmEmptyTrash(@NonNull TrashManager trashManager) {
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.vaciar_papelera))
+                .setMessage(getString(R.string.vaciar_papelera_mensaje))
+                .setPositiveButton(getString(R.string.eliminar), (dialog, which) ->
+                        trashManager.emptyTrash(this, () -> Log.d("ProfileActivity", "Papelera vaciada")))
+                .setNegativeButton(getString(R.string.cancelar), null)
+                .show();
+    }
+
     private void logout() {
+        FolderTree.reset();
+        LocalStore.reset();
+        UserProfileRepository.reset();
+        NoteSearch.reset();
         FirebaseAuth.getInstance().signOut();
         AuthUI.getInstance().signOut(this);
         startActivity(new Intent(this, LoginActivity.class));
@@ -17,12 +17,9 @@ import com.google.firebase.auth.EmailAuthProvider;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.auth.UserProfileChangeRequest;
-import com.google.firebase.firestore.FirebaseFirestore;
-
-import java.util.HashMap;
-import java.util.Map;
 
 import es.fdi.ucm.pad.notnotion.R;
+import es.fdi.ucm.pad.notnotion.data.firebase.UserProfileRepository;
 import es.fdi.ucm.pad.notnotion.utils.ImageHelper;
 import es.fdi.ucm.pad.notnotion.utils.LocaleHelper;
 
@@ -34,10 +31,9 @@ public class ProfileEditActivity extends AppCompatActivity {
     private Button btnChangePhoto, btnSaveChanges;
     private EditText etName, etCurrentPassword, etNewPassword, etRepeatPassword;
 
-    private String profileBase64 = null; // FOTO EN BASE64
+    private String profileBase64 = null; // FOTO NUEVA EN BASE64 (null = no se cambia)
 
     private FirebaseAuth auth;
-    private FirebaseFirestore db;
 
     @Override
     protected void attachBaseContext(Context newBase) {
@@ -50,7 +46,6 @@ public class ProfileEditActivity extends AppCompatActivity {
         setContentView(R.layout.activity_profile_edit);
 
         auth = FirebaseAuth.getInstance();
-        db = FirebaseFirestore.getInstance();
 
         // UI
         imgProfilePhotoEdit = findViewById(R.id.imgProfilePhotoEdit);
@@ -80,30 +75,15 @@ public class ProfileEditActivity extends AppCompatActivity {
             return;
         }
 
-        String uid = user.getUid();
-
-        // Cargar nombre y foto desde Firestore
-        db.collection("users").document(uid)
-                .get()
-                .addOnSuccessListener(doc -> {
-                    if (doc.exists()) {
-
-                        // Nombre
-                        if (doc.getString("username") != null) {
-                            etName.setText(doc.getString("username"));
-                        }
-
-                        // FOTO Base64
-                        if (doc.getString("photoBase64") != null) {
-                            profileBase64 = doc.getString("photoBase64");
-
-                            Bitmap bmp = ImageHelper.convertBase64ToBitmap(profileBase64);
-                            if (bmp != null) imgProfilePhotoEdit.setImageBitmap(bmp);
-                        } else {
-                            imgProfilePhotoEdit.setImageResource(R.drawable.ic_user);
-                        }
-                    }
-                });
+        // Cargar nombre y foto del perfil ya leído (la foto sale de la caché de avatares)
+        UserProfileRepository profiles = UserProfileRepository.getInstance();
+        profiles.get(profile -> {
+            if (profile.getUser() != null && profile.getUser().getUsername() != null) {
+                etName.setText(profile.getUser().getUsername());
+            }
+            // Si ya se ha elegido una foto nueva no se pisa
+            if (profileBase64 == null) profiles.bindAvatar(imgProfilePhotoEdit);
+        });
 
         // Botón cambiar foto
         btnChangePhoto.setOnClickListener(v -> openImagePicker());
@@ -203,8 +183,6 @@ public class ProfileEditActivity extends AppCompatActivity {
 
     private void updateProfileData(FirebaseUser user, String newName, @Nullable String newPass) {
 
-        String uid = user.getUid();
-
         // 1) Actualizar Auth SOLO el displayName
         UserProfileChangeRequest.Builder builder = new UserProfileChangeRequest.Builder()
                 .setDisplayName(newName);
@@ -214,14 +192,9 @@ public class ProfileEditActivity extends AppCompatActivity {
 
         user.updateProfile(builder.build());
 
-        // 2) Actualizar Firestore
-        Map<String, Object> updates = new HashMap<>();
-        updates.put("username", newName);
-
-        if (profileBase64 != null) updates.put("photoBase64", profileBase64);
-
-        db.collection("users").document(uid)
-                .update(updates)
+        // 2) Actualizar Firestore (las pantallas abiertas se enteran por el repositorio)
+        UserProfileRepository.getInstance()
+                .updateProfile(newName, profileBase64)
                 .addOnSuccessListener(unused -> {
 
                     if (newPass != null && !newPass.isEmpty()) {
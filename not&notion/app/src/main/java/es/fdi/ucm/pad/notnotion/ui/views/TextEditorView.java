@@ -35,6 +35,7 @@ import java.util.List;
 
 import es.fdi.ucm.pad.notnotion.R;
 import es.fdi.ucm.pad.notnotion.data.model.ContentBlock;
+import es.fdi.ucm.pad.notnotion.data.firebase.BlobStore;
 import es.fdi.ucm.pad.notnotion.utils.ImageHelper;
 
 // Vista para el editor de texto, splannable para aplicar en el momento
@@ -58,7 +59,7 @@ public class TextEditorView extends LinearLayout {
     // Rastrear spans activos que se están extendiendo
     private List<Object> activeSpans = new ArrayList<>();
 
-    // Imágenes insertadas (Base64)
+    // Imágenes insertadas (referencias "blob:{hash}" o Base64 de notas antiguas)
     private List<String> insertedImages = new ArrayList<>();
 
     // PDFs insertados (guardamos uriString)
@@ -314,9 +315,9 @@ public class TextEditorView extends LinearLayout {
 
             } else if (block.getType() == ContentBlock.TYPE_IMAGE) {
                 // Cargar IMAGEN: se añade como vista separada
-                String base64Image = block.getMediaUrl();
-                if (base64Image != null && !base64Image.isEmpty()) {
-                    addImageBlock(base64Image);
+                String image = block.getMediaUrl();
+                if (image != null && !image.isEmpty()) {
+                    addImageBlock(image);
                     Log.d(TAG, "Imagen cargada desde ContentBlock");
                 }
             } else if (block.getType() == ContentBlock.TYPE_PDF) {
@@ -441,10 +442,10 @@ public class TextEditorView extends LinearLayout {
             }
         }
 
-        // Añadir bloques de IMÁGENES (se mantienen como lo tenías)
-        for (String base64Image : insertedImages) {
-            blocks.add(ContentBlock.createImageBlock(base64Image));
-            Log.d(TAG, "Bloque de imagen guardado (Base64 length: " + base64Image.length() + ")");
+        // Añadir bloques de IMÁGENES (sólo la referencia; los bytes están en BlobStore)
+        for (String image : insertedImages) {
+            blocks.add(ContentBlock.createImageBlock(image));
+            Log.d(TAG, "Bloque de imagen guardado: " + (BlobStore.isBlobRef(image) ? image : "Base64"));
         }
 
         // Añadir bloques de PDF (ahora se guardan como bloques separados)
@@ -539,10 +540,10 @@ public class TextEditorView extends LinearLayout {
     }
 
 
-    // Añade un bloque de imagen desde Base64 con opción de eliminar
+    // Añade un bloque de imagen (referencia de BlobStore o Base64) con opción de eliminar
     public void addImageBlock(String base64Image) {
         if (base64Image == null || base64Image.isEmpty()) {
-            Log.e(TAG, "Base64 de imagen vacío");
+            Log.e(TAG, "Imagen vacía");
             return;
         }
 
@@ -572,14 +573,19 @@ public class TextEditorView extends LinearLayout {
         imageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
         imageView.setAdjustViewBounds(true);
 
-        // Convertir Base64 a Bitmap
-        Bitmap bitmap = ImageHelper.convertBase64ToBitmap(base64Image);
-        if (bitmap != null) {
-            imageView.setImageBitmap(bitmap);
-            Log.d(TAG, "Imagen cargada desde Base64");
+        if (BlobStore.isBlobRef(base64Image)) {
+            // Disco local o Firebase Storage, en segundo plano
+            BlobStore.getInstance().loadInto(imageView, base64Image, 0, R.drawable.icon_note);
         } else {
-            Log.e(TAG, "Error al decodificar Base64");
-            imageView.setImageResource(R.drawable.icon_note);
+            // Convertir Base64 a Bitmap
+            Bitmap bitmap = ImageHelper.convertBase64ToBitmap(base64Image);
+            if (bitmap != null) {
+                imageView.setImageBitmap(bitmap);
+                Log.d(TAG, "Imagen cargada desde Base64");
+            } else {
+                Log.e(TAG, "Error al decodificar Base64");
+                imageView.setImageResource(R.drawable.icon_note);
+            }
         }
 
         imageContainer.addView(imageView);
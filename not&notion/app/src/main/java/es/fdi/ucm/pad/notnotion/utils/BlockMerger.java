@@ -0,0 +1,225 @@
+package es.fdi.ucm.pad.notnotion.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import es.fdi.ucm.pad.notnotion.data.model.ContentBlock;
+import es.fdi.ucm.pad.notnotion.data.model.Note;
+
+/**
+ * Fusión a tres bandas de dos ediciones de la misma nota (diff3 por bloques).
+ *
+ * base es la nota tal y como se abrió en el editor, local lo que se va a
+ * guardar y remote lo que hay ahora en Firestore (guardado por otro
+ * dispositivo entretanto). Los bloques no tienen id, así que se emparejan por
+ * contenido con la subsecuencia común más larga respecto a base; entre dos
+ * bloques que nadie ha tocado:
+ *  - si sólo un lado cambió, gana ese lado;
+ *  - si los dos hicieron lo mismo, se queda una copia;
+ *  - si los dos cambiaron el mismo bloque de texto (el editor guarda casi todo
+ *    en uno), se fusiona dentro del bloque línea a línea con el mismo método;
+ *  - si aun así los dos cambiaron lo mismo de forma distinta, se quedan los
+ *    bloques (o líneas) locales seguidos de los remotos que no estén ya, para
+ *    no perder texto, y se cuenta como conflicto.
+ * Título y portada se fusionan igual como campos sueltos (en conflicto gana local).
+ *
+ * No tiene estado: se puede usar desde cualquier hilo.
+ */
+public final class BlockMerger {
+
+    private BlockMerger() {}
+
+    public static class Result {
+        public String title;
+        public String coverImageUrl;
+        public final List<ContentBlock> blocks = new ArrayList<>();
+        /** Zonas cambiadas a la vez en los dos lados (0 = fusión limpia). */
+        public int conflicts;
+        /** false si remote no había cambiado y se ha guardado local tal cual. */
+        public boolean merged;
+    }
+
+    @NonNull
+    public static Result merge(@NonNull Note base, @NonNull Note local, @NonNull Note remote) {
+        Result result = new Result();
+        result.merged = true;
+        result.title = mergeField(base.getTitle(), local.getTitle(), remote.getTitle(), result);
+        result.coverImageUrl = mergeField(base.getCoverImageUrl(), local.getCoverImageUrl(),
+                remote.getCoverImageUrl(), result);
+        mergeBlocks(blocksOf(base), blocksOf(local), blocksOf(remote), result);
+        return result;
+    }
+
+    // ---------------------------------------------------------------
+
+    @Nullable
+    private static String mergeField(@Nullable String base, @Nullable String local,
+                                     @Nullable String remote, @NonNull Result result) {
+        if (Objects.equals(local, base)) return remote;
+        if (Objects.equals(remote, base) || Objects.equals(local, remote)) return local;
+        result.conflicts++;
+        return local;
+    }
+
+    // Un tramo en el que local y remote cambiaron lo mismo de forma distinta
+    private interface ConflictHandler<T> {
+        void resolve(@NonNull List<T> base, @NonNull List<T> local, @NonNull List<T> remote,
+                     @NonNull List<T> out, @NonNull Result result);
+    }
+
+    private static void mergeBlocks(@NonNull List<ContentBlock> base,
+                                    @NonNull List<ContentBlock> local,
+                                    @NonNull List<ContentBlock> remote,
+                                    @NonNull Result result) {
+        merge3(base, local, remote, result.blocks, result, BlockMerger::resolveBlocks);
+    }
+
+    /**
+     * diff3 sobre cualquier secuencia: se avanza de un elemento de base intacto
+     * en los dos lados al siguiente y se resuelve el tramo que queda entre ellos.
+     */
+    private static <T> void merge3(@NonNull List<T> base,
+                                   @NonNull List<T> local,
+                                   @NonNull List<T> remote,
+                                   @NonNull List<T> out,
+                                   @NonNull Result result,
+                                   @NonNull ConflictHandler<T> onConflict) {
+        int[] toLocal = match(base, local);
+        int[] toRemote = match(base, remote);
+
+        int b = 0, l = 0, r = 0;
+        while (true) {
+            // Siguiente elemento de base que sigue intacto en los dos lados
+            int sync = b;
+            while (sync < base.size() && (toLocal[sync] < 0 || toRemote[sync] < 0)) sync++;
+
+            if (sync == base.size()) {
+                resolve(base.subList(b, base.size()), local.subList(l, local.size()),
+                        remote.subList(r, remote.size()), out, result, onConflict);
+                return;
+            }
+
+            resolve(base.subList(b, sync), local.subList(l, toLocal[sync]),
+                    remote.subList(r, toRemote[sync]), out, result, onConflict);
+            out.add(local.get(toLocal[sync]));
+
+            b = sync + 1;
+            l = toLocal[sync] + 1;
+            r = toRemote[sync] + 1;
+        }
+    }
+
+    // Un tramo entre dos elementos comunes
+    private static <T> void resolve(@NonNull List<T> base,
+                                    @NonNull List<T> local,
+                                    @NonNull List<T> remote,
+                                    @NonNull List<T> out,
+                                    @NonNull Result result,
+                                    @NonNull ConflictHandler<T> onConflict) {
+        if (local.equals(base)) {
+            out.addAll(remote);
+        } else if (remote.equals(base) || local.equals(remote)) {
+            out.addAll(local);
+        } else {
+            onConflict.resolve(base, local, remote, out, result);
+        }
+    }
+
+    /**
+     * Los dos lados cambiaron el mismo bloque de texto: se fusionan sus líneas.
+     * Con cualquier otra forma (varios bloques, imágenes) se conservan los dos.
+     */
+    private static void resolveBlocks(@NonNull List<ContentBlock> base,
+                                      @NonNull List<ContentBlock> local,
+                                      @NonNull List<ContentBlock> remote,
+                                      @NonNull List<ContentBlock> out,
+                                      @NonNull Result result) {
+        if (base.size() == 1 && local.size() == 1 && remote.size() == 1
+                && isText(base.get(0)) && isText(local.get(0)) && isText(remote.get(0))) {
+            ContentBlock b = base.get(0), l = local.get(0), r = remote.get(0);
+
+            List<String> lines = new ArrayList<>();
+            merge3(linesOf(b), linesOf(l), linesOf(r), lines, result, BlockMerger::keepBoth);
+            int style = l.getTextStyle() == b.getTextStyle() ? r.getTextStyle() : l.getTextStyle();
+            int size = l.getTextSize() == b.getTextSize() ? r.getTextSize() : l.getTextSize();
+            out.add(ContentBlock.createTextBlock(joinLines(lines), style, size));
+            return;
+        }
+        keepBoth(base, local, remote, out, result);
+    }
+
+    // No se descarta nada: lo local y después lo remoto que no esté ya
+    private static <T> void keepBoth(@NonNull List<T> base,
+                                     @NonNull List<T> local,
+                                     @NonNull List<T> remote,
+                                     @NonNull List<T> out,
+                                     @NonNull Result result) {
+        out.addAll(local);
+        for (T item : remote) {
+            if (!local.contains(item)) out.add(item);
+        }
+        // Dos inserciones en el mismo sitio no pisan nada de base
+        if (!base.isEmpty()) result.conflicts++;
+    }
+
+    @NonNull
+    private static String joinLines(@NonNull List<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            if (i > 0) text.append('\n');
+            text.append(lines.get(i));
+        }
+        return text.toString();
+    }
+
+    private static boolean isText(@NonNull ContentBlock block) {
+        return block.getType() == ContentBlock.TYPE_TEXT;
+    }
+
+    @NonNull
+    private static List<String> linesOf(@NonNull ContentBlock block) {
+        String text = block.getTextContent() != null ? block.getTextContent() : "";
+        return new ArrayList<>(Arrays.asList(text.split("\n", -1)));
+    }
+
+    /**
+     * Subsecuencia común más larga: para cada elemento de a, su posición en b
+     * o -1 si no está emparejado. Los emparejamientos son crecientes.
+     */
+    @NonNull
+    private static <T> int[] match(@NonNull List<T> a, @NonNull List<T> b) {
+        int n = a.size();
+        int m = b.size();
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                lcs[i][j] = a.get(i).equals(b.get(j))
+                        ? lcs[i + 1][j + 1] + 1
+                        : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+
+        int[] result = new int[n];
+        int i = 0, j = 0;
+        while (i < n) {
+            if (j < m && a.get(i).equals(b.get(j))) {
+                result[i++] = j++;
+            } else if (j < m && lcs[i][j + 1] >= lcs[i + 1][j]) {
+                j++;
+            } else {
+                result[i++] = -1;
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    private static List<ContentBlock> blocksOf(@NonNull Note note) {
+        return note.getContentBlocks() != null ? note.getContentBlocks() : new ArrayList<>();
+    }
+}
@@ -25,8 +25,23 @@ public class ImageHelper {
      * @return String en Base64 o null si hay error
      */
     public static String convertImageToBase64(Context context, Uri imageUri) {
+        byte[] bytes = compressImage(context, imageUri);
+        if (bytes == null) return null;
+
+        String base64String = Base64.encodeToString(bytes, Base64.DEFAULT);
+        Log.d(TAG, "✓ Conversión exitosa. Tamaño: " + (base64String.length() / 1024) + " KB");
+        return base64String;
+    }
+
+    /**
+     * Lee la imagen, la reduce a MAX_IMAGE_SIZE y la comprime a JPEG.
+     * Son los bytes que se guardan en BlobStore.
+     *
+     * @return bytes JPEG o null si hay error
+     */
+    public static byte[] compressImage(Context context, Uri imageUri) {
         try {
-            Log.d(TAG, "Iniciando conversión a Base64");
+            Log.d(TAG, "Comprimiendo imagen");
             Log.d(TAG, "URI: " + imageUri);
 
             // Leer la imagen desde la URI
@@ -57,12 +72,9 @@ public class ImageHelper {
             resizedBitmap.compress(Bitmap.CompressFormat.JPEG, COMPRESSION_QUALITY, byteArrayOutputStream);
             byte[] byteArray = byteArrayOutputStream.toByteArray();
 
-            // Convertir a Base64
-            String base64String = Base64.encodeToString(byteArray, Base64.DEFAULT);
-
             // Calcular tamaño
-            int sizeKB = base64String.length() / 1024;
-            Log.d(TAG, "✓ Conversión exitosa. Tamaño: " + sizeKB + " KB");
+            int sizeKB = byteArray.length / 1024;
+            Log.d(TAG, "✓ Imagen comprimida. Tamaño: " + sizeKB + " KB");
 
             if (sizeKB > 500) {
                 Log.w(TAG, "⚠️ ADVERTENCIA: Imagen grande (" + sizeKB + " KB). Puede causar problemas.");
@@ -73,10 +85,10 @@ public class ImageHelper {
             resizedBitmap.recycle();
             byteArrayOutputStream.close();
 
-            return base64String;
+            return byteArray;
 
         } catch (Exception e) {
-            Log.e(TAG, "Error al convertir imagen a Base64", e);
+            Log.e(TAG, "Error al comprimir imagen", e);
             return null;
         }
     }
@@ -111,6 +123,34 @@ public class ImageHelper {
         }
     }
 
+    /**
+     * Genera una miniatura Base64 (JPEG) a partir de una imagen Base64.
+     * Se usa para las cabeceras de nota, que no deben cargar la portada completa.
+     *
+     * @return la miniatura, o null si la imagen no se puede decodificar
+     */
+    public static String createThumbnailBase64(String base64String, int maxSize) {
+        Bitmap original = convertBase64ToBitmap(base64String);
+        if (original == null) return null;
+
+        try {
+            Bitmap thumbnail = resizeBitmap(original, maxSize);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, COMPRESSION_QUALITY, out);
+            String result = Base64.encodeToString(out.toByteArray(), Base64.DEFAULT);
+
+            if (thumbnail != original) thumbnail.recycle();
+            original.recycle();
+            out.close();
+
+            return result;
+        } catch (Exception e) {
+            Log.e(TAG, "Error al crear miniatura", e);
+            return null;
+        }
+    }
+
     //Redimensiona un Bitmap manteniendo la proporción
     private static Bitmap resizeBitmap(Bitmap originalBitmap, int maxSize) {
         int width = originalBitmap.getWidth();
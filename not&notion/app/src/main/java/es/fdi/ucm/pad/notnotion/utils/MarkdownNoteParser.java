@@ -0,0 +1,236 @@
+package es.fdi.ucm.pad.notnotion.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.Timestamp;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import es.fdi.ucm.pad.notnotion.data.model.ContentBlock;
+
+/**
+ * Convierte un fichero Markdown en los datos de una nota (título y bloques).
+ * Es el inverso de lo que genera WorkspaceExporter, y acepta también las
+ * páginas exportadas desde Notion (nombres con un id de 32 caracteres al final).
+ *
+ * Las imágenes se devuelven como bloques TYPE_IMAGE con la ruta tal y como
+ * aparece en el Markdown; quien importa la resuelve a una referencia de BlobStore.
+ *
+ * No tiene estado: se puede usar desde varios hilos a la vez.
+ */
+public final class MarkdownNoteParser {
+
+    private static final Pattern IMAGE = Pattern.compile("^!\\[[^\\]]*]\\(([^)\\s]+)(?:\\s+\"[^\"]*\")?\\)$");
+    private static final Pattern HEADING = Pattern.compile("^(#{1,6})\\s+(.*)$");
+    private static final Pattern NOTION_ID = Pattern.compile("\\s+[0-9a-f]{32}$");
+
+    private MarkdownNoteParser() {}
+
+    public static class ParsedNote {
+        public String title;
+        public boolean favorite;
+        public Timestamp createdAt;
+        public Timestamp updatedAt;
+        public String coverPath;
+        public final List<ContentBlock> blocks = new ArrayList<>();
+    }
+
+    /**
+     * @param fileName nombre del fichero sin carpeta (se usa como título si no hay otro)
+     */
+    @NonNull
+    public static ParsedNote parse(@NonNull String fileName, @NonNull String markdown) {
+        ParsedNote note = new ParsedNote();
+        String[] lines = markdown.replace("\r\n", "\n").split("\n", -1);
+        int i = 0;
+
+        // Front matter YAML (el que escribe WorkspaceExporter)
+        if (lines.length > 0 && lines[0].trim().equals("---")) {
+            int end = 1;
+            while (end < lines.length && !lines[end].trim().equals("---")) end++;
+            if (end < lines.length) {
+                for (int k = 1; k < end; k++) readFrontMatter(note, lines[k]);
+                i = end + 1;
+            }
+        }
+
+        if (note.title == null) note.title = cleanName(stripExtension(fileName));
+
+        // El primer encabezado repite el título: no se duplica como bloque
+        i = skipBlank(lines, i);
+        if (i < lines.length) {
+            Matcher h = HEADING.matcher(lines[i].trim());
+            if (h.matches() && h.group(1).length() == 1) {
+                String heading = h.group(2).trim();
+                if (note.title.equals(cleanName(stripExtension(fileName))) || heading.equals(note.title)) {
+                    note.title = heading;
+                    i++;
+                }
+            }
+        }
+
+        // Una imagen justo después del título es la portada
+        i = skipBlank(lines, i);
+        if (i < lines.length) {
+            Matcher img = IMAGE.matcher(lines[i].trim());
+            if (img.matches()) {
+                note.coverPath = img.group(1);
+                i++;
+            }
+        }
+
+        StringBuilder text = null;
+        int style = ContentBlock.STYLE_NORMAL;
+        int size = 16;
+
+        for (; i < lines.length; i++) {
+            String line = lines[i].trim();
+
+            Matcher img = IMAGE.matcher(line);
+            if (img.matches()) {
+                flush(note, text, style, size);
+                text = null;
+                note.blocks.add(ContentBlock.createImageBlock(img.group(1)));
+                continue;
+            }
+
+            if (line.isEmpty()) {
+                if (text != null) text.append('\n');
+                continue;
+            }
+
+            int lineSize = 16;
+            Matcher h = HEADING.matcher(line);
+            if (h.matches()) {
+                int level = h.group(1).length();
+                lineSize = level == 1 ? 28 : level == 2 ? 24 : 20;
+                line = h.group(2).trim();
+            }
+
+            int[] lineStyle = {ContentBlock.STYLE_NORMAL};
+            line = unwrapStyle(line, lineStyle);
+
+            // Mismo estilo y tamaño: se sigue en el mismo bloque de texto
+            if (text != null && (lineStyle[0] != style || lineSize != size)) {
+                flush(note, text, style, size);
+                text = null;
+            }
+            if (text == null) {
+                text = new StringBuilder();
+                style = lineStyle[0];
+                size = lineSize;
+            } else if (text.length() > 0 && text.charAt(text.length() - 1) != '\n') {
+                text.append('\n');
+            }
+            text.append(line);
+        }
+        flush(note, text, style, size);
+
+        return note;
+    }
+
+    // Quita el ".md" y el id que Notion añade a los nombres de página y carpeta
+    @NonNull
+    public static String cleanName(@NonNull String name) {
+        return NOTION_ID.matcher(name).replaceFirst("").trim();
+    }
+
+    @NonNull
+    private static String stripExtension(@NonNull String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    private static int skipBlank(String[] lines, int i) {
+        while (i < lines.length && lines[i].trim().isEmpty()) i++;
+        return i;
+    }
+
+    private static void flush(@NonNull ParsedNote note, @Nullable StringBuilder text, int style, int size) {
+        if (text == null) return;
+        String content = text.toString().replaceAll("\n+$", "");
+        if (content.isEmpty()) return;
+        note.blocks.add(ContentBlock.createTextBlock(content, style, size));
+    }
+
+    // Énfasis que envuelve toda la línea → estilo del bloque
+    @NonNull
+    private static String unwrapStyle(@NonNull String line, int[] style) {
+        boolean underline = false;
+        if (line.startsWith("<u>") && line.endsWith("</u>") && line.length() > 7) {
+            underline = true;
+            line = line.substring(3, line.length() - 4);
+        }
+
+        boolean bold = false;
+        boolean italic = false;
+        if (isWrapped(line, "***")) {
+            bold = italic = true;
+            line = line.substring(3, line.length() - 3);
+        } else if (isWrapped(line, "**")) {
+            bold = true;
+            line = line.substring(2, line.length() - 2);
+        } else if (isWrapped(line, "*") || isWrapped(line, "_")) {
+            italic = true;
+            line = line.substring(1, line.length() - 1);
+        }
+
+        if (bold && italic) {
+            style[0] = underline ? ContentBlock.STYLE_BOLD_ITALIC_UNDERLINE : ContentBlock.STYLE_BOLD_ITALIC;
+        } else if (bold) {
+            style[0] = underline ? ContentBlock.STYLE_BOLD_UNDERLINE : ContentBlock.STYLE_BOLD;
+        } else if (italic) {
+            style[0] = underline ? ContentBlock.STYLE_ITALIC_UNDERLINE : ContentBlock.STYLE_ITALIC;
+        } else {
+            style[0] = underline ? ContentBlock.STYLE_UNDERLINE : ContentBlock.STYLE_NORMAL;
+        }
+        return line;
+    }
+
+    private static boolean isWrapped(@NonNull String line, @NonNull String mark) {
+        return line.length() > mark.length() * 2 && line.startsWith(mark) && line.endsWith(mark);
+    }
+
+    private static void readFrontMatter(@NonNull ParsedNote note, @NonNull String line) {
+        int colon = line.indexOf(':');
+        if (colon <= 0) return;
+        String key = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1).replace("\\\"", "\"").replace("\\\\", "\\");
+        }
+
+        switch (key) {
+            case "title":
+                if (!value.isEmpty()) note.title = value;
+                break;
+            case "favorite":
+                note.favorite = "true".equalsIgnoreCase(value);
+                break;
+            case "created":
+                note.createdAt = parseDate(value);
+                break;
+            case "updated":
+                note.updatedAt = parseDate(value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Nullable
+    private static Timestamp parseDate(@NonNull String value) {
+        try {
+            return new Timestamp(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US).parse(value));
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
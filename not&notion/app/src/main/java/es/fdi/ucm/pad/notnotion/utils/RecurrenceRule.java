@@ -0,0 +1,504 @@
+package es.fdi.ucm.pad.notnotion.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
+
+/**
+ * Regla de repetición de un evento en formato RRULE (RFC 5545), p. ej.
+ * "FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,WE" o "RRULE:FREQ=MONTHLY;BYDAY=-1FR;COUNT=6".
+ *
+ * Se admiten FREQ (DAILY, WEEKLY, MONTHLY, YEARLY), INTERVAL, COUNT, UNTIL,
+ * BYDAY (con ordinal en MONTHLY/YEARLY), BYMONTHDAY (también negativos),
+ * BYMONTH y WKST. El resto de partes se ignoran. También vale el nombre de la
+ * frecuencia suelto ("WEEKLY"), que es lo que guardaban las versiones antiguas.
+ *
+ * Las repeticiones se generan bajo demanda con occurrences(): se salta
+ * directamente al primer periodo de la ventana pedida (salvo con COUNT, que
+ * obliga a contar desde el principio) y nunca se materializa la serie entera.
+ * Las fechas se calculan con Calendar en la zona horaria local, así que la
+ * hora del evento se mantiene al cambiar de horario de verano.
+ *
+ * Es inmutable: se puede compartir entre hilos.
+ */
+public final class RecurrenceRule {
+
+    private static final String TAG = "RecurrenceRule";
+
+    public static final String DAILY = "DAILY";
+    public static final String WEEKLY = "WEEKLY";
+    public static final String MONTHLY = "MONTHLY";
+    public static final String YEARLY = "YEARLY";
+
+    private static final String[] DAY_CODES = {"SU", "MO", "TU", "WE", "TH", "FR", "SA"};
+
+    private static final int[] ALL_MONTHS = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+
+    // El calendario gregoriano se repite idéntico cada 400 años: si en un ciclo
+    // completo (por INTERVAL) no cae ninguna repetición, la regla no produce
+    // nada más (p. ej. BYMONTH=2;BYMONTHDAY=30). Un número fijo de periodos
+    // vacíos cortaría reglas válidas como DAILY;BYMONTH=2;BYMONTHDAY=29.
+    private static final int GREGORIAN_CYCLE_YEARS = 400;
+
+    private final String freq;
+    private final int interval;
+    private final int count;          // 0 = sin límite
+    private final long until;         // Long.MAX_VALUE = sin límite
+    private final int[] byDay;        // Calendar.SUNDAY..SATURDAY
+    private final int[] byDayOrdinal; // 0 = todos; n = n-ésimo; -n = n-ésimo empezando por el final
+    private final int[] byMonthDay;
+    private final int[] byMonth;      // 1..12
+    private final int weekStart;
+
+    private RecurrenceRule(String freq, int interval, int count, long until,
+                           int[] byDay, int[] byDayOrdinal, int[] byMonthDay, int[] byMonth, int weekStart) {
+        this.freq = freq;
+        this.interval = interval;
+        this.count = count;
+        this.until = until;
+        this.byDay = byDay;
+        this.byDayOrdinal = byDayOrdinal;
+        this.byMonthDay = byMonthDay;
+        this.byMonth = byMonth;
+        this.weekStart = weekStart;
+    }
+
+    /** La regla del texto, o null si no es una RRULE válida. */
+    @Nullable
+    public static RecurrenceRule parse(@Nullable String pattern) {
+        if (pattern == null) return null;
+        String text = pattern.trim();
+        if (text.isEmpty()) return null;
+        if (text.regionMatches(true, 0, "RRULE:", 0, 6)) text = text.substring(6);
+        if (!text.contains("=")) text = "FREQ=" + text;
+
+        String freq = null;
+        int interval = 1;
+        int count = 0;
+        long until = Long.MAX_VALUE;
+        List<int[]> days = new ArrayList<>();
+        int[] monthDays = new int[0];
+        int[] months = new int[0];
+        int weekStart = Calendar.MONDAY;
+
+        try {
+            for (String part : text.split(";")) {
+                int eq = part.indexOf('=');
+                if (eq <= 0) continue;
+                String key = part.substring(0, eq).trim().toUpperCase(Locale.ROOT);
+                String value = part.substring(eq + 1).trim().toUpperCase(Locale.ROOT);
+
+                switch (key) {
+                    case "FREQ":
+                        if (!value.equals(DAILY) && !value.equals(WEEKLY)
+                                && !value.equals(MONTHLY) && !value.equals(YEARLY)) {
+                            Log.w(TAG, "Frecuencia no soportada: " + value);
+                            return null;
+                        }
+                        freq = value;
+                        break;
+                    case "INTERVAL":
+                        interval = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "COUNT":
+                        count = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "UNTIL":
+                        until = parseUntil(value);
+                        break;
+                    case "BYDAY":
+                        for (String d : value.split(",")) days.add(parseDay(d.trim()));
+                        break;
+                    case "BYMONTHDAY":
+                        monthDays = parseInts(value);
+                        break;
+                    case "BYMONTH":
+                        months = parseInts(value);
+                        break;
+                    case "WKST":
+                        weekStart = dayOf(value);
+                        break;
+                    default:
+                        Log.w(TAG, "Parte de RRULE ignorada: " + key);
+                        break;
+                }
+            }
+        } catch (IllegalArgumentException | ParseException e) {
+            Log.w(TAG, "RRULE inválida: " + pattern, e);
+            return null;
+        }
+        if (freq == null) return null;
+
+        int[] byDay = new int[days.size()];
+        int[] byDayOrdinal = new int[days.size()];
+        for (int i = 0; i < days.size(); i++) {
+            byDay[i] = days.get(i)[0];
+            byDayOrdinal[i] = days.get(i)[1];
+        }
+        return new RecurrenceRule(freq, interval, count, until, byDay, byDayOrdinal, monthDays, months, weekStart);
+    }
+
+    /** RRULE mínima para una frecuencia ("FREQ=WEEKLY"). */
+    @NonNull
+    public static String of(@NonNull String freq) {
+        return "FREQ=" + freq;
+    }
+
+    @NonNull
+    public String getFreq() {
+        return freq;
+    }
+
+    /** true si la serie puede no acabar nunca (sin COUNT ni UNTIL). */
+    public boolean isUnbounded() {
+        return count == 0 && until == Long.MAX_VALUE;
+    }
+
+    /**
+     * Inicios de las repeticiones en [from, to), en orden, a partir de la
+     * primera (dtstart, que cuenta como una repetición más si encaja en la regla).
+     */
+    @NonNull
+    public Iterator<Long> occurrences(long dtstart, long from, long to) {
+        return new Occurrences(dtstart, from, to);
+    }
+
+    /** Todas las repeticiones de la ventana (acotada por definición). */
+    @NonNull
+    public List<Long> between(long dtstart, long from, long to) {
+        List<Long> list = new ArrayList<>();
+        Iterator<Long> it = occurrences(dtstart, from, to);
+        while (it.hasNext()) list.add(it.next());
+        return list;
+    }
+
+    // ---------------------------------------------------------------
+    // Iterador
+    // ---------------------------------------------------------------
+
+    private final class Occurrences implements Iterator<Long> {
+        private final long dtstart;
+        private final long from;
+        private final long to;
+        private final Calendar start;
+
+        private long period;
+        private final List<Long> buffer = new ArrayList<>();
+        private int pos = 0;
+        private int emitted = 0;   // repeticiones contadas desde dtstart (para COUNT)
+        private boolean done = false;
+        private Long next;
+
+        Occurrences(long dtstart, long from, long to) {
+            this.dtstart = dtstart;
+            this.from = from;
+            this.to = Math.min(to, until == Long.MAX_VALUE ? Long.MAX_VALUE : until + 1);
+            this.start = Calendar.getInstance();
+            this.start.setTimeInMillis(dtstart);
+            // Con COUNT hay que contar desde la primera; si no, se salta a la ventana
+            this.period = count > 0 ? 0 : firstPeriodNear(from);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) next = advance();
+            return next != null;
+        }
+
+        @Override
+        public Long next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Long result = next;
+            next = null;
+            return result;
+        }
+
+        @Nullable
+        private Long advance() {
+            int emptySinceYear = -1; // año del primer periodo vacío seguido
+            while (true) {
+                while (pos < buffer.size()) {
+                    long t = buffer.get(pos++);
+                    if (t < dtstart) continue;
+                    if (count > 0 && emitted >= count) {
+                        done = true;
+                        return null;
+                    }
+                    emitted++;
+                    if (t >= to) {
+                        done = true;
+                        return null;
+                    }
+                    if (t >= from) return t;
+                }
+
+                // Siguiente periodo
+                buffer.clear();
+                pos = 0;
+                Calendar periodStart = periodStart(start, period);
+                if (periodStart.getTimeInMillis() >= to && period > 0) {
+                    done = true;
+                    return null;
+                }
+                expand(start, periodStart, buffer);
+                Collections.sort(buffer);
+                period++;
+
+                if (!buffer.isEmpty()) {
+                    emptySinceYear = -1;
+                } else if (emptySinceYear < 0) {
+                    emptySinceYear = periodStart.get(Calendar.YEAR);
+                } else if (periodStart.get(Calendar.YEAR) - emptySinceYear
+                        > (long) GREGORIAN_CYCLE_YEARS * interval) {
+                    done = true;
+                    return null;
+                }
+            }
+        }
+
+        // Periodo (contando desde el de dtstart) que contiene el instante t, o uno antes
+        private long firstPeriodNear(long t) {
+            if (t <= dtstart) return 0;
+            Calendar target = Calendar.getInstance();
+            target.setTimeInMillis(t);
+            long units;
+            switch (freq) {
+                case DAILY:
+                    units = daysBetween(start, target);
+                    break;
+                case WEEKLY:
+                    units = daysBetween(weekOf(start), target) / 7;
+                    break;
+                case MONTHLY:
+                    units = (target.get(Calendar.YEAR) - start.get(Calendar.YEAR)) * 12L
+                            + target.get(Calendar.MONTH) - start.get(Calendar.MONTH);
+                    break;
+                default:
+                    units = target.get(Calendar.YEAR) - start.get(Calendar.YEAR);
+                    break;
+            }
+            return Math.max(0, units / interval - 1);
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Expansión de un periodo
+    // ---------------------------------------------------------------
+
+    // Inicio del periodo n: día, lunes de la semana, día 1 del mes o 1 de enero (a la hora de dtstart)
+    @NonNull
+    private Calendar periodStart(@NonNull Calendar start, long n) {
+        Calendar cal = (Calendar) start.clone();
+        long steps = n * interval;
+        switch (freq) {
+            case DAILY:
+                cal.add(Calendar.DAY_OF_MONTH, (int) steps);
+                break;
+            case WEEKLY:
+                cal = weekOf(start);
+                cal.add(Calendar.DAY_OF_MONTH, (int) (steps * 7));
+                break;
+            case MONTHLY:
+                cal.set(Calendar.DAY_OF_MONTH, 1);
+                cal.add(Calendar.MONTH, (int) steps);
+                break;
+            default:
+                cal.set(Calendar.DAY_OF_MONTH, 1);
+                cal.set(Calendar.MONTH, Calendar.JANUARY);
+                cal.add(Calendar.YEAR, (int) steps);
+                break;
+        }
+        return cal;
+    }
+
+    private void expand(@NonNull Calendar start, @NonNull Calendar period, @NonNull List<Long> out) {
+        switch (freq) {
+            case DAILY:
+                if (matchesFilters(period, true, true)) out.add(period.getTimeInMillis());
+                break;
+
+            case WEEKLY: {
+                int[] days = byDay.length > 0 ? byDay : new int[]{start.get(Calendar.DAY_OF_WEEK)};
+                for (int i = 0; i < 7; i++) {
+                    Calendar day = (Calendar) period.clone();
+                    day.add(Calendar.DAY_OF_MONTH, i);
+                    if (contains(days, day.get(Calendar.DAY_OF_WEEK)) && matchesFilters(day, false, false)) {
+                        out.add(day.getTimeInMillis());
+                    }
+                }
+                break;
+            }
+
+            case MONTHLY:
+                if (byMonth.length > 0 && !contains(byMonth, period.get(Calendar.MONTH) + 1)) break;
+                expandMonth(start, period, out);
+                break;
+
+            default: {
+                if (byMonth.length == 0 && byDay.length > 0 && byMonthDay.length == 0) {
+                    // BYDAY sin BYMONTH: los días de la semana de todo el año
+                    expandWeekdays(period, 12, out);
+                    break;
+                }
+                // BYMONTHDAY sin BYMONTH: esos días de todos los meses (RFC 5545)
+                int[] months = byMonth.length > 0 ? byMonth
+                        : byMonthDay.length > 0 ? ALL_MONTHS
+                        : new int[]{start.get(Calendar.MONTH) + 1};
+                for (int m : months) {
+                    Calendar month = (Calendar) period.clone();
+                    month.set(Calendar.MONTH, m - 1);
+                    expandMonth(start, month, out);
+                }
+                break;
+            }
+        }
+    }
+
+    // Días de un mes según BYMONTHDAY / BYDAY, o el mismo día que dtstart
+    private void expandMonth(@NonNull Calendar start, @NonNull Calendar month, @NonNull List<Long> out) {
+        int length = month.getActualMaximum(Calendar.DAY_OF_MONTH);
+
+        if (byMonthDay.length > 0) {
+            for (int d : byMonthDay) {
+                int day = d > 0 ? d : length + d + 1;
+                if (day < 1 || day > length) continue;
+                Calendar cal = (Calendar) month.clone();
+                cal.set(Calendar.DAY_OF_MONTH, day);
+                // BYDAY junto a BYMONTHDAY sólo filtra
+                if (byDay.length == 0 || contains(byDay, cal.get(Calendar.DAY_OF_WEEK))) {
+                    out.add(cal.getTimeInMillis());
+                }
+            }
+            return;
+        }
+
+        if (byDay.length > 0) {
+            expandWeekdays(month, 1, out);
+            return;
+        }
+
+        // Sin BYxxx: el día del mes de dtstart (los meses que no lo tienen se saltan)
+        int day = start.get(Calendar.DAY_OF_MONTH);
+        if (day > length) return;
+        Calendar cal = (Calendar) month.clone();
+        cal.set(Calendar.DAY_OF_MONTH, day);
+        out.add(cal.getTimeInMillis());
+    }
+
+    // BYDAY dentro de un tramo de months meses empezando en first (ordinales relativos al tramo)
+    private void expandWeekdays(@NonNull Calendar first, int months, @NonNull List<Long> out) {
+        Calendar end = (Calendar) first.clone();
+        end.add(Calendar.MONTH, months);
+
+        for (int i = 0; i < byDay.length; i++) {
+            List<Long> matches = new ArrayList<>();
+            Calendar cal = (Calendar) first.clone();
+            cal.set(Calendar.DAY_OF_MONTH, 1);
+            while (cal.before(end)) {
+                if (cal.get(Calendar.DAY_OF_WEEK) == byDay[i]) matches.add(cal.getTimeInMillis());
+                cal.add(Calendar.DAY_OF_MONTH, 1);
+            }
+
+            int ordinal = byDayOrdinal[i];
+            if (ordinal == 0) {
+                out.addAll(matches);
+            } else {
+                int index = ordinal > 0 ? ordinal - 1 : matches.size() + ordinal;
+                if (index >= 0 && index < matches.size()) out.add(matches.get(index));
+            }
+        }
+    }
+
+    // Filtros BYMONTH / BYMONTHDAY / BYDAY que limitan (no expanden) en DAILY y WEEKLY
+    private boolean matchesFilters(@NonNull Calendar day, boolean checkMonthDay, boolean checkDay) {
+        if (byMonth.length > 0 && !contains(byMonth, day.get(Calendar.MONTH) + 1)) return false;
+        if (checkMonthDay && byMonthDay.length > 0) {
+            int length = day.getActualMaximum(Calendar.DAY_OF_MONTH);
+            int dom = day.get(Calendar.DAY_OF_MONTH);
+            boolean found = false;
+            for (int d : byMonthDay) {
+                if ((d > 0 ? d : length + d + 1) == dom) found = true;
+            }
+            if (!found) return false;
+        }
+        return !checkDay || byDay.length == 0 || contains(byDay, day.get(Calendar.DAY_OF_WEEK));
+    }
+
+    // ---------------------------------------------------------------
+
+    // Primer día (WKST) de la semana de cal, a la hora de cal
+    @NonNull
+    private Calendar weekOf(@NonNull Calendar cal) {
+        Calendar week = (Calendar) cal.clone();
+        int diff = (week.get(Calendar.DAY_OF_WEEK) - weekStart + 7) % 7;
+        week.add(Calendar.DAY_OF_MONTH, -diff);
+        return week;
+    }
+
+    // Días naturales entre dos fechas (sin que el cambio de hora lo descuadre)
+    private static long daysBetween(@NonNull Calendar a, @NonNull Calendar b) {
+        long aDays = utcDay(a);
+        long bDays = utcDay(b);
+        return bDays - aDays;
+    }
+
+    private static long utcDay(@NonNull Calendar cal) {
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.clear();
+        utc.set(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH), cal.get(Calendar.DAY_OF_MONTH));
+        return utc.getTimeInMillis() / 86_400_000L;
+    }
+
+    private static boolean contains(@NonNull int[] values, int value) {
+        for (int v : values) if (v == value) return true;
+        return false;
+    }
+
+    @NonNull
+    private static int[] parseDay(@NonNull String text) {
+        if (text.length() < 2) throw new IllegalArgumentException("BYDAY: " + text);
+        String code = text.substring(text.length() - 2);
+        String ordinal = text.substring(0, text.length() - 2);
+        int n = ordinal.isEmpty() || ordinal.equals("+") ? 0 : Integer.parseInt(ordinal.replace("+", ""));
+        return new int[]{dayOf(code), n};
+    }
+
+    private static int dayOf(@NonNull String code) {
+        int index = Arrays.asList(DAY_CODES).indexOf(code);
+        if (index < 0) throw new IllegalArgumentException("Día inválido: " + code);
+        return index + 1; // Calendar.SUNDAY = 1
+    }
+
+    @NonNull
+    private static int[] parseInts(@NonNull String value) {
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) result[i] = Integer.parseInt(parts[i].trim());
+        return result;
+    }
+
+    // UNTIL en formato fecha (yyyyMMdd, fin de ese día local) o fecha-hora (UTC con Z, o local)
+    private static long parseUntil(@NonNull String value) throws ParseException {
+        if (value.length() == 8) {
+            SimpleDateFormat f = new SimpleDateFormat("yyyyMMdd", Locale.US);
+            return f.parse(value).getTime() + 86_400_000L - 1;
+        }
+        boolean utc = value.endsWith("Z");
+        SimpleDateFormat f = new SimpleDateFormat("yyyyMMdd'T'HHmmss", Locale.US);
+        if (utc) f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return f.parse(utc ? value.substring(0, value.length() - 1) : value).getTime();
+    }
+}
@@ -0,0 +1,149 @@
+package es.fdi.ucm.pad.notnotion.data.search;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+
+    private static SearchIndex.Doc doc(String noteId, String folderId, String title, String text) {
+        return new SearchIndex.Doc(noteId, folderId, title, text, noteId.hashCode());
+    }
+
+    private static List<String> ids(List<SearchIndex.Hit> hits) {
+        List<String> ids = new ArrayList<>();
+        for (SearchIndex.Hit hit : hits) ids.add(hit.noteId);
+        return ids;
+    }
+
+    private static SearchIndex sample() {
+        return SearchIndex.build(Arrays.asList(
+                doc("a", "f1", "Reunión semanal", "presupuesto del viaje"),
+                doc("b", "f1", "Compras", "leche y huevos para la reunión"),
+                doc("c", "f2", "Viajes", "billetes de tren")));
+    }
+
+    @Test
+    public void build_findsWordsWithoutAccentsAndByPrefix() {
+        SearchIndex index = sample();
+
+        assertEquals(3, index.size());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(ids(index.search("reunion", 10))));
+        assertEquals(Collections.singletonList("a"), ids(index.search("presu", 10)));
+    }
+
+    @Test
+    public void search_requiresAllTermsAndRanksTitleFirst() {
+        SearchIndex index = sample();
+
+        assertEquals(Arrays.asList("a", "b"), ids(index.search("reunión", 10)));
+        assertEquals(Collections.singletonList("b"), ids(index.search("reunion leche", 10)));
+        assertTrue(index.search("reunion billetes", 10).isEmpty());
+    }
+
+    @Test
+    public void search_skipsHiddenNotesAndFolders() {
+        SearchIndex index = sample();
+
+        assertEquals(Collections.singletonList("b"),
+                ids(index.search("reunion", 10, Collections.singleton("a"), null)));
+        assertTrue(index.search("billetes", 10, null, Collections.singleton("f2")).isEmpty());
+    }
+
+    @Test
+    public void merge_renumbersDeltaAfterKeptBaseDocuments() {
+        SearchIndex base = sample();
+        SearchIndex delta = SearchIndex.build(Collections.singletonList(
+                doc("b", "f1", "Compras", "pan integral")));
+
+        SearchIndex merged = SearchIndex.merge(base, Collections.singleton("b"),
+                Collections.<String>emptySet(), delta);
+
+        assertEquals(3, merged.size());
+        assertEquals(Collections.singletonList("b"), ids(merged.search("integral", 10)));
+        assertTrue(merged.search("leche", 10).isEmpty());
+        assertEquals(Collections.singletonList("c"), ids(merged.search("billetes", 10)));
+        assertEquals(Collections.singletonList("a"), ids(merged.search("reunion", 10)));
+    }
+
+    @Test
+    public void merge_dropsHiddenFoldersAndScoresLikeAFreshBuild() {
+        SearchIndex base = sample();
+        SearchIndex.Doc d = doc("d", "f1", "Viaje a Roma", "reunión con el guía");
+        SearchIndex delta = SearchIndex.build(Collections.singletonList(d));
+
+        SearchIndex merged = SearchIndex.merge(base, Collections.<String>emptySet(),
+                Collections.singleton("f2"), delta);
+        SearchIndex fresh = SearchIndex.build(Arrays.asList(
+                doc("a", "f1", "Reunión semanal", "presupuesto del viaje"),
+                doc("b", "f1", "Compras", "leche y huevos para la reunión"),
+                d));
+
+        List<SearchIndex.Hit> expected = fresh.search("reunion viaje", 10);
+        List<SearchIndex.Hit> actual = merged.search("reunion viaje", 10);
+        assertEquals(ids(expected), ids(actual));
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).score, actual.get(i).score, 1e-6f);
+        }
+        assertFalse(merged.versionsByFolder().containsKey("f2"));
+    }
+
+    // delta puntuado con las estadísticas de base debe dar lo mismo que si ya estuviera fusionado
+    @Test
+    public void search_withCorpusScoresLikeTheMergedIndex() {
+        SearchIndex base = sample();
+        SearchIndex delta = SearchIndex.build(Collections.singletonList(
+                doc("d", "f1", "Notas", "reunión de presupuesto")));
+        SearchIndex merged = SearchIndex.merge(base, Collections.<String>emptySet(),
+                Collections.<String>emptySet(), delta);
+
+        float expected = 0;
+        for (SearchIndex.Hit hit : merged.search("presupuesto", 10)) {
+            if (hit.noteId.equals("d")) expected = hit.score;
+        }
+        List<SearchIndex.Hit> hits = delta.search("presupuesto", 10, null, null, base);
+
+        assertEquals(1, hits.size());
+        assertEquals(expected, hits.get(0).score, 1e-6f);
+        assertNotEquals(expected, delta.search("presupuesto", 10).get(0).score, 1e-6f);
+    }
+
+    @Test
+    public void writeTo_readFrom_roundTrip() throws Exception {
+        SearchIndex index = sample();
+        File file = File.createTempFile("search", ".idx");
+        try {
+            index.writeTo(file);
+            SearchIndex read = SearchIndex.readFrom(file);
+
+            assertNotNull(read);
+            assertEquals(index.size(), read.size());
+            List<SearchIndex.Hit> expected = index.search("reunion", 10);
+            List<SearchIndex.Hit> actual = read.search("reunion", 10);
+            assertEquals(ids(expected), ids(actual));
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).title, actual.get(i).title);
+                assertEquals(expected.get(i).score, actual.get(i).score, 0f);
+            }
+            Map<String, Map<String, Long>> versions = read.versionsByFolder();
+            assertEquals(Long.valueOf("c".hashCode()), versions.get("f2").get("c"));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void readFrom_missingFileIsNull() throws Exception {
+        File file = new File(System.getProperty("java.io.tmpdir"), "no-existe-" + System.nanoTime() + ".idx");
+
+        assertNull(SearchIndex.readFrom(file));
+    }
+}
@@ -0,0 +1,72 @@
+package es.fdi.ucm.pad.notnotion.data.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TextAnalyzerTest {
+
+    private static String term(String word) {
+        List<String> terms = TextAnalyzer.terms(word);
+        assertEquals(word, 1, terms.size());
+        return terms.get(0);
+    }
+
+    @Test
+    public void terms_foldAccentsAndCase() {
+        assertEquals("cancion", term("CANCIÓN"));
+        assertEquals("cancion", term("canción")); // ya descompuesta
+        assertEquals(term("Pingüino"), term("pinguino"));
+    }
+
+    @Test
+    public void terms_singularAndPluralShareTheStem() {
+        assertEquals(term("canción"), term("canciones"));
+        assertEquals(term("nota"), term("notas"));
+        assertEquals(term("niño"), term("niños"));
+        assertEquals("story", term("stories"));
+        assertEquals(term("story"), term("stories"));
+        assertEquals(term("house"), term("houses"));
+    }
+
+    @Test
+    public void terms_keepWordsEndingInSsOrUs() {
+        assertEquals("class", term("class"));
+        assertEquals("virus", term("virus"));
+    }
+
+    @Test
+    public void terms_dropStopWordsAndShortWords() {
+        assertEquals(Arrays.asList("reunion", "team"), TextAnalyzer.terms("La reunión de the team"));
+        assertEquals(Collections.singletonList("yo"), TextAnalyzer.terms("a, b y yo"));
+        assertTrue(TextAnalyzer.terms(null).isEmpty());
+        assertTrue(TextAnalyzer.terms("").isEmpty());
+    }
+
+    @Test
+    public void terms_cutVeryLongWords() {
+        char[] word = new char[60];
+        Arrays.fill(word, 'x');
+
+        assertEquals(TextAnalyzer.MAX_TERM_LENGTH, term(new String(word)).length());
+    }
+
+    @Test
+    public void normalize_keepsStopWordsWithSingleSpaces() {
+        assertEquals("apunt de fisic", TextAnalyzer.normalize("  Apuntes   de Física "));
+        assertEquals(TextAnalyzer.normalize("Canciones del verano"), TextAnalyzer.normalize("canción del verano"));
+        assertEquals("", TextAnalyzer.normalize(" ... "));
+    }
+
+    // El filtro por nombre compara claves: la de la consulta debe ser un trozo de la del nombre
+    @Test
+    public void normalize_queryIsSubstringOfName() {
+        String name = TextAnalyzer.normalize("Apuntes de Física cuántica");
+
+        assertTrue(name.contains(TextAnalyzer.normalize("apuntes de fisica")));
+    }
+}
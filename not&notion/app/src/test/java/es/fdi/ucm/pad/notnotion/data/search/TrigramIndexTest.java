@@ -0,0 +1,73 @@
+package es.fdi.ucm.pad.notnotion.data.search;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrigramIndexTest {
+
+    @Test
+    public void substringDistance_exactSubstringIsZero() {
+        assertEquals(0, TrigramIndex.substringDistance("reun", "acta de reunion", 1));
+    }
+
+    @Test
+    public void substringDistance_countsTranspositionAsOneEdit() {
+        assertEquals(1, TrigramIndex.substringDistance("reuinon", "reunion", 1));
+        assertEquals(1, TrigramIndex.substringDistance("reunoin", "acta reunion", 1));
+    }
+
+    @Test
+    public void substringDistance_isBoundedByMaxEdits() {
+        assertEquals(2, TrigramIndex.substringDistance("xxxxxx", "reunion", 1));
+    }
+
+    @Test
+    public void maxEditsFor_growsWithQueryLength() {
+        assertEquals(0, TrigramIndex.maxEditsFor("abc"));
+        assertEquals(1, TrigramIndex.maxEditsFor("reunion"));
+        assertEquals(2, TrigramIndex.maxEditsFor("presupuestos"));
+    }
+
+    // "reuinon" sólo comparte "reu" con "reunion": el filtro de trigramas no debe descartarla
+    @Test
+    public void search_findsTranspositionInTheMiddleOfAWord() {
+        TrigramIndex index = new TrigramIndex(new String[]{"compras", "reunion", "viajes"});
+
+        List<TrigramIndex.Match> matches = index.search("reuinon", 1, 10);
+
+        assertEquals(1, matches.size());
+        assertEquals(1, matches.get(0).position);
+        assertEquals(1, matches.get(0).distance);
+    }
+
+    @Test
+    public void search_findsTwoTranspositionsInLongQuery() {
+        TrigramIndex index = new TrigramIndex(new String[]{"presupuesto anual", "notas sueltas"});
+
+        List<TrigramIndex.Match> matches = index.search("perspuuesto", 2, 10);
+
+        assertEquals(1, matches.size());
+        assertEquals(0, matches.get(0).position);
+    }
+
+    @Test
+    public void search_sortsByDistanceAndRespectsLimit() {
+        TrigramIndex index = new TrigramIndex(new String[]{"reunoin", "reunion", "reunion semanal"});
+
+        List<TrigramIndex.Match> matches = index.search("reunion", 1, 2);
+
+        assertEquals(2, matches.size());
+        assertEquals(0, matches.get(0).distance);
+        assertEquals(0, matches.get(1).distance);
+    }
+
+    @Test
+    public void search_ignoresShortQueries() {
+        TrigramIndex index = new TrigramIndex(new String[]{"ab"});
+
+        assertTrue(index.search("ab", 0, 10).isEmpty());
+    }
+}
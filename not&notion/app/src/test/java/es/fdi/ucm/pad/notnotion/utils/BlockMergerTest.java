@@ -0,0 +1,115 @@
+package es.fdi.ucm.pad.notnotion.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import es.fdi.ucm.pad.notnotion.data.model.ContentBlock;
+import es.fdi.ucm.pad.notnotion.data.model.Note;
+
+import static org.junit.Assert.*;
+
+public class BlockMergerTest {
+
+    private static ContentBlock text(String content) {
+        return ContentBlock.createTextBlock(content, ContentBlock.STYLE_NORMAL, 16);
+    }
+
+    private static Note note(String title, ContentBlock... blocks) {
+        return new Note("n1", title, "f1", null, null, false, null,
+                new ArrayList<>(Arrays.asList(blocks)));
+    }
+
+    @Test
+    public void onlyRemoteChanged_takesRemote() {
+        Note base = note("Notas", text("uno"), text("dos"));
+        Note local = note("Notas", text("uno"), text("dos"));
+        Note remote = note("Notas", text("uno"), text("dos cambiado"));
+
+        BlockMerger.Result result = BlockMerger.merge(base, local, remote);
+
+        assertEquals(Arrays.asList(text("uno"), text("dos cambiado")), result.blocks);
+        assertEquals(0, result.conflicts);
+    }
+
+    @Test
+    public void differentBlocksChanged_keepsBothEdits() {
+        Note base = note("Notas", text("uno"), text("dos"), text("tres"));
+        Note local = note("Notas", text("uno local"), text("dos"), text("tres"));
+        Note remote = note("Notas", text("uno"), text("dos"), text("tres remoto"));
+
+        BlockMerger.Result result = BlockMerger.merge(base, local, remote);
+
+        assertEquals(Arrays.asList(text("uno local"), text("dos"), text("tres remoto")), result.blocks);
+        assertEquals(0, result.conflicts);
+    }
+
+    // El editor guarda todo el texto en un bloque: dos ediciones a la vez no deben duplicarlo
+    @Test
+    public void singleBlockConcurrentEdit_mergesLinesWithoutDuplicating() {
+        Note base = note("Notas", text("compra\nleche\nhuevos\npan"));
+        Note local = note("Notas", text("compra\nleche desnatada\nhuevos\npan"));
+        Note remote = note("Notas", text("compra\nleche\nhuevos\npan integral"));
+
+        BlockMerger.Result result = BlockMerger.merge(base, local, remote);
+
+        assertEquals(1, result.blocks.size());
+        assertEquals("compra\nleche desnatada\nhuevos\npan integral", result.blocks.get(0).getTextContent());
+        assertEquals(0, result.conflicts);
+        assertTrue(result.merged);
+    }
+
+    @Test
+    public void singleBlockSameLineEdited_keepsBothLinesAndCountsConflict() {
+        Note base = note("Notas", text("titulo\nlinea\nfin"));
+        Note local = note("Notas", text("titulo\nlinea local\nfin"));
+        Note remote = note("Notas", text("titulo\nlinea remota\nfin"));
+
+        BlockMerger.Result result = BlockMerger.merge(base, local, remote);
+
+        assertEquals(1, result.blocks.size());
+        assertEquals("titulo\nlinea local\nlinea remota\nfin", result.blocks.get(0).getTextContent());
+        assertEquals(1, result.conflicts);
+    }
+
+    @Test
+    public void singleBlockLinesAddedOnBothSides_keepsAll() {
+        Note base = note("Notas", text("a\nb"));
+        Note local = note("Notas", text("a\nb\nc"));
+        Note remote = note("Notas", text("z\na\nb"));
+
+        BlockMerger.Result result = BlockMerger.merge(base, local, remote);
+
+        assertEquals("z\na\nb\nc", result.blocks.get(0).getTextContent());
+        assertEquals(0, result.conflicts);
+    }
+
+    @Test
+    public void titleChangedOnBothSides_localWinsWithConflict() {
+        Note base = note("Notas", text("uno"));
+        Note local = note("Local", text("uno"));
+        Note remote = note("Remoto", text("uno"));
+
+        BlockMerger.Result result = BlockMerger.merge(base, local, remote);
+
+        assertEquals("Local", result.title);
+        assertEquals(1, result.conflicts);
+    }
+
+    @Test
+    public void imageBlockConflict_keepsBothBlocks() {
+        ContentBlock image = ContentBlock.createImageBlock("blob:1");
+        Note base = note("Notas", image);
+        Note local = note("Notas", ContentBlock.createImageBlock("blob:2"));
+        Note remote = note("Notas", ContentBlock.createImageBlock("blob:3"));
+
+        BlockMerger.Result result = BlockMerger.merge(base, local, remote);
+
+        List<ContentBlock> expected = Arrays.asList(
+                ContentBlock.createImageBlock("blob:2"), ContentBlock.createImageBlock("blob:3"));
+        assertEquals(expected, result.blocks);
+        assertEquals(1, result.conflicts);
+    }
+}
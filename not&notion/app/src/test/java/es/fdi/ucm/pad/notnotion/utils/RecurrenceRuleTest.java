@@ -0,0 +1,163 @@
+package es.fdi.ucm.pad.notnotion.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class RecurrenceRuleTest {
+
+    private static long at(int year, int month, int day, int hour) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month - 1, day, hour, 0);
+        return cal.getTimeInMillis();
+    }
+
+    private static long day(int year, int month, int day) {
+        return at(year, month, day, 10);
+    }
+
+    private static List<Long> days(long... times) {
+        List<Long> list = new ArrayList<>();
+        for (long t : times) list.add(t);
+        return list;
+    }
+
+    private static List<Long> between(String rule, long dtstart, long from, long to) {
+        RecurrenceRule parsed = RecurrenceRule.parse(rule);
+        assertNotNull(rule, parsed);
+        return parsed.between(dtstart, from, to);
+    }
+
+    @Test
+    public void parse_acceptsPrefixAndBareFrequency() {
+        assertEquals(RecurrenceRule.WEEKLY, RecurrenceRule.parse("WEEKLY").getFreq());
+        assertEquals(RecurrenceRule.DAILY, RecurrenceRule.parse("RRULE:FREQ=DAILY;COUNT=3").getFreq());
+        assertTrue(RecurrenceRule.parse("FREQ=MONTHLY").isUnbounded());
+        assertFalse(RecurrenceRule.parse("FREQ=MONTHLY;COUNT=2").isUnbounded());
+        assertNull(RecurrenceRule.parse(null));
+        assertNull(RecurrenceRule.parse("  "));
+        assertNull(RecurrenceRule.parse("INTERVAL=2"));
+    }
+
+    @Test
+    public void weekly_byDayWithInterval() {
+        long start = day(2024, 1, 1); // lunes
+
+        List<Long> result = between("FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,WE",
+                start, start, day(2024, 2, 1));
+
+        assertEquals(days(day(2024, 1, 1), day(2024, 1, 3), day(2024, 1, 15),
+                day(2024, 1, 17), day(2024, 1, 29), day(2024, 1, 31)), result);
+    }
+
+    @Test
+    public void monthly_lastFridayStopsAtCount() {
+        long start = day(2024, 1, 26);
+
+        List<Long> result = between("FREQ=MONTHLY;BYDAY=-1FR;COUNT=3",
+                start, start, day(2025, 1, 1));
+
+        assertEquals(days(day(2024, 1, 26), day(2024, 2, 23), day(2024, 3, 29)), result);
+    }
+
+    @Test
+    public void monthly_skipsMonthsWithoutThatDay() {
+        long start = day(2024, 1, 31);
+
+        List<Long> result = between("FREQ=MONTHLY", start, start, day(2024, 6, 1));
+
+        assertEquals(days(day(2024, 1, 31), day(2024, 3, 31), day(2024, 5, 31)), result);
+    }
+
+    @Test
+    public void monthly_negativeMonthDayIsCountedFromTheEnd() {
+        long start = day(2024, 1, 31);
+
+        List<Long> result = between("FREQ=MONTHLY;BYMONTHDAY=-1", start, start, day(2024, 4, 1));
+
+        assertEquals(days(day(2024, 1, 31), day(2024, 2, 29), day(2024, 3, 31)), result);
+    }
+
+    // Sin BYMONTH, BYMONTHDAY se aplica a todos los meses del año
+    @Test
+    public void yearly_byMonthDayWithoutByMonthExpandsEveryMonth() {
+        long start = day(2024, 1, 15);
+
+        List<Long> result = between("FREQ=YEARLY;BYMONTHDAY=15", start, start, day(2025, 1, 1));
+
+        assertEquals(12, result.size());
+        assertEquals(Long.valueOf(day(2024, 6, 15)), result.get(5));
+        assertEquals(Long.valueOf(day(2024, 12, 15)), result.get(11));
+    }
+
+    @Test
+    public void yearly_byMonthDayAndByMonthOnlyThoseMonths() {
+        long start = day(2024, 3, 1);
+
+        List<Long> result = between("FREQ=YEARLY;BYMONTH=3,9;BYMONTHDAY=1", start, start, day(2026, 1, 1));
+
+        assertEquals(days(day(2024, 3, 1), day(2024, 9, 1), day(2025, 3, 1), day(2025, 9, 1)), result);
+    }
+
+    // Entre dos 29 de febrero pasan más de 1000 días vacíos: la regla no debe darse por agotada
+    @Test
+    public void daily_leapDayKeepsGoingAcrossYears() {
+        long start = day(2024, 2, 29);
+
+        List<Long> counted = between("FREQ=DAILY;BYMONTH=2;BYMONTHDAY=29;COUNT=2",
+                start, start, day(2040, 1, 1));
+        List<Long> window = between("FREQ=DAILY;BYMONTH=2;BYMONTHDAY=29",
+                start, day(2024, 3, 1), day(2033, 1, 1));
+
+        assertEquals(days(day(2024, 2, 29), day(2028, 2, 29)), counted);
+        assertEquals(days(day(2028, 2, 29), day(2032, 2, 29)), window);
+    }
+
+    @Test
+    public void impossibleRule_endsWithoutOccurrences() {
+        long start = day(2024, 1, 1);
+
+        assertTrue(between("FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30", start, start, Long.MAX_VALUE).isEmpty());
+        assertTrue(between("FREQ=MONTHLY;BYMONTH=4;BYMONTHDAY=31", start, start, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void until_includesItsWholeDay() {
+        long start = day(2024, 1, 1);
+
+        List<Long> result = between("FREQ=DAILY;UNTIL=20240103", start, start, day(2024, 2, 1));
+
+        assertEquals(days(day(2024, 1, 1), day(2024, 1, 2), day(2024, 1, 3)), result);
+    }
+
+    @Test
+    public void windowFarFromStartSkipsAhead() {
+        long start = day(2000, 1, 3); // lunes
+
+        List<Long> result = between("FREQ=WEEKLY", start, day(2024, 1, 1), day(2024, 1, 15));
+
+        assertEquals(days(day(2024, 1, 1), day(2024, 1, 8)), result);
+    }
+
+    @Test
+    public void weekly_keepsLocalHourAcrossDaylightSaving() {
+        TimeZone previous = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Madrid"));
+        try {
+            long start = at(2024, 3, 24, 10); // el 31 de marzo cambia la hora
+
+            List<Long> result = between("FREQ=WEEKLY", start, start, at(2024, 4, 8, 0));
+
+            assertEquals(Arrays.asList(at(2024, 3, 24, 10), at(2024, 3, 31, 10), at(2024, 4, 7, 10)), result);
+        } finally {
+            TimeZone.setDefault(previous);
+        }
+    }
+}